@@ -8,9 +8,14 @@ import hr.fer.zemris.math.ComplexPolynomial;
 import hr.fer.zemris.math.ComplexRootedPolynomial;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Queue;
 import java.util.Scanner;
 import java.util.concurrent.*;
+import java.util.function.BooleanSupplier;
 
 /**
  * A simple demonstration program for viewing Newton-Raphson
@@ -20,10 +25,18 @@ import java.util.concurrent.*;
  */
 public class Newton {
 
+    /**
+     * The fully qualified name of the kernel which calculates several points
+     * at once with the Vector API.
+     */
+    private static final String VECTOR_KERNEL = "hr.fer.zemris.java.fractals.VectorNewtonKernel";
+
     /**
      * The main method.
      *
-     * @param args command line arguments; not used in this program
+     * @param args command line arguments; if the argument "--vector" is given,
+     *             the points are calculated with the Vector API (which requires
+     *             the jdk.incubator.vector module to be added to the JVM)
      */
     public static void main(String[] args) {
         System.out.println("Welcome to Newton-Raphson iteration-based " +
@@ -52,12 +65,36 @@ public class Newton {
             }
             System.out.print("Root " + index++ + ": ");
         }
-        FractalViewer.show(new NewtonFractalProducer(new ComplexRootedPolynomial(
-            roots.toArray(new Complex[0])
-        )));
+        ComplexRootedPolynomial polynomial = new ComplexRootedPolynomial(roots.toArray(new Complex[0]));
+        NewtonKernel kernel = Arrays.asList(args).contains("--vector")
+            ? createVectorKernel(polynomial)
+            : new NewtonKernel(polynomial);
+
+        FractalViewer.show(new NewtonFractalProducer(polynomial, kernel));
         sc.close();
     }
 
+    /**
+     * Creates a kernel which calculates several points at once with the
+     * Vector API. The kernel is loaded by its name, so this class does not
+     * depend on the jdk.incubator.vector module; if the module is not
+     * available, the scalar kernel is returned instead.
+     *
+     * @param polynomial the polynomial used for calculation
+     * @return the vector kernel if it is available; the scalar kernel otherwise
+     */
+    public static NewtonKernel createVectorKernel(ComplexRootedPolynomial polynomial) {
+        try {
+            return (NewtonKernel) Class.forName(VECTOR_KERNEL)
+                .getConstructor(ComplexRootedPolynomial.class)
+                .newInstance(polynomial);
+        } catch (ReflectiveOperationException | LinkageError ex) {
+            System.out.println("The Vector API is not available (run with --add-modules " +
+                "jdk.incubator.vector); the points will be calculated one by one.");
+            return new NewtonKernel(polynomial);
+        }
+    }
+
     /**
      * Implements the job which will be performed by threads.
      *
@@ -105,6 +142,22 @@ public class Newton {
          */
         int yMax;
 
+        /**
+         * Minimal value for x.
+         */
+        int xMin;
+
+        /**
+         * Maximal value for x.
+         */
+        int xMax;
+
+        /**
+         * Tells whether the job has been cancelled; it is checked
+         * before each row is calculated.
+         */
+        BooleanSupplier cancelled;
+
         /**
          * Number of iterations.
          */
@@ -126,14 +179,9 @@ public class Newton {
         double rootThreshold;
 
         /**
-         * The rooted, explicit, type of polynomial used for calculation.
-         */
-        ComplexRootedPolynomial pol1;
-
-        /**
-         * The (implicit type of) polynomial used for calculation.
+         * The kernel which calculates the points.
          */
-        ComplexPolynomial pol2;
+        NewtonKernel kernel;
 
         /**
          * The constructor.
@@ -153,6 +201,33 @@ public class Newton {
         public CalculationJob(double reMin, double reMax, double imMin,
                               double imMax, int width, int height, int yMin, int yMax,
                               int m, short[] data, ComplexRootedPolynomial polynomial) {
+            this(reMin, reMax, imMin, imMax, width, height, 0, width - 1, yMin, yMax,
+                m, data, new NewtonKernel(polynomial), () -> false);
+        }
+
+        /**
+         * The constructor of a job which calculates a rectangular tile
+         * of the screen and which can be cancelled.
+         *
+         * @param reMin      minimal value for the real component
+         * @param reMax      maximal value for the real component
+         * @param imMin      minimal value for the imaginary component
+         * @param imMax      maximal value for the imaginary component
+         * @param width      width of the screen
+         * @param height     height of the screen
+         * @param xMin       minimal value for x
+         * @param xMax       maximal value for x
+         * @param yMin       minimal value for y
+         * @param yMax       maximal value for y
+         * @param m          number of iterations
+         * @param data       the array to store the result in
+         * @param kernel     the kernel which calculates the points
+         * @param cancelled  tells whether the job has been cancelled
+         */
+        public CalculationJob(double reMin, double reMax, double imMin,
+                              double imMax, int width, int height, int xMin, int xMax,
+                              int yMin, int yMax, int m, short[] data,
+                              NewtonKernel kernel, BooleanSupplier cancelled) {
             this.reMin = reMin;
             this.reMax = reMax;
             this.imMin = imMin;
@@ -161,63 +236,183 @@ public class Newton {
             this.height = height;
             this.yMin = yMin;
             this.yMax = yMax;
+            this.xMin = xMin;
+            this.xMax = xMax;
+            this.cancelled = cancelled;
             this.m = m;
             this.data = data;
-            this.pol1 = polynomial;
-            this.pol2 = pol1.toComplexPolynomial();
+            this.kernel = kernel;
             this.convergenceThreshold = 0.001;
             this.rootThreshold = 0.002;
         }
 
         @Override
         public Void call() {
+            // the real parts are the same for each of the rows
+            double[] re = new double[xMax - xMin + 1];
+            for (int x = xMin; x <= xMax; x++) {
+                re[x - xMin] = x / (double) width * (reMax - reMin) + reMin;
+            }
+
             for (int y = yMin; y <= yMax; y++) {
-                for (int x = 0; x < width; x++) {
-                    Complex zn = mapToComplexPlain(x, y, reMin, reMax, imMin, imMax);
-                    Complex zn1;
-                    double module;
-                    int i = 0;
-                    do {
-                        Complex numerator = pol1.apply(zn);
-                        Complex denominator = pol2.derive().apply(zn);
-                        Complex fraction = numerator.divide(denominator);
-                        zn1 = zn.sub(fraction);
-                        module = zn1.sub(zn).module();
-                        zn = zn1;
-                        i++;
-                    } while (module > convergenceThreshold && i < m);
-                    int index = pol1.indexOfClosestRootFor(zn, rootThreshold);
-                    data[y * width + x] = (index == -1) ? 0 : (short) (index + 1);
-                }
+                if (cancelled.getAsBoolean()) return null;
+
+                double im = (height - 1 - y) / (double) height * (imMax - imMin) + imMin;
+                kernel.calculateRow(re, im, m, convergenceThreshold, rootThreshold, data, y * width + xMin);
             }
             return null;
         }
+    }
+
+    /**
+     * Implements the Newton-Raphson iteration for a single point of the
+     * complex plane. The factors of the polynomial and of its derivative
+     * are computed only once, when the kernel is created, and both are
+     * evaluated by Horner's scheme on the real and imaginary parts held
+     * in local variables, so no objects are created while iterating.
+     *
+     * @author Luka Čupić
+     */
+    public static class NewtonKernel {
+
+        /**
+         * The interleaved real and imaginary parts of the factors of the
+         * polynomial, from the lowest to the highest power.
+         */
+        double[] factors;
+
+        /**
+         * The interleaved real and imaginary parts of the factors of the
+         * derivative of the polynomial, from the lowest to the highest power.
+         */
+        double[] derivative;
 
         /**
-         * Maps the specified point to the complex plane.
+         * The rooted polynomial, used for finding the closest root.
+         */
+        ComplexRootedPolynomial polynomial;
+
+        /**
+         * Creates a new kernel for the given polynomial.
          *
-         * @param reMin minimal value for the real component
-         * @param reMax maximal value for the real component
-         * @param imMin minimal value for the imaginary component
-         * @param imMax maximal value for the imaginary component
-         * @return a complex number, representing the given point
-         */
-        private Complex mapToComplexPlain(int x, int y, double reMin, double reMax,
-                                          double imMin, double imMax) {
-            double re = x / (double) width * (reMax - reMin) + reMin;
-            double im = (height - 1 - y) / (double) height * (imMax - imMin) + imMin;
-            return new Complex(re, im);
+         * @param polynomial the polynomial used for calculation
+         */
+        public NewtonKernel(ComplexRootedPolynomial polynomial) {
+            ComplexPolynomial expanded = polynomial.toComplexPolynomial();
+
+            this.polynomial = polynomial;
+            this.factors = expanded.toArray();
+            this.derivative = expanded.derive().toArray();
+            if (derivative.length == 0) {
+                derivative = new double[2];
+            }
+        }
+
+        /**
+         * Iterates from the given point until it converges (or the number
+         * of iterations runs out) and finds the root which it converged to.
+         *
+         * @param re                   the real part of the point
+         * @param im                   the imaginary part of the point
+         * @param m                    number of iterations
+         * @param convergenceThreshold the convergence threshold
+         * @param rootThreshold        the root threshold
+         * @return the index of the root increased by one, or zero if the
+         * point has not converged to any of the roots
+         */
+        public short calculate(double re, double im, int m,
+                               double convergenceThreshold, double rootThreshold) {
+            double module;
+            int i = 0;
+            do {
+                int k = factors.length - 2;
+                double nRe = factors[k];
+                double nIm = factors[k + 1];
+                for (k -= 2; k >= 0; k -= 2) {
+                    double t = nRe * re - nIm * im + factors[k];
+                    nIm = nRe * im + nIm * re + factors[k + 1];
+                    nRe = t;
+                }
+
+                k = derivative.length - 2;
+                double dRe = derivative[k];
+                double dIm = derivative[k + 1];
+                for (k -= 2; k >= 0; k -= 2) {
+                    double t = dRe * re - dIm * im + derivative[k];
+                    dIm = dRe * im + dIm * re + derivative[k + 1];
+                    dRe = t;
+                }
+
+                // the iteration cannot continue from a stationary point
+                double denom = dRe * dRe + dIm * dIm;
+                if (denom == 0) break;
+
+                double re1 = re - (nRe * dRe + nIm * dIm) / denom;
+                double im1 = im - (nIm * dRe - nRe * dIm) / denom;
+                double mRe = re1 - re;
+                double mIm = im1 - im;
+                module = Math.sqrt(mRe * mRe + mIm * mIm);
+                re = re1;
+                im = im1;
+                i++;
+            } while (module > convergenceThreshold && i < m);
+
+            int index = polynomial.indexOfClosestRootFor(re, im, rootThreshold);
+            return (index == -1) ? 0 : (short) (index + 1);
+        }
+
+        /**
+         * Calculates the points of a single row, which share the same
+         * imaginary part.
+         *
+         * @param re                   the real parts of the points
+         * @param im                   the imaginary part of the points
+         * @param m                    number of iterations
+         * @param convergenceThreshold the convergence threshold
+         * @param rootThreshold        the root threshold
+         * @param data                 the array to store the results in
+         * @param offset               the index of the result of the first point
+         */
+        public void calculateRow(double[] re, double im, int m, double convergenceThreshold,
+                                 double rootThreshold, short[] data, int offset) {
+            for (int x = 0; x < re.length; x++) {
+                data[offset + x] = calculate(re[x], im, m, convergenceThreshold, rootThreshold);
+            }
         }
     }
 
     /**
      * Represents a fractal producer for producing fractals based on
      * the Newton–Raphson method.
+     * <p>
+     * The image is calculated in square tiles, starting from the centre of
+     * the screen and going outwards, and the partially calculated image is
+     * periodically sent to the observer, so the centre of the image appears
+     * almost at once. The {@link #produce} method only schedules the tiles
+     * and returns; once a newer request arrives, the tiles of the older
+     * requests which have not yet been calculated are skipped. The data
+     * arrays are reused between the images of the same size.
      *
      * @author Luka Čupić
      */
     public static class NewtonFractalProducer implements IFractalProducer {
 
+        /**
+         * The width and the height of a single tile, in pixels.
+         */
+        private static final int TILE_SIZE = 64;
+
+        /**
+         * The interval at which the partially calculated image is sent
+         * to the observer, in milliseconds.
+         */
+        private static final long PUSH_INTERVAL = 100;
+
+        /**
+         * The maximum number of spare data arrays.
+         */
+        private static final int MAX_SPARE_BUFFERS = 2;
+
         /**
          * Represents the polynomial of type 1.
          */
@@ -228,28 +423,71 @@ public class Newton {
          */
         private ComplexPolynomial pol2;
 
+        /**
+         * Represents the kernel which calculates the points.
+         */
+        private NewtonKernel kernel;
+
         /**
          * Represents a pool of threads.
          */
         private ExecutorService pool;
 
+        /**
+         * Represents the thread which sends the results to the observers.
+         */
+        private ExecutorService coordinator;
+
         /**
          * Holds the number of processors for this machine.
          */
         private int noOfProcessors;
 
+        /**
+         * The frame of the latest request, or null if there has been none.
+         */
+        private Frame current;
+
+        /**
+         * The frames of the older requests whose data arrays might still be
+         * used, either by their tiles or by the observer.
+         */
+        private List<Frame> retired = new ArrayList<>();
+
+        /**
+         * The data arrays which are no longer used.
+         */
+        private Queue<short[]> spareBuffers = new ConcurrentLinkedQueue<>();
+
         /**
          * Creates a new instance of this class.
          */
         public NewtonFractalProducer(ComplexRootedPolynomial polynomial) {
-            pol1 = polynomial;
-            pol2 = polynomial.toComplexPolynomial();
+            this(polynomial, new NewtonKernel(polynomial));
+        }
+
+        /**
+         * Creates a new instance of this class which calculates the
+         * points with the given kernel.
+         *
+         * @param polynomial the polynomial used for calculation
+         * @param kernel     the kernel which calculates the points
+         */
+        public NewtonFractalProducer(ComplexRootedPolynomial polynomial, NewtonKernel kernel) {
+            this.pol1 = polynomial;
+            this.pol2 = polynomial.toComplexPolynomial();
+            this.kernel = kernel;
             noOfProcessors = Runtime.getRuntime().availableProcessors();
             pool = Executors.newFixedThreadPool(noOfProcessors, r -> {
                 Thread t = new Thread(r);
                 t.setDaemon(true);
                 return t;
             });
+            coordinator = Executors.newSingleThreadExecutor(r -> {
+                Thread t = new Thread(r);
+                t.setDaemon(true);
+                return t;
+            });
         }
 
         @Override
@@ -257,37 +495,221 @@ public class Newton {
                             int width, int height, long requestNo, IFractalResultObserver observer) {
             System.out.println("Zapocinjem izracun...");
 
-            int m = 16 * 16 * 16;
-            short[] data = new short[width * height];
-            final int noOfTracks = 8 * noOfProcessors;
-            int ysPerTrack = height / noOfTracks;
+            List<int[]> tiles = getTiles(width, height);
 
-            List<Future<Void>> results = new ArrayList<>();
+            Frame frame;
+            synchronized (this) {
+                if (current != null && requestNo < current.requestNo) return;
 
-            for (int i = 0; i < noOfTracks; i++) {
-                int yMin = i * ysPerTrack;
-                int yMax = (i + 1) * ysPerTrack - 1;
-                if (i == noOfTracks - 1) {
-                    yMax = height - 1;
+                if (current != null) {
+                    current.cancelled = true;
+                    retired.add(current);
                 }
+                frame = new Frame(requestNo, acquireBuffer(width * height), tiles.size(), observer);
+                current = frame;
+            }
+
+            int m = 16 * 16 * 16;
+
+            for (int[] tile : tiles) {
                 CalculationJob job = new CalculationJob(
                     reMin, reMax, imMin, imMax,
-                    width, height, yMin, yMax, m, data,
-                    pol1
+                    width, height, tile[0], tile[1], tile[2], tile[3],
+                    m, frame.data, kernel, () -> frame.cancelled
                 );
-                results.add(pool.submit(job));
+                pool.execute(() -> frame.calculate(job));
             }
-            for (Future<Void> job : results) {
-                while (true) {
-                    try {
-                        job.get();
-                        break;
-                    } catch (InterruptedException | ExecutionException e) {
+            coordinator.execute(frame::deliver);
+        }
+
+        /**
+         * Splits the screen into tiles, ordered by the distance of their
+         * centres from the centre of the screen.
+         *
+         * @param width  width of the screen
+         * @param height height of the screen
+         * @return the list of tiles, each given by its minimal and maximal
+         * x and its minimal and maximal y
+         */
+        private static List<int[]> getTiles(int width, int height) {
+            List<int[]> tiles = new ArrayList<>();
+            for (int y = 0; y < height; y += TILE_SIZE) {
+                for (int x = 0; x < width; x += TILE_SIZE) {
+                    tiles.add(new int[]{
+                        x, Math.min(x + TILE_SIZE, width) - 1,
+                        y, Math.min(y + TILE_SIZE, height) - 1
+                    });
+                }
+            }
+
+            tiles.sort(Comparator.comparingLong(tile -> {
+                long dx = tile[0] + tile[1] - (width - 1);
+                long dy = tile[2] + tile[3] - (height - 1);
+                return dx * dx + dy * dy;
+            }));
+            return tiles;
+        }
+
+        /**
+         * Takes a spare (cleared) data array of the given length, or creates
+         * a new one if there is none.
+         *
+         * @param length the length of the array
+         * @return the data array
+         */
+        private short[] acquireBuffer(int length) {
+            short[] data;
+            while ((data = spareBuffers.poll()) != null) {
+                if (data.length == length) {
+                    Arrays.fill(data, (short) 0);
+                    return data;
+                }
+            }
+            return new short[length];
+        }
+
+        /**
+         * Retires the frames of the requests older than the given frame.
+         * Once the given frame has been sent to the observer, the observer
+         * no longer uses their data arrays, so each of them is reused as
+         * soon as all of its tiles are done.
+         *
+         * @param frame the frame which has been sent to the observer
+         */
+        private synchronized void retireOlderThan(Frame frame) {
+            Iterator<Frame> it = retired.iterator();
+            while (it.hasNext()) {
+                Frame older = it.next();
+                if (older.requestNo >= frame.requestNo) continue;
+
+                it.remove();
+                older.release();
+            }
+        }
+
+        /**
+         * Represents the calculation of the image of a single request.
+         *
+         * @author Luka Čupić
+         */
+        private class Frame {
+
+            /**
+             * The number of the request.
+             */
+            long requestNo;
+
+            /**
+             * The array to store the result in.
+             */
+            short[] data;
+
+            /**
+             * The observer of the result.
+             */
+            IFractalResultObserver observer;
+
+            /**
+             * Tells whether a newer request has arrived.
+             */
+            volatile boolean cancelled;
+
+            /**
+             * Counts the tiles which have not been calculated yet.
+             */
+            CountDownLatch remaining;
+
+            /**
+             * Tells whether the frame is no longer used by the observer.
+             */
+            boolean released;
+
+            /**
+             * Tells whether the data array has been given back for reuse.
+             */
+            boolean reused;
+
+            /**
+             * Creates a new frame.
+             *
+             * @param requestNo the number of the request
+             * @param data      the array to store the result in
+             * @param tiles     the number of tiles
+             * @param observer  the observer of the result
+             */
+            Frame(long requestNo, short[] data, int tiles, IFractalResultObserver observer) {
+                this.requestNo = requestNo;
+                this.data = data;
+                this.remaining = new CountDownLatch(tiles);
+                this.observer = observer;
+            }
+
+            /**
+             * Calculates a single tile, unless the frame has been cancelled.
+             *
+             * @param job the job which calculates the tile
+             */
+            void calculate(CalculationJob job) {
+                try {
+                    if (!cancelled) {
+                        job.call();
+                    }
+                } finally {
+                    remaining.countDown();
+                    if (remaining.getCount() == 0) {
+                        reuseIfUnused();
+                    }
+                }
+            }
+
+            /**
+             * Sends the partially calculated image to the observer at regular
+             * intervals, until all of the tiles have been calculated or the
+             * frame has been cancelled.
+             */
+            void deliver() {
+                try {
+                    while (!remaining.await(PUSH_INTERVAL, TimeUnit.MILLISECONDS)) {
+                        if (cancelled) return;
+                        push();
                     }
+                } catch (InterruptedException ex) {
+                    return;
+                }
+
+                if (cancelled) return;
+                push();
+                System.out.println("Izračuni gotovi...");
+            }
+
+            /**
+             * Sends the current state of the image to the observer.
+             */
+            private void push() {
+                observer.acceptResult(data, (short) (pol2.order() + 1), requestNo);
+                retireOlderThan(this);
+            }
+
+            /**
+             * Marks the frame as no longer used by the observer.
+             */
+            synchronized void release() {
+                released = true;
+                reuseIfUnused();
+            }
+
+            /**
+             * Gives the data array back for reuse, once it is no longer used
+             * by the observer and all of the tiles are done.
+             */
+            private synchronized void reuseIfUnused() {
+                if (!released || reused || remaining.getCount() > 0) return;
+
+                reused = true;
+                if (spareBuffers.size() < MAX_SPARE_BUFFERS) {
+                    spareBuffers.offer(data);
                 }
             }
-            System.out.println("Izračuni gotovi...");
-            observer.acceptResult(data, (short) (pol2.order() + 1), requestNo);
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,101 @@
+package hr.fer.zemris.java.fractals;
+
+import hr.fer.zemris.math.ComplexRootedPolynomial;
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * A kernel which iterates several neighbouring points of a row at once,
+ * one point per lane of a vector of the Vector API. Each lane keeps
+ * iterating until its own point converges (or stops at a stationary point),
+ * while the lanes which have already stopped are masked out; the lanes
+ * are iterated for as long as any of them is still active.
+ * <p>
+ * The operations of each lane are performed in the same order as in
+ * {@link Newton.NewtonKernel#calculate}, so the results are exactly the same
+ * as the results of the scalar kernel. The points which do not fill a whole
+ * vector at the end of a row are calculated by the scalar kernel.
+ * <p>
+ * This class requires the jdk.incubator.vector module, which has to be
+ * added to the JVM with {@code --add-modules jdk.incubator.vector}; it
+ * should be created through {@link Newton#createVectorKernel}, which falls
+ * back to the scalar kernel if the module is not available.
+ *
+ * @author Luka Čupić
+ */
+public class VectorNewtonKernel extends Newton.NewtonKernel {
+
+    /**
+     * The species of the vectors, with as many lanes as the platform
+     * supports.
+     */
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    /**
+     * Creates a new kernel for the given polynomial.
+     *
+     * @param polynomial the polynomial used for calculation
+     */
+    public VectorNewtonKernel(ComplexRootedPolynomial polynomial) {
+        super(polynomial);
+    }
+
+    @Override
+    public void calculateRow(double[] re, double im, int m, double convergenceThreshold,
+                             double rootThreshold, short[] data, int offset) {
+        int lanes = SPECIES.length();
+        int x = 0;
+        for (; x <= re.length - lanes; x += lanes) {
+            DoubleVector zRe = DoubleVector.fromArray(SPECIES, re, x);
+            DoubleVector zIm = DoubleVector.broadcast(SPECIES, im);
+            VectorMask<Double> active = SPECIES.maskAll(true);
+
+            int i = 0;
+            do {
+                int k = factors.length - 2;
+                DoubleVector nRe = DoubleVector.broadcast(SPECIES, factors[k]);
+                DoubleVector nIm = DoubleVector.broadcast(SPECIES, factors[k + 1]);
+                for (k -= 2; k >= 0; k -= 2) {
+                    DoubleVector t = nRe.mul(zRe).sub(nIm.mul(zIm)).add(factors[k]);
+                    nIm = nRe.mul(zIm).add(nIm.mul(zRe)).add(factors[k + 1]);
+                    nRe = t;
+                }
+
+                k = derivative.length - 2;
+                DoubleVector dRe = DoubleVector.broadcast(SPECIES, derivative[k]);
+                DoubleVector dIm = DoubleVector.broadcast(SPECIES, derivative[k + 1]);
+                for (k -= 2; k >= 0; k -= 2) {
+                    DoubleVector t = dRe.mul(zRe).sub(dIm.mul(zIm)).add(derivative[k]);
+                    dIm = dRe.mul(zIm).add(dIm.mul(zRe)).add(derivative[k + 1]);
+                    dRe = t;
+                }
+
+                // the lanes at stationary points stop without moving
+                DoubleVector denom = dRe.mul(dRe).add(dIm.mul(dIm));
+                active = active.andNot(denom.eq(0));
+
+                DoubleVector re1 = zRe.sub(nRe.mul(dRe).add(nIm.mul(dIm)).div(denom));
+                DoubleVector im1 = zIm.sub(nIm.mul(dRe).sub(nRe.mul(dIm)).div(denom));
+                DoubleVector mRe = re1.sub(zRe);
+                DoubleVector mIm = im1.sub(zIm);
+                DoubleVector module = mRe.mul(mRe).add(mIm.mul(mIm)).sqrt();
+
+                zRe = zRe.blend(re1, active);
+                zIm = zIm.blend(im1, active);
+                active = active.and(module.compare(VectorOperators.GT, convergenceThreshold));
+                i++;
+            } while (active.anyTrue() && i < m);
+
+            for (int lane = 0; lane < lanes; lane++) {
+                int index = polynomial.indexOfClosestRootFor(zRe.lane(lane), zIm.lane(lane), rootThreshold);
+                data[offset + x + lane] = (index == -1) ? 0 : (short) (index + 1);
+            }
+        }
+
+        for (; x < re.length; x++) {
+            data[offset + x] = calculate(re[x], im, m, convergenceThreshold, rootThreshold);
+        }
+    }
+}
@@ -3,6 +3,8 @@ package hr.fer.zemris.java.raytracer;
 import hr.fer.zemris.java.raytracer.model.*;
 import hr.fer.zemris.java.raytracer.viewer.RayTracerViewer;
 
+import java.util.List;
+
 /**
  * A program which demonstrates how a ray-tracer works
  * in a simple environment.
@@ -25,22 +27,54 @@ public class RayCaster {
         );
     }
 
+    /**
+     * Traces the ray from the eye through the given point of the screen,
+     * which is given by its distances from the corner of the screen.
+     *
+     * @param hierarchy the bounding volume hierarchy of the scene
+     * @param hit       the hit used for finding the intersections
+     * @param eye       the position of the human observer
+     * @param corner    screen corner
+     * @param i         x direction unit vector
+     * @param j         y direction unit vector
+     * @param di        the distance of the point from the corner along i
+     * @param dj        the distance of the point from the corner along j
+     * @param rgb       the rgb color vector
+     */
+    protected static void tracePixel(BoundingVolumeHierarchy hierarchy, RayHit hit, Point3D eye,
+                                     Point3D corner, Point3D i, Point3D j, double di, double dj,
+                                     short[] rgb) {
+        double dx = corner.x + i.x * di - j.x * dj - eye.x;
+        double dy = corner.y + i.y * di - j.y * dj - eye.y;
+        double dz = corner.z + i.z * di - j.z * dj - eye.z;
+        double norm = Math.sqrt(dx * dx + dy * dy + dz * dz);
+
+        tracer(hierarchy, hit, eye.x, eye.y, eye.z, dx / norm, dy / norm, dz / norm, rgb);
+    }
+
     /**
      * A helper method for tracing the specified ray.
      *
-     * @param scene the scene
-     * @param ray   the ray to trace
-     * @param rgb   the rgb color vector
+     * @param hierarchy the bounding volume hierarchy of the scene
+     * @param hit       the hit used for finding the intersections
+     * @param ox        the x coordinate of the start of the ray
+     * @param oy        the y coordinate of the start of the ray
+     * @param oz        the z coordinate of the start of the ray
+     * @param dx        the x coordinate of the (normalized) direction of the ray
+     * @param dy        the y coordinate of the (normalized) direction of the ray
+     * @param dz        the z coordinate of the (normalized) direction of the ray
+     * @param rgb       the rgb color vector
      */
-    protected static void tracer(Scene scene, Ray ray, short[] rgb) {
+    protected static void tracer(BoundingVolumeHierarchy hierarchy, RayHit hit,
+                                 double ox, double oy, double oz, double dx, double dy, double dz,
+                                 short[] rgb) {
         rgb[0] = 0;
         rgb[1] = 0;
         rgb[2] = 0;
 
-        RayIntersection S = findClosestIntersection(scene, ray);
-        if (S == null) return;
+        if (!hierarchy.findClosestIntersection(ox, oy, oz, dx, dy, dz, hit)) return;
 
-        determineColor(scene, ray, S, rgb);
+        determineColor(hierarchy, ox, oy, oz, hit, rgb);
     }
 
     /**
@@ -48,90 +82,70 @@ public class RayCaster {
      * the color represents the color of the point where the ray intersects
      * a object in the given scene.
      *
-     * @param scene the scene
-     * @param ray   the ray which intersects the object
-     * @param S     the intersection point
-     * @param rgb   array of three elements, holding red, green and blue
-     *              values
+     * @param hierarchy the bounding volume hierarchy of the scene
+     * @param ox        the x coordinate of the start of the ray
+     * @param oy        the y coordinate of the start of the ray
+     * @param oz        the z coordinate of the start of the ray
+     * @param S         the intersection of the ray with the object
+     * @param rgb       array of three elements, holding red, green and blue
+     *                  values
      */
-    private static void determineColor(Scene scene, Ray ray, RayIntersection S, short[] rgb) {
+    private static void determineColor(BoundingVolumeHierarchy hierarchy, double ox, double oy, double oz,
+                                       RayHit S, short[] rgb) {
         rgb[0] = 15;
         rgb[1] = 15;
         rgb[2] = 15;
 
-        for (LightSource ls : scene.getLights()) {
+        // the normal and the direction towards the start of the ray are the same for all of the lights
+        double nNorm = Math.sqrt(S.nx * S.nx + S.ny * S.ny + S.nz * S.nz);
+        double nx = S.nx / nNorm;
+        double ny = S.ny / nNorm;
+        double nz = S.nz / nNorm;
+
+        double vx = ox - S.x;
+        double vy = oy - S.y;
+        double vz = oz - S.z;
+        double vNorm = Math.sqrt(vx * vx + vy * vy + vz * vz);
+        vx /= vNorm;
+        vy /= vNorm;
+        vz /= vNorm;
+
+        List<LightSource> lights = hierarchy.getScene().getLights();
+        for (int k = 0, size = lights.size(); k < size; k++) {
+            LightSource ls = lights.get(k);
             Point3D lsPoint = ls.getPoint();
-            Ray lightRay = new Ray(lsPoint, S.getPoint().sub(lsPoint).normalize());
-            RayIntersection lightS = findClosestIntersection(scene, lightRay);
-            if (lightS != null && Math.abs(lsPoint.sub(lightS.getPoint()).norm() -
-                lsPoint.sub(S.getPoint()).norm()) > 10E-9) {
+
+            // the point is lit unless an object is closer to the light source
+            double sx = S.x - lsPoint.x;
+            double sy = S.y - lsPoint.y;
+            double sz = S.z - lsPoint.z;
+            double distance = Math.sqrt(sx * sx + sy * sy + sz * sz);
+            sx /= distance;
+            sy /= distance;
+            sz /= distance;
+            if (hierarchy.isOccluded(lsPoint.x, lsPoint.y, lsPoint.z, sx, sy, sz, distance - 10E-9, S)) {
                 continue;
             }
 
-            Point3D l = S.getPoint().sub(ls.getPoint()).normalize().negate();
-            Point3D n = S.getNormal().normalize();
-            double ln = l.scalarProduct(n);
+            double lx = -sx;
+            double ly = -sy;
+            double lz = -sz;
+            double ln = lx * nx + ly * ny + lz * nz;
             if (ln < 0) ln = 0;
 
-            Point3D v = ray.start.sub(S.getPoint()).normalize();
-            Point3D r = l.sub(n.scalarMultiply(2 * ln)).normalize();
-            double rv = r.scalarProduct(v);
+            double rx = lx - nx * (2 * ln);
+            double ry = ly - ny * (2 * ln);
+            double rz = lz - nz * (2 * ln);
+            double rNorm = Math.sqrt(rx * rx + ry * ry + rz * rz);
+            double rv = rx / rNorm * vx + ry / rNorm * vy + rz / rNorm * vz;
 
             int exp = 100;
-            rgb[0] += ls.getR() * (S.getKrr() * Math.pow(rv, exp) + S.getKdr() * ln);
-            rgb[1] += ls.getG() * (S.getKrg() * Math.pow(rv, exp) + S.getKdg() * ln);
-            rgb[2] += ls.getB() * (S.getKrb() * Math.pow(rv, exp) + S.getKdb() * ln);
+            rgb[0] += ls.getR() * (S.krr * Math.pow(rv, exp) + S.kdr * ln);
+            rgb[1] += ls.getG() * (S.krg * Math.pow(rv, exp) + S.kdg * ln);
+            rgb[2] += ls.getB() * (S.krb * Math.pow(rv, exp) + S.kdb * ln);
         }
     }
 
-    /**
-     * Returns a {@link RayIntersection} object representing the intersection
-     * of the given ray with any object from the given scene.
-     *
-     * @param scene the scene
-     * @param ray   the ray
-     * @return the intersection object representing the intersection, or null
-     * if no intersections with any of the objects were found
-     */
-    private static RayIntersection findClosestIntersection(Scene scene, Ray ray) {
-        RayIntersection closest = null;
-        double minDist = -1;
-        for (GraphicalObject o : scene.getObjects()) {
-            RayIntersection i = o.findClosestRayIntersection(ray);
-            if (i == null) continue;
-
-            double dist = i.getDistance();
-            if (dist < minDist || minDist == -1) {
-                minDist = dist;
-                closest = i;
-            }
-        }
-        return closest;
-    }
-
-    /**
-     * Maps the given point to the coordinate system.
-     *
-     * @param corner     screen corner
-     * @param x          x point
-     * @param y          y point
-     * @param width      width of the screen
-     * @param height     height of the screen
-     * @param horizontal width of the plane
-     * @param vertical   height of the plane
-     * @param i          y direction unit vector
-     * @param j          x direction unit vector
-     * @return a 3D point representing the screen corner
-     * in 3D space
-     */
-    protected static Point3D mapToCoordinateSystem(Point3D corner, int x, int y, int width, int height,
-                                                   double horizontal, double vertical, Point3D i, Point3D j) {
-        Point3D iComp = i.scalarMultiply((double) x / (width - 1) * horizontal);
-        Point3D jComp = j.scalarMultiply((double) y / (height - 1) * vertical);
-        return corner.add(iComp).sub(jComp);
-    }
-
-
     /**
      * Returns a point representing the upper-left corner of the screen.
      *
@@ -181,6 +195,8 @@ public class RayCaster {
      * @return a new ray tracer producer
      */
     private static IRayTracerProducer getIRayTracerProducer() {
+        BoundingVolumeHierarchy hierarchy = new BoundingVolumeHierarchy(RayTracerViewer.createPredefinedScene());
+
         return new IRayTracerProducer() {
             @Override
             public void produce(Point3D eye, Point3D view, Point3D viewUp,
@@ -194,17 +210,14 @@ public class RayCaster {
                 Point3D j = getJVector(eye, view, viewUp);
                 Point3D i = getIVector(eye, view, j);
                 Point3D corner = getScreenCorner(view, horizontal, vertical, i, j);
-                Scene scene = RayTracerViewer.createPredefinedScene();
                 short[] rgb = new short[3];
+                RayHit hit = new RayHit();
                 int offset = 0;
                 for (int y = 0; y < height; y++) {
+                    double dj = (double) y / (height - 1) * vertical;
                     for (int x = 0; x < width; x++) {
-                        Point3D screenPoint = mapToCoordinateSystem(
-                            corner, x, y, width, height,
-                            horizontal, vertical, i, j
-                        );
-                        Ray ray = Ray.fromPoints(eye, screenPoint);
-                        tracer(scene, ray, rgb);
+                        double di = (double) x / (width - 1) * horizontal;
+                        tracePixel(hierarchy, hit, eye, corner, i, j, di, dj, rgb);
 
                         red[offset] = rgb[0] > 255 ? 255 : rgb[0];
                         green[offset] = rgb[1] > 255 ? 255 : rgb[1];
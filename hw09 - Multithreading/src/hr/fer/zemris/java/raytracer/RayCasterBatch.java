@@ -0,0 +1,339 @@
+package hr.fer.zemris.java.raytracer;
+
+import hr.fer.zemris.java.raytracer.model.BoundingVolumeHierarchy;
+import hr.fer.zemris.java.raytracer.model.Point3D;
+import hr.fer.zemris.java.raytracer.model.Scene;
+import hr.fer.zemris.java.raytracer.viewer.RayTracerViewer;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * A program which renders a sequence of frames of the predefined scene
+ * without a viewer, writing each of the frames into a PNG file. The frames
+ * are rendered one after another, each of them by all of the processors
+ * (just as by {@link RayCasterParallel}), while the previous frames are
+ * encoded and written by a few separate threads.
+ * <p>
+ * The frames are rendered into the images of a small pool, which are given
+ * back once they are written, so the renderer waits for the writers
+ * whenever it gets too far ahead of them.
+ * <p>
+ * The camera either goes around the scene (a turntable), or follows a path
+ * given by a file with a frame per line: the coordinates of the eye, of the
+ * view and of the view-up vector, nine numbers separated by spaces. Empty
+ * lines and lines starting with '#' are skipped. The arguments are
+ * optional pairs of a name and a value:
+ * <pre>
+ * --out ./frames        the directory of the frames
+ * --frames 120          the number of frames of the turntable
+ * --path camera.txt     the file of the camera path, instead of the turntable
+ * --width 640           the width of the frames
+ * --height 480          the height of the frames
+ * --writers 2           the number of threads which write the frames
+ * </pre>
+ *
+ * @author Luka Čupić
+ */
+public class RayCasterBatch {
+
+    /**
+     * Length of the horizontal and the vertical component.
+     */
+    private static final double SIZE = 20;
+
+    /**
+     * The bounding volume hierarchy of the scene.
+     */
+    private BoundingVolumeHierarchy hierarchy;
+
+    /**
+     * Screen width.
+     */
+    private int width;
+
+    /**
+     * Screen height.
+     */
+    private int height;
+
+    /**
+     * The directory of the frames.
+     */
+    private Path directory;
+
+    /**
+     * The number of threads which write the frames.
+     */
+    private int writers;
+
+    /**
+     * The main method.
+     *
+     * @param args command line arguments, as described in the documentation
+     *             of the class
+     * @throws Exception if the frames cannot be rendered or written
+     */
+    public static void main(String[] args) throws Exception {
+        System.setProperty("java.awt.headless", "true");
+
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            options.put(args[i].replaceFirst("^--", ""), args[i + 1]);
+        }
+
+        List<Camera> path;
+        RayCasterBatch batch;
+        try {
+            path = options.containsKey("path")
+                ? Camera.readPath(Paths.get(options.get("path")))
+                : Camera.turntable(Integer.parseInt(options.getOrDefault("frames", "120")));
+
+            batch = new RayCasterBatch(
+                RayTracerViewer.createPredefinedScene(),
+                Integer.parseInt(options.getOrDefault("width", "640")),
+                Integer.parseInt(options.getOrDefault("height", "480")),
+                Paths.get(options.getOrDefault("out", "./frames")),
+                Integer.parseInt(options.getOrDefault("writers", "2"))
+            );
+        } catch (NumberFormatException ex) {
+            System.out.println("Illegal number: " + ex.getMessage());
+            return;
+        } catch (IllegalArgumentException ex) {
+            System.out.println(ex.getMessage());
+            return;
+        }
+
+        long start = System.nanoTime();
+        batch.render(path);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("Rendered %d frames in %.2f s (%.2f frames per second).%n",
+            path.size(), seconds, path.size() / seconds);
+    }
+
+    /**
+     * Creates a new batch renderer.
+     *
+     * @param scene     the scene to render
+     * @param width     screen width
+     * @param height    screen height
+     * @param directory the directory of the frames
+     * @param writers   the number of threads which write the frames
+     * @throws IllegalArgumentException if the width, the height or the
+     *                                  number of writers is not positive
+     */
+    public RayCasterBatch(Scene scene, int width, int height, Path directory, int writers) {
+        if (width < 1 || height < 1) {
+            throw new IllegalArgumentException("The width and the height must be positive!");
+        }
+        if (writers < 1) {
+            throw new IllegalArgumentException("There must be at least one writer!");
+        }
+
+        this.hierarchy = new BoundingVolumeHierarchy(scene);
+        this.width = width;
+        this.height = height;
+        this.directory = directory;
+        this.writers = writers;
+    }
+
+    /**
+     * Renders the frames of the given camera path and writes them into the
+     * files named "frame-00000.png", "frame-00001.png" and so on.
+     *
+     * @param path the camera path
+     * @throws IOException          if a frame cannot be written
+     * @throws InterruptedException if the current thread is interrupted
+     */
+    public void render(List<Camera> path) throws IOException, InterruptedException {
+        Files.createDirectories(directory);
+
+        // one image is rendered while each of the writers writes another one
+        BlockingQueue<BufferedImage> images = new ArrayBlockingQueue<>(writers + 1);
+        for (int i = 0; i <= writers; i++) {
+            images.add(new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB));
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(writers);
+        Queue<Future<?>> pending = new ArrayDeque<>();
+        try {
+            long[] costs = null;
+            for (int n = 0; n < path.size(); n++) {
+                BufferedImage image = images.take();
+                int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+
+                Camera camera = path.get(n);
+                RayCasterParallel.Frame frame = new RayCasterParallel.Frame(n,
+                    camera.eye, camera.view, camera.viewUp, SIZE, SIZE,
+                    width, height, hierarchy, costs, pixels);
+                RayCasterParallel.compute(frame);
+                costs = frame.costs;
+
+                Path file = directory.resolve(String.format("frame-%05d.png", n));
+                pending.add(pool.submit(() -> {
+                    try {
+                        write(image, file);
+                    } finally {
+                        images.add(image);
+                    }
+                    return null;
+                }));
+
+                // a frame which cannot be written stops the rendering
+                while (!pending.isEmpty() && pending.peek().isDone()) {
+                    await(pending.poll());
+                }
+            }
+
+            while (!pending.isEmpty()) {
+                await(pending.poll());
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Writes the given image into the given file in the PNG format.
+     *
+     * @param image the image
+     * @param file  the file
+     * @throws IOException if the image cannot be written
+     */
+    private static void write(BufferedImage image, Path file) throws IOException {
+        if (!ImageIO.write(image, "png", file.toFile())) {
+            throw new IOException("No PNG writer is available.");
+        }
+    }
+
+    /**
+     * Waits for the given writing of a frame to finish.
+     *
+     * @param future the writing of the frame
+     * @throws IOException          if the frame could not be written
+     * @throws InterruptedException if the current thread is interrupted
+     */
+    private static void await(Future<?> future) throws IOException, InterruptedException {
+        try {
+            future.get();
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            throw new IOException("The frame could not be written.", cause);
+        }
+    }
+
+    /**
+     * Represents the position of the camera in a single frame.
+     *
+     * @author Luka Čupić
+     */
+    public static class Camera {
+
+        /**
+         * Position of the human observer.
+         */
+        Point3D eye;
+
+        /**
+         * The position the observer is looking at.
+         */
+        Point3D view;
+
+        /**
+         * The view-up vector.
+         */
+        Point3D viewUp;
+
+        /**
+         * Creates a new camera.
+         *
+         * @param eye    position of the human observer
+         * @param view   the position the observer is looking at
+         * @param viewUp the view-up vector
+         */
+        public Camera(Point3D eye, Point3D view, Point3D viewUp) {
+            this.eye = eye;
+            this.view = view;
+            this.viewUp = viewUp;
+        }
+
+        /**
+         * Creates the camera path which goes around the scene once, looking
+         * at its centre from the same distance as the viewer does.
+         *
+         * @param frames the number of frames
+         * @return the camera path
+         * @throws IllegalArgumentException if the number of frames is not positive
+         */
+        public static List<Camera> turntable(int frames) {
+            if (frames < 1) {
+                throw new IllegalArgumentException("The number of frames must be positive!");
+            }
+
+            List<Camera> path = new ArrayList<>();
+            for (int n = 0; n < frames; n++) {
+                double angle = 2 * Math.PI * n / frames;
+                path.add(new Camera(
+                    new Point3D(10 * Math.cos(angle), 10 * Math.sin(angle), 0),
+                    new Point3D(0, 0, 0),
+                    new Point3D(0, 0, 10)
+                ));
+            }
+            return path;
+        }
+
+        /**
+         * Reads the camera path from the given file.
+         *
+         * @param file the file
+         * @return the camera path
+         * @throws IOException if the file cannot be read or one of its lines
+         *                     is not valid
+         */
+        public static List<Camera> readPath(Path file) throws IOException {
+            List<Camera> path = new ArrayList<>();
+            for (String line : Files.readAllLines(file)) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) continue;
+
+                String[] parts = line.split("\\s+");
+                if (parts.length != 9) {
+                    throw new IOException("Expected nine numbers, but got: " + line);
+                }
+
+                double[] c = new double[9];
+                try {
+                    for (int i = 0; i < 9; i++) {
+                        c[i] = Double.parseDouble(parts[i]);
+                    }
+                } catch (NumberFormatException ex) {
+                    throw new IOException("Expected nine numbers, but got: " + line, ex);
+                }
+                path.add(new Camera(
+                    new Point3D(c[0], c[1], c[2]),
+                    new Point3D(c[3], c[4], c[5]),
+                    new Point3D(c[6], c[7], c[8])
+                ));
+            }
+            return path;
+        }
+    }
+}
@@ -14,13 +14,24 @@ import java.util.concurrent.RecursiveAction;
  */
 public class RayCasterParallel {
 
+    /**
+     * The number of jobs each of the threads should get, so that the
+     * threads which finish early can steal the remaining ones.
+     */
+    private static final int JOBS_PER_THREAD = 16;
+
+    /**
+     * The pool of threads shared by all of the frames.
+     */
+    private static final ForkJoinPool POOL = new ForkJoinPool();
+
     /**
      * The main method.
      *
      * @param args command line arguments; not used in this program
      */
     public static void main(String[] args) {
-        RayTracerViewer.show(getIRayTracerProducer(),
+        RayTracerViewer.show(new RayTracerProducer(RayTracerViewer.createPredefinedScene()),
             new Point3D(10, 0, 0),
             new Point3D(0, 0, 0),
             new Point3D(0, 0, 10),
@@ -29,61 +40,162 @@ public class RayCasterParallel {
     }
 
     /**
-     * Implements the job which will be performed by threads.
+     * Computes the given frame with a single job in the pool shared by all
+     * of the frames, and waits for it to finish.
+     *
+     * @param frame the frame
+     */
+    public static void compute(Frame frame) {
+        POOL.invoke(new CalculationJob(frame, 0, frame.height - 1));
+    }
+
+    /**
+     * Implements the job which will be performed by threads. A job which
+     * is estimated to take longer than the grain of its frame is split in
+     * two halves of (roughly) equal cost; otherwise, its rows are computed
+     * directly and their costs are measured.
      *
      * @author Luka Čupić
      */
     public static class CalculationJob extends RecursiveAction {
 
+        /**
+         * The frame which this job computes a part of.
+         */
+        private Frame frame;
+
+        /**
+         * The minimum value of y for which this job is to be
+         * executed.
+         */
+        int yMin;
+
+        /**
+         * The maximum value of y for which this job is to be
+         * executed.
+         */
+        int yMax;
+
+        /**
+         * The constructor.
+         *
+         * @param frame the frame which this job computes a part of
+         * @param yMin  the minimum value of y for which this job is to be
+         *              executed
+         * @param yMax  the maximum value of y for which this job is to be
+         *              executed
+         */
+        public CalculationJob(Frame frame, int yMin, int yMax) {
+            this.frame = frame;
+            this.yMin = yMin;
+            this.yMax = yMax;
+        }
+
+        @Override
+        protected void compute() {
+            if (frame.cancelled) return;
+
+            if (yMin == yMax || frame.estimateCost(yMin, yMax) <= frame.grain) {
+                computeDirect();
+                return;
+            }
+
+            int split = frame.findSplit(yMin, yMax);
+            invokeAll(
+                new CalculationJob(frame, yMin, split),
+                new CalculationJob(frame, split + 1, yMax)
+            );
+        }
+
+        /**
+         * Computes the job starting from screen row {@link #yMin} and extents
+         * to {@link #yMax}, measuring the time spent on each of the rows.
+         */
+        public void computeDirect() {
+            // Otkomentirati sljedeći redak da se vidi kako je napravljena dekompozicija:
+            // System.out.println("Racunam od " + yMin + " do " + yMax);
+
+            int width = frame.width;
+            short[] rgb = new short[3];
+            RayHit hit = new RayHit();
+
+            for (int y = yMin; y <= yMax; y++) {
+                if (frame.cancelled) return;
+
+                long start = System.nanoTime();
+                double dj = (double) y / (frame.height - 1) * frame.vertical;
+                for (int x = 0; x < width; x++) {
+                    double di = (double) x / (width - 1) * frame.horizontal;
+                    RayCaster.tracePixel(frame.hierarchy, hit, frame.eye, frame.corner,
+                        frame.i, frame.j, di, dj, rgb);
+
+                    frame.store(y * width + x, rgb);
+                }
+                frame.costs[y] = System.nanoTime() - start;
+            }
+        }
+    }
+
+    /**
+     * Represents the calculation of the image of a single request: the
+     * parameters of the screen, the arrays to store the colors in and the
+     * estimated costs of the rows, by which the jobs are split. The colors
+     * are stored either in three arrays of the components, as expected by
+     * the viewer, or packed into a single array of RGB integers.
+     *
+     * @author Luka Čupić
+     */
+    public static class Frame {
+
+        /**
+         * The number of the request.
+         */
+        long requestNo;
+
         /**
          * Screen width.
          */
-        private int width;
+        int width;
 
         /**
          * Screen height.
          */
-        private int height;
+        int height;
 
         /**
          * Position of the human observer.
          */
-        private Point3D eye;
+        Point3D eye;
 
         /**
          * The corner of the screen.
          */
-        private Point3D corner;
+        Point3D corner;
 
         /**
          * Length of the horizontal component.
          */
-        private double horizontal;
+        double horizontal;
 
         /**
          * Length of the vertical component.
          */
-        private double vertical;
+        double vertical;
 
         /**
          * Represents the x-axis unit vector.
          */
-        private Point3D i;
+        Point3D i;
 
         /**
          * Represents the y-axis unit vector.
          */
-        private Point3D j;
-
-        /**
-         * Represents the scene.
-         */
-        private Scene scene;
+        Point3D j;
 
         /**
-         * The RGB color vector.
+         * The bounding volume hierarchy of the scene.
          */
-        private short[] rgb;
+        BoundingVolumeHierarchy hierarchy;
 
         /**
          * The Red color array.
@@ -101,149 +213,219 @@ public class RayCasterParallel {
         short[] blue;
 
         /**
-         * The minimum value of y for which this job is to be
-         * executed.
+         * The packed RGB colors, or null if the colors are stored in the
+         * arrays of the components.
          */
-        int yMin;
+        int[] pixels;
 
         /**
-         * The maximum value of y for which this job is to be
-         * executed.
+         * The estimated costs of the rows, summed up: the estimated cost of
+         * the rows before the row y is given at the index y.
          */
-        int yMax;
+        long[] estimates;
 
         /**
-         * The threshold for number of blocks per y direction
-         * for which the computation shall be performed directly
+         * The estimated cost above which a job is split.
          */
-        static final int threshold = 16;
+        long grain;
 
         /**
-         * The constructor.
+         * The measured costs of the rows, in nanoseconds.
+         */
+        long[] costs;
+
+        /**
+         * Tells whether a newer request has arrived.
+         */
+        volatile boolean cancelled;
+
+        /**
+         * Creates a new frame.
          *
+         * @param requestNo  the number of the request
+         * @param eye        position of the human observer
+         * @param view       the position the observer is looking at
+         * @param viewUp     the view-up vector
+         * @param horizontal length of the horizontal component
+         * @param vertical   length of the vertical component
          * @param width      screen width
-         * @param height     Screen height
+         * @param height     screen height
+         * @param hierarchy  the bounding volume hierarchy of the scene
+         * @param costs      the measured costs of the rows of a previous frame,
+         *                   or null if they are not known
+         */
+        public Frame(long requestNo, Point3D eye, Point3D view, Point3D viewUp,
+                     double horizontal, double vertical, int width, int height,
+                     BoundingVolumeHierarchy hierarchy, long[] costs) {
+            this(requestNo, eye, view, viewUp, horizontal, vertical, width, height, hierarchy, costs, null);
+            this.red = new short[width * height];
+            this.green = new short[width * height];
+            this.blue = new short[width * height];
+        }
+
+        /**
+         * Creates a new frame which stores the colors packed into the given
+         * array.
+         *
+         * @param requestNo  the number of the request
          * @param eye        position of the human observer
-         * @param corner     the corner of the screen
+         * @param view       the position the observer is looking at
+         * @param viewUp     the view-up vector
          * @param horizontal length of the horizontal component
          * @param vertical   length of the vertical component
-         * @param i          represents the x-axis unit vector
-         * @param j          represents the y-axis unit vector
-         * @param scene      represents the scene
-         * @param rgb        the RGB color vector
-         * @param red        the Red color array
-         * @param green      the Green color array
-         * @param blue       the Blue color array
-         * @param yMin       the minimum value of y for which this job is to be
-         *                   executed
-         * @param yMax       the maximum value of y for which this job is to be
-         *                   executed
-         */
-
-        public CalculationJob(int width, int height, Point3D eye, Point3D corner,
-                              double horizontal, double vertical, Point3D i, Point3D j,
-                              Scene scene, short[] rgb, short[] red, short[] green, short[] blue,
-                              int yMin, int yMax) {
+         * @param width      screen width
+         * @param height     screen height
+         * @param hierarchy  the bounding volume hierarchy of the scene
+         * @param costs      the measured costs of the rows of a previous frame,
+         *                   or null if they are not known
+         * @param pixels     the array to store the packed RGB colors in
+         */
+        public Frame(long requestNo, Point3D eye, Point3D view, Point3D viewUp,
+                     double horizontal, double vertical, int width, int height,
+                     BoundingVolumeHierarchy hierarchy, long[] costs, int[] pixels) {
+            this.requestNo = requestNo;
             this.width = width;
             this.height = height;
             this.eye = eye;
-            this.corner = corner;
             this.horizontal = horizontal;
             this.vertical = vertical;
-            this.i = i;
-            this.j = j;
-            this.scene = scene;
-            this.rgb = rgb;
-            this.red = red;
-            this.green = green;
-            this.blue = blue;
-            this.yMin = yMin;
-            this.yMax = yMax;
+            this.j = RayCaster.getJVector(eye, view, viewUp);
+            this.i = RayCaster.getIVector(eye, view, j);
+            this.corner = RayCaster.getScreenCorner(view, horizontal, vertical, i, j);
+            this.hierarchy = hierarchy;
+            this.pixels = pixels;
+            this.costs = new long[height];
+
+            // without the previous costs, all of the rows are assumed to cost the same
+            boolean known = costs != null && costs.length == height;
+            estimates = new long[height + 1];
+            for (int y = 0; y < height; y++) {
+                estimates[y + 1] = estimates[y] + 1 + (known ? costs[y] : 0);
+            }
+            grain = estimates[height] / (JOBS_PER_THREAD * POOL.getParallelism());
         }
 
-        @Override
-        protected void compute() {
-            if (yMax - yMin + 1 <= threshold) {
-                computeDirect();
-                return;
+        /**
+         * Stores the color of the given pixel, with each of the components
+         * limited to 255.
+         *
+         * @param offset the index of the pixel
+         * @param rgb    the RGB color vector
+         */
+        void store(int offset, short[] rgb) {
+            short r = rgb[0] > 255 ? 255 : rgb[0];
+            short g = rgb[1] > 255 ? 255 : rgb[1];
+            short b = rgb[2] > 255 ? 255 : rgb[2];
+
+            if (pixels != null) {
+                pixels[offset] = r << 16 | g << 8 | b;
+            } else {
+                red[offset] = r;
+                green[offset] = g;
+                blue[offset] = b;
             }
-            invokeAll(
-                new CalculationJob(width, height - 1, eye, corner,
-                    horizontal, vertical, i, j, scene, rgb, red, green, blue,
-                    yMin, yMin + (yMax - yMin) / 2),
-                new CalculationJob(width, height - 1, eye, corner,
-                    horizontal, vertical, i, j, scene, rgb, red, green, blue,
-                    yMin + (yMax - yMin) / 2 + 1, yMax)
-            );
         }
 
         /**
-         * Computes the job starting from screen row {@link #yMin} and extents
-         * to {@link #yMax}.
+         * Estimates the cost of the given rows.
+         *
+         * @param yMin the first row
+         * @param yMax the last row
+         * @return the estimated cost of the rows
          */
-        public void computeDirect() {
-            // Otkomentirati sljedeći redak da se vidi kako je napravljena dekompozicija:
-            // System.out.println("Racunam od " + yMin + " do " + yMax);
+        long estimateCost(int yMin, int yMax) {
+            return estimates[yMax + 1] - estimates[yMin];
+        }
 
-            for (int y = yMin; y <= yMax; y++) {
-                for (int x = 0; x < width; x++) {
-                    Point3D screenPoint = RayCaster.mapToCoordinateSystem(
-                        corner, x, y, width, height,
-                        horizontal, vertical, i, j
-                    );
-                    Ray ray = Ray.fromPoints(eye, screenPoint);
-                    RayCaster.tracer(scene, ray, rgb);
-
-                    int offset = y * width + x;
-                    red[offset] = rgb[0] > 255 ? 255 : rgb[0];
-                    green[offset] = rgb[1] > 255 ? 255 : rgb[1];
-                    blue[offset] = rgb[2] > 255 ? 255 : rgb[2];
+        /**
+         * Finds the row which splits the given rows in two parts of
+         * (roughly) equal estimated cost.
+         *
+         * @param yMin the first row
+         * @param yMax the last row; must be greater than the first row
+         * @return the last row of the first part
+         */
+        int findSplit(int yMin, int yMax) {
+            long half = estimates[yMin] + estimateCost(yMin, yMax) / 2;
+
+            int low = yMin;
+            int high = yMax - 1;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (estimates[mid + 1] < half) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
                 }
             }
+            return low;
         }
     }
 
     /**
-     * Creates and returns a new ray tracer producer.
+     * Represents a ray tracer producer which computes each frame with a
+     * single job in a pool shared by all of the producers. Once a newer
+     * request arrives, the frames of the older requests are cancelled.
      *
-     * @return a new ray tracer producer
+     * @author Luka Čupić
      */
-    private static IRayTracerProducer getIRayTracerProducer() {
-        return new IRayTracerProducer() {
-            @Override
-            public void produce(Point3D eye, Point3D view, Point3D viewUp, double horizontal, double vertical,
-                                int width, int height, long requestNo, IRayTracerResultObserver observer) {
-                System.out.println("Zapocinjem izracun...");
-                short[] red = new short[width * height];
-                short[] green = new short[width * height];
-                short[] blue = new short[width * height];
-
-                final int noOfTracks = 8 * Runtime.getRuntime().availableProcessors();
-                int ysPerTrack = height / noOfTracks;
-
-                Point3D j = RayCaster.getJVector(eye, view, viewUp);
-                Point3D i = RayCaster.getIVector(eye, view, j);
-                Point3D corner = RayCaster.getScreenCorner(view, horizontal, vertical, i, j);
-                Scene scene = RayTracerViewer.createPredefinedScene();
-                short[] rgb = new short[3];
-
-                ForkJoinPool pool = new ForkJoinPool();
-                for (int k = 0; k < noOfTracks; k++) {
-                    int yMin = k * ysPerTrack;
-                    int yMax = (k + 1) * ysPerTrack - 1;
-                    if (k == noOfTracks - 1) {
-                        yMax = height - 1;
-                    }
-                    pool.invoke(new CalculationJob(width, height - 1, eye, corner,
-                        horizontal, vertical, i, j, scene, rgb, red, green, blue, yMin, yMax
-                    ));
+    public static class RayTracerProducer implements IRayTracerProducer {
+
+        /**
+         * The bounding volume hierarchy of the scene, built once for all of
+         * the frames.
+         */
+        private BoundingVolumeHierarchy hierarchy;
+
+        /**
+         * The frame of the latest request, or null if there has been none.
+         */
+        private Frame current;
+
+        /**
+         * The measured costs of the rows of the last completed frame, or
+         * null if no frame has been completed yet.
+         */
+        private long[] costs;
+
+        /**
+         * Creates a new producer.
+         *
+         * @param scene the scene to render
+         */
+        public RayTracerProducer(Scene scene) {
+            this.hierarchy = new BoundingVolumeHierarchy(scene);
+        }
+
+        @Override
+        public void produce(Point3D eye, Point3D view, Point3D viewUp, double horizontal, double vertical,
+                            int width, int height, long requestNo, IRayTracerResultObserver observer) {
+            System.out.println("Zapocinjem izracun...");
+
+            Frame frame;
+            synchronized (this) {
+                if (current != null && requestNo < current.requestNo) return;
+
+                if (current != null) {
+                    current.cancelled = true;
                 }
-                pool.shutdown();
+                frame = new Frame(requestNo, eye, view, viewUp, horizontal, vertical,
+                    width, height, hierarchy, costs);
+                current = frame;
+            }
+
+            compute(frame);
+
+            // a newer request cancels the frame while holding the lock, so the
+            // frame cannot be cancelled between the check and the delivery
+            synchronized (this) {
+                if (frame.cancelled) return;
+                costs = frame.costs;
 
                 System.out.println("Izračuni gotovi...");
-                observer.acceptResult(red, green, blue, requestNo);
+                observer.acceptResult(frame.red, frame.green, frame.blue, requestNo);
                 System.out.println("Dojava gotova...");
             }
-        };
+        }
     }
 }
@@ -0,0 +1,581 @@
+package hr.fer.zemris.java.raytracer.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Represents a bounding volume hierarchy over the objects of a scene: a
+ * binary tree of axis-aligned boxes, where each box contains the boxes of
+ * its children and the leaves hold the objects themselves. A ray is only
+ * tested against the objects whose boxes it passes through, so the cost
+ * of finding an intersection grows with the logarithm of the number of
+ * objects instead of linearly.
+ * <p>
+ * The hierarchy is built once for a scene, by splitting the objects along
+ * the planes chosen by the surface area heuristic (the probability of a
+ * ray hitting a box is proportional to its surface area). The objects
+ * which are not {@link IBoundedObject bounded} are kept aside and tested
+ * against every ray. The scene should not be modified after the hierarchy
+ * has been built.
+ *
+ * @author Luka Čupić
+ */
+public class BoundingVolumeHierarchy {
+
+    /**
+     * The number of bins the objects are sorted in when looking for the
+     * best splitting plane.
+     */
+    private static final int BINS = 16;
+
+    /**
+     * The maximal number of objects in a leaf which is not worth splitting.
+     */
+    private static final int MAX_LEAF_SIZE = 4;
+
+    /**
+     * The cost of testing a ray against a box, relative to the cost of
+     * testing it against an object.
+     */
+    private static final double TRAVERSAL_COST = 0.5;
+
+    /**
+     * The maximal depth of the tree.
+     */
+    private static final int MAX_DEPTH = 62;
+
+    /**
+     * The size of the stack used for searching the tree, which is bounded
+     * by its depth.
+     */
+    static final int STACK_SIZE = MAX_DEPTH + 2;
+
+    /**
+     * The relative padding of the boxes, so that rounding errors of the
+     * intersections never miss their boxes.
+     */
+    private static final double PADDING = 10E-9;
+
+    /**
+     * The entry distance of a ray which misses a box.
+     */
+    private static final double MISS = Double.POSITIVE_INFINITY;
+
+    /**
+     * The scene.
+     */
+    private Scene scene;
+
+    /**
+     * The bounded objects, ordered so that the objects of each leaf are
+     * next to each other.
+     */
+    private GraphicalObject[] objects;
+
+    /**
+     * The indices of the bounded objects in the scene; of two equally
+     * distant intersections, the one with the object added first is taken.
+     */
+    private int[] indices;
+
+    /**
+     * The objects which are not bounded.
+     */
+    private GraphicalObject[] unbounded;
+
+    /**
+     * The indices of the objects which are not bounded in the scene.
+     */
+    private int[] unboundedIndices;
+
+    /**
+     * The boxes of the nodes, each given by its minimal x, y and z followed
+     * by its maximal x, y and z. The left child of a node directly follows
+     * its parent.
+     */
+    private double[] bounds;
+
+    /**
+     * The index of the right child of each of the inner nodes, or the index
+     * of the first object of each of the leaves.
+     */
+    private int[] first;
+
+    /**
+     * The number of objects in each of the leaves; zero for inner nodes.
+     */
+    private int[] count;
+
+    /**
+     * The number of nodes.
+     */
+    private int nodeCount;
+
+    /**
+     * Builds the hierarchy over the objects of the given scene.
+     *
+     * @param scene the scene
+     */
+    public BoundingVolumeHierarchy(Scene scene) {
+        this.scene = scene;
+
+        List<GraphicalObject> sceneObjects = scene.getObjects();
+        List<Integer> boundedIndices = new ArrayList<>();
+        List<Integer> unboundedList = new ArrayList<>();
+        for (int k = 0, size = sceneObjects.size(); k < size; k++) {
+            if (sceneObjects.get(k) instanceof IBoundedObject) {
+                boundedIndices.add(k);
+            } else {
+                unboundedList.add(k);
+            }
+        }
+
+        unbounded = new GraphicalObject[unboundedList.size()];
+        unboundedIndices = new int[unboundedList.size()];
+        for (int k = 0; k < unbounded.length; k++) {
+            unboundedIndices[k] = unboundedList.get(k);
+            unbounded[k] = sceneObjects.get(unboundedIndices[k]);
+        }
+
+        int n = boundedIndices.size();
+        double[] objectBounds = new double[6 * n];
+        double[] centroids = new double[3 * n];
+        int[] order = new int[n];
+        for (int k = 0; k < n; k++) {
+            ((IBoundedObject) sceneObjects.get(boundedIndices.get(k))).getBounds(objectBounds, 6 * k);
+            for (int axis = 0; axis < 3; axis++) {
+                double min = objectBounds[6 * k + axis];
+                double max = objectBounds[6 * k + axis + 3];
+                objectBounds[6 * k + axis] = min - PADDING * (1 + Math.abs(min));
+                objectBounds[6 * k + axis + 3] = max + PADDING * (1 + Math.abs(max));
+                centroids[3 * k + axis] = (min + max) / 2;
+            }
+            order[k] = k;
+        }
+
+        int capacity = Math.max(1, 2 * n - 1);
+        bounds = new double[6 * capacity];
+        first = new int[capacity];
+        count = new int[capacity];
+        if (n > 0) {
+            build(objectBounds, centroids, order, 0, n, 0);
+        }
+
+        objects = new GraphicalObject[n];
+        indices = new int[n];
+        for (int k = 0; k < n; k++) {
+            indices[k] = boundedIndices.get(order[k]);
+            objects[k] = sceneObjects.get(indices[k]);
+        }
+    }
+
+    /**
+     * Gets the scene.
+     *
+     * @return the scene
+     */
+    public Scene getScene() {
+        return scene;
+    }
+
+    /**
+     * Finds the closest intersection of the given ray with any object from
+     * the scene and stores it in the given hit.
+     *
+     * @param ox  the x coordinate of the start of the ray
+     * @param oy  the y coordinate of the start of the ray
+     * @param oz  the z coordinate of the start of the ray
+     * @param dx  the x coordinate of the (normalized) direction of the ray
+     * @param dy  the y coordinate of the (normalized) direction of the ray
+     * @param dz  the z coordinate of the (normalized) direction of the ray
+     * @param hit the hit to store the intersection in
+     * @return true if an intersection has been found; false otherwise
+     */
+    public boolean findClosestIntersection(double ox, double oy, double oz,
+                                           double dx, double dy, double dz, RayHit hit) {
+        GraphicalObject closest = null;
+        double minDist = MISS;
+        int closestIndex = Integer.MAX_VALUE;
+
+        for (int k = 0; k < unbounded.length; k++) {
+            double dist = distance(unbounded[k], ox, oy, oz, dx, dy, dz);
+            if (dist < 0) continue;
+
+            if (dist < minDist || dist == minDist && unboundedIndices[k] < closestIndex) {
+                minDist = dist;
+                closest = unbounded[k];
+                closestIndex = unboundedIndices[k];
+            }
+        }
+
+        double ix = 1 / dx, iy = 1 / dy, iz = 1 / dz;
+        int[] stack = hit.stack;
+        double[] entries = hit.entries;
+        int size = 0;
+
+        double rootEntry = objects.length == 0 ? MISS : entry(0, ox, oy, oz, ix, iy, iz, minDist);
+        if (rootEntry != MISS) {
+            stack[size] = 0;
+            entries[size++] = rootEntry;
+        }
+        while (size > 0) {
+            int node = stack[--size];
+            if (entries[size] > minDist) continue;
+
+            if (count[node] > 0) {
+                for (int k = first[node], end = k + count[node]; k < end; k++) {
+                    double dist = distance(objects[k], ox, oy, oz, dx, dy, dz);
+                    if (dist < 0) continue;
+
+                    if (dist < minDist || dist == minDist && indices[k] < closestIndex) {
+                        minDist = dist;
+                        closest = objects[k];
+                        closestIndex = indices[k];
+                    }
+                }
+                continue;
+            }
+
+            // the nearer child is visited first, so that the farther one can be skipped
+            int left = node + 1;
+            int right = first[node];
+            double leftEntry = entry(left, ox, oy, oz, ix, iy, iz, minDist);
+            double rightEntry = entry(right, ox, oy, oz, ix, iy, iz, minDist);
+            if (leftEntry > rightEntry) {
+                int t = left;
+                left = right;
+                right = t;
+                double e = leftEntry;
+                leftEntry = rightEntry;
+                rightEntry = e;
+            }
+            if (rightEntry != MISS && rightEntry <= minDist) {
+                stack[size] = right;
+                entries[size++] = rightEntry;
+            }
+            if (leftEntry != MISS && leftEntry <= minDist) {
+                stack[size] = left;
+                entries[size++] = leftEntry;
+            }
+        }
+
+        if (closest == null) return false;
+
+        if (closest instanceof IPrimitiveIntersectable) {
+            hit.distance = minDist;
+            hit.x = ox + dx * minDist;
+            hit.y = oy + dy * minDist;
+            hit.z = oz + dz * minDist;
+            ((IPrimitiveIntersectable) closest).fillIntersection(hit);
+        } else {
+            hit.set(closest.findClosestRayIntersection(toRay(ox, oy, oz, dx, dy, dz)));
+        }
+        return true;
+    }
+
+    /**
+     * Checks whether the given ray intersects any object from the scene
+     * closer than the given distance. The search stops at the first such
+     * intersection, which makes it suitable for the rays towards the light
+     * sources, where it does not matter which object is in the way.
+     *
+     * @param ox       the x coordinate of the start of the ray
+     * @param oy       the y coordinate of the start of the ray
+     * @param oz       the z coordinate of the start of the ray
+     * @param dx       the x coordinate of the (normalized) direction of the ray
+     * @param dy       the y coordinate of the (normalized) direction of the ray
+     * @param dz       the z coordinate of the (normalized) direction of the ray
+     * @param distance the distance up to which the intersections are counted
+     * @param scratch  the hit whose stack is used for the search; its
+     *                 intersection is left intact
+     * @return true if the ray intersects an object closer than the given
+     * distance; false otherwise
+     */
+    public boolean isOccluded(double ox, double oy, double oz, double dx, double dy, double dz,
+                              double distance, RayHit scratch) {
+        for (GraphicalObject object : unbounded) {
+            double dist = distance(object, ox, oy, oz, dx, dy, dz);
+            if (dist >= 0 && dist < distance) return true;
+        }
+        if (objects.length == 0) return false;
+
+        double ix = 1 / dx, iy = 1 / dy, iz = 1 / dz;
+        int[] stack = scratch.stack;
+        int size = 0;
+
+        stack[size++] = 0;
+        while (size > 0) {
+            int node = stack[--size];
+            if (entry(node, ox, oy, oz, ix, iy, iz, distance) == MISS) continue;
+
+            if (count[node] > 0) {
+                for (int k = first[node], end = k + count[node]; k < end; k++) {
+                    double dist = distance(objects[k], ox, oy, oz, dx, dy, dz);
+                    if (dist >= 0 && dist < distance) return true;
+                }
+                continue;
+            }
+            stack[size++] = first[node];
+            stack[size++] = node + 1;
+        }
+        return false;
+    }
+
+    /**
+     * Finds the distance of the closest intersection of the given object
+     * with the given ray. Only the objects which are not
+     * {@link IPrimitiveIntersectable} need a {@link Ray} to be created.
+     *
+     * @param object the object
+     * @param ox     the x coordinate of the start of the ray
+     * @param oy     the y coordinate of the start of the ray
+     * @param oz     the z coordinate of the start of the ray
+     * @param dx     the x coordinate of the direction of the ray
+     * @param dy     the y coordinate of the direction of the ray
+     * @param dz     the z coordinate of the direction of the ray
+     * @return the distance of the intersection, or a negative number if
+     * the ray does not intersect the object
+     */
+    private static double distance(GraphicalObject object, double ox, double oy, double oz,
+                                   double dx, double dy, double dz) {
+        if (object instanceof IPrimitiveIntersectable) {
+            return ((IPrimitiveIntersectable) object).findClosestRayIntersection(ox, oy, oz, dx, dy, dz);
+        }
+
+        RayIntersection intersection = object.findClosestRayIntersection(toRay(ox, oy, oz, dx, dy, dz));
+        return intersection == null ? -1 : intersection.getDistance();
+    }
+
+    /**
+     * Creates a ray from the given coordinates.
+     *
+     * @param ox the x coordinate of the start of the ray
+     * @param oy the y coordinate of the start of the ray
+     * @param oz the z coordinate of the start of the ray
+     * @param dx the x coordinate of the direction of the ray
+     * @param dy the y coordinate of the direction of the ray
+     * @param dz the z coordinate of the direction of the ray
+     * @return the ray
+     */
+    private static Ray toRay(double ox, double oy, double oz, double dx, double dy, double dz) {
+        return new Ray(new Point3D(ox, oy, oz), new Point3D(dx, dy, dz));
+    }
+
+    /**
+     * Finds the distance at which the given ray enters the box of the given
+     * node, by clipping the ray with the three pairs of the planes of the
+     * box.
+     *
+     * @param node  the node
+     * @param ox    the x coordinate of the start of the ray
+     * @param oy    the y coordinate of the start of the ray
+     * @param oz    the z coordinate of the start of the ray
+     * @param ix    the inverse of the x coordinate of the direction of the ray
+     * @param iy    the inverse of the y coordinate of the direction of the ray
+     * @param iz    the inverse of the z coordinate of the direction of the ray
+     * @param limit the distance beyond which the box is not searched
+     * @return the distance at which the ray enters the box, zero if it starts
+     * inside the box, or {@link #MISS} if it misses the box before the
+     * given limit
+     */
+    private double entry(int node, double ox, double oy, double oz,
+                         double ix, double iy, double iz, double limit) {
+        int b = 6 * node;
+        double tNear = 0;
+        double tFar = limit;
+
+        double t1 = (bounds[b] - ox) * ix;
+        double t2 = (bounds[b + 3] - ox) * ix;
+        if (t1 > t2) { double t = t1; t1 = t2; t2 = t; }
+        if (t1 > tNear) tNear = t1;
+        if (t2 < tFar) tFar = t2;
+
+        t1 = (bounds[b + 1] - oy) * iy;
+        t2 = (bounds[b + 4] - oy) * iy;
+        if (t1 > t2) { double t = t1; t1 = t2; t2 = t; }
+        if (t1 > tNear) tNear = t1;
+        if (t2 < tFar) tFar = t2;
+
+        t1 = (bounds[b + 2] - oz) * iz;
+        t2 = (bounds[b + 5] - oz) * iz;
+        if (t1 > t2) { double t = t1; t1 = t2; t2 = t; }
+        if (t1 > tNear) tNear = t1;
+        if (t2 < tFar) tFar = t2;
+
+        return tNear <= tFar ? tNear : MISS;
+    }
+
+    /**
+     * Builds the subtree over the given objects. The objects are split by
+     * the plane (between the bins of their centroids along the longest axis)
+     * for which the surface area heuristic estimates the lowest cost, unless
+     * the cost of testing all of them is lower.
+     *
+     * @param objectBounds the boxes of the objects
+     * @param centroids    the centroids of the objects
+     * @param order        the order of the objects, which is rearranged so
+     *                     that the objects of each leaf are next to each other
+     * @param start        the index of the first object in the order
+     * @param end          the index after the last object in the order
+     * @param depth        the depth of the subtree
+     * @return the index of the root of the subtree
+     */
+    private int build(double[] objectBounds, double[] centroids, int[] order,
+                      int start, int end, int depth) {
+        int node = nodeCount++;
+        int n = end - start;
+
+        double[] centroidBounds = new double[6];
+        initBounds(bounds, 6 * node);
+        initBounds(centroidBounds, 0);
+        for (int k = start; k < end; k++) {
+            int o = order[k];
+            growBounds(bounds, 6 * node, objectBounds, 6 * o, 6 * o + 3);
+            growBounds(centroidBounds, 0, centroids, 3 * o, 3 * o);
+        }
+
+        int axis = 0;
+        for (int a = 1; a < 3; a++) {
+            if (centroidBounds[a + 3] - centroidBounds[a] > centroidBounds[axis + 3] - centroidBounds[axis]) {
+                axis = a;
+            }
+        }
+        double min = centroidBounds[axis];
+        double extent = centroidBounds[axis + 3] - min;
+
+        if (n <= 1 || depth >= MAX_DEPTH || extent <= 0) {
+            return makeLeaf(node, start, n);
+        }
+
+        int[] binCounts = new int[BINS];
+        double[] binBounds = new double[6 * BINS];
+        for (int bin = 0; bin < BINS; bin++) {
+            initBounds(binBounds, 6 * bin);
+        }
+        for (int k = start; k < end; k++) {
+            int o = order[k];
+            int bin = bin(centroids[3 * o + axis], min, extent);
+            binCounts[bin]++;
+            growBounds(binBounds, 6 * bin, objectBounds, 6 * o, 6 * o + 3);
+        }
+
+        // the areas and counts of the bins right of each of the planes
+        double[] rightAreas = new double[BINS];
+        int[] rightCounts = new int[BINS];
+        double[] box = new double[6];
+        initBounds(box, 0);
+        for (int bin = BINS - 1, total = 0; bin > 0; bin--) {
+            total += binCounts[bin];
+            growBounds(box, 0, binBounds, 6 * bin, 6 * bin + 3);
+            rightAreas[bin] = area(box, 0);
+            rightCounts[bin] = total;
+        }
+
+        // the plane after the best bin; the costs are not divided by the area of the node
+        int best = -1;
+        double bestCost = Double.POSITIVE_INFINITY;
+        initBounds(box, 0);
+        for (int bin = 0, total = 0; bin < BINS - 1; bin++) {
+            total += binCounts[bin];
+            growBounds(box, 0, binBounds, 6 * bin, 6 * bin + 3);
+            if (total == 0 || rightCounts[bin + 1] == 0) continue;
+
+            double cost = area(box, 0) * total + rightAreas[bin + 1] * rightCounts[bin + 1];
+            if (cost < bestCost) {
+                bestCost = cost;
+                best = bin;
+            }
+        }
+
+        double nodeArea = area(bounds, 6 * node);
+        if (best == -1 || n <= MAX_LEAF_SIZE && TRAVERSAL_COST * nodeArea + bestCost >= n * nodeArea) {
+            return makeLeaf(node, start, n);
+        }
+
+        int i = start;
+        int j = end - 1;
+        while (i <= j) {
+            if (bin(centroids[3 * order[i] + axis], min, extent) <= best) {
+                i++;
+            } else {
+                int t = order[i];
+                order[i] = order[j];
+                order[j--] = t;
+            }
+        }
+
+        build(objectBounds, centroids, order, start, i, depth + 1);
+        first[node] = build(objectBounds, centroids, order, i, end, depth + 1);
+        return node;
+    }
+
+    /**
+     * Makes the given node a leaf.
+     *
+     * @param node  the node
+     * @param start the index of the first object of the leaf
+     * @param n     the number of objects in the leaf
+     * @return the node
+     */
+    private int makeLeaf(int node, int start, int n) {
+        first[node] = start;
+        count[node] = n;
+        return node;
+    }
+
+    /**
+     * Finds the bin of the given centroid.
+     *
+     * @param centroid the coordinate of the centroid along the split axis
+     * @param min      the minimal coordinate of the centroids
+     * @param extent   the extent of the centroids
+     * @return the bin of the centroid
+     */
+    private static int bin(double centroid, double min, double extent) {
+        int bin = (int) ((centroid - min) / extent * BINS);
+        return bin < BINS ? bin : BINS - 1;
+    }
+
+    /**
+     * Initializes the given box to an empty box.
+     *
+     * @param box    the array of the box
+     * @param offset the index of the box in the array
+     */
+    private static void initBounds(double[] box, int offset) {
+        Arrays.fill(box, offset, offset + 3, Double.POSITIVE_INFINITY);
+        Arrays.fill(box, offset + 3, offset + 6, Double.NEGATIVE_INFINITY);
+    }
+
+    /**
+     * Grows the given box so that it contains the given minimal and maximal
+     * points.
+     *
+     * @param box    the array of the box
+     * @param offset the index of the box in the array
+     * @param points the array of the points
+     * @param min    the index of the minimal point in the array
+     * @param max    the index of the maximal point in the array
+     */
+    private static void growBounds(double[] box, int offset, double[] points, int min, int max) {
+        for (int axis = 0; axis < 3; axis++) {
+            box[offset + axis] = Math.min(box[offset + axis], points[min + axis]);
+            box[offset + axis + 3] = Math.max(box[offset + axis + 3], points[max + axis]);
+        }
+    }
+
+    /**
+     * Calculates the half of the surface area of the given box.
+     *
+     * @param box    the array of the box
+     * @param offset the index of the box in the array
+     * @return the half of the surface area of the box
+     */
+    private static double area(double[] box, int offset) {
+        double dx = box[offset + 3] - box[offset];
+        double dy = box[offset + 4] - box[offset + 1];
+        double dz = box[offset + 5] - box[offset + 2];
+        return dx * dy + dy * dz + dz * dx;
+    }
+}
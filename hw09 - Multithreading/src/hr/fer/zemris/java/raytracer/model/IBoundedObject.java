@@ -0,0 +1,20 @@
+package hr.fer.zemris.java.raytracer.model;
+
+/**
+ * Represents a graphical object which is contained within a known
+ * axis-aligned box, so that it can be put in a
+ * {@link BoundingVolumeHierarchy}.
+ *
+ * @author Luka Čupić
+ */
+public interface IBoundedObject {
+
+    /**
+     * Stores the bounding box of the object in the given array, as its
+     * minimal x, y and z followed by its maximal x, y and z.
+     *
+     * @param bounds the array to store the box in
+     * @param offset the index at which the box is stored
+     */
+    void getBounds(double[] bounds, int offset);
+}
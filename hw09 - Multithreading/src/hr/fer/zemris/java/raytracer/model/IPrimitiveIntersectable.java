@@ -0,0 +1,35 @@
+package hr.fer.zemris.java.raytracer.model;
+
+/**
+ * Represents a graphical object whose intersections with a ray can be found
+ * from the coordinates of the ray, without creating any objects. The
+ * details of the closest intersection are written into a {@link RayHit}
+ * provided by the caller.
+ *
+ * @author Luka Čupić
+ */
+public interface IPrimitiveIntersectable {
+
+    /**
+     * Finds the closest intersection of the object with the given ray.
+     *
+     * @param ox the x coordinate of the start of the ray
+     * @param oy the y coordinate of the start of the ray
+     * @param oz the z coordinate of the start of the ray
+     * @param dx the x coordinate of the (normalized) direction of the ray
+     * @param dy the y coordinate of the (normalized) direction of the ray
+     * @param dz the z coordinate of the (normalized) direction of the ray
+     * @return the distance of the intersection from the start of the ray,
+     * or a negative number if the ray does not intersect the object
+     */
+    double findClosestRayIntersection(double ox, double oy, double oz,
+                                      double dx, double dy, double dz);
+
+    /**
+     * Stores the normal and the coefficients of the object at the point of
+     * the given hit, which has been found by this object.
+     *
+     * @param hit the hit whose point is set
+     */
+    void fillIntersection(RayHit hit);
+}
@@ -0,0 +1,118 @@
+package hr.fer.zemris.java.raytracer.model;
+
+/**
+ * Represents a mutable intersection of a ray and an object, which is
+ * overwritten by every search for an intersection instead of creating a
+ * new {@link RayIntersection}. It also holds the stack used for searching
+ * a {@link BoundingVolumeHierarchy}, so a single hit should be used by
+ * only one thread at a time.
+ *
+ * @author Luka Čupić
+ */
+public class RayHit {
+
+    /**
+     * The distance of the intersection from the start of the ray.
+     */
+    public double distance;
+
+    /**
+     * The x coordinate of the point of the intersection.
+     */
+    public double x;
+
+    /**
+     * The y coordinate of the point of the intersection.
+     */
+    public double y;
+
+    /**
+     * The z coordinate of the point of the intersection.
+     */
+    public double z;
+
+    /**
+     * The x coordinate of the normal at the point of the intersection.
+     */
+    public double nx;
+
+    /**
+     * The y coordinate of the normal at the point of the intersection.
+     */
+    public double ny;
+
+    /**
+     * The z coordinate of the normal at the point of the intersection.
+     */
+    public double nz;
+
+    /**
+     * Diffuse component for the red color.
+     */
+    public double kdr;
+
+    /**
+     * Diffuse component for the green color.
+     */
+    public double kdg;
+
+    /**
+     * Diffuse component for the blue color.
+     */
+    public double kdb;
+
+    /**
+     * Reflective component for the red color.
+     */
+    public double krr;
+
+    /**
+     * Reflective component for the green color.
+     */
+    public double krg;
+
+    /**
+     * Reflective component for the blue color.
+     */
+    public double krb;
+
+    /**
+     * Reflective component coefficient.
+     */
+    public double krn;
+
+    /**
+     * The nodes waiting to be searched.
+     */
+    int[] stack = new int[BoundingVolumeHierarchy.STACK_SIZE];
+
+    /**
+     * The distances at which the ray enters the nodes waiting to be searched.
+     */
+    double[] entries = new double[BoundingVolumeHierarchy.STACK_SIZE];
+
+    /**
+     * Copies the given intersection into this hit.
+     *
+     * @param intersection the intersection
+     */
+    public void set(RayIntersection intersection) {
+        Point3D point = intersection.getPoint();
+        Point3D normal = intersection.getNormal();
+
+        distance = intersection.getDistance();
+        x = point.x;
+        y = point.y;
+        z = point.z;
+        nx = normal.x;
+        ny = normal.y;
+        nz = normal.z;
+        kdr = intersection.getKdr();
+        kdg = intersection.getKdg();
+        kdb = intersection.getKdb();
+        krr = intersection.getKrr();
+        krg = intersection.getKrg();
+        krb = intersection.getKrb();
+        krn = intersection.getKrn();
+    }
+}
@@ -6,7 +6,7 @@ package hr.fer.zemris.java.raytracer.model;
  *
  * @author Luka Čupić
  */
-public class Sphere extends GraphicalObject {
+public class Sphere extends GraphicalObject implements IBoundedObject, IPrimitiveIntersectable {
 
     /**
      * Center of the sphere.
@@ -79,15 +79,38 @@ public class Sphere extends GraphicalObject {
         this.krn = krn;
     }
 
+    @Override
+    public void getBounds(double[] bounds, int offset) {
+        bounds[offset] = center.x - radius;
+        bounds[offset + 1] = center.y - radius;
+        bounds[offset + 2] = center.z - radius;
+        bounds[offset + 3] = center.x + radius;
+        bounds[offset + 4] = center.y + radius;
+        bounds[offset + 5] = center.z + radius;
+    }
+
     @Override
     public RayIntersection findClosestRayIntersection(Ray ray) {
-        Point3D L = center.sub(ray.start);
+        double t0 = findClosestRayIntersection(ray.start.x, ray.start.y, ray.start.z,
+            ray.direction.x, ray.direction.y, ray.direction.z);
+        if (t0 < 0) return null;
 
-        double tca = L.scalarProduct(ray.direction);
-        if (tca < 0) return null;
+        Point3D point = ray.start.add(ray.direction.scalarMultiply(t0));
+        return new SphereRayIntersection(point, t0, true);
+    }
 
-        double d = Math.sqrt(L.scalarProduct(L) - tca * tca);
-        if (d > radius) return null;
+    @Override
+    public double findClosestRayIntersection(double ox, double oy, double oz,
+                                             double dx, double dy, double dz) {
+        double lx = center.x - ox;
+        double ly = center.y - oy;
+        double lz = center.z - oz;
+
+        double tca = lx * dx + ly * dy + lz * dz;
+        if (tca < 0) return -1;
+
+        double d = Math.sqrt(lx * lx + ly * ly + lz * lz - tca * tca);
+        if (d > radius) return -1;
 
         double thc = Math.sqrt(radius * radius - d * d);
 
@@ -102,11 +125,27 @@ public class Sphere extends GraphicalObject {
 
         if (t0 < 0) {
             t0 = t1;
-            if (t0 < 0) return null;
         }
+        return t0;
+    }
 
-        Point3D point = ray.start.add(ray.direction.scalarMultiply(t0));
-        return new SphereRayIntersection(point, t0, true);
+    @Override
+    public void fillIntersection(RayHit hit) {
+        double nx = hit.x - center.x;
+        double ny = hit.y - center.y;
+        double nz = hit.z - center.z;
+        double norm = Math.sqrt(nx * nx + ny * ny + nz * nz);
+
+        hit.nx = nx / norm;
+        hit.ny = ny / norm;
+        hit.nz = nz / norm;
+        hit.kdr = kdr;
+        hit.kdg = kdg;
+        hit.kdb = kdb;
+        hit.krr = krr;
+        hit.krg = krg;
+        hit.krb = krb;
+        hit.krn = krn;
     }
 
     /**
@@ -124,6 +124,25 @@ public class ComplexPolynomial {
         return result;
     }
 
+    /**
+     * Returns the factors of this polynomial as an array of their
+     * interleaved real and imaginary parts, so that the factor of
+     * the term {@code z^i} is stored at the indices {@code 2*i}
+     * and {@code 2*i+1}.
+     *
+     * @return a new array of the real and imaginary parts of the
+     * factors of this polynomial
+     */
+    public double[] toArray() {
+        double[] array = new double[2 * factors.size()];
+        for (int i = 0, size = factors.size(); i < size; i++) {
+            Complex factor = factors.get(i);
+            array[2 * i] = factor.getReal();
+            array[2 * i + 1] = factor.getImaginary();
+        }
+        return array;
+    }
+
     /**
      * Returns the factors of this polynomial.
      *
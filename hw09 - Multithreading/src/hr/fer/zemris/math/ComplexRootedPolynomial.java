@@ -25,6 +25,13 @@ public class ComplexRootedPolynomial {
      */
     private List<Complex> roots;
 
+    /**
+     * Represents the interleaved real and imaginary parts of the roots
+     * of this polynomial, which are scanned when looking for the root
+     * closest to a point.
+     */
+    private double[] rootParts;
+
     /**
      * Creates a new instance of this class.
      *
@@ -32,6 +39,12 @@ public class ComplexRootedPolynomial {
      */
     public ComplexRootedPolynomial(Complex... roots) {
         this.roots = new ArrayList<>(Arrays.asList(roots));
+
+        this.rootParts = new double[2 * roots.length];
+        for (int i = 0; i < roots.length; i++) {
+            rootParts[2 * i] = roots[i].getReal();
+            rootParts[2 * i + 1] = roots[i].getImaginary();
+        }
     }
 
     /**
@@ -97,20 +110,40 @@ public class ComplexRootedPolynomial {
      * {@code -1} if no roots are found within the threshold
      */
     public int indexOfClosestRootFor(Complex z, double threshold) {
-        Complex closestRoot = null;
+        return indexOfClosestRootFor(z.getReal(), z.getImaginary(), threshold);
+    }
+
+    /**
+     * Finds a root of this polynomial which is closest to the complex
+     * number given by its real and imaginary parts and returns it's
+     * index, just like {@link #indexOfClosestRootFor(Complex, double)},
+     * but without creating any objects.
+     *
+     * @param re        the real part of the complex number
+     * @param im        the imaginary part of the complex number
+     * @param threshold the maximum distance between the given
+     *                  complex number and a polynomial root
+     * @return the index of a root closest to the specified
+     * complex number that is within the given threshold, or
+     * {@code -1} if no roots are found within the threshold
+     */
+    public int indexOfClosestRootFor(double re, double im, double threshold) {
+        int closestIndex = -1;
         double shortestDistance = -1;
 
-        for (Complex root : roots) {
-            double dist = z.sub(root).module();
+        for (int i = 0; i < rootParts.length; i += 2) {
+            double dRe = re - rootParts[i];
+            double dIm = im - rootParts[i + 1];
+            double dist = Math.sqrt(dRe * dRe + dIm * dIm);
 
             if (dist > threshold) continue;
 
             if (dist < shortestDistance || shortestDistance == -1) {
                 shortestDistance = dist;
-                closestRoot = root;
+                closestIndex = i / 2;
             }
         }
-        return roots.contains(closestRoot) ? roots.indexOf(closestRoot) : -1;
+        return closestIndex;
     }
 
     @Override
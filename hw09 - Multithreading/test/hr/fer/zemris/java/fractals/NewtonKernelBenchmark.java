@@ -0,0 +1,128 @@
+package hr.fer.zemris.java.fractals;
+
+import hr.fer.zemris.math.Complex;
+import hr.fer.zemris.math.ComplexPolynomial;
+import hr.fer.zemris.math.ComplexRootedPolynomial;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the time and the memory allocated per calculated row of a
+ * Newton fractal, using both the {@link Newton.NewtonKernel} and the
+ * reference calculation with the {@link Complex} numbers, which creates
+ * new objects (and derives the polynomial) on every iteration. The
+ * allocation per row is reported by the GC profiler as
+ * {@code gc.alloc.rate.norm}.
+ * <p>
+ * The benchmark is run with JMH on the test classpath, by running the
+ * {@link #main(String[])} method.
+ *
+ * @author Luka Čupić
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NewtonKernelBenchmark {
+
+    /**
+     * The width of a row.
+     */
+    private static final int WIDTH = 256;
+
+    /**
+     * The number of iterations.
+     */
+    private static final int M = 16 * 16 * 16;
+
+    /**
+     * The convergence threshold.
+     */
+    private static final double CONVERGENCE_THRESHOLD = 0.001;
+
+    /**
+     * The root threshold.
+     */
+    private static final double ROOT_THRESHOLD = 0.002;
+
+    /**
+     * The rooted polynomial.
+     */
+    private ComplexRootedPolynomial pol1 = new ComplexRootedPolynomial(
+        Complex.ONE, Complex.ONE_NEG, Complex.IM, Complex.IM_NEG
+    );
+
+    /**
+     * The expanded polynomial.
+     */
+    private ComplexPolynomial pol2 = pol1.toComplexPolynomial();
+
+    /**
+     * The kernel.
+     */
+    private Newton.NewtonKernel kernel = new Newton.NewtonKernel(pol1);
+
+    /**
+     * The array to store the results in.
+     */
+    private short[] data = new short[WIDTH];
+
+    /**
+     * The imaginary part of the calculated row.
+     */
+    private double im = 0.37;
+
+    @Benchmark
+    public short[] kernel() {
+        for (int x = 0; x < WIDTH; x++) {
+            double re = x / (double) WIDTH * 4 - 2.013;
+            data[x] = kernel.calculate(re, im, M, CONVERGENCE_THRESHOLD, ROOT_THRESHOLD);
+        }
+        return data;
+    }
+
+    @Benchmark
+    public short[] complex() {
+        for (int x = 0; x < WIDTH; x++) {
+            Complex zn = new Complex(x / (double) WIDTH * 4 - 2.013, im);
+            Complex zn1;
+            double module;
+            int i = 0;
+            do {
+                Complex numerator = pol1.apply(zn);
+                Complex denominator = pol2.derive().apply(zn);
+                Complex fraction = numerator.divide(denominator);
+                zn1 = zn.sub(fraction);
+                module = zn1.sub(zn).module();
+                zn = zn1;
+                i++;
+            } while (module > CONVERGENCE_THRESHOLD && i < M);
+            int index = pol1.indexOfClosestRootFor(zn, ROOT_THRESHOLD);
+            data[x] = (index == -1) ? 0 : (short) (index + 1);
+        }
+        return data;
+    }
+
+    /**
+     * Runs the benchmark with the GC profiler.
+     *
+     * @param args not used
+     * @throws RunnerException if the benchmark fails
+     */
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+            .include(NewtonKernelBenchmark.class.getSimpleName())
+            .addProfiler(GCProfiler.class)
+            .build();
+
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,56 @@
+package hr.fer.zemris.java.fractals;
+
+import hr.fer.zemris.math.Complex;
+import hr.fer.zemris.math.ComplexRootedPolynomial;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assume.assumeTrue;
+
+public class VectorNewtonKernelTest {
+
+    private static final int WIDTH = 203;
+    private static final int HEIGHT = 97;
+
+    @Test
+    public void testFourRootsAreCalculatedExactly() {
+        assertSameAsScalar(Complex.ONE, Complex.ONE_NEG, Complex.IM, Complex.IM_NEG);
+    }
+
+    @Test
+    public void testTwoRootsAreCalculatedExactly() {
+        assertSameAsScalar(new Complex(1, 1), new Complex(-1, -1));
+    }
+
+    @Test
+    public void testUnevenRootsAreCalculatedExactly() {
+        assertSameAsScalar(
+            new Complex(0.3, -0.7), new Complex(-1.2, 0.4),
+            new Complex(1.5, 0.9), new Complex(0, 1.1), new Complex(-0.5, -1.4)
+        );
+    }
+
+    @Test
+    public void testDoubleRootIsCalculatedExactly() {
+        // converges slowly, so many of the points run out of iterations
+        assertSameAsScalar(Complex.ONE, Complex.ONE, Complex.ONE_NEG);
+    }
+
+    private static void assertSameAsScalar(Complex... roots) {
+        ComplexRootedPolynomial polynomial = new ComplexRootedPolynomial(roots);
+        Newton.NewtonKernel vector = Newton.createVectorKernel(polynomial);
+        assumeTrue(vector instanceof VectorNewtonKernel);
+
+        short[] expected = calculate(new Newton.NewtonKernel(polynomial));
+        short[] actual = calculate(vector);
+
+        assertArrayEquals(expected, actual);
+    }
+
+    private static short[] calculate(Newton.NewtonKernel kernel) {
+        short[] data = new short[WIDTH * HEIGHT];
+        new Newton.CalculationJob(-2.013, 2, -2.017, 2, WIDTH, HEIGHT,
+            0, WIDTH - 1, 0, HEIGHT - 1, 16 * 16 * 16, data, kernel, () -> false).call();
+        return data;
+    }
+}
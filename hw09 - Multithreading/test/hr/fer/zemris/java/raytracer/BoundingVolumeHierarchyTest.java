@@ -0,0 +1,312 @@
+package hr.fer.zemris.java.raytracer;
+
+import hr.fer.zemris.java.raytracer.model.BoundingVolumeHierarchy;
+import hr.fer.zemris.java.raytracer.model.GraphicalObject;
+import hr.fer.zemris.java.raytracer.model.Point3D;
+import hr.fer.zemris.java.raytracer.model.Ray;
+import hr.fer.zemris.java.raytracer.model.RayHit;
+import hr.fer.zemris.java.raytracer.model.RayIntersection;
+import hr.fer.zemris.java.raytracer.model.Scene;
+import hr.fer.zemris.java.raytracer.model.Sphere;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares the intersections found by the {@link BoundingVolumeHierarchy}
+ * to the ones found by testing a ray against every object of the scene.
+ * Each object gets its index in the scene as its diffuse red component, so
+ * the object which has been hit can be told from the hit.
+ *
+ * @author Luka Čupić
+ */
+public class BoundingVolumeHierarchyTest {
+
+    private static final int RAYS = 2000;
+
+    @Test
+    public void testRandomScenesMatchBruteForce() {
+        Random random = new Random(42);
+        for (int n : new int[]{1, 2, 5, 40, 300}) {
+            Scene scene = new Scene();
+            for (int k = 0; k < n; k++) {
+                scene.add(sphere(k, random.nextDouble() * 20 - 10, random.nextDouble() * 20 - 10,
+                    random.nextDouble() * 20 - 10, 0.1 + random.nextDouble() * 2));
+            }
+            assertMatchesBruteForce(scene, random);
+        }
+    }
+
+    @Test
+    public void testUnboundedObjectsMatchBruteForce() {
+        Random random = new Random(7);
+        Scene scene = new Scene();
+        scene.add(new Plane(0, -8));
+        for (int k = 1; k < 100; k++) {
+            scene.add(sphere(k, random.nextDouble() * 20 - 10, random.nextDouble() * 20 - 10,
+                random.nextDouble() * 20 - 10, 0.1 + random.nextDouble() * 2));
+        }
+        scene.add(new Plane(100, 8));
+        assertMatchesBruteForce(scene, random);
+    }
+
+    @Test
+    public void testEmptySceneHasNoIntersections() {
+        BoundingVolumeHierarchy hierarchy = new BoundingVolumeHierarchy(new Scene());
+        RayHit hit = new RayHit();
+
+        assertFalse(hierarchy.findClosestIntersection(0, 0, 0, 1, 0, 0, hit));
+        assertFalse(hierarchy.isOccluded(0, 0, 0, 1, 0, 0, 100, hit));
+    }
+
+    @Test
+    public void testEqualIntersectionsAreBrokenBySceneIndex() {
+        // the same sphere at several places in the scene, among other spheres
+        Random random = new Random(3);
+        Scene scene = new Scene();
+        for (int k = 0; k < 60; k++) {
+            if (k % 12 == 5) {
+                scene.add(sphere(k, 0, 0, 0, 1));
+            } else {
+                scene.add(sphere(k, random.nextDouble() * 20 - 10, random.nextDouble() * 20 - 10,
+                    random.nextDouble() * 20 - 10, 0.5));
+            }
+        }
+
+        BoundingVolumeHierarchy hierarchy = new BoundingVolumeHierarchy(scene);
+        RayHit hit = new RayHit();
+        assertTrue(hierarchy.findClosestIntersection(0, 0, 20, 0, 0, -1, hit));
+        assertEquals(19, hit.distance, 0);
+        assertEquals(5, hit.kdr, 0);
+
+        assertMatchesBruteForce(scene, random);
+    }
+
+    @Test
+    public void testEqualIntersectionsOfBoundedAndUnboundedObjects() {
+        // the top of the sphere touches the plane, so both are hit at the same distance
+        for (boolean planeFirst : new boolean[]{true, false}) {
+            Scene scene = new Scene();
+            if (planeFirst) scene.add(new Plane(0, 0));
+            scene.add(sphere(planeFirst ? 1 : 0, 0, 0, -1, 1));
+            if (!planeFirst) scene.add(new Plane(1, 0));
+
+            RayHit hit = new RayHit();
+            assertTrue(new BoundingVolumeHierarchy(scene).findClosestIntersection(0, 0, 5, 0, 0, -1, hit));
+            assertEquals(5, hit.distance, 0);
+            assertEquals(0, hit.kdr, 0);
+        }
+    }
+
+    @Test
+    public void testEqualCentroidsMatchBruteForce() {
+        // the objects cannot be split, so they all end up in a single leaf
+        Random random = new Random(11);
+        Scene scene = new Scene();
+        for (int k = 0; k < 50; k++) {
+            scene.add(sphere(k, 1, 2, 3, 0.5 + k % 5));
+        }
+        assertMatchesBruteForce(scene, random);
+    }
+
+    @Test
+    public void testDeepTreeMatchesBruteForce() {
+        // each split separates only the largest sphere from the others,
+        // so the tree is as deep as it is allowed to be
+        Scene scene = new Scene();
+        int n = 120;
+        for (int k = 0; k < n; k++) {
+            double x = Math.pow(2, -k);
+            scene.add(sphere(k, x, 0, 0, x / 4));
+        }
+        BoundingVolumeHierarchy hierarchy = new BoundingVolumeHierarchy(scene);
+
+        RayHit hit = new RayHit();
+        for (int k = 0; k < n; k++) {
+            double x = Math.pow(2, -k);
+            assertSameHit(scene, hierarchy, hit, x, -1, 0, 0, 1, 0);
+            assertSameHit(scene, hierarchy, hit, x, 0, 1, 0, 0, -1);
+        }
+        assertSameHit(scene, hierarchy, hit, -1, 0, 0, 1, 0, 0);
+        assertSameHit(scene, hierarchy, hit, 2, 0, 0, -1, 0, 0);
+        assertMatchesBruteForce(scene, new Random(5));
+    }
+
+    @Test
+    public void testShadowRayStopsJustBeforeTheLitPoint() {
+        Random random = new Random(13);
+        Scene scene = new Scene();
+        for (int k = 0; k < 200; k++) {
+            scene.add(sphere(k, random.nextDouble() * 20 - 10, random.nextDouble() * 20 - 10,
+                random.nextDouble() * 20 - 10, 0.1 + random.nextDouble() * 2));
+        }
+        BoundingVolumeHierarchy hierarchy = new BoundingVolumeHierarchy(scene);
+        RayHit hit = new RayHit();
+
+        int lit = 0;
+        for (int r = 0; r < RAYS; r++) {
+            double[] ray = randomRay(random);
+            double closest = closest(scene, ray)[0];
+            if (closest < 0) continue;
+
+            // the point seen from the light is not in its own shadow
+            lit++;
+            assertFalse(hierarchy.isOccluded(ray[0], ray[1], ray[2], ray[3], ray[4], ray[5],
+                closest - 10E-9, hit));
+            assertTrue(hierarchy.isOccluded(ray[0], ray[1], ray[2], ray[3], ray[4], ray[5],
+                closest + 10E-9, hit));
+        }
+        assertTrue(lit > RAYS / 10);
+    }
+
+    private static void assertMatchesBruteForce(Scene scene, Random random) {
+        BoundingVolumeHierarchy hierarchy = new BoundingVolumeHierarchy(scene);
+        RayHit hit = new RayHit();
+
+        for (int r = 0; r < RAYS; r++) {
+            double[] ray = randomRay(random);
+            assertSameHit(scene, hierarchy, hit, ray[0], ray[1], ray[2], ray[3], ray[4], ray[5]);
+
+            double limit = random.nextDouble() * 30;
+            assertEquals(occluded(scene, ray, limit),
+                hierarchy.isOccluded(ray[0], ray[1], ray[2], ray[3], ray[4], ray[5], limit, hit));
+        }
+    }
+
+    private static void assertSameHit(Scene scene, BoundingVolumeHierarchy hierarchy, RayHit hit,
+                                      double ox, double oy, double oz, double dx, double dy, double dz) {
+        double[] ray = {ox, oy, oz, dx, dy, dz};
+        double[] expected = closest(scene, ray);
+
+        boolean found = hierarchy.findClosestIntersection(ox, oy, oz, dx, dy, dz, hit);
+        assertEquals(expected[0] >= 0, found);
+        if (found) {
+            assertEquals(expected[0], hit.distance, 0);
+            assertEquals(expected[1], hit.kdr, 0);
+        }
+    }
+
+    /**
+     * Finds the closest intersection by testing the ray against every object.
+     *
+     * @return the distance and the index of the object, or a negative
+     * distance if there is no intersection
+     */
+    private static double[] closest(Scene scene, double[] ray) {
+        double minDist = -1;
+        int index = -1;
+        for (int k = 0; k < scene.getObjects().size(); k++) {
+            double dist = distance(scene.getObjects().get(k), ray);
+            if (dist >= 0 && (minDist < 0 || dist < minDist)) {
+                minDist = dist;
+                index = k;
+            }
+        }
+        return new double[]{minDist, index};
+    }
+
+    private static boolean occluded(Scene scene, double[] ray, double limit) {
+        for (GraphicalObject object : scene.getObjects()) {
+            double dist = distance(object, ray);
+            if (dist >= 0 && dist < limit) return true;
+        }
+        return false;
+    }
+
+    private static double distance(GraphicalObject object, double[] ray) {
+        RayIntersection intersection = object.findClosestRayIntersection(new Ray(
+            new Point3D(ray[0], ray[1], ray[2]), new Point3D(ray[3], ray[4], ray[5])));
+        return intersection == null ? -1 : intersection.getDistance();
+    }
+
+    /**
+     * Creates a ray which starts either inside or around the scene, in
+     * a random direction, half of the time aimed at the centre of the scene.
+     */
+    private static double[] randomRay(Random random) {
+        double[] ray = new double[6];
+        for (int i = 0; i < 3; i++) {
+            ray[i] = random.nextDouble() * 40 - 20;
+            ray[i + 3] = random.nextBoolean() ? random.nextGaussian() : -ray[i] + random.nextGaussian();
+        }
+        double norm = Math.sqrt(ray[3] * ray[3] + ray[4] * ray[4] + ray[5] * ray[5]);
+        for (int i = 3; i < 6; i++) {
+            ray[i] /= norm;
+        }
+        return ray;
+    }
+
+    private static Sphere sphere(int index, double x, double y, double z, double radius) {
+        return new Sphere(new Point3D(x, y, z), radius, index, 1, 1, 0.5, 0.5, 0.5, 10);
+    }
+
+    /**
+     * Represents the plane of a constant z coordinate, which is neither
+     * bounded nor primitive.
+     */
+    private static class Plane extends GraphicalObject {
+
+        private int index;
+        private double z;
+
+        Plane(int index, double z) {
+            this.index = index;
+            this.z = z;
+        }
+
+        @Override
+        public RayIntersection findClosestRayIntersection(Ray ray) {
+            if (ray.direction.z == 0) return null;
+
+            double t = (z - ray.start.z) / ray.direction.z;
+            if (t < 0) return null;
+
+            Point3D point = ray.start.add(ray.direction.scalarMultiply(t));
+            return new RayIntersection(point, t, ray.direction.z < 0) {
+                @Override
+                public Point3D getNormal() {
+                    return new Point3D(0, 0, 1);
+                }
+
+                @Override
+                public double getKdr() {
+                    return index;
+                }
+
+                @Override
+                public double getKdg() {
+                    return 1;
+                }
+
+                @Override
+                public double getKdb() {
+                    return 1;
+                }
+
+                @Override
+                public double getKrr() {
+                    return 0.5;
+                }
+
+                @Override
+                public double getKrg() {
+                    return 0.5;
+                }
+
+                @Override
+                public double getKrb() {
+                    return 0.5;
+                }
+
+                @Override
+                public double getKrn() {
+                    return 10;
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package hr.fer.zemris.java.raytracer;
+
+import hr.fer.zemris.java.raytracer.model.BoundingVolumeHierarchy;
+import hr.fer.zemris.java.raytracer.model.Point3D;
+import hr.fer.zemris.java.raytracer.model.RayHit;
+import hr.fer.zemris.java.raytracer.viewer.RayTracerViewer;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the time and the memory allocated per pixel of a frame of the
+ * predefined scene, as it is rendered by the producers. The time per pixel
+ * is reported as the score and the allocation per pixel by the GC profiler
+ * as {@code gc.alloc.rate.norm}.
+ * <p>
+ * The benchmark is run with JMH on the test classpath, by running the
+ * {@link #main(String[])} method.
+ *
+ * @author Luka Čupić
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RayCasterBenchmark {
+
+    /**
+     * Screen width.
+     */
+    private static final int WIDTH = 320;
+
+    /**
+     * Screen height.
+     */
+    private static final int HEIGHT = 240;
+
+    /**
+     * Length of the horizontal and the vertical component.
+     */
+    private static final double SIZE = 20;
+
+    /**
+     * The bounding volume hierarchy of the predefined scene.
+     */
+    private BoundingVolumeHierarchy hierarchy =
+        new BoundingVolumeHierarchy(RayTracerViewer.createPredefinedScene());
+
+    /**
+     * Position of the human observer.
+     */
+    private Point3D eye = new Point3D(10, 0, 0);
+
+    /**
+     * Represents the y-axis unit vector.
+     */
+    private Point3D j = RayCaster.getJVector(eye, new Point3D(0, 0, 0), new Point3D(0, 0, 10));
+
+    /**
+     * Represents the x-axis unit vector.
+     */
+    private Point3D i = RayCaster.getIVector(eye, new Point3D(0, 0, 0), j);
+
+    /**
+     * The corner of the screen.
+     */
+    private Point3D corner = RayCaster.getScreenCorner(new Point3D(0, 0, 0), SIZE, SIZE, i, j);
+
+    /**
+     * The hit used for finding the intersections.
+     */
+    private RayHit hit = new RayHit();
+
+    /**
+     * The RGB color vector.
+     */
+    private short[] rgb = new short[3];
+
+    /**
+     * The Red color array.
+     */
+    private short[] red = new short[WIDTH * HEIGHT];
+
+    @Benchmark
+    @OperationsPerInvocation(WIDTH * HEIGHT)
+    public short[] render() {
+        int offset = 0;
+        for (int y = 0; y < HEIGHT; y++) {
+            double dj = (double) y / (HEIGHT - 1) * SIZE;
+            for (int x = 0; x < WIDTH; x++) {
+                double di = (double) x / (WIDTH - 1) * SIZE;
+                RayCaster.tracePixel(hierarchy, hit, eye, corner, i, j, di, dj, rgb);
+                red[offset++] = rgb[0] > 255 ? 255 : rgb[0];
+            }
+        }
+        return red;
+    }
+
+    /**
+     * Runs the benchmark with the GC profiler.
+     *
+     * @param args not used
+     * @throws RunnerException if the benchmark fails
+     */
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+            .include(RayCasterBenchmark.class.getSimpleName())
+            .addProfiler(GCProfiler.class)
+            .build();
+
+        new Runner(options).run();
+    }
+}
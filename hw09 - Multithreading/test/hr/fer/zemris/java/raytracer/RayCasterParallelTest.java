@@ -0,0 +1,231 @@
+package hr.fer.zemris.java.raytracer;
+
+import hr.fer.zemris.java.raytracer.RayCasterParallel.Frame;
+import hr.fer.zemris.java.raytracer.RayCasterParallel.RayTracerProducer;
+import hr.fer.zemris.java.raytracer.model.BoundingVolumeHierarchy;
+import hr.fer.zemris.java.raytracer.model.GraphicalObject;
+import hr.fer.zemris.java.raytracer.model.IRayTracerResultObserver;
+import hr.fer.zemris.java.raytracer.model.Point3D;
+import hr.fer.zemris.java.raytracer.model.Ray;
+import hr.fer.zemris.java.raytracer.model.RayHit;
+import hr.fer.zemris.java.raytracer.model.RayIntersection;
+import hr.fer.zemris.java.raytracer.model.Scene;
+import hr.fer.zemris.java.raytracer.viewer.RayTracerViewer;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks how the {@link RayCasterParallel} splits the frames into jobs, and
+ * that only the frames of the latest requests are delivered to the observer.
+ *
+ * @author Luka Čupić
+ */
+public class RayCasterParallelTest {
+
+    private static final Point3D EYE = new Point3D(10, 0, 0);
+    private static final Point3D VIEW = new Point3D(0, 0, 0);
+    private static final Point3D VIEW_UP = new Point3D(0, 0, 10);
+
+    @Test
+    public void testSplitsOfRandomCostsAreNonEmptyAndBalanced() {
+        Random random = new Random(42);
+        for (int t = 0; t < 200; t++) {
+            int height = 2 + random.nextInt(200);
+            long[] costs = new long[height];
+            for (int y = 0; y < height; y++) {
+                // mostly cheap rows, with an occasional very expensive one
+                costs[y] = random.nextInt(10) == 0 ? random.nextInt(1_000_000) : random.nextInt(100);
+            }
+            Frame frame = frame(height, costs);
+
+            for (int r = 0; r < 50; r++) {
+                int yMin = random.nextInt(height - 1);
+                int yMax = yMin + 1 + random.nextInt(height - 1 - yMin);
+                assertBalancedSplit(frame, yMin, yMax);
+            }
+        }
+    }
+
+    @Test
+    public void testSplitsOfEqualCostsAreInTheMiddle() {
+        for (long[] costs : new long[][]{null, new long[100]}) {
+            Frame frame = frame(100, costs);
+            for (int yMin = 0; yMin < 100; yMin++) {
+                for (int yMax = yMin + 1; yMax < 100; yMax++) {
+                    int split = frame.findSplit(yMin, yMax);
+                    long left = split - yMin + 1;
+                    long right = yMax - split;
+                    assertTrue(Math.abs(left - right) <= 1);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testSplitOfTwoRowsSeparatesThem() {
+        for (long[] costs : new long[][]{{0, 0}, {1000, 0}, {0, 1000}}) {
+            assertEquals(0, frame(2, costs).findSplit(0, 1));
+        }
+    }
+
+    @Test
+    public void testFramesWithoutGrainComputeEveryRow() {
+        BoundingVolumeHierarchy hierarchy = new BoundingVolumeHierarchy(RayTracerViewer.createPredefinedScene());
+        int width = 16;
+
+        // with so few rows, each of the rows is a job of its own
+        for (int height : new int[]{2, 3, 7}) {
+            int[] pixels = new int[width * height];
+            Frame frame = new Frame(0, EYE, VIEW, VIEW_UP, 20, 20, width, height, hierarchy, null, pixels);
+            assertEquals(0, frame.grain);
+
+            RayCasterParallel.compute(frame);
+            assertArrayEquals(render(frame), pixels);
+        }
+
+        // the costs of a previous frame, one of the rows being far more expensive
+        int height = 200;
+        long[] costs = new long[height];
+        Arrays.fill(costs, 10);
+        costs[height / 3] = 1_000_000;
+        int[] pixels = new int[width * height];
+        Frame frame = new Frame(0, EYE, VIEW, VIEW_UP, 20, 20, width, height, hierarchy, costs, pixels);
+
+        RayCasterParallel.compute(frame);
+        assertArrayEquals(render(frame), pixels);
+    }
+
+    @Test
+    public void testCancelledFrameIsNotDelivered() throws Exception {
+        CountDownLatch entered = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        // the first ray of the first request waits until the second request arrives
+        Scene scene = RayTracerViewer.createPredefinedScene();
+        scene.add(new Gate(EYE, entered, release));
+        RayTracerProducer producer = new RayTracerProducer(scene);
+        List<Long> delivered = Collections.synchronizedList(new ArrayList<>());
+        IRayTracerResultObserver observer = (red, green, blue, requestNo) -> delivered.add(requestNo);
+
+        Thread first = new Thread(() -> producer.produce(EYE, VIEW, VIEW_UP, 20, 20, 8, 8, 1, observer));
+        first.start();
+        assertTrue(entered.await(10, TimeUnit.SECONDS));
+
+        Thread second = new Thread(() -> producer.produce(new Point3D(20, 0, 0), VIEW, VIEW_UP,
+            20, 20, 8, 8, 2, observer));
+        second.start();
+
+        // the second request has cancelled the first frame once it waits for its own
+        while (second.getState() != Thread.State.WAITING && second.getState() != Thread.State.TERMINATED) {
+            Thread.sleep(1);
+        }
+        release.countDown();
+        first.join();
+        second.join();
+
+        assertEquals(Collections.singletonList(2L), delivered);
+    }
+
+    @Test
+    public void testOlderRequestIsNotDelivered() {
+        RayTracerProducer producer = new RayTracerProducer(RayTracerViewer.createPredefinedScene());
+        List<Long> delivered = new ArrayList<>();
+        IRayTracerResultObserver observer = (red, green, blue, requestNo) -> delivered.add(requestNo);
+
+        producer.produce(EYE, VIEW, VIEW_UP, 20, 20, 8, 8, 2, observer);
+        producer.produce(EYE, VIEW, VIEW_UP, 20, 20, 8, 8, 1, observer);
+        producer.produce(EYE, VIEW, VIEW_UP, 20, 20, 8, 8, 3, observer);
+
+        assertEquals(Arrays.asList(2L, 3L), delivered);
+    }
+
+    /**
+     * Checks that the split leaves rows on both of its sides, and that the
+     * larger side costs at most a half and one of the rows next to the split.
+     */
+    private static void assertBalancedSplit(Frame frame, int yMin, int yMax) {
+        int split = frame.findSplit(yMin, yMax);
+        assertTrue(yMin <= split && split < yMax);
+
+        long total = frame.estimateCost(yMin, yMax);
+        long left = frame.estimateCost(yMin, split);
+        long right = frame.estimateCost(split + 1, yMax);
+        assertEquals(total, left + right);
+        long row = Math.max(frame.estimateCost(split, split), frame.estimateCost(split + 1, split + 1));
+        assertTrue(Math.max(left, right) <= total - total / 2 + row);
+
+        // moving the split towards the larger side would not make it any cheaper
+        if (left < right && split + 1 < yMax) {
+            assertTrue(frame.estimateCost(yMin, split + 1) >= right);
+        }
+    }
+
+    private static Frame frame(int height, long[] costs) {
+        return new Frame(0, EYE, VIEW, VIEW_UP, 20, 20, 1, height, null, costs, new int[height]);
+    }
+
+    /**
+     * Renders the given frame pixel by pixel, in a single thread.
+     */
+    private static int[] render(Frame frame) {
+        int[] pixels = new int[frame.width * frame.height];
+        Frame sequential = new Frame(0, frame.eye, VIEW, VIEW_UP, frame.horizontal, frame.vertical,
+            frame.width, frame.height, frame.hierarchy, null, pixels);
+
+        short[] rgb = new short[3];
+        RayHit hit = new RayHit();
+        for (int y = 0; y < frame.height; y++) {
+            for (int x = 0; x < frame.width; x++) {
+                RayCaster.tracePixel(frame.hierarchy, hit, frame.eye, frame.corner, frame.i, frame.j,
+                    (double) x / (frame.width - 1) * frame.horizontal,
+                    (double) y / (frame.height - 1) * frame.vertical, rgb);
+                sequential.store(y * frame.width + x, rgb);
+            }
+        }
+        return pixels;
+    }
+
+    /**
+     * An object which is never hit, but which blocks the first ray cast
+     * from the given eye until it is released.
+     */
+    private static class Gate extends GraphicalObject {
+
+        private Point3D eye;
+        private CountDownLatch entered;
+        private CountDownLatch release;
+        private AtomicBoolean closed = new AtomicBoolean(true);
+
+        Gate(Point3D eye, CountDownLatch entered, CountDownLatch release) {
+            this.eye = eye;
+            this.entered = entered;
+            this.release = release;
+        }
+
+        @Override
+        public RayIntersection findClosestRayIntersection(Ray ray) {
+            if (ray.start.x == eye.x && ray.start.y == eye.y && ray.start.z == eye.z
+                && closed.compareAndSet(true, false)) {
+                entered.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return null;
+        }
+    }
+}
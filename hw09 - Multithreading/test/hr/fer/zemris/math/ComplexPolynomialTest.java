@@ -39,6 +39,22 @@ public class ComplexPolynomialTest {
         assertEquals(0, factors.get(3).getImaginary(), 10E-5);
     }
 
+    @Test
+    public void testConvertingToArray() {
+        ComplexPolynomial p = new ComplexPolynomial(
+            new Complex(1, 0),
+            new Complex(7, 2)
+        );
+
+        double[] array = p.toArray();
+
+        assertEquals(4, array.length);
+        assertEquals(1, array[0], 10E-5);
+        assertEquals(0, array[1], 10E-5);
+        assertEquals(7, array[2], 10E-5);
+        assertEquals(2, array[3], 10E-5);
+    }
+
     @Test
     public void testDerivingAPolynomial() {
         ComplexPolynomial p = new ComplexPolynomial(
@@ -65,4 +65,16 @@ public class ComplexRootedPolynomialTest {
         assertEquals(-1, index);
     }
 
+    @Test
+    public void testFindingClosestRootOfPrimitiveParts() {
+        ComplexRootedPolynomial p = new ComplexRootedPolynomial(
+            new Complex(1.5, 2.3),
+            new Complex(1.7, 2.1),
+            new Complex(7.8, 9.14)
+        );
+
+        assertEquals(1, p.indexOfClosestRootFor(1.65, 2.15, 0.5));
+        assertEquals(-1, p.indexOfClosestRootFor(4, 4, 0.5));
+    }
+
 }
\ No newline at end of file
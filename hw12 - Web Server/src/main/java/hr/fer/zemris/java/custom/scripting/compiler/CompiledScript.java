@@ -0,0 +1,79 @@
+package hr.fer.zemris.java.custom.scripting.compiler;
+
+import hr.fer.zemris.java.custom.scripting.nodes.DocumentNode;
+import hr.fer.zemris.java.webserver.RequestContext;
+
+/**
+ * This class represents a smart script compiled by the {@link ScriptCompiler}.
+ * A compiled script produces exactly the same output as the
+ * {@link hr.fer.zemris.java.custom.scripting.visitors.ScriptEvaluator}
+ * run over the same document model, but all of the decisions which the
+ * evaluator makes on every execution (the types of the elements, the
+ * operators, the functions and the loop bounds) are made only once, when
+ * the script is compiled.
+ * <p>
+ * A compiled script is immutable, so it can be executed by any number of
+ * threads at the same time.
+ *
+ * @author Luka Čupić
+ */
+public class CompiledScript {
+
+    /**
+     * The frame which is reused by the next execution on the current thread.
+     * The frame is taken away for the duration of an execution, so a nested
+     * execution on the same thread gets a frame of its own.
+     */
+    private static final ThreadLocal<ScriptFrame> FRAMES = new ThreadLocal<>();
+
+    /**
+     * The document model from which the script was compiled.
+     */
+    private final DocumentNode documentNode;
+
+    /**
+     * The instructions of the script.
+     */
+    private final Instruction[] instructions;
+
+    /**
+     * Creates a new compiled script.
+     *
+     * @param documentNode the document model from which the script was compiled
+     * @param instructions the instructions of the script
+     */
+    CompiledScript(DocumentNode documentNode, Instruction[] instructions) {
+        this.documentNode = documentNode;
+        this.instructions = instructions;
+    }
+
+    /**
+     * Executes the script, writing its output to the given request context.
+     *
+     * @param requestContext the request context
+     */
+    public void execute(RequestContext requestContext) {
+        ScriptFrame frame = FRAMES.get();
+        if (frame == null) {
+            frame = new ScriptFrame();
+        } else {
+            FRAMES.set(null);
+        }
+
+        frame.reset(requestContext);
+        for (Instruction instruction : instructions) {
+            instruction.execute(frame);
+        }
+        frame.reset(null);
+        FRAMES.set(frame);
+    }
+
+    /**
+     * Gets the document model from which the script was compiled.
+     *
+     * @return the document model of the script
+     */
+    public DocumentNode getDocumentNode() {
+        return documentNode;
+    }
+}
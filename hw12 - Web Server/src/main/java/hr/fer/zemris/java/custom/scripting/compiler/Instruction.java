@@ -0,0 +1,20 @@
+package hr.fer.zemris.java.custom.scripting.compiler;
+
+/**
+ * This interface represents a single instruction of a {@link CompiledScript}.
+ * Instructions are created once, when the script is compiled, and are then
+ * executed any number of times (possibly concurrently); all of the state of
+ * a single execution is held by the given {@link ScriptFrame}.
+ *
+ * @author Luka Čupić
+ */
+@FunctionalInterface
+interface Instruction {
+
+    /**
+     * Executes this instruction.
+     *
+     * @param frame the state of the current execution of the script
+     */
+    void execute(ScriptFrame frame);
+}
@@ -0,0 +1,324 @@
+package hr.fer.zemris.java.custom.scripting.compiler;
+
+import hr.fer.zemris.java.custom.scripting.elems.*;
+import hr.fer.zemris.java.custom.scripting.exec.ObjectMultistack;
+import hr.fer.zemris.java.custom.scripting.exec.ScriptInterruptedException;
+import hr.fer.zemris.java.custom.scripting.exec.ValueWrapper;
+import hr.fer.zemris.java.custom.scripting.nodes.*;
+import hr.fer.zemris.java.custom.scripting.visitors.ScriptEvaluator;
+import hr.fer.zemris.java.custom.scripting.visitors.VisitorUtil;
+import hr.fer.zemris.java.webserver.RequestContext;
+
+import java.nio.charset.StandardCharsets;
+import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * This class represents a visitor which compiles the document model of
+ * a smart script into a {@link CompiledScript}. The compiled script is
+ * a flat sequence of {@link Instruction}s in which:
+ * <ul>
+ * <li>the constant text (including the echo nodes which consist only of
+ * constants) is encoded into bytes in advance,</li>
+ * <li>the type of each element of an echo node is resolved, so no type
+ * checks are performed while executing the script,</li>
+ * <li>the operators and the functions are resolved to their implementations,
+ * so no string comparisons are performed while executing the script,</li>
+ * <li>the bounds of the for-loops are parsed only once.</li>
+ * </ul>
+ * The {@link ScriptEvaluator} remains the reference implementation of the
+ * language: the compiled script must produce exactly the same output and
+ * throw the same exceptions as the evaluator.
+ *
+ * @author Luka Čupić
+ */
+public class ScriptCompiler implements INodeVisitor {
+
+    /**
+     * The instructions compiled so far, at the current nesting level.
+     */
+    private List<Instruction> instructions = new ArrayList<>();
+
+    /**
+     * Creates a new instance of this class.
+     */
+    private ScriptCompiler() {
+    }
+
+    /**
+     * Compiles the script represented by the given document model.
+     *
+     * @param documentNode the root of the document model
+     * @return the compiled script
+     */
+    public static CompiledScript compile(DocumentNode documentNode) {
+        ScriptCompiler compiler = new ScriptCompiler();
+        documentNode.accept(compiler);
+        return new CompiledScript(documentNode, compiler.instructions.toArray(new Instruction[0]));
+    }
+
+    @Override
+    public void visitDocumentNode(DocumentNode node) {
+        VisitorUtil.visitChildren(node, this);
+    }
+
+    @Override
+    public void visitTextNode(TextNode node) {
+        String text = node.getText();
+        byte[] encoded = text.getBytes(StandardCharsets.UTF_8);
+        instructions.add(frame -> frame.write(text, encoded));
+    }
+
+    @Override
+    public void visitForLoopNode(ForLoopNode node) {
+        List<Instruction> outer = instructions;
+        instructions = new ArrayList<>();
+        VisitorUtil.visitChildren(node, this);
+        Instruction[] body = instructions.toArray(new Instruction[0]);
+        instructions = outer;
+
+        int startValue;
+        int endValue;
+        int stepValue;
+        try {
+            startValue = Integer.parseInt(node.getStartExpression().asText());
+            endValue = Integer.parseInt(node.getEndExpression().asText());
+
+            if (node.getStepExpression() == null) {
+                // the evaluator fails in the same way when it reaches the loop
+                instructions.add(frame -> {
+                    throw new NullPointerException();
+                });
+                return;
+            }
+            stepValue = Integer.parseInt(node.getStepExpression().asText());
+
+            if (startValue > endValue) {
+                throw new IllegalArgumentException();
+            }
+        } catch (IllegalArgumentException ex) {
+            instructions.add(frame -> {
+                throw new IllegalArgumentException("Illegal for-loop value!");
+            });
+            return;
+        }
+
+        String varName = node.getVariable().getName();
+        int start = startValue;
+        int end = endValue;
+        int step = stepValue;
+
+        instructions.add(frame -> {
+            try {
+                ObjectMultistack multistack = frame.multistack;
+                multistack.push(varName, new ValueWrapper(start));
+
+                for (int i = start; i <= end; i += step) {
+                    if (Thread.currentThread().isInterrupted()) {
+                        throw new ScriptInterruptedException("The script has been interrupted!");
+                    }
+                    for (Instruction instruction : body) {
+                        instruction.execute(frame);
+                    }
+                    multistack.increment(varName, step);
+                }
+                multistack.pop(varName);
+            } catch (IllegalArgumentException ex) {
+                throw new IllegalArgumentException("Illegal for-loop value!");
+            }
+        });
+    }
+
+    @Override
+    public void visitEchoNode(EchoNode node) {
+        Element[] elements = node.getElements();
+
+        String constant = constantOutput(elements);
+        if (constant != null) {
+            if (!constant.isEmpty()) {
+                byte[] encoded = constant.getBytes(StandardCharsets.UTF_8);
+                instructions.add(frame -> frame.write(constant, encoded));
+            }
+            return;
+        }
+
+        List<Instruction> operations = new ArrayList<>();
+        for (Element e : elements) {
+            Instruction operation = compileElement(e);
+            if (operation != null) {
+                operations.add(operation);
+            }
+        }
+        Instruction[] ops = operations.toArray(new Instruction[0]);
+
+        instructions.add(frame -> {
+            for (Instruction op : ops) {
+                op.execute(frame);
+            }
+            frame.flushStack();
+        });
+    }
+
+    /**
+     * Computes the output of an echo node which consists only of constants,
+     * i.e. the concatenation of the constants' string values.
+     *
+     * @param elements the elements of the echo node
+     * @return the output of the echo node, or null if the echo node contains
+     * elements which are not constants
+     */
+    private static String constantOutput(Element[] elements) {
+        StringBuilder sb = new StringBuilder();
+        for (Element e : elements) {
+            if (e instanceof ElementConstantInteger) {
+                sb.append(String.valueOf(((ElementConstantInteger) e).getValue()));
+            } else if (e instanceof ElementConstantDouble) {
+                sb.append(String.valueOf(((ElementConstantDouble) e).getValue()));
+            } else if (e instanceof ElementString) {
+                sb.append(((ElementString) e).getValue());
+            } else if (e instanceof ElementVariable || e instanceof ElementOperator
+                || e instanceof ElementFunction) {
+                return null;
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Compiles a single element of an echo node.
+     *
+     * @param e the element to compile
+     * @return the instruction which performs the element's operation upon
+     * the operand stack, or null if the element has no effect
+     */
+    private static Instruction compileElement(Element e) {
+        if (e instanceof ElementConstantInteger) {
+            Integer value = ((ElementConstantInteger) e).getValue();
+            return frame -> frame.push(value);
+        }
+        if (e instanceof ElementConstantDouble) {
+            Double value = ((ElementConstantDouble) e).getValue();
+            return frame -> frame.push(value);
+        }
+        if (e instanceof ElementString) {
+            String value = ((ElementString) e).getValue();
+            return frame -> frame.push(value);
+        }
+        if (e instanceof ElementVariable) {
+            String name = ((ElementVariable) e).getName();
+            return frame -> frame.push(frame.multistack.peek(name));
+        }
+        if (e instanceof ElementOperator) {
+            return compileOperator(((ElementOperator) e).getSymbol());
+        }
+        if (e instanceof ElementFunction) {
+            return compileFunction(e.asText());
+        }
+        return null;
+    }
+
+    /**
+     * Compiles an operator which takes two operands from the stack and
+     * pushes the result.
+     *
+     * @param symbol the symbol of the operator
+     * @return the instruction which performs the operation
+     */
+    private static Instruction compileOperator(String symbol) {
+        BiConsumer<ValueWrapper, Object> operation;
+        switch (symbol) {
+            case "+":
+                operation = ValueWrapper::add;
+                break;
+            case "-":
+                operation = ValueWrapper::subtract;
+                break;
+            case "*":
+                operation = ValueWrapper::multiply;
+                break;
+            case "/":
+                operation = ValueWrapper::divide;
+                break;
+            default:
+                // unknown operators leave the first operand unchanged
+                operation = (v1, v2) -> {
+                };
+        }
+
+        return frame -> frame.apply(operation);
+    }
+
+    /**
+     * Compiles a function which operates upon the stack.
+     *
+     * @param name the name of the function
+     * @return the instruction which performs the function
+     */
+    private static Instruction compileFunction(String name) {
+        switch (name) {
+            case "sin":
+                return frame -> {
+                    Object obj = frame.pop();
+                    Double value = obj instanceof Double ? (Double) obj : ((Integer) obj).doubleValue();
+                    frame.push(Math.sin(value * Math.PI / 180));
+                };
+            case "decfmt":
+                return frame -> {
+                    DecimalFormat f = new DecimalFormat((String) frame.pop());
+                    frame.push(f.format(frame.pop()));
+                };
+            case "dup":
+                return ScriptFrame::dup;
+            case "swap":
+                return ScriptFrame::swap;
+            case "setMimeType":
+                return frame -> frame.requestContext.setMimeType(frame.popString());
+            case "paramGet":
+                return getParameter(RequestContext::getParameters);
+            case "pparamGet":
+                return getParameter(RequestContext::getPersistentParameters);
+            case "pparamSet":
+                return frame -> frame.requestContext.setPersistentParameter(
+                    frame.popString(), frame.popString()
+                );
+            case "pparamDel":
+                return frame -> frame.requestContext.getPersistentParameters()
+                    .remove(frame.popString());
+            case "tparamGet":
+                return getParameter(RequestContext::getTemporaryParameters);
+            case "tparamSet":
+                return frame -> frame.requestContext.setTemporaryParameter(
+                    frame.popString(), frame.popString()
+                );
+            case "tparamDel":
+                return frame -> frame.requestContext.getTemporaryParameters()
+                    .remove(frame.popString());
+            default:
+                // unknown functions have no effect
+                return frame -> {
+                };
+        }
+    }
+
+    /**
+     * Compiles either the {@code paramGet}, the {@code pparamGet} or the
+     * {@code tparamGet} function.
+     *
+     * @param parameters the function which selects the map of the parameters
+     *                   from the request context
+     * @return the instruction which performs the function
+     */
+    private static Instruction getParameter(Function<RequestContext, Map<String, String>> parameters) {
+        return frame -> {
+            Object defValue = frame.pop();
+            String name = frame.popString();
+
+            String value = parameters.apply(frame.requestContext).get(name);
+            frame.push(value != null ? value : defValue);
+        };
+    }
+}
@@ -0,0 +1,239 @@
+package hr.fer.zemris.java.custom.scripting.compiler;
+
+import hr.fer.zemris.java.custom.scripting.exec.ObjectMultistack;
+import hr.fer.zemris.java.custom.scripting.exec.ValueWrapper;
+import hr.fer.zemris.java.webserver.RequestContext;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.EmptyStackException;
+import java.util.function.BiConsumer;
+
+/**
+ * This class represents the state of a single execution of a
+ * {@link CompiledScript}: the request context to which the output
+ * is written, the multi-stack which holds the variables and the
+ * operand stack used by the echo instructions. Unlike the
+ * {@link hr.fer.zemris.java.custom.scripting.visitors.ScriptEvaluator},
+ * which creates a new stack for each echo node, a single operand stack
+ * is reused for the whole execution, and the numeric operands are kept
+ * in their primitive form. The frames themselves are reused by the
+ * {@link CompiledScript} between the executions on the same thread.
+ *
+ * @author Luka Čupić
+ */
+class ScriptFrame {
+
+    /**
+     * The request context to which the output is written.
+     */
+    RequestContext requestContext;
+
+    /**
+     * The multi-stack which holds the values of the variables.
+     */
+    final ObjectMultistack multistack = new ObjectMultistack();
+
+    /**
+     * The slots of the operand stack. The slots are reused, so pushing a
+     * value onto the stack only copies the value into an existing slot.
+     */
+    private ValueWrapper[] stack = new ValueWrapper[16];
+
+    /**
+     * The number of operands on the stack.
+     */
+    private int size;
+
+    /**
+     * Prepares this frame for an execution which writes its output to the
+     * given request context. A frame may be reused only after an execution
+     * which completed normally, since such an execution leaves both of the
+     * stacks empty.
+     *
+     * @param requestContext the request context to which the output is
+     *                       written, or null once the execution is done
+     */
+    void reset(RequestContext requestContext) {
+        this.requestContext = requestContext;
+    }
+
+    /**
+     * Gets the next free slot of the operand stack and increases the size
+     * of the stack.
+     *
+     * @return the next free slot
+     */
+    private ValueWrapper nextSlot() {
+        if (size == stack.length) {
+            stack = Arrays.copyOf(stack, size * 2);
+        }
+        ValueWrapper slot = stack[size];
+        if (slot == null) {
+            slot = stack[size] = new ValueWrapper(null);
+        }
+        size++;
+        return slot;
+    }
+
+    /**
+     * Gets the slot from the top of the operand stack.
+     *
+     * @param depth the depth of the slot; 0 for the top of the stack
+     * @return the slot
+     * @throws EmptyStackException if the stack does not contain enough operands
+     */
+    private ValueWrapper slot(int depth) {
+        if (size <= depth) {
+            throw new EmptyStackException();
+        }
+        return stack[size - 1 - depth];
+    }
+
+    /**
+     * Pushes the given value onto the operand stack.
+     *
+     * @param value the value to push
+     */
+    void push(Object value) {
+        nextSlot().setValue(value);
+    }
+
+    /**
+     * Pushes the value of the given wrapper onto the operand stack. The value
+     * is copied, so it is not affected by later changes of the wrapper.
+     *
+     * @param value the wrapper whose value to push
+     */
+    void push(ValueWrapper value) {
+        nextSlot().setValue(value);
+    }
+
+    /**
+     * Removes the value from the top of the operand stack.
+     *
+     * @return the removed value
+     * @throws EmptyStackException if the stack is empty
+     */
+    Object pop() {
+        Object value = slot(0).getValue();
+        release();
+        return value;
+    }
+
+    /**
+     * Removes the value from the top of the operand stack and returns its
+     * string representation, which is the same as {@code String.valueOf(pop())}.
+     *
+     * @return the string representation of the removed value
+     * @throws EmptyStackException if the stack is empty
+     */
+    String popString() {
+        String value = slot(0).toString();
+        release();
+        return value;
+    }
+
+    /**
+     * Returns the value from the top of the operand stack without
+     * removing it.
+     *
+     * @return the value from the top of the stack
+     * @throws EmptyStackException if the stack is empty
+     */
+    Object peek() {
+        return slot(0).getValue();
+    }
+
+    /**
+     * Pushes a copy of the value from the top of the operand stack.
+     *
+     * @throws EmptyStackException if the stack is empty
+     */
+    void dup() {
+        ValueWrapper top = slot(0);
+        push(top);
+    }
+
+    /**
+     * Swaps the two values from the top of the operand stack.
+     *
+     * @throws EmptyStackException if the stack contains less than two operands
+     */
+    void swap() {
+        ValueWrapper b = slot(1);
+        stack[size - 2] = slot(0);
+        stack[size - 1] = b;
+    }
+
+    /**
+     * Applies the given operation upon the two values from the top of the
+     * operand stack: the operation is applied upon the value from the top
+     * of the stack, with the value below it as the operand, and the two
+     * values are replaced by the result. No values are boxed in the process.
+     *
+     * @param operation the operation to apply
+     * @throws EmptyStackException if the stack contains less than two operands
+     */
+    void apply(BiConsumer<ValueWrapper, Object> operation) {
+        ValueWrapper v1 = slot(0);
+        ValueWrapper v2 = slot(1);
+
+        operation.accept(v1, v2);
+        stack[size - 2] = v1;
+        stack[size - 1] = v2;
+        release();
+    }
+
+    /**
+     * Removes the value from the top of the operand stack, keeping its slot
+     * for later use.
+     */
+    private void release() {
+        stack[--size].setValue((Object) null);
+    }
+
+    /**
+     * Writes all of the values from the operand stack (from the bottom to
+     * the top) to the request context and clears the stack.
+     */
+    void flushStack() {
+        for (int i = 0; i < size; i++) {
+            write(stack[i].toString());
+            stack[i].setValue((Object) null);
+        }
+        size = 0;
+    }
+
+    /**
+     * Writes the given text to the request context.
+     *
+     * @param text the text to write
+     */
+    void write(String text) {
+        try {
+            requestContext.write(text);
+        } catch (IOException ignorable) {
+        }
+    }
+
+    /**
+     * Writes the given constant text, whose UTF-8 encoding has been
+     * computed in advance, to the request context. The encoded bytes are
+     * used only if the context uses the UTF-8 charset.
+     *
+     * @param text    the text to write
+     * @param encoded the UTF-8 encoding of the text
+     */
+    void write(String text, byte[] encoded) {
+        if (!StandardCharsets.UTF_8.equals(requestContext.getCharset())) {
+            write(text);
+            return;
+        }
+        try {
+            requestContext.write(encoded);
+        } catch (IOException ignorable) {
+        }
+    }
+}
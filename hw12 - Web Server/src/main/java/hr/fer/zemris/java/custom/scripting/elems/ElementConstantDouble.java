@@ -10,7 +10,7 @@ public class ElementConstantDouble extends Element {
     /**
      * The value of the element.
      */
-    private double value;
+    private final double value;
 
     /**
      * Creates a new element of type double.
@@ -10,7 +10,7 @@ public class ElementConstantInteger extends Element {
     /**
      * The value of the element.
      */
-    private int value;
+    private final int value;
 
     /**
      * Creates a new element of type integer.
@@ -10,7 +10,7 @@ public class ElementFunction extends Element {
     /**
      * The value of the element.
      */
-    private String name;
+    private final String name;
 
     /**
      * Creates a new element of type function.
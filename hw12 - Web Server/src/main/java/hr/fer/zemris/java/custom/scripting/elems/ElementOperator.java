@@ -10,7 +10,7 @@ public class ElementOperator extends Element {
     /**
      * The value of the element.
      */
-    private String symbol;
+    private final String symbol;
 
     /**
      * Creates a new element of type operator.
@@ -10,7 +10,7 @@ public class ElementString extends Element {
     /**
      * The value of the element.
      */
-    private String value;
+    private final String value;
 
     /**
      * Creates a new element of type string.
@@ -0,0 +1,126 @@
+package hr.fer.zemris.java.custom.scripting.exec;
+
+/**
+ * This class represents a small cache of the parsed numeric strings used by
+ * the {@link ValueWrapper}. Scripts tend to use the same few numeric strings
+ * (constants and parameter values) over and over again, so remembering their
+ * parsed values avoids both the repeated parsing and the exception which is
+ * thrown when a decimal number is first parsed as an integer.
+ * <p>
+ * The cache is a direct-mapped table: each string has exactly one slot, and
+ * a newly parsed string simply replaces the previous occupant of its slot.
+ * The entries are immutable, so the table can be shared between threads
+ * without any locking; in the worst case, a thread does not see an entry
+ * stored by another thread and parses the string once more.
+ *
+ * @author Luka Čupić
+ */
+class NumericStringCache {
+
+    /**
+     * The number of slots in the table; must be a power of two.
+     */
+    private static final int SIZE = 256;
+
+    /**
+     * The slots of the table.
+     */
+    private static final Entry[] entries = new Entry[SIZE];
+
+    /**
+     * Prevents creating the instances of this class.
+     */
+    private NumericStringCache() {
+    }
+
+    /**
+     * Parses the given string either as an integer or, if that fails, as a
+     * decimal number.
+     *
+     * @param text the string to parse.
+     * @return the parsed string.
+     * @throws RuntimeException if the string is not a number.
+     */
+    static Entry parse(String text) {
+        int hash = text.hashCode();
+        int index = (hash ^ (hash >>> 16)) & (SIZE - 1);
+
+        Entry entry = entries[index];
+        if (entry != null && entry.text.equals(text)) {
+            return entry;
+        }
+
+        entry = new Entry(text);
+        entries[index] = entry;
+        return entry;
+    }
+
+    /**
+     * This class represents a single parsed numeric string.
+     *
+     * @author Luka Čupić
+     */
+    static class Entry {
+
+        /**
+         * The parsed string.
+         */
+        private final String text;
+
+        /**
+         * A flag which tells whether the string is an integer.
+         */
+        private final boolean integer;
+
+        /**
+         * The numeric value of the string.
+         */
+        private final double value;
+
+        /**
+         * Creates a new entry by parsing the given string.
+         *
+         * @param text the string to parse.
+         * @throws RuntimeException if the string is not a number.
+         */
+        private Entry(String text) {
+            this.text = text;
+
+            boolean integer;
+            double value;
+            try {
+                value = Integer.parseInt(text);
+                integer = true;
+            } catch (NumberFormatException ex) {
+                try {
+                    value = Double.parseDouble(text);
+                    integer = false;
+                } catch (NumberFormatException exc) {
+                    throw new RuntimeException(
+                        "The passed value is not allowed in arithmetic operations!"
+                    );
+                }
+            }
+            this.integer = integer;
+            this.value = value;
+        }
+
+        /**
+         * Checks whether the string is an integer.
+         *
+         * @return true if the string is an integer; false if it is a decimal number.
+         */
+        boolean isInteger() {
+            return integer;
+        }
+
+        /**
+         * Gets the numeric value of the string.
+         *
+         * @return the numeric value.
+         */
+        double getValue() {
+            return value;
+        }
+    }
+}
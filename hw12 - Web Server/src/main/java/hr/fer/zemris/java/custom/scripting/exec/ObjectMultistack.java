@@ -72,14 +72,42 @@ public class ObjectMultistack {
      * @throws UnsupportedOperationException if the stack denoted by {@param name} doesn't exist.
      */
     public ValueWrapper peek(String name) {
-        if (!map.containsKey(name)) {
-            throw new UnsupportedOperationException("Unknown stack key!");
-        }
+        return top(name).valueWrapper;
+    }
 
-        ValueWrapper value = pop(name);
-        push(name, value);
+    /**
+     * Adds the given step to the value from the top of the stack denoted by the
+     * key {@param name}. The value is updated in place, without popping it from
+     * the stack and pushing it back, so this is the preferred way of advancing
+     * a loop counter.
+     *
+     * @param name the key of the stack.
+     * @param step the step to add to the value.
+     * @throws EmptyStackException           if the stack denoted by {@param name} is empty.
+     * @throws UnsupportedOperationException if the stack denoted by {@param name} doesn't exist.
+     * @throws RuntimeException              if the value is not allowed in arithmetic operations.
+     */
+    public void increment(String name, int step) {
+        top(name).valueWrapper.increment(step);
+    }
 
-        return value;
+    /**
+     * Gets the entry from the top of the stack denoted by the key {@param name}.
+     *
+     * @param name the key of the stack.
+     * @return the entry from the top of the stack.
+     * @throws EmptyStackException           if the stack denoted by {@param name} is empty.
+     * @throws UnsupportedOperationException if the stack denoted by {@param name} doesn't exist.
+     */
+    private MultistackEntry top(String name) {
+        MultistackEntry entry = map.get(name);
+        if (entry == null) {
+            if (!map.containsKey(name)) {
+                throw new UnsupportedOperationException("Unknown stack key!");
+            }
+            throw new EmptyStackException();
+        }
+        return entry;
     }
 
     /**
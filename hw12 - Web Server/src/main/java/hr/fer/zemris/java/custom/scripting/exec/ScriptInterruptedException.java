@@ -0,0 +1,32 @@
+package hr.fer.zemris.java.custom.scripting.exec;
+
+/**
+ * Thrown to indicate that the execution of a script has been stopped because
+ * the executing thread has been interrupted (e.g. once the script has run
+ * longer than the server allows).
+ *
+ * @author Luka Čupić
+ */
+public class ScriptInterruptedException extends RuntimeException {
+
+    /**
+     * Default serial version ID.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The default class constructor.
+     */
+    public ScriptInterruptedException() {
+        super();
+    }
+
+    /**
+     * Creates a new exception with the description of the cause.
+     *
+     * @param message description of the exception's cause.
+     */
+    public ScriptInterruptedException(String message) {
+        super(message);
+    }
+}
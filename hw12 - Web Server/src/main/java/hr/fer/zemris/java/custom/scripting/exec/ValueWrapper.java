@@ -9,22 +9,74 @@ package hr.fer.zemris.java.custom.scripting.exec;
  * While performing arithmetic operations, if the wrapped value and the passed
  * {@link ValueWrapper} object are not compatible (i.e. the operation cannot be
  * performed on these two objects), a {@link RuntimeException} will be thrown.
+ * Another {@link ValueWrapper} may also be passed as an operand, in which case
+ * its value is used.
+ * <p>
+ * The result of an arithmetic operation is kept as a primitive number and is
+ * boxed only once it is requested through {@link #getValue()}, so a chain of
+ * operations performed upon the same wrapper does not allocate any objects.
+ * Numeric strings are parsed through the {@link NumericStringCache}.
  *
  * @author Luka Čupić
  */
 public class ValueWrapper {
 
     /**
-     * The value of the object.
+     * Denotes that the value of the wrapper is stored in {@link #value}.
+     */
+    private static final int OBJECT = 0;
+
+    /**
+     * Denotes that the value of the wrapper is stored in {@link #intValue}.
+     */
+    private static final int INTEGER = 1;
+
+    /**
+     * Denotes that the value of the wrapper is stored in {@link #doubleValue}.
+     */
+    private static final int DOUBLE = 2;
+
+    /**
+     * The addition operation.
+     */
+    private static final int ADD = 0;
+
+    /**
+     * The subtraction operation.
+     */
+    private static final int SUBTRACT = 1;
+
+    /**
+     * The multiplication operation.
+     */
+    private static final int MULTIPLY = 2;
+
+    /**
+     * The division operation.
+     */
+    private static final int DIVIDE = 3;
+
+    /**
+     * The value of the object. If the value is a primitive number, this is
+     * its boxed form, or null if it has not been boxed yet.
      */
     private Object value;
 
     /**
-     * Represents the return value of the {@link ValueWrapper#numCompare(Object)}
-     * method which is calculated in the {@link ValueWrapper#checkArgument(Object)}
-     * method.
+     * The type of the value; either {@link #OBJECT}, {@link #INTEGER} or
+     * {@link #DOUBLE}.
      */
-    private int compares;
+    private int type;
+
+    /**
+     * The value of the object, if it is an integer.
+     */
+    private int intValue;
+
+    /**
+     * The value of the object, if it is a decimal number.
+     */
+    private double doubleValue;
 
     /**
      * Creates a new instance of this class which will store the passed value.
@@ -32,7 +84,7 @@ public class ValueWrapper {
      * @param value the value which this object will represent.
      */
     public ValueWrapper(Object value) {
-        this.value = value;
+        setValue(value);
     }
 
     /**
@@ -43,8 +95,19 @@ public class ValueWrapper {
      *                          be performed.
      */
     public void add(Object incValue) {
-        checkArgument(value);
-        performOperation(value, incValue, "add");
+        performOperation(numericType(incValue), numericValue(incValue), ADD);
+    }
+
+    /**
+     * Adds the passed integer to the value of this object. This is equivalent
+     * to {@link #add(Object)}, but does not box the passed value.
+     *
+     * @param incValue the value to add to this object.
+     * @throws RuntimeException if the arithmetic operation cannot
+     *                          be performed.
+     */
+    public void increment(int incValue) {
+        performOperation(INTEGER, incValue, ADD);
     }
 
     /**
@@ -55,8 +118,7 @@ public class ValueWrapper {
      *                          be performed.
      */
     public void subtract(Object decValue) {
-        checkArgument(value);
-        performOperation(value, decValue, "subtract");
+        performOperation(numericType(decValue), numericValue(decValue), SUBTRACT);
     }
 
     /**
@@ -67,8 +129,7 @@ public class ValueWrapper {
      *                          be performed.
      */
     public void multiply(Object mulValue) {
-        checkArgument(value);
-        performOperation(value, mulValue, "multiply");
+        performOperation(numericType(mulValue), numericValue(mulValue), MULTIPLY);
     }
 
     /**
@@ -79,8 +140,7 @@ public class ValueWrapper {
      *                          be performed.
      */
     public void divide(Object divValue) {
-        checkArgument(value);
-        performOperation(value, divValue, "divide");
+        performOperation(numericType(divValue), numericValue(divValue), DIVIDE);
     }
 
     /**
@@ -91,8 +151,8 @@ public class ValueWrapper {
      *                          be performed.
      */
     public int numCompare(Object withValue) {
-        performOperation(value, withValue, "compare");
-        return compares;
+        double o2 = numericValue(withValue);
+        return Double.compare(numericValue(), o2);
     }
 
     /**
@@ -101,144 +161,171 @@ public class ValueWrapper {
      * @return the value of this object.
      */
     public Object getValue() {
+        if (value == null && type == INTEGER) {
+            value = intValue;
+        } else if (value == null && type == DOUBLE) {
+            value = doubleValue;
+        }
         return value;
     }
 
     /**
-     * Sets the value of this object to a new value.
+     * Sets the value of this object to a new value. If the new value is
+     * another {@link ValueWrapper}, the value of that wrapper is copied.
      *
      * @param value the new value of this object.
      */
     public void setValue(Object value) {
+        if (value instanceof ValueWrapper) {
+            setValue((ValueWrapper) value);
+            return;
+        }
         this.value = value;
+        this.type = OBJECT;
     }
 
     /**
-     * A helper method for checking if the passed argument is allowed
-     * as a value for performing arithmetic operations. The allowed values
-     * are either {@link String}, {@link Integer}, {@link Double} or null.
+     * Sets the value of this object to the value of the given wrapper,
+     * without boxing it.
      *
-     * @param value the value to be checked.
-     * @throws IllegalArgumentException if the argument is illegal.
+     * @param other the wrapper whose value to copy.
      */
-    private boolean checkArgument(Object value) {
-        if (value == null) return true;
-        if (value instanceof String) return true;
-        if (value instanceof Integer) return true;
-        if (value instanceof Double) return true;
-
-        throw new RuntimeException(
-            "The passed value is not allowed in arithmetic operations!"
-        );
+    public void setValue(ValueWrapper other) {
+        this.value = other.value;
+        this.type = other.type;
+        this.intValue = other.intValue;
+        this.doubleValue = other.doubleValue;
     }
 
     /**
-     * Performs a mathematical operation (denoted by the {@param operation})
-     * between the two passed objects.
+     * Returns the string representation of the value of this object, which
+     * is the same as {@code String.valueOf(getValue())}.
      *
-     * @param o1        the first operand.
-     * @param o2        the second operand.
-     * @param operation a string representing the operation. Legal operations are:
-     *                  "add", "subtract", "divide", "multiply" and "compare". All
-     *                  other operations will cause an {@link IllegalArgumentException}.
+     * @return the string representation of the value.
      */
-    private void performOperation(Object o1, Object o2, String operation) {
-        Integer o1Int = null, o2Int = null;
-        Double o1Double = null, o2Double = null;
-
-        if (o1 == null) {
-            o1Int = 0;
-        }
-        if (o2 == null) {
-            o2Int = 0;
-        }
-
-        if (o1 instanceof String) {
-            String o1String = (String) o1;
-            try {
-                o1Int = Integer.parseInt(o1String);
-            } catch (NumberFormatException ex) {
-                o1Double = convertString(o1String);
-            }
-        }
-
-        if (o2 instanceof String) {
-            String o2String = (String) o2;
-            try {
-                o2Int = Integer.parseInt(o2String);
-            } catch (NumberFormatException ex) {
-                o2Double = convertString(o2String);
-            }
-        }
-
-        if (o1 instanceof Integer) {
-            o1Int = (Integer) o1;
-        }
-        if (o2 instanceof Integer) {
-            o2Int = (Integer) o2;
-        }
-        if (o1 instanceof Double) {
-            o1Double = (Double) o1;
-        }
-        if (o2 instanceof Double) {
-            o2Double = (Double) o2;
+    @Override
+    public String toString() {
+        switch (type) {
+            case INTEGER:
+                return Integer.toString(intValue);
+            case DOUBLE:
+                return Double.toString(doubleValue);
+            default:
+                return String.valueOf(value);
         }
+    }
 
-        /*
-        now we have the o1 and o2 values properly stored in some two
-        out of the four objects from the top of the method
-        */
-
-        // store these two values into doubles; if we later determine
-        // that they are integers, the result will be converted
-        Double o1Final = o1Int != null ? o1Int : o1Double;
-        Double o2Final = o2Int != null ? o2Int : o2Double;
+    /**
+     * Performs a mathematical operation (denoted by the {@param operation})
+     * between the value of this object and the given operand, storing the
+     * result as the new value of this object. The result is an integer if
+     * both of the values are integers, and a decimal number otherwise.
+     *
+     * @param type      the type of the operand; either {@link #INTEGER} or {@link #DOUBLE}.
+     * @param operand   the numeric value of the operand.
+     * @param operation the operation to perform.
+     * @throws RuntimeException if the value of this object is not allowed
+     *                          in arithmetic operations.
+     */
+    private void performOperation(int type, double operand, int operation) {
+        int ownType = numericType();
+        double own = numericValue();
 
-        Double result;
+        double result;
         switch (operation) {
-            case "add":
-                result = o1Final + o2Final;
+            case ADD:
+                result = own + operand;
                 break;
-            case "subtract":
-                result = o1Final - o2Final;
+            case SUBTRACT:
+                result = own - operand;
                 break;
-            case "multiply":
-                result = o1Final * o2Final;
+            case MULTIPLY:
+                result = own * operand;
                 break;
-            case "divide":
-                result = (double) o1Final / o2Final;
+            case DIVIDE:
+                result = own / operand;
                 break;
-            case "compare":
-                compares = o1Final.compareTo(o2Final);
-                return;
             default:
                 throw new IllegalArgumentException("Operation not supported!");
         }
 
-        // if either object is a double
-        if (o1Double != null || o2Double != null) {
-            value = result;
-
+        value = null;
+        if (ownType == INTEGER && type == INTEGER) {
             // both values are integers, so the result is an integer
+            this.type = INTEGER;
+            intValue = (int) result;
         } else {
-            value = result.intValue();
+            this.type = DOUBLE;
+            doubleValue = result;
+        }
+    }
+
+    /**
+     * Gets the numeric type of the value of this object.
+     *
+     * @return either {@link #INTEGER} or {@link #DOUBLE}.
+     * @throws RuntimeException if the value is not allowed in arithmetic operations.
+     */
+    private int numericType() {
+        return type != OBJECT ? type : numericType(value);
+    }
+
+    /**
+     * Gets the numeric value of the value of this object.
+     *
+     * @return the numeric value.
+     * @throws RuntimeException if the value is not allowed in arithmetic operations.
+     */
+    private double numericValue() {
+        switch (type) {
+            case INTEGER:
+                return intValue;
+            case DOUBLE:
+                return doubleValue;
+            default:
+                return numericValue(value);
         }
     }
 
     /**
-     * A helper method for converting a string into a double value.
-     * If the conversion fails, the method call will result with an
-     * instance of the {@link RuntimeException}.
+     * Gets the numeric type of the given value. The null value is treated as
+     * the integer zero, while the strings are parsed either as integers or as
+     * decimal numbers.
      *
-     * @param string the string to convert.
+     * @param value the value.
+     * @return either {@link #INTEGER} or {@link #DOUBLE}.
+     * @throws RuntimeException if the value is not allowed in arithmetic operations.
      */
-    private double convertString(String string) {
-        try {
-            return Double.parseDouble(string);
-        } catch (NumberFormatException exc) {
-            throw new RuntimeException(
-                "The passed value is not allowed in arithmetic operations!"
-            );
+    private static int numericType(Object value) {
+        if (value == null || value instanceof Integer) return INTEGER;
+        if (value instanceof Double) return DOUBLE;
+        if (value instanceof String) {
+            return NumericStringCache.parse((String) value).isInteger() ? INTEGER : DOUBLE;
         }
+        if (value instanceof ValueWrapper) return ((ValueWrapper) value).numericType();
+
+        throw new RuntimeException(
+            "The passed value is not allowed in arithmetic operations!"
+        );
+    }
+
+    /**
+     * Gets the numeric value of the given value.
+     *
+     * @param value the value.
+     * @return the numeric value.
+     * @throws RuntimeException if the value is not allowed in arithmetic operations.
+     * @see #numericType(Object)
+     */
+    private static double numericValue(Object value) {
+        if (value == null) return 0;
+        if (value instanceof Integer) return (Integer) value;
+        if (value instanceof Double) return (Double) value;
+        if (value instanceof String) return NumericStringCache.parse((String) value).getValue();
+        if (value instanceof ValueWrapper) return ((ValueWrapper) value).numericValue();
+
+        throw new RuntimeException(
+            "The passed value is not allowed in arithmetic operations!"
+        );
     }
 }
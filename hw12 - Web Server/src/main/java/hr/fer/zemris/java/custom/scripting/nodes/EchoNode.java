@@ -12,7 +12,7 @@ public class EchoNode extends Node {
     /**
      * A collection of elements.
      */
-    private Element[] elements;
+    private final Element[] elements;
 
     /**
      * Instantiates a new EchoNode object from the passed elements.
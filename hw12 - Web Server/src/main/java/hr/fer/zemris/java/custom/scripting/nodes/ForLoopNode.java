@@ -13,22 +13,22 @@ public class ForLoopNode extends Node {
     /**
      * The variable element of the construct.
      */
-    private ElementVariable variable;
+    private final ElementVariable variable;
 
     /**
      * The start expression element of the construct.
      */
-    private Element startExpression;
+    private final Element startExpression;
 
     /**
      * The end expression element of the construct.
      */
-    private Element endExpression;
+    private final Element endExpression;
 
     /**
      * The step expression element of the construct.
      */
-    private Element stepExpression;
+    private final Element stepExpression;
 
     /**
      * The constructor for initializing the ForLoopNode object. The step value
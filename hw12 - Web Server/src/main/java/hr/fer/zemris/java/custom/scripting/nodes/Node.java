@@ -6,6 +6,11 @@ import java.util.List;
 /**
  * A generic node of the document model from which all nodes are
  * inherited from.
+ * <p>
+ * Once the document model has been built by the parser, it is never
+ * modified, so a single tree can be shared by any number of visitors
+ * running concurrently (for example, by the cached scripts of the
+ * web server).
  *
  * @author Luka Čupić
  */
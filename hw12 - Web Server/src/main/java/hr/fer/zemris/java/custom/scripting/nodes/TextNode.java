@@ -10,7 +10,7 @@ public class TextNode extends Node {
     /**
      * The textual value of the node.
      */
-    private String text;
+    private final String text;
 
     /**
      * The default constructor.
@@ -2,6 +2,7 @@ package hr.fer.zemris.java.custom.scripting.visitors;
 
 import hr.fer.zemris.java.custom.scripting.elems.*;
 import hr.fer.zemris.java.custom.scripting.exec.ObjectMultistack;
+import hr.fer.zemris.java.custom.scripting.exec.ScriptInterruptedException;
 import hr.fer.zemris.java.custom.scripting.exec.SmartScriptEngine;
 import hr.fer.zemris.java.custom.scripting.exec.ValueWrapper;
 import hr.fer.zemris.java.custom.scripting.nodes.*;
@@ -79,10 +80,12 @@ public class ScriptEvaluator implements INodeVisitor {
             multistack.push(varName, new ValueWrapper(start));
 
             for (int i = start; i <= end; i += step) {
+                // a loop is the only construct which can run for long
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new ScriptInterruptedException("The script has been interrupted!");
+                }
                 VisitorUtil.visitChildren(node, this);
-                ValueWrapper vw = multistack.pop(varName);
-                vw.add(step);
-                multistack.push(varName, vw);
+                multistack.increment(varName, step);
             }
             multistack.pop(varName);
         } catch (IllegalArgumentException ex) {
@@ -0,0 +1,242 @@
+package hr.fer.zemris.java.webserver;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class represents the access log of the {@link SmartHttpServer}. Each
+ * record is a single line of JSON, describing either a served request or a
+ * request which failed with an exception.
+ * <p>
+ * Only a fraction of the served requests (given by the sample rate) is
+ * logged, while the failed requests are always logged. The client workers
+ * only put the records into a bounded queue, from which they are written by
+ * a background thread; if the queue is full, the record is dropped rather
+ * than making the client worker wait.
+ *
+ * @author Luka Čupić
+ */
+public class AccessLog implements Closeable {
+
+    /**
+     * The maximum number of records waiting to be written.
+     */
+    private static final int QUEUE_CAPACITY = 8192;
+
+    /**
+     * The record which tells the writer thread to stop.
+     */
+    private static final String END = new String("end");
+
+    /**
+     * The fraction of the served requests which are logged.
+     */
+    private double sampleRate;
+
+    /**
+     * The records waiting to be written.
+     */
+    private BlockingQueue<String> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+
+    /**
+     * The number of records dropped because the queue was full.
+     */
+    private LongAdder dropped = new LongAdder();
+
+    /**
+     * The writer of the log, or null if the log is disabled.
+     */
+    private Writer writer;
+
+    /**
+     * The thread which writes the records.
+     */
+    private Thread thread;
+
+    /**
+     * Creates a new access log.
+     *
+     * @param destination either "stdout", "none" (which disables the log),
+     *                    or the path to the file the log is appended to
+     * @param sampleRate  the fraction of the served requests which are logged,
+     *                    between 0 and 1
+     * @throws IOException if the log file cannot be opened
+     */
+    public AccessLog(String destination, double sampleRate) throws IOException {
+        if (destination.equals("none")) return;
+
+        OutputStream os = destination.equals("stdout") ? System.out : new FileOutputStream(destination, true);
+        this.writer = new BufferedWriter(new OutputStreamWriter(os, StandardCharsets.UTF_8));
+        this.sampleRate = sampleRate;
+
+        thread = new Thread(this::writeRecords, "access-log");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Decides whether the current served request should be logged. This is
+     * checked before the record is created, so the requests which are not
+     * logged cost nothing more than a random number.
+     *
+     * @return true if the request should be logged; false otherwise
+     */
+    public boolean isSampled() {
+        return writer != null && ThreadLocalRandom.current().nextDouble() < sampleRate;
+    }
+
+    /**
+     * Logs a served request.
+     *
+     * @param client   the address of the client
+     * @param method   the method of the request
+     * @param path     the requested path
+     * @param status   the status code of the response
+     * @param route    the route which served the request
+     * @param duration the time it took to serve the request, in nanoseconds
+     */
+    public void log(String client, String method, String path, int status, String route, long duration) {
+        StringBuilder sb = start("request", client, method, path);
+        sb.append(",\"status\":").append(status);
+        sb.append(",\"route\":\"").append(route).append('"');
+        sb.append(",\"durationMicros\":").append(duration / 1000);
+        sb.append('}');
+        offer(sb.toString());
+    }
+
+    /**
+     * Logs a request which failed with an exception.
+     *
+     * @param client the address of the client
+     * @param method the method of the request, or null if unknown
+     * @param path   the requested path, or null if unknown
+     * @param ex     the exception
+     */
+    public void error(String client, String method, String path, Exception ex) {
+        if (writer == null) return;
+
+        StringBuilder sb = start("error", client, method, path);
+        appendString(sb.append(",\"error\":"), ex.getClass().getName());
+        appendString(sb.append(",\"message\":"), ex.getMessage());
+        sb.append('}');
+        offer(sb.toString());
+    }
+
+    /**
+     * Gets the number of records which were dropped because too many records
+     * were waiting to be written.
+     *
+     * @return the number of dropped records
+     */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * Writes the remaining records and closes the log.
+     *
+     * @throws IOException if the log cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        if (thread == null) return;
+
+        try {
+            if (!queue.offer(END)) {
+                thread.interrupt();
+            }
+            thread.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        writer.flush();
+        thread = null;
+    }
+
+    /**
+     * Starts a record with the common fields.
+     *
+     * @param type   the type of the record
+     * @param client the address of the client
+     * @param method the method of the request
+     * @param path   the requested path
+     * @return the builder of the record
+     */
+    private static StringBuilder start(String type, String client, String method, String path) {
+        StringBuilder sb = new StringBuilder(160);
+        sb.append("{\"time\":\"").append(Instant.now()).append('"');
+        sb.append(",\"type\":\"").append(type).append('"');
+        appendString(sb.append(",\"client\":"), client);
+        appendString(sb.append(",\"method\":"), method);
+        appendString(sb.append(",\"path\":"), path);
+        return sb;
+    }
+
+    /**
+     * Appends the given string as a JSON string.
+     *
+     * @param sb    the builder to append the string to
+     * @param value the string; may be null
+     */
+    private static void appendString(StringBuilder sb, String value) {
+        if (value == null) {
+            sb.append("null");
+            return;
+        }
+
+        sb.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < 0x20) {
+                sb.append(String.format("\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        sb.append('"');
+    }
+
+    /**
+     * Puts the given record into the queue, or drops it if the queue is full.
+     *
+     * @param record the record
+     */
+    private void offer(String record) {
+        if (!queue.offer(record)) {
+            dropped.increment();
+        }
+    }
+
+    /**
+     * Writes the records from the queue until the log is closed. The writer
+     * is flushed whenever the queue becomes empty.
+     */
+    private void writeRecords() {
+        try {
+            while (true) {
+                String record = queue.take();
+                if (record == END) return;
+
+                writer.write(record);
+                writer.write('\n');
+                if (queue.isEmpty()) {
+                    writer.flush();
+                }
+            }
+        } catch (InterruptedException | IOException ignorable) {
+        }
+    }
+}
@@ -0,0 +1,273 @@
+package hr.fer.zemris.java.webserver;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * This class contains the helper methods for compressing the responses of
+ * the {@link SmartHttpServer} with one of the content codings accepted by
+ * the client, either "gzip" or "deflate".
+ * <p>
+ * Creating a {@link Deflater} is expensive (each one allocates its own native
+ * buffers), so the deflaters are kept in a small pool and reused by all of
+ * the responses.
+ *
+ * @author Luka Čupić
+ */
+class Compression {
+
+    /**
+     * The gzip content coding.
+     */
+    static final String GZIP = "gzip";
+
+    /**
+     * The deflate (zlib) content coding.
+     */
+    static final String DEFLATE = "deflate";
+
+    /**
+     * The maximum number of pooled deflaters of each kind.
+     */
+    private static final int POOL_SIZE = 64;
+
+    /**
+     * The size of the buffer of a compressing stream.
+     */
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * The header of a gzip stream without any optional fields.
+     */
+    private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+
+    /**
+     * The pooled deflaters which produce raw deflate data, used for gzip.
+     */
+    private static final BlockingQueue<Deflater> RAW_DEFLATERS = new ArrayBlockingQueue<>(POOL_SIZE);
+
+    /**
+     * The pooled deflaters which produce zlib data, used for deflate.
+     */
+    private static final BlockingQueue<Deflater> ZLIB_DEFLATERS = new ArrayBlockingQueue<>(POOL_SIZE);
+
+    /**
+     * Chooses the content coding of a response from the value of the
+     * Accept-Encoding header of the request. The gzip coding is preferred
+     * over the deflate coding if the client accepts both of them equally.
+     *
+     * @param acceptEncoding the value of the Accept-Encoding header; may be null
+     * @return either {@link #GZIP}, {@link #DEFLATE}, or null if the client
+     * does not accept any of them
+     */
+    static String negotiate(String acceptEncoding) {
+        if (acceptEncoding == null) return null;
+
+        double gzip = -1;
+        double deflate = -1;
+        double any = -1;
+
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parts = coding.split(";");
+            String name = parts[0].trim().toLowerCase();
+
+            double quality = 1;
+            for (int i = 1; i < parts.length; i++) {
+                String parameter = parts[i].trim();
+                if (parameter.startsWith("q=")) {
+                    try {
+                        quality = Double.parseDouble(parameter.substring(2));
+                    } catch (NumberFormatException ex) {
+                        quality = 0;
+                    }
+                }
+            }
+
+            if (name.equals(GZIP) || name.equals("x-gzip")) {
+                gzip = quality;
+            } else if (name.equals(DEFLATE)) {
+                deflate = quality;
+            } else if (name.equals("*")) {
+                any = quality;
+            }
+        }
+
+        if (gzip < 0) gzip = any;
+        if (deflate < 0) deflate = any;
+
+        if (gzip > 0 && gzip >= deflate) return GZIP;
+        if (deflate > 0) return DEFLATE;
+        return null;
+    }
+
+    /**
+     * Checks whether the content of the given mime type is worth compressing.
+     * The textual formats are compressed, while the images, archives and
+     * other binary formats usually are already compressed.
+     *
+     * @param mimeType the mime type, optionally followed by its parameters
+     * @return true if the content should be compressed; false otherwise
+     */
+    static boolean isCompressible(String mimeType) {
+        if (mimeType == null) return false;
+
+        int end = mimeType.indexOf(';');
+        String type = (end < 0 ? mimeType : mimeType.substring(0, end)).trim().toLowerCase();
+
+        return type.startsWith("text/")
+            || type.endsWith("+xml")
+            || type.endsWith("+json")
+            || type.equals("application/javascript")
+            || type.equals("application/json")
+            || type.equals("application/xml");
+    }
+
+    /**
+     * Creates a stream which compresses the data written to it with the given
+     * content coding and writes it to the given stream. Closing the returned
+     * stream completes the compressed data and closes the given stream.
+     *
+     * @param out      the stream to write the compressed data to
+     * @param encoding the content coding; either {@link #GZIP} or {@link #DEFLATE}
+     * @return the compressing stream
+     * @throws IOException if an error occurs while writing to the given stream
+     */
+    static OutputStream compress(OutputStream out, String encoding) throws IOException {
+        if (GZIP.equals(encoding)) {
+            return new GzipStream(out);
+        }
+        if (DEFLATE.equals(encoding)) {
+            return new PooledDeflaterStream(out, ZLIB_DEFLATERS, false);
+        }
+        throw new IllegalArgumentException("Unsupported content coding: " + encoding);
+    }
+
+    /**
+     * Compresses the given data with the given content coding.
+     *
+     * @param data     the data to compress
+     * @param encoding the content coding; either {@link #GZIP} or {@link #DEFLATE}
+     * @return the compressed data
+     */
+    static byte[] compress(byte[] data, String encoding) {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(data.length / 2 + 64);
+        try (OutputStream os = compress(bos, encoding)) {
+            os.write(data);
+        } catch (IOException ex) {
+            // cannot happen, the data is written to memory
+            throw new RuntimeException(ex);
+        }
+        return bos.toByteArray();
+    }
+
+    /**
+     * This class represents a deflating stream which takes its deflater from
+     * a pool and returns it once the stream is closed.
+     *
+     * @author Luka Čupić
+     */
+    private static class PooledDeflaterStream extends DeflaterOutputStream {
+
+        /**
+         * The pool of the deflater.
+         */
+        private BlockingQueue<Deflater> pool;
+
+        /**
+         * A flag which tells whether the stream has been closed.
+         */
+        private boolean closed;
+
+        /**
+         * Creates a new stream.
+         *
+         * @param out    the stream to write the compressed data to
+         * @param pool   the pool to take the deflater from
+         * @param nowrap true if the deflater produces raw deflate data; false
+         *               if it produces zlib data
+         */
+        PooledDeflaterStream(OutputStream out, BlockingQueue<Deflater> pool, boolean nowrap) {
+            super(out, acquire(pool, nowrap), BUFFER_SIZE);
+            this.pool = pool;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) return;
+            closed = true;
+
+            try {
+                super.close();
+            } finally {
+                def.reset();
+                if (!pool.offer(def)) {
+                    def.end();
+                }
+            }
+        }
+
+        /**
+         * Takes a deflater from the given pool, or creates a new one if the
+         * pool is empty.
+         *
+         * @param pool   the pool
+         * @param nowrap true if the deflater produces raw deflate data
+         * @return the deflater
+         */
+        private static Deflater acquire(BlockingQueue<Deflater> pool, boolean nowrap) {
+            Deflater deflater = pool.poll();
+            return deflater != null ? deflater : new Deflater(Deflater.DEFAULT_COMPRESSION, nowrap);
+        }
+    }
+
+    /**
+     * This class represents a stream which produces the gzip format: a fixed
+     * header, the raw deflate data and a trailer with the checksum and the
+     * length of the uncompressed data.
+     *
+     * @author Luka Čupić
+     */
+    private static class GzipStream extends PooledDeflaterStream {
+
+        /**
+         * The checksum of the uncompressed data.
+         */
+        private CRC32 crc = new CRC32();
+
+        /**
+         * Creates a new stream and writes the gzip header.
+         *
+         * @param out the stream to write the compressed data to
+         * @throws IOException if the header cannot be written
+         */
+        GzipStream(OutputStream out) throws IOException {
+            super(out, RAW_DEFLATERS, true);
+            out.write(GZIP_HEADER);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            super.write(b, off, len);
+            crc.update(b, off, len);
+        }
+
+        @Override
+        public void finish() throws IOException {
+            if (def.finished()) return;
+            super.finish();
+
+            int checksum = (int) crc.getValue();
+            int length = (int) def.getBytesRead();
+            out.write(new byte[]{
+                (byte) checksum, (byte) (checksum >> 8), (byte) (checksum >> 16), (byte) (checksum >> 24),
+                (byte) length, (byte) (length >> 8), (byte) (length >> 16), (byte) (length >> 24)
+            });
+        }
+    }
+}
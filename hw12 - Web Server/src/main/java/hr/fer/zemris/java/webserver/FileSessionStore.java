@@ -0,0 +1,760 @@
+package hr.fer.zemris.java.webserver;
+
+import hr.fer.zemris.java.webserver.SmartHttpServer.SessionMapEntry;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class represents a session store which saves the client sessions to
+ * an append-only log, so that the sessions (and their persistent parameters)
+ * survive a restart of the server.
+ * <p>
+ * The log is a memory-mapped file, so appending a record is only a copy to
+ * memory. A record is appended whenever the parameters of a session change
+ * and, at most once per a tenth of the session timeout, when the validity of
+ * a session is extended. Sessions without any parameters are never saved.
+ * The log is compacted (its live sessions are copied to a new log file) once
+ * it fills up, periodically if more than half of it is garbage, and when the
+ * store is closed. When the store is created, it loads the newest complete
+ * log file from its directory.
+ * <p>
+ * Only an index of the saved sessions is kept in memory. The sessions
+ * themselves are loaded from the log on demand and are cached in an
+ * {@link InMemorySessionStore}, which can be capped, so the heap stays
+ * bounded regardless of the number of sessions. A session which has been
+ * evicted from the cache while a request still uses it is not loaded again:
+ * the store keeps weak references to all of the sessions it has handed out,
+ * so there is never more than one copy of a session in use.
+ *
+ * @author Luka Čupić
+ */
+public class FileSessionStore implements SessionStore {
+
+    /**
+     * The magic number at the start of each log file.
+     */
+    private static final int MAGIC = 0x53455353;
+
+    /**
+     * The size of the log file's header: the magic number and the state.
+     */
+    private static final int HEADER_SIZE = 8;
+
+    /**
+     * The state of a log file which is still being written by a compaction.
+     */
+    private static final int INCOMPLETE = 0;
+
+    /**
+     * The state of a log file which can be loaded.
+     */
+    private static final int COMPLETE = 1;
+
+    /**
+     * The type of the record which holds the whole session.
+     */
+    private static final byte PUT = 1;
+
+    /**
+     * The type of the record which extends the validity of a session.
+     */
+    private static final byte TOUCH = 2;
+
+    /**
+     * The prefix of the names of the log files.
+     */
+    private static final String PREFIX = "sessions-";
+
+    /**
+     * The suffix of the names of the log files.
+     */
+    private static final String SUFFIX = ".log";
+
+    /**
+     * The cache of the recently used sessions.
+     */
+    private InMemorySessionStore cache;
+
+    /**
+     * The weak references to the sessions handed out by the store, mapped
+     * from their identifiers.
+     */
+    private Map<String, SessionReference> handedOut = new ConcurrentHashMap<>();
+
+    /**
+     * The queue of the references to the sessions which have been collected.
+     */
+    private ReferenceQueue<SessionMapEntry> collected = new ReferenceQueue<>();
+
+    /**
+     * The index of the saved sessions, mapped from their identifiers to the
+     * locations of their records.
+     */
+    private Map<String, Location> index = new ConcurrentHashMap<>();
+
+    /**
+     * The directory which holds the log files.
+     */
+    private Path directory;
+
+    /**
+     * The maximum duration of the sessions, in seconds.
+     */
+    private int sessionTimeout;
+
+    /**
+     * The minimum extension of a session's validity (in seconds) which is
+     * appended to the log.
+     */
+    private int touchInterval;
+
+    /**
+     * The minimum capacity of the log, in bytes.
+     */
+    private int minCapacity;
+
+    /**
+     * The generation of the current log file.
+     */
+    private long generation;
+
+    /**
+     * The channel of the current log file.
+     */
+    private FileChannel channel;
+
+    /**
+     * The memory-mapped contents of the current log file.
+     */
+    private MappedByteBuffer buffer;
+
+    /**
+     * The position at which the next record is appended.
+     */
+    private int position;
+
+    /**
+     * The total size of the live records (the records of the indexed
+     * sessions), in bytes.
+     */
+    private int liveBytes;
+
+    /**
+     * A flag which tells whether the store has been closed.
+     */
+    private volatile boolean closed;
+
+    /**
+     * Creates a new store, loading the saved sessions from the given directory.
+     *
+     * @param directory      the directory which holds the log files
+     * @param sessionTimeout the maximum duration of the sessions, in seconds
+     * @param maxSessions    the maximum number of sessions cached in memory; zero
+     *                       (or less) means that the number is not limited
+     * @param capacity       the initial capacity of the log, in bytes
+     * @throws IOException if the log cannot be loaded or created
+     */
+    public FileSessionStore(Path directory, int sessionTimeout, int maxSessions, int capacity) throws IOException {
+        this.directory = directory;
+        this.sessionTimeout = sessionTimeout;
+        this.touchInterval = Math.max(1, sessionTimeout / 10);
+        this.minCapacity = Math.max(capacity, 4096);
+        this.cache = new InMemorySessionStore(sessionTimeout, maxSessions);
+
+        Files.createDirectories(directory);
+        if (!load()) {
+            generation = 1;
+            channel = open(generation);
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, minCapacity);
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, COMPLETE);
+            position = HEADER_SIZE;
+        }
+    }
+
+    @Override
+    public SessionMapEntry get(String sid) {
+        SessionMapEntry session = cache.get(sid);
+        if (session != null) {
+            touch(session);
+            return session;
+        }
+        if (!index.containsKey(sid) && !handedOut.containsKey(sid)) return null;
+
+        synchronized (this) {
+            // another thread might have loaded the session in the meantime
+            session = cache.get(sid);
+            if (session != null) {
+                touch(session);
+                return session;
+            }
+
+            long now = now();
+            expunge();
+
+            // the session might still be used by a request after its eviction
+            SessionReference reference = handedOut.get(sid);
+            session = reference != null ? reference.get() : null;
+            if (session != null && now < session.validUntil) {
+                session.validUntil = now + sessionTimeout;
+                cache.add(session);
+                touch(session);
+                return session;
+            }
+
+            Location location = index.get(sid);
+            if (location == null) return null;
+
+            if (now >= location.validUntil) {
+                index.remove(sid);
+                liveBytes -= location.length;
+                return null;
+            }
+
+            session = read(sid, location, now + sessionTimeout);
+            handOut(session);
+            cache.add(session);
+            touch(session);
+            return session;
+        }
+    }
+
+    @Override
+    public SessionMapEntry create() {
+        // the session is saved only once it gets some parameters
+        SessionMapEntry session = cache.create();
+        synchronized (this) {
+            expunge();
+            handOut(session);
+        }
+        return session;
+    }
+
+    @Override
+    public void update(SessionMapEntry session) {
+        Location location = index.get(session.SID);
+        int version = session.map.getVersion();
+        if (location != null ? location.version == version : session.map.isEmpty()) return;
+
+        synchronized (this) {
+            if (closed) return;
+
+            location = index.get(session.SID);
+            if (location != null && location.version == session.map.getVersion()) return;
+
+            try {
+                // the version is read before the parameters, so a modification
+                // which is not saved leaves a newer version behind
+                version = session.map.getVersion();
+                Location updated = append(PUT, session.SID, session.validUntil, session.map);
+                updated.version = version;
+
+                // the location might have been dropped by a compaction
+                Location previous = index.put(session.SID, updated);
+                if (previous != null) {
+                    liveBytes -= previous.length;
+                }
+                liveBytes += updated.length;
+            } catch (IOException ex) {
+                System.err.println("Cannot save the session: " + ex.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public void removeExpired() {
+        cache.removeExpired();
+
+        synchronized (this) {
+            if (closed) return;
+
+            long now = now();
+            Iterator<Location> it = index.values().iterator();
+            while (it.hasNext()) {
+                Location location = it.next();
+                if (now >= location.validUntil) {
+                    liveBytes -= location.length;
+                    it.remove();
+                }
+            }
+
+            int garbage = position - HEADER_SIZE - liveBytes;
+            if (garbage > liveBytes && garbage > minCapacity / 4) {
+                try {
+                    compact(0);
+                } catch (IOException ex) {
+                    System.err.println("Cannot compact the session store: " + ex.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The sessions which have no parameters are kept only in memory, so they
+     * are not counted.
+     */
+    @Override
+    public int size() {
+        return index.size();
+    }
+
+    /**
+     * Closes the store, leaving a compacted snapshot of the saved sessions
+     * in its directory.
+     *
+     * @throws IOException if the snapshot cannot be written
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) return;
+
+        try {
+            compact(0);
+        } finally {
+            closed = true;
+            buffer.force();
+            channel.close();
+        }
+    }
+
+    /**
+     * Appends a record of the extended validity of the given session, unless
+     * the validity was extended only a short time ago.
+     *
+     * @param session the session whose validity was extended
+     */
+    private void touch(SessionMapEntry session) {
+        Location location = index.get(session.SID);
+        if (location == null || session.validUntil - location.validUntil < touchInterval) return;
+
+        synchronized (this) {
+            if (closed || index.get(session.SID) != location) return;
+
+            try {
+                location.validUntil = session.validUntil;
+                append(TOUCH, session.SID, session.validUntil, null);
+            } catch (IOException ex) {
+                System.err.println("Cannot save the session: " + ex.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Appends a new record to the log, compacting the log first if it is full.
+     *
+     * @param type       the type of the record
+     * @param sid        the session identifier
+     * @param validUntil the time (in seconds) until the session will be valid
+     * @param parameters the parameters of the session; only for the PUT records
+     * @return the location of the appended record
+     * @throws IOException if the log cannot be compacted
+     */
+    private Location append(byte type, String sid, long validUntil, Map<String, String> parameters)
+        throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataOutputStream os = new DataOutputStream(bos);
+        os.writeByte(type);
+        writeString(os, sid);
+        os.writeLong(validUntil);
+        if (type == PUT) {
+            List<Map.Entry<String, String>> entries = new ArrayList<>(parameters.entrySet());
+            os.writeInt(entries.size());
+            for (Map.Entry<String, String> entry : entries) {
+                writeString(os, entry.getKey());
+                writeString(os, entry.getValue());
+            }
+        }
+        byte[] record = bos.toByteArray();
+
+        // the length of the next record (zero) must always fit into the log
+        if (position + 4 + record.length + 4 > buffer.capacity()) {
+            compact(4 + record.length);
+        }
+
+        // the length is written last, so a partially written record
+        // is seen as the end of the log
+        int offset = position;
+        buffer.position(offset + 4);
+        buffer.put(record);
+        buffer.putInt(offset, record.length);
+        position += 4 + record.length;
+
+        return new Location(offset, 4 + record.length, validUntil);
+    }
+
+    /**
+     * Copies the records of the live sessions to a new log file and replaces
+     * the current log file with it.
+     *
+     * @param reserve the number of bytes which must be free after the compaction
+     * @throws IOException if the new log file cannot be written
+     */
+    private void compact(int reserve) throws IOException {
+        long now = now();
+
+        int capacity = Math.max(minCapacity, buffer.capacity());
+        while (HEADER_SIZE + liveBytes + reserve + 4 > capacity / 2) {
+            capacity *= 2;
+        }
+
+        FileChannel nextChannel = open(generation + 1);
+        MappedByteBuffer next;
+        int nextPosition = HEADER_SIZE;
+        int nextLiveBytes = 0;
+        Map<Location, Integer> offsets = new HashMap<>();
+
+        try {
+            next = nextChannel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+            next.putInt(0, MAGIC);
+            next.putInt(4, INCOMPLETE);
+
+            ByteBuffer source = buffer.duplicate();
+            for (Map.Entry<String, Location> entry : index.entrySet()) {
+                Location location = entry.getValue();
+                if (now >= location.validUntil) continue;
+
+                source.limit(location.offset + location.length).position(location.offset);
+                next.position(nextPosition);
+                next.put(source);
+
+                // the copied record gets the latest validity of the session
+                int sidLength = next.getInt(nextPosition + 5);
+                next.putLong(nextPosition + 9 + sidLength, location.validUntil);
+
+                offsets.put(location, nextPosition);
+                nextPosition += location.length;
+                nextLiveBytes += location.length;
+            }
+            next.force();
+            next.putInt(4, COMPLETE);
+            next.force();
+        } catch (IOException | RuntimeException ex) {
+            // the current log is left untouched, so the new one is discarded
+            try {
+                nextChannel.close();
+                Files.deleteIfExists(file(generation + 1));
+            } catch (IOException suppressed) {
+                ex.addSuppressed(suppressed);
+            }
+            throw ex;
+        }
+
+        // the index and the log are switched together, so that the offsets
+        // always point into the current log
+        index.values().removeIf(location -> !offsets.containsKey(location));
+        for (Map.Entry<Location, Integer> entry : offsets.entrySet()) {
+            entry.getKey().offset = entry.getValue();
+        }
+
+        FileChannel previousChannel = channel;
+        long previousGeneration = generation;
+
+        generation++;
+        channel = nextChannel;
+        buffer = next;
+        position = nextPosition;
+        liveBytes = nextLiveBytes;
+
+        // a previous log which is left behind is deleted once the store is loaded
+        try {
+            previousChannel.close();
+            Files.deleteIfExists(file(previousGeneration));
+        } catch (IOException ex) {
+            System.err.println("Cannot delete the previous session log: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Loads the index of the saved sessions from the newest complete log file
+     * and deletes all of the other log files.
+     *
+     * @return true if a log file was loaded; false otherwise
+     * @throws IOException if the log file cannot be loaded
+     */
+    private boolean load() throws IOException {
+        List<Long> generations = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, PREFIX + "*" + SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    generations.add(Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length())));
+                } catch (NumberFormatException ignorable) {
+                }
+            }
+        }
+        generations.sort((g1, g2) -> Long.compare(g2, g1));
+
+        boolean loaded = false;
+        for (long g : generations) {
+            if (!loaded && (loaded = load(g))) continue;
+            Files.deleteIfExists(file(g));
+        }
+        return loaded;
+    }
+
+    /**
+     * Loads the index of the saved sessions from the log file of the given
+     * generation.
+     *
+     * @param generation the generation of the log file
+     * @return true if the log file was loaded; false if it is not complete
+     * @throws IOException if the log file cannot be read
+     */
+    private boolean load(long generation) throws IOException {
+        FileChannel channel = FileChannel.open(file(generation),
+            StandardOpenOption.READ, StandardOpenOption.WRITE);
+        if (channel.size() < HEADER_SIZE || channel.size() > Integer.MAX_VALUE) {
+            channel.close();
+            return false;
+        }
+
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != COMPLETE) {
+            channel.close();
+            return false;
+        }
+
+        long now = now();
+        int position = HEADER_SIZE;
+        while (position + 4 <= buffer.capacity()) {
+            int length = buffer.getInt(position);
+            if (length <= 0 || position + 4 + length + 4 > buffer.capacity()) break;
+
+            byte type = buffer.get(position + 4);
+            int sidLength = buffer.getInt(position + 5);
+            if (sidLength < 0 || 9 + sidLength + 8 > 4 + length) break;
+
+            String sid = readString(buffer, position + 5);
+            long validUntil = buffer.getLong(position + 9 + sidLength);
+
+            if (type == PUT) {
+                Location previous = index.put(sid, new Location(position, 4 + length, validUntil));
+                if (previous != null) {
+                    liveBytes -= previous.length;
+                }
+                liveBytes += 4 + length;
+            } else if (type == TOUCH) {
+                Location location = index.get(sid);
+                if (location != null) {
+                    location.validUntil = validUntil;
+                }
+            } else {
+                break;
+            }
+            position += 4 + length;
+        }
+
+        Iterator<Location> it = index.values().iterator();
+        while (it.hasNext()) {
+            Location location = it.next();
+            if (now >= location.validUntil) {
+                liveBytes -= location.length;
+                it.remove();
+            }
+        }
+
+        this.generation = generation;
+        this.channel = channel;
+        this.buffer = buffer;
+        this.position = position;
+        return true;
+    }
+
+    /**
+     * Reads the session from the given PUT record.
+     *
+     * @param sid        the session identifier
+     * @param location   the location of the record
+     * @param validUntil the time (in seconds) until the session will be valid
+     * @return the session
+     */
+    private SessionMapEntry read(String sid, Location location, long validUntil) {
+        SessionMapEntry session = new SessionMapEntry(sid, validUntil);
+
+        int position = location.offset + 5;
+        position += 4 + buffer.getInt(position) + 8;
+
+        int count = buffer.getInt(position);
+        position += 4;
+        for (int i = 0; i < count; i++) {
+            String key = readString(buffer, position);
+            position += 4 + buffer.getInt(position);
+            String value = readString(buffer, position);
+            position += 4 + buffer.getInt(position);
+
+            session.map.put(key, value);
+        }
+
+        location.version = session.map.getVersion();
+        return session;
+    }
+
+    /**
+     * Remembers the given session as handed out by the store.
+     *
+     * @param session the session
+     */
+    private void handOut(SessionMapEntry session) {
+        handedOut.put(session.SID, new SessionReference(session, collected));
+    }
+
+    /**
+     * Forgets the handed out sessions which have been collected.
+     */
+    private void expunge() {
+        SessionReference reference;
+        while ((reference = (SessionReference) collected.poll()) != null) {
+            handedOut.remove(reference.sid, reference);
+        }
+    }
+
+    /**
+     * Opens (and creates, if necessary) the log file of the given generation.
+     *
+     * @param generation the generation of the log file
+     * @return the channel of the log file
+     * @throws IOException if the log file cannot be opened
+     */
+    private FileChannel open(long generation) throws IOException {
+        Path file = file(generation);
+        Files.deleteIfExists(file);
+        return FileChannel.open(file, StandardOpenOption.CREATE_NEW,
+            StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    /**
+     * Gets the path to the log file of the given generation.
+     *
+     * @param generation the generation of the log file
+     * @return the path to the log file
+     */
+    private Path file(long generation) {
+        return directory.resolve(PREFIX + generation + SUFFIX);
+    }
+
+    /**
+     * Writes the given string as its length, followed by its UTF-8 encoding.
+     *
+     * @param os     the stream to write to
+     * @param string the string to write
+     * @throws IOException if the string cannot be written
+     */
+    private static void writeString(DataOutputStream os, String string) throws IOException {
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        os.writeInt(bytes.length);
+        os.write(bytes);
+    }
+
+    /**
+     * Reads the string written by {@link #writeString(DataOutputStream, String)}.
+     *
+     * @param buffer   the buffer to read from
+     * @param position the position of the string's length
+     * @return the string
+     */
+    private static String readString(ByteBuffer buffer, int position) {
+        byte[] bytes = new byte[buffer.getInt(position)];
+        ByteBuffer view = buffer.duplicate();
+        view.position(position + 4);
+        view.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Gets the current time, in seconds.
+     *
+     * @return the current time
+     */
+    private static long now() {
+        return System.currentTimeMillis() / 1000;
+    }
+
+    /**
+     * This class represents a weak reference to a session handed out by the
+     * store, which remembers the identifier of the session.
+     *
+     * @author Luka Čupić
+     */
+    private static class SessionReference extends WeakReference<SessionMapEntry> {
+
+        /**
+         * The session identifier.
+         */
+        final String sid;
+
+        /**
+         * Creates a new reference.
+         *
+         * @param session the session
+         * @param queue   the queue the reference is added to once the session
+         *                is collected
+         */
+        SessionReference(SessionMapEntry session, ReferenceQueue<SessionMapEntry> queue) {
+            super(session, queue);
+            this.sid = session.SID;
+        }
+    }
+
+    /**
+     * This class represents the location of the latest PUT record of a
+     * saved session.
+     *
+     * @author Luka Čupić
+     */
+    private static class Location {
+
+        /**
+         * The offset of the record within the log.
+         */
+        volatile int offset;
+
+        /**
+         * The length of the record, in bytes.
+         */
+        final int length;
+
+        /**
+         * The latest saved time (in seconds) until the session will be valid.
+         */
+        volatile long validUntil;
+
+        /**
+         * The version of the session's parameters which was saved, or -1 if
+         * the session has not been loaded since the log was loaded.
+         */
+        volatile int version = -1;
+
+        /**
+         * Creates a new location.
+         *
+         * @param offset     the offset of the record within the log
+         * @param length     the length of the record, in bytes
+         * @param validUntil the time (in seconds) until the session will be valid
+         */
+        Location(int offset, int length, long validUntil) {
+            this.offset = offset;
+            this.length = length;
+            this.validUntil = validUntil;
+        }
+    }
+}
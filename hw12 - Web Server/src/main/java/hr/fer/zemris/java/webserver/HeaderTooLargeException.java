@@ -0,0 +1,26 @@
+package hr.fer.zemris.java.webserver;
+
+import java.io.IOException;
+
+/**
+ * This exception is thrown when the header of a request received by the
+ * {@link SmartHttpServer} exceeds the maximum allowed header size.
+ *
+ * @author Luka Čupić
+ */
+public class HeaderTooLargeException extends IOException {
+
+    /**
+     * Default serial version ID.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Creates a new exception with the given message.
+     *
+     * @param message the message of the exception
+     */
+    public HeaderTooLargeException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,297 @@
+package hr.fer.zemris.java.webserver;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.CRC32;
+
+/**
+ * This class sends the images drawn by the web workers as PNG responses.
+ * Allocating an image and a PNG writer for each request is expensive, so
+ * each responder keeps a small pool of images (of a fixed size and type)
+ * together with their writers, which are reused by all of the requests.
+ * <p>
+ * An image which is always drawn the same way for the same key (such as the
+ * parameters of the request) can be sent with that key. Its encoded bytes
+ * are then kept in a bounded cache, from which the following requests are
+ * answered without drawing the image again, and the response carries an
+ * entity tag, so a client which already has the image is answered with
+ * 304 Not Modified. An image without a key is encoded directly into the
+ * response instead.
+ *
+ * @author Luka Čupić
+ */
+public class ImageResponder {
+
+    /**
+     * The maximum number of pooled images.
+     */
+    private static final int POOL_SIZE = 16;
+
+    /**
+     * The compression quality of the PNG writers. The default compression
+     * is noticeably slower, while it makes the drawn images hardly smaller.
+     */
+    private static final float COMPRESSION_QUALITY = 0.5f;
+
+    /**
+     * The width of the images.
+     */
+    private int width;
+
+    /**
+     * The height of the images.
+     */
+    private int height;
+
+    /**
+     * The type of the images, as defined by {@link BufferedImage}.
+     */
+    private int imageType;
+
+    /**
+     * The pooled images together with their writers.
+     */
+    private BlockingQueue<Canvas> canvases = new ArrayBlockingQueue<>(POOL_SIZE);
+
+    /**
+     * The cached images, ordered from the least to the most recently used
+     * and mapped from their keys.
+     */
+    private Map<String, Entry> entries;
+
+    /**
+     * Creates a new responder.
+     *
+     * @param width         the width of the images
+     * @param height        the height of the images
+     * @param imageType     the type of the images, as defined by {@link BufferedImage}
+     * @param cacheCapacity the maximum number of cached images; zero disables
+     *                      the cache
+     */
+    public ImageResponder(int width, int height, int imageType, int cacheCapacity) {
+        this.width = width;
+        this.height = height;
+        this.imageType = imageType;
+
+        entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > cacheCapacity;
+            }
+        };
+    }
+
+    /**
+     * Sends the image drawn by the given painter as a PNG response.
+     *
+     * @param context the context of the request
+     * @param key     the key which determines how the image is drawn, or null
+     *                if the image is drawn differently on each request
+     * @param painter the painter which draws the image
+     * @throws IOException if an error occurs while writing the response
+     */
+    public void send(RequestContext context, String key, Painter painter) throws IOException {
+        context.setMimeType("image/png");
+
+        if (key == null) {
+            draw(painter, new ContextOutputStream(context));
+            return;
+        }
+
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(key);
+        }
+        if (entry == null) {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream(4096);
+            draw(painter, bos);
+            entry = new Entry(bos.toByteArray());
+
+            synchronized (this) {
+                entries.put(key, entry);
+            }
+        }
+
+        context.addHeader("ETag", entry.etag);
+
+        String ifNoneMatch = context.getRequestField("If-None-Match");
+        if (ifNoneMatch != null && (ifNoneMatch.trim().equals("*") || ifNoneMatch.contains(entry.etag))) {
+            context.setStatusCode(304);
+            context.setStatusText("Not Modified");
+            return;
+        }
+
+        context.setContentLength(entry.data.length);
+        context.write(entry.data);
+    }
+
+    /**
+     * Draws the image with the given painter on a pooled canvas and writes
+     * it in the PNG format to the given stream.
+     *
+     * @param painter the painter which draws the image
+     * @param os      the stream to write the image to
+     * @throws IOException if an error occurs while writing the image
+     */
+    private void draw(Painter painter, OutputStream os) throws IOException {
+        Canvas canvas = canvases.poll();
+        if (canvas == null) {
+            canvas = new Canvas(new BufferedImage(width, height, imageType));
+        }
+
+        try {
+            Graphics2D g2d = canvas.image.createGraphics();
+            try {
+                // the image might still hold the drawing of a previous request
+                g2d.setBackground(Color.BLACK);
+                g2d.clearRect(0, 0, width, height);
+                painter.paint(g2d, width, height);
+            } finally {
+                g2d.dispose();
+            }
+
+            try (ImageOutputStream ios = new MemoryCacheImageOutputStream(os)) {
+                canvas.writer.setOutput(ios);
+                canvas.writer.write(null, new IIOImage(canvas.image, null, null), canvas.param);
+            }
+        } finally {
+            canvas.writer.reset();
+            canvases.offer(canvas);
+        }
+    }
+
+    /**
+     * This interface represents the drawing of an image.
+     *
+     * @author Luka Čupić
+     */
+    public interface Painter {
+
+        /**
+         * Draws the image. The image is cleared to black before it is drawn.
+         *
+         * @param g2d    the graphics of the image
+         * @param width  the width of the image
+         * @param height the height of the image
+         */
+        void paint(Graphics2D g2d, int width, int height);
+    }
+
+    /**
+     * This class represents a pooled image together with the PNG writer
+     * which encodes it.
+     *
+     * @author Luka Čupić
+     */
+    private static class Canvas {
+
+        /**
+         * The image.
+         */
+        BufferedImage image;
+
+        /**
+         * The PNG writer.
+         */
+        ImageWriter writer;
+
+        /**
+         * The parameters of the PNG writer.
+         */
+        ImageWriteParam param;
+
+        /**
+         * Creates a new canvas.
+         *
+         * @param image the image
+         */
+        Canvas(BufferedImage image) {
+            this.image = image;
+            this.writer = ImageIO.getImageWritersByFormatName("png").next();
+
+            this.param = writer.getDefaultWriteParam();
+            if (param.canWriteCompressed()) {
+                param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                param.setCompressionQuality(COMPRESSION_QUALITY);
+            }
+        }
+    }
+
+    /**
+     * This class represents a single cached image.
+     *
+     * @author Luka Čupić
+     */
+    private static class Entry {
+
+        /**
+         * The encoded image.
+         */
+        byte[] data;
+
+        /**
+         * The entity tag of the image, derived from its contents.
+         */
+        String etag;
+
+        /**
+         * Creates a new entry.
+         *
+         * @param data the encoded image
+         */
+        Entry(byte[] data) {
+            CRC32 crc = new CRC32();
+            crc.update(data, 0, data.length);
+
+            this.data = data;
+            this.etag = "\"" + Long.toHexString(data.length) + "-" + Long.toHexString(crc.getValue()) + "\"";
+        }
+    }
+
+    /**
+     * This class represents a stream which writes directly to the response
+     * of a request, through its {@link RequestContext}.
+     *
+     * @author Luka Čupić
+     */
+    private static class ContextOutputStream extends OutputStream {
+
+        /**
+         * The context of the request.
+         */
+        private RequestContext context;
+
+        /**
+         * Creates a new stream.
+         *
+         * @param context the context of the request
+         */
+        ContextOutputStream(RequestContext context) {
+            this.context = context;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            context.write(new byte[]{(byte) b});
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            context.write(b, off, len);
+        }
+    }
+}
@@ -0,0 +1,250 @@
+package hr.fer.zemris.java.webserver;
+
+import hr.fer.zemris.java.webserver.SmartHttpServer.SessionMapEntry;
+
+import java.security.SecureRandom;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * This class represents a store which keeps the client sessions of the
+ * {@link SmartHttpServer} in memory. The sessions are spread over a number
+ * of shards, each of which is guarded by its own lock, so the requests of
+ * different clients rarely contend for the same lock.
+ * <p>
+ * Each shard keeps its sessions in the order of their last access. Since
+ * every access extends the session by the same timeout, this is also the
+ * order in which the sessions expire: the expired sessions are always at the
+ * head of the shard. An expired session is removed as soon as it is looked
+ * up, and {@link #removeExpired()} only has to visit the expired sessions
+ * (and a single live one per shard), no matter how many sessions there are.
+ * <p>
+ * The total number of sessions can optionally be capped. Once a shard is
+ * full, its least recently used session is evicted to make room for the new
+ * one. The session identifiers are generated by a per-thread
+ * {@link SecureRandom}.
+ *
+ * @author Luka Čupić
+ */
+public class InMemorySessionStore implements SessionStore {
+
+    /**
+     * The default number of shards.
+     */
+    private static final int SHARDS = 16;
+
+    /**
+     * The length of the session identifiers.
+     */
+    private static final int SID_LENGTH = 20;
+
+    /**
+     * The random number generators used for generating the session identifiers.
+     */
+    private static final ThreadLocal<SecureRandom> RANDOM = ThreadLocal.withInitial(SecureRandom::new);
+
+    /**
+     * The shards of the store.
+     */
+    private Shard[] shards;
+
+    /**
+     * The maximum duration of the sessions, in seconds.
+     */
+    private int sessionTimeout;
+
+    /**
+     * Creates a new store.
+     *
+     * @param sessionTimeout the maximum duration of the sessions, in seconds
+     * @param maxSessions    the maximum number of sessions; zero (or less)
+     *                       means that the number of sessions is not limited
+     */
+    public InMemorySessionStore(int sessionTimeout, int maxSessions) {
+        this.sessionTimeout = sessionTimeout;
+
+        int count = maxSessions > 0 ? Math.min(SHARDS, maxSessions) : SHARDS;
+        shards = new Shard[count];
+        for (int i = 0; i < count; i++) {
+            // the remainder of the capacity is spread over the first shards
+            int capacity = maxSessions > 0 ? maxSessions / count + (i < maxSessions % count ? 1 : 0) : 0;
+            shards[i] = new Shard(capacity);
+        }
+    }
+
+    @Override
+    public SessionMapEntry get(String sid) {
+        Shard shard = shardFor(sid);
+        long now = now();
+
+        synchronized (shard) {
+            SessionMapEntry session = shard.sessions.get(sid);
+            if (session == null) return null;
+
+            if (now >= session.validUntil) {
+                shard.sessions.remove(sid);
+                return null;
+            }
+            session.validUntil = now + sessionTimeout;
+            return session;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * If the shard of the new session is full, its least recently used
+     * session is evicted.
+     */
+    @Override
+    public SessionMapEntry create() {
+        long now = now();
+
+        while (true) {
+            String sid = generateSID();
+            Shard shard = shardFor(sid);
+
+            synchronized (shard) {
+                if (shard.sessions.containsKey(sid)) continue;
+
+                SessionMapEntry session = new SessionMapEntry(sid, now + sessionTimeout);
+                shard.removeExpired(now);
+                shard.sessions.put(sid, session);
+                return session;
+            }
+        }
+    }
+
+    /**
+     * Adds the given existing session to the store, evicting the least
+     * recently used session of its shard if the shard is full.
+     *
+     * @param session the session to add
+     */
+    void add(SessionMapEntry session) {
+        Shard shard = shardFor(session.SID);
+        synchronized (shard) {
+            shard.removeExpired(now());
+            shard.sessions.put(session.SID, session);
+        }
+    }
+
+    /**
+     * Removes the session specified by the given identifier.
+     *
+     * @param sid the session identifier
+     */
+    void remove(String sid) {
+        Shard shard = shardFor(sid);
+        synchronized (shard) {
+            shard.sessions.remove(sid);
+        }
+    }
+
+    @Override
+    public void update(SessionMapEntry session) {
+    }
+
+    @Override
+    public void removeExpired() {
+        long now = now();
+        for (Shard shard : shards) {
+            synchronized (shard) {
+                shard.removeExpired(now);
+            }
+        }
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        for (Shard shard : shards) {
+            synchronized (shard) {
+                size += shard.sessions.size();
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    /**
+     * Gets the shard which holds the session with the given identifier.
+     *
+     * @param sid the session identifier
+     * @return the shard of the session
+     */
+    private Shard shardFor(String sid) {
+        int hash = sid.hashCode();
+        return shards[Math.floorMod(hash ^ (hash >>> 16), shards.length)];
+    }
+
+    /**
+     * Generates a random session identifier consisting of
+     * uppercase letters of the english alphabet.
+     *
+     * @return a random session identifier
+     */
+    private static String generateSID() {
+        SecureRandom random = RANDOM.get();
+
+        char[] sid = new char[SID_LENGTH];
+        for (int i = 0; i < SID_LENGTH; i++) {
+            sid[i] = (char) ('A' + random.nextInt(26));
+        }
+        return new String(sid);
+    }
+
+    /**
+     * Gets the current time, in seconds.
+     *
+     * @return the current time
+     */
+    private static long now() {
+        return System.currentTimeMillis() / 1000;
+    }
+
+    /**
+     * This class represents a single shard of the store.
+     *
+     * @author Luka Čupić
+     */
+    private static class Shard {
+
+        /**
+         * The sessions of the shard, ordered from the least to the most
+         * recently used one.
+         */
+        Map<String, SessionMapEntry> sessions;
+
+        /**
+         * Creates a new shard.
+         *
+         * @param capacity the maximum number of sessions in the shard; zero
+         *                 means that the number of sessions is not limited
+         */
+        Shard(int capacity) {
+            sessions = new LinkedHashMap<String, SessionMapEntry>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, SessionMapEntry> eldest) {
+                    return capacity > 0 && size() > capacity;
+                }
+            };
+        }
+
+        /**
+         * Removes the expired sessions from the head of the shard.
+         *
+         * @param now the current time, in seconds
+         */
+        void removeExpired(long now) {
+            Iterator<SessionMapEntry> it = sessions.values().iterator();
+            while (it.hasNext() && now >= it.next().validUntil) {
+                it.remove();
+            }
+        }
+    }
+}
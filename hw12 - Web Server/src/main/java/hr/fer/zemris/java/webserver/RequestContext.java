@@ -1,10 +1,14 @@
 package hr.fer.zemris.java.webserver;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 
 /**
  * The {@link RequestContext} class represents the data of a web context.
@@ -19,6 +23,26 @@ import java.util.*;
  */
 public class RequestContext {
 
+    /**
+     * The initial size of a response buffer.
+     */
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * The size of the largest response buffer which is returned to the pool.
+     */
+    private static final int MAX_POOLED_BUFFER_SIZE = 256 * 1024;
+
+    /**
+     * The maximum number of pooled response buffers.
+     */
+    private static final int MAX_POOLED_BUFFERS = 256;
+
+    /**
+     * The pooled response buffers, shared by all of the contexts.
+     */
+    private static final BlockingQueue<PooledBuffer> BUFFERS = new ArrayBlockingQueue<>(MAX_POOLED_BUFFERS);
+
     /**
      * Represents the encoding for this context with the default value.
      */
@@ -75,11 +99,79 @@ public class RequestContext {
      */
     private boolean headerGenerated = false;
 
+    /**
+     * A flag which tells whether or not the response has been completed.
+     */
+    private boolean finished = false;
+
+    /**
+     * A flag which tells whether the body of the response should be
+     * buffered until {@link #finish()} is called, so that the exact
+     * Content-Length can be sent to the client.
+     */
+    private boolean buffered = false;
+
+    /**
+     * Represents the length of the response body, if known in advance.
+     * If set, the header is sent immediately and the body is streamed
+     * directly to the output stream, even in the buffered mode.
+     */
+    private Long contentLength;
+
+    /**
+     * The buffer which holds the body of the response in the buffered mode.
+     * The buffer is taken from the pool on the first write and returned to
+     * it once the response is completed.
+     */
+    private PooledBuffer buffer;
+
+    /**
+     * The stream to which the body is written once the header has been sent;
+     * either the output stream itself, or a chunked (and possibly
+     * compressing) stream on top of it.
+     */
+    private OutputStream body;
+
+    /**
+     * The size of the buffered body (in bytes) after which the body is sent
+     * in chunks instead of being buffered whole. Zero (or less) means that
+     * the body is never sent in chunks.
+     */
+    private int chunkingThreshold;
+
+    /**
+     * A flag which tells whether the body is being sent in chunks.
+     */
+    private boolean chunked;
+
+    /**
+     * The content coding accepted by the client, which is used for
+     * compressing the body; null if the body is not compressed.
+     */
+    private String acceptedEncoding;
+
+    /**
+     * The size of the smallest buffered body (in bytes) which is compressed.
+     * A negative value means that the compression is disabled.
+     */
+    private int compressionThreshold = -1;
+
+    /**
+     * Represents the additional header lines for the context, mapped
+     * from the header name to its value.
+     */
+    private Map<String, String> headers = new LinkedHashMap<>();
+
     /**
      * Represents the request dispatcher.
      */
     private IDispatcher dispatcher;
 
+    /**
+     * Represents the header of the request, or null if unknown.
+     */
+    private RequestHeader requestHeader;
+
     /**
      * Creates a new {@link RequestContext} object.
      *
@@ -148,32 +240,246 @@ public class RequestContext {
      *                     output stream
      */
     public RequestContext write(byte[] data) throws IOException {
-        if (!headerGenerated) {
-            generateHeader();
-            headerGenerated = true;
+        return write(data, 0, data.length);
+    }
+
+    /**
+     * Writes the given range of bytes to the output stream of this context.
+     *
+     * @param data   the bytes to write
+     * @param offset the offset of the first byte to write
+     * @param length the number of bytes to write
+     * @throws InterruptedIOException if the current thread has been
+     *                                interrupted (e.g. because the request
+     *                                has run past its deadline)
+     * @throws IOException            if an error occurs while writing to the
+     *                                output stream
+     */
+    public RequestContext write(byte[] data, int offset, int length) throws IOException {
+        if (finished) {
+            throw new IllegalStateException("The response has already been completed!");
+        }
+        if (Thread.currentThread().isInterrupted()) {
+            throw new InterruptedIOException("The request has been interrupted!");
+        }
+        headerGenerated = true;
+
+        if (isBuffering()) {
+            if (buffer == null) {
+                buffer = acquireBuffer();
+            }
+            buffer.write(data, offset, length);
+            if (chunkingThreshold > 0 && buffer.size() > chunkingThreshold) {
+                writeChunk();
+            }
+            return this;
+        }
+
+        if (body == null) {
+            generateHeader(contentLength);
+            body = outputStream;
+        }
+        body.write(data, offset, length);
+        if (!buffered) {
+            outputStream.flush();
         }
-        outputStream.write(data);
-        outputStream.flush();
         return this;
     }
 
+    /**
+     * Completes the response. In the buffered mode, the header (containing
+     * the length of the buffered body) and the body are written to the
+     * output stream at this point, so the whole response usually takes a
+     * single write to the client. If the body has been sent in chunks, the
+     * remaining chunk and the last (empty) chunk are written instead. If
+     * nothing has been written yet, the header is generated with an empty
+     * body. Invoking this method more than once has no effect.
+     *
+     * @throws IOException if an error occurs while writing to the
+     *                     output stream
+     */
+    public void finish() throws IOException {
+        if (finished) return;
+        finished = true;
+        headerGenerated = true;
+
+        try {
+            if (chunked) {
+                buffer.writeTo(body);
+                body.close();
+            } else if (isBuffering()) {
+                writeBuffered();
+            } else if (body == null) {
+                generateHeader(contentLength != null ? contentLength : 0L);
+            }
+            outputStream.flush();
+        } finally {
+            releaseBuffer(buffer);
+            buffer = null;
+        }
+    }
+
+    /**
+     * Writes the whole buffered body, along with the header which contains
+     * its length. The body is compressed if the client accepts compression
+     * and the body is large enough, unless the compressed body would not be
+     * smaller than the original one.
+     *
+     * @throws IOException if an error occurs while writing to the
+     *                     output stream
+     */
+    private void writeBuffered() throws IOException {
+        int size = buffer != null ? buffer.size() : 0;
+        boolean compressible = isCompressible();
+
+        if (compressible && acceptedEncoding != null && size >= compressionThreshold) {
+            PooledBuffer compressed = acquireBuffer();
+            try {
+                try (OutputStream os = Compression.compress(compressed, acceptedEncoding)) {
+                    buffer.writeTo(os);
+                }
+                if (compressed.size() < size) {
+                    headers.put("Content-Encoding", acceptedEncoding);
+                    headers.put("Vary", "Accept-Encoding");
+                    generateHeader((long) compressed.size());
+                    compressed.writeTo(outputStream);
+                    return;
+                }
+            } finally {
+                releaseBuffer(compressed);
+            }
+        }
+
+        if (compressible && compressionThreshold >= 0) {
+            headers.put("Vary", "Accept-Encoding");
+        }
+        generateHeader((long) size);
+        if (buffer != null) {
+            buffer.writeTo(outputStream);
+        }
+    }
+
+    /**
+     * Sends the buffered part of the body as a chunk and empties the buffer.
+     * The header is sent (with "Transfer-Encoding: chunked" instead of the
+     * Content-Length) before the first chunk. If the client accepts
+     * compression, the chunks carry the compressed body.
+     *
+     * @throws IOException if an error occurs while writing to the
+     *                     output stream
+     */
+    private void writeChunk() throws IOException {
+        if (!chunked) {
+            chunked = true;
+            boolean compressed = isCompressible() && compressionThreshold >= 0;
+
+            headers.put("Transfer-Encoding", "chunked");
+            if (compressed) {
+                headers.put("Vary", "Accept-Encoding");
+            }
+            if (compressed && acceptedEncoding != null) {
+                headers.put("Content-Encoding", acceptedEncoding);
+            }
+            generateHeader(null);
+
+            body = new ChunkedOutputStream(outputStream);
+            if (compressed && acceptedEncoding != null) {
+                body = Compression.compress(body, acceptedEncoding);
+            }
+        }
+        buffer.writeTo(body);
+        buffer.reset();
+    }
+
+    /**
+     * Checks whether any part of the response has been written to the
+     * output stream. Until then, the response can still be replaced by
+     * an error response.
+     *
+     * @return true if the response has been committed; false otherwise
+     */
+    public boolean isCommitted() {
+        return body != null || finished;
+    }
+
+    /**
+     * Checks whether the body of the response is currently being
+     * buffered.
+     *
+     * @return true if the body is being buffered; false otherwise
+     */
+    private boolean isBuffering() {
+        return buffered && contentLength == null;
+    }
+
+    /**
+     * Checks whether the body of the response may be compressed, according
+     * to its mime type.
+     *
+     * @return true if the body may be compressed; false otherwise
+     */
+    private boolean isCompressible() {
+        return Compression.isCompressible(mimeType);
+    }
+
+    /**
+     * Takes a buffer from the pool, or creates a new one if the pool is empty.
+     *
+     * @return an empty buffer
+     */
+    private static PooledBuffer acquireBuffer() {
+        PooledBuffer buffer = BUFFERS.poll();
+        return buffer != null ? buffer : new PooledBuffer();
+    }
+
+    /**
+     * Returns the given buffer to the pool. Buffers which have grown too large
+     * are left to the garbage collector, so that a single large response does
+     * not keep its memory for good. The capacity of the buffer is checked
+     * rather than its size, since a buffer which has been sent in chunks is
+     * already empty.
+     *
+     * @param buffer the buffer to return; may be null
+     */
+    private static void releaseBuffer(PooledBuffer buffer) {
+        if (buffer == null || buffer.capacity() > MAX_POOLED_BUFFER_SIZE) return;
+
+        buffer.reset();
+        BUFFERS.offer(buffer);
+    }
+
     /**
      * Generates the header for this context. This method will be called
      * only once per a context - before any user-data has been written to
-     * the output stream.
+     * the output stream. The header is not flushed, so that it is sent to the
+     * client together with the body. The responses which cannot have a body
+     * (the informational ones, 204 and 304) are sent without the Content-Type
+     * and the Content-Length.
      *
+     * @param length the length of the body, or null if the length is unknown
      * @throws IOException if an error occurs while writing to the
      *                     output stream
      */
-    private void generateHeader() throws IOException {
+    private void generateHeader(Long length) throws IOException {
         StringBuilder sb = new StringBuilder();
 
         sb.append("HTTP/1.1 ").append(statusCode).append(" ").append(statusText).append("\r\n");
 
-        if (mimeType.startsWith("text/")) {
-            mimeType = mimeType + "; charset=" + encoding;
+        // the informational, 204 and 304 responses never have a body
+        if (statusCode / 100 != 1 && statusCode != 204 && statusCode != 304) {
+            if (mimeType.startsWith("text/")) {
+                mimeType = mimeType + "; charset=" + encoding;
+            }
+            sb.append("Content-Type: " + mimeType + "\r\n");
+
+            if (length != null) {
+                sb.append("Content-Length: ").append(length).append("\r\n");
+            }
+        }
+
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            sb.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
         }
-        sb.append("Content-Type: " + mimeType + "\r\n");
 
         if (outputCookies != null) {
             for (RCCookie cookie : outputCookies) {
@@ -193,11 +499,10 @@ public class RequestContext {
                 }
                 sb.append("\r\n");
             }
-            sb.append("\r\n");
         }
+        sb.append("\r\n");
 
         outputStream.write(sb.toString().getBytes(StandardCharsets.ISO_8859_1));
-        outputStream.flush();
     }
 
     // getters and setters
@@ -206,6 +511,27 @@ public class RequestContext {
         return dispatcher;
     }
 
+    /**
+     * Sets the header of the request which is answered through this context.
+     *
+     * @param requestHeader the header of the request
+     */
+    public void setRequestHeader(RequestHeader requestHeader) {
+        this.requestHeader = requestHeader;
+    }
+
+    /**
+     * Gets the value of the given (case-insensitive) field of the header of
+     * the request, such as If-None-Match.
+     *
+     * @param name the name of the field
+     * @return the value of the field, or null if the field is not present
+     * or the header of the request is unknown
+     */
+    public String getRequestField(String name) {
+        return requestHeader == null ? null : requestHeader.getField(name);
+    }
+
     /**
      * Returns the {@link #parameters} map.
      *
@@ -292,12 +618,17 @@ public class RequestContext {
 
     /**
      * Adds a new parameter to the {@link #persistentParameters} map, or replaces
-     * the old value if it exists.
+     * the old value if it exists. The persistent parameters are shared by the
+     * requests of a session, so neither the name nor the value may be null.
      *
      * @param name  the name of the new parameter
      * @param value the value of the new parameter
+     * @throws IllegalArgumentException if the name or the value is null
      */
     public void setPersistentParameter(String name, String value) {
+        if (name == null || value == null) {
+            throw new IllegalArgumentException("Persistent parameters must not be null!");
+        }
         persistentParameters.put(name, value);
     }
 
@@ -363,6 +694,16 @@ public class RequestContext {
         return Collections.unmodifiableSet(temporaryParameters.keySet());
     }
 
+    /**
+     * Gets the charset which is used for encoding the text written
+     * to this context.
+     *
+     * @return the charset of this context
+     */
+    public Charset getCharset() {
+        return charset;
+    }
+
     /**
      * Sets the encoding for this context.
      *
@@ -375,6 +716,15 @@ public class RequestContext {
         this.charset = Charset.forName(encoding);
     }
 
+    /**
+     * Gets the status code of this context.
+     *
+     * @return the status code
+     */
+    public int getStatusCode() {
+        return statusCode;
+    }
+
     /**
      * Sets the status code for this context.
      *
@@ -411,6 +761,84 @@ public class RequestContext {
         this.mimeType = mimeType;
     }
 
+    /**
+     * Sets the length of the response body. Once the length is known,
+     * the body is no longer buffered, but is streamed directly to the
+     * client.
+     *
+     * @param contentLength the length of the response body, in bytes
+     * @throws IllegalStateException if the header has been changed
+     *                               prior to calling this method
+     */
+    public void setContentLength(long contentLength) throws IllegalStateException {
+        checkHeader();
+        this.contentLength = contentLength;
+    }
+
+    /**
+     * Sets whether the body of the response should be buffered until
+     * {@link #finish()} is called, which allows the header to contain
+     * the exact Content-Length of the body.
+     *
+     * @param buffered true if the body should be buffered; false otherwise
+     * @throws IllegalStateException if the header has been changed
+     *                               prior to calling this method
+     */
+    public void setBuffered(boolean buffered) throws IllegalStateException {
+        checkHeader();
+        this.buffered = buffered;
+    }
+
+    /**
+     * Sets the size of the buffered body after which the body is sent to the
+     * client in chunks ("Transfer-Encoding: chunked"), instead of being
+     * buffered whole. This keeps the memory used by large responses bounded.
+     * Chunking must be enabled only for HTTP/1.1 clients.
+     *
+     * @param chunkingThreshold the threshold, in bytes; zero (or less) means
+     *                          that the body is never sent in chunks
+     * @throws IllegalStateException if the header has been changed
+     *                               prior to calling this method
+     */
+    public void setChunkingThreshold(int chunkingThreshold) throws IllegalStateException {
+        checkHeader();
+        this.chunkingThreshold = chunkingThreshold;
+    }
+
+    /**
+     * Enables the compression of the buffered body. The body is compressed
+     * with the given content coding if its mime type is textual and it is
+     * not smaller than the given threshold. The responses which may be
+     * compressed carry the "Vary: Accept-Encoding" header, whether they are
+     * compressed or not.
+     *
+     * @param acceptedEncoding the content coding accepted by the client;
+     *                         either "gzip", "deflate", or null if the client
+     *                         does not accept compression
+     * @param threshold        the size of the smallest compressed body, in bytes
+     * @throws IllegalStateException if the header has been changed
+     *                               prior to calling this method
+     */
+    public void setCompression(String acceptedEncoding, int threshold) throws IllegalStateException {
+        checkHeader();
+        this.acceptedEncoding = acceptedEncoding;
+        this.compressionThreshold = Math.max(threshold, 0);
+    }
+
+    /**
+     * Adds an additional header line to this context, or replaces the
+     * old value if a header with the given name already exists.
+     *
+     * @param name  the name of the header
+     * @param value the value of the header
+     * @throws IllegalStateException if the header has been changed
+     *                               prior to calling this method
+     */
+    public void addHeader(String name, String value) throws IllegalStateException {
+        checkHeader();
+        headers.put(name, value);
+    }
+
     /**
      * Adds a cookie to this context.
      *
@@ -435,6 +863,92 @@ public class RequestContext {
 
 // end of getters and setters
 
+    /**
+     * This class represents a pooled response buffer, which also tells the
+     * size of the array it has grown to.
+     *
+     * @author Luka Čupić
+     */
+    private static class PooledBuffer extends ByteArrayOutputStream {
+
+        /**
+         * Creates a new buffer of the initial size.
+         */
+        PooledBuffer() {
+            super(BUFFER_SIZE);
+        }
+
+        /**
+         * Gets the length of the array holding the data of this buffer.
+         *
+         * @return the capacity of this buffer, in bytes
+         */
+        int capacity() {
+            return buf.length;
+        }
+    }
+
+    /**
+     * This class represents a stream which writes the data in the chunked
+     * transfer coding. Every write is sent as a single chunk, and closing the
+     * stream writes the last (empty) chunk, without closing the underlying
+     * stream.
+     *
+     * @author Luka Čupić
+     */
+    private static class ChunkedOutputStream extends OutputStream {
+
+        /**
+         * The line terminator of the chunk headers and the chunks.
+         */
+        private static final byte[] CRLF = {'\r', '\n'};
+
+        /**
+         * The last chunk, followed by an empty trailer.
+         */
+        private static final byte[] LAST_CHUNK = {'0', '\r', '\n', '\r', '\n'};
+
+        /**
+         * The underlying stream.
+         */
+        private OutputStream out;
+
+        /**
+         * Creates a new stream.
+         *
+         * @param out the underlying stream
+         */
+        ChunkedOutputStream(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return;
+
+            out.write(Integer.toHexString(len).getBytes(StandardCharsets.ISO_8859_1));
+            out.write(CRLF);
+            out.write(b, off, len);
+            out.write(CRLF);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.write(LAST_CHUNK);
+            out.flush();
+        }
+    }
+
     /**
      * This class represents a request-context cookie.
      *
@@ -0,0 +1,250 @@
+package hr.fer.zemris.java.webserver;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * This class represents the header of a single request received by the
+ * {@link SmartHttpServer}. The header consists of the request line (the
+ * method, the requested path and the HTTP version) and of the header
+ * fields, whose names are case-insensitive.
+ * <p>
+ * The header is parsed directly from the received bytes in a single pass,
+ * without creating any intermediate line objects or using regular
+ * expressions.
+ *
+ * @author Luka Čupić
+ */
+public class RequestHeader {
+
+    /**
+     * The method of the request, or null if the request line is invalid.
+     */
+    private String method;
+
+    /**
+     * The requested path (including the query string), or null if the
+     * request line is invalid.
+     */
+    private String path;
+
+    /**
+     * The HTTP version of the request, or null if the request line is
+     * invalid.
+     */
+    private String version;
+
+    /**
+     * A map which maps the lower-case names of the header fields to their
+     * values. The values of the repeated fields are joined together.
+     */
+    private Map<String, String> fields = new HashMap<>();
+
+    /**
+     * Creates a new, empty request header.
+     */
+    private RequestHeader() {
+    }
+
+    /**
+     * Finds the end of the header within the given range of bytes. The header
+     * ends with an empty line, terminated either by CRLF or by a single LF.
+     *
+     * @param data  the bytes to search
+     * @param start the index of the first byte to search
+     * @param end   the index after the last byte to search
+     * @return the index after the empty line which terminates the header, or
+     * -1 if the given range does not contain a complete header
+     */
+    public static int findEnd(byte[] data, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (data[i] != '\n') continue;
+
+            if (i + 1 < end && data[i + 1] == '\n') {
+                return i + 2;
+            }
+            if (i + 2 < end && data[i + 1] == '\r' && data[i + 2] == '\n') {
+                return i + 3;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Parses the header contained in the given range of bytes.
+     *
+     * @param data  the bytes which contain the header
+     * @param start the index of the first byte of the header
+     * @param end   the index after the last byte of the header
+     * @return the parsed header
+     */
+    public static RequestHeader parse(byte[] data, int start, int end) {
+        RequestHeader header = new RequestHeader();
+
+        int lineEnd = lineEnd(data, start, end);
+        header.parseRequestLine(data, start, trimCR(data, start, lineEnd));
+
+        for (int i = lineEnd + 1; i < end; i = lineEnd + 1) {
+            lineEnd = lineEnd(data, i, end);
+            header.parseField(data, i, trimCR(data, i, lineEnd));
+        }
+        return header;
+    }
+
+    /**
+     * Parses the request line, which consists of exactly three parts
+     * separated by a single space.
+     *
+     * @param data  the bytes which contain the request line
+     * @param start the index of the first byte of the request line
+     * @param end   the index after the last byte of the request line
+     */
+    private void parseRequestLine(byte[] data, int start, int end) {
+        int first = indexOf(data, (byte) ' ', start, end);
+        if (first == -1) return;
+
+        int second = indexOf(data, (byte) ' ', first + 1, end);
+        if (second == -1 || indexOf(data, (byte) ' ', second + 1, end) != -1) return;
+        if (first == start || second == first + 1 || second + 1 == end) return;
+
+        method = new String(data, start, first - start, StandardCharsets.ISO_8859_1);
+        path = new String(data, first + 1, second - first - 1, StandardCharsets.ISO_8859_1);
+        version = new String(data, second + 1, end - second - 1, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Parses a single header field of the form "Name: value". Lines which
+     * are not of this form are ignored.
+     *
+     * @param data  the bytes which contain the field
+     * @param start the index of the first byte of the field
+     * @param end   the index after the last byte of the field
+     */
+    private void parseField(byte[] data, int start, int end) {
+        int colon = indexOf(data, (byte) ':', start, end);
+        if (colon <= start) return;
+
+        char[] name = new char[colon - start];
+        for (int i = start; i < colon; i++) {
+            byte b = data[i];
+            name[i - start] = (char) (b >= 'A' && b <= 'Z' ? b + ('a' - 'A') : b & 0xFF);
+        }
+
+        int valueStart = colon + 1;
+        int valueEnd = end;
+        while (valueStart < valueEnd && isWhitespace(data[valueStart])) valueStart++;
+        while (valueEnd > valueStart && isWhitespace(data[valueEnd - 1])) valueEnd--;
+
+        String key = new String(name);
+        String value = new String(data, valueStart, valueEnd - valueStart, StandardCharsets.ISO_8859_1);
+
+        String previous = fields.get(key);
+        if (previous != null) {
+            value = previous + ("cookie".equals(key) ? "; " : ", ") + value;
+        }
+        fields.put(key, value);
+    }
+
+    /**
+     * Finds the index of the line feed which terminates the line starting
+     * at the given index.
+     *
+     * @param data  the bytes to search
+     * @param start the index of the first byte of the line
+     * @param end   the index after the last byte to search
+     * @return the index of the line feed, or the end index if there is none
+     */
+    private static int lineEnd(byte[] data, int start, int end) {
+        int index = indexOf(data, (byte) '\n', start, end);
+        return index == -1 ? end : index;
+    }
+
+    /**
+     * Removes the carriage return which precedes the line feed, if present.
+     *
+     * @param data  the bytes of the line
+     * @param start the index of the first byte of the line
+     * @param end   the index of the line feed
+     * @return the index after the last byte of the line's content
+     */
+    private static int trimCR(byte[] data, int start, int end) {
+        return end > start && data[end - 1] == '\r' ? end - 1 : end;
+    }
+
+    /**
+     * Finds the first occurrence of the given byte within the given range.
+     *
+     * @param data  the bytes to search
+     * @param b     the byte to find
+     * @param start the index of the first byte to search
+     * @param end   the index after the last byte to search
+     * @return the index of the byte, or -1 if it was not found
+     */
+    private static int indexOf(byte[] data, byte b, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (data[i] == b) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Checks if the given byte is a space or a horizontal tab.
+     *
+     * @param b the byte to check
+     * @return true if the byte is a whitespace; false otherwise
+     */
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t';
+    }
+
+    /**
+     * Gets the method of the request.
+     *
+     * @return the method, or null if the request line is invalid
+     */
+    public String getMethod() {
+        return method;
+    }
+
+    /**
+     * Gets the requested path, including the query string.
+     *
+     * @return the requested path, or null if the request line is invalid
+     */
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * Gets the HTTP version of the request.
+     *
+     * @return the HTTP version, or null if the request line is invalid
+     */
+    public String getVersion() {
+        return version;
+    }
+
+    /**
+     * Gets the value of the header field specified by the given
+     * (case-insensitive) name.
+     *
+     * @param name the name of the field
+     * @return the value of the field, or null if the field is not present
+     */
+    public String getField(String name) {
+        return fields.get(name.toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * Returns an unmodifiable map of the header fields, mapped from their
+     * lower-case names to their values.
+     *
+     * @return a read-only map of the header fields
+     */
+    public Map<String, String> getFields() {
+        return Collections.unmodifiableMap(fields);
+    }
+}
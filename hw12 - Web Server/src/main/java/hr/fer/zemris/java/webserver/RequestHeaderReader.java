@@ -0,0 +1,130 @@
+package hr.fer.zemris.java.webserver;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.SocketTimeoutException;
+
+/**
+ * This class reads the request headers from the input stream of a single
+ * connection. The bytes are read in blocks into a buffer which is reused
+ * for all of the requests received over the connection; any bytes which
+ * follow a header (such as the next pipelined request) are kept in the
+ * buffer for the next call of {@link #readHeader()}.
+ * <p>
+ * Once the first byte of a header has been received, the rest of the header
+ * must be received within the header timeout. This stops a client from
+ * holding on to the connection by sending the header a byte at a time.
+ *
+ * @author Luka Čupić
+ */
+public class RequestHeaderReader {
+
+    /**
+     * The stream to read the requests from.
+     */
+    private InputStream inputStream;
+
+    /**
+     * The buffer which holds the received bytes.
+     */
+    private byte[] buffer;
+
+    /**
+     * The index of the first unprocessed byte in the buffer.
+     */
+    private int start;
+
+    /**
+     * The index after the last received byte in the buffer.
+     */
+    private int end;
+
+    /**
+     * The time within which a header must be received, in nanoseconds;
+     * zero means that the time is not limited.
+     */
+    private long headerTimeout;
+
+    /**
+     * Creates a new reader which does not limit the time within which
+     * a header must be received.
+     *
+     * @param inputStream   the stream to read the requests from
+     * @param maxHeaderSize the maximum allowed size of a header, in bytes
+     */
+    public RequestHeaderReader(InputStream inputStream, int maxHeaderSize) {
+        this(inputStream, maxHeaderSize, 0);
+    }
+
+    /**
+     * Creates a new reader.
+     *
+     * @param inputStream   the stream to read the requests from
+     * @param maxHeaderSize the maximum allowed size of a header, in bytes
+     * @param headerTimeout the time within which a header must be received
+     *                      once its first byte has arrived, in milliseconds;
+     *                      zero means that the time is not limited
+     */
+    public RequestHeaderReader(InputStream inputStream, int maxHeaderSize, long headerTimeout) {
+        this.inputStream = inputStream;
+        this.buffer = new byte[maxHeaderSize];
+        this.headerTimeout = headerTimeout * 1_000_000L;
+    }
+
+    /**
+     * Reads the next request header from the stream.
+     *
+     * @return the request header, or null if the stream has ended
+     * before a complete header was received
+     * @throws HeaderTooLargeException if the header exceeds the maximum
+     *                                 allowed size
+     * @throws SocketTimeoutException  if the header has not been received
+     *                                 within the header timeout
+     * @throws IOException             if an error occurs while reading
+     */
+    public RequestHeader readHeader() throws IOException {
+        int scanned = start;
+        long started = start < end ? System.nanoTime() : 0;
+
+        while (true) {
+            // skip the empty lines which may precede a pipelined request
+            while (start < end && (buffer[start] == '\r' || buffer[start] == '\n')) {
+                start++;
+            }
+            scanned = Math.max(scanned, start);
+
+            int headerEnd = RequestHeader.findEnd(buffer, scanned, end);
+            if (headerEnd != -1) {
+                RequestHeader header = RequestHeader.parse(buffer, start, headerEnd);
+                start = headerEnd;
+                return header;
+            }
+
+            if (end - start == buffer.length) {
+                throw new HeaderTooLargeException("The request header is too large!");
+            }
+
+            // the terminator might span over the block boundary
+            scanned = Math.max(start, end - 2);
+
+            if (end == buffer.length) {
+                System.arraycopy(buffer, start, buffer, 0, end - start);
+                scanned -= start;
+                end -= start;
+                start = 0;
+            }
+
+            if (started != 0 && headerTimeout > 0 && System.nanoTime() - started > headerTimeout) {
+                throw new SocketTimeoutException("The request header has not been received in time!");
+            }
+
+            int read = inputStream.read(buffer, end, buffer.length - end);
+            if (read == -1) return null;
+            end += read;
+
+            if (started == 0) {
+                started = System.nanoTime();
+            }
+        }
+    }
+}
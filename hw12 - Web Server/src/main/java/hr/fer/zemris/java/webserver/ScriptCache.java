@@ -0,0 +1,103 @@
+package hr.fer.zemris.java.webserver;
+
+import hr.fer.zemris.java.custom.scripting.compiler.CompiledScript;
+import hr.fer.zemris.java.custom.scripting.compiler.ScriptCompiler;
+import hr.fer.zemris.java.custom.scripting.parser.SmartScriptParser;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * This class represents a cache of the parsed and compiled smart scripts.
+ * Each entry is keyed by the path of the script and is valid only as long
+ * as the script's last-modified time does not change; once the script
+ * changes, it is parsed and compiled again. The number of cached scripts
+ * is bounded and the least recently used scripts are evicted first.
+ * <p>
+ * The cached scripts (and their document models) are shared by all of
+ * the requests which execute the same script, which is safe because
+ * neither is ever modified after it has been created.
+ *
+ * @author Luka Čupić
+ */
+public class ScriptCache {
+
+    /**
+     * The cached entries, ordered from the least to the most recently used.
+     */
+    private Map<Path, Entry> entries;
+
+    /**
+     * Creates a new cache.
+     *
+     * @param capacity the maximum number of cached scripts
+     */
+    public ScriptCache(int capacity) {
+        entries = new LinkedHashMap<Path, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Path, Entry> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Gets the script specified by the given path. If the cache holds the
+     * current version of the script, the cached script is returned; otherwise,
+     * the script is parsed, compiled and stored in the cache.
+     *
+     * @param path         the path to the script
+     * @param lastModified the last-modified time of the script, in milliseconds
+     * @return the compiled script
+     * @throws IOException if the script cannot be read
+     */
+    public CompiledScript get(Path path, long lastModified) throws IOException {
+        synchronized (this) {
+            Entry entry = entries.get(path);
+            if (entry != null && entry.lastModified == lastModified) {
+                return entry.script;
+            }
+        }
+
+        String text = new String(Files.readAllBytes(path), StandardCharsets.UTF_8);
+        CompiledScript script = ScriptCompiler.compile(new SmartScriptParser(text).getDocumentNode());
+
+        synchronized (this) {
+            entries.put(path, new Entry(script, lastModified));
+        }
+        return script;
+    }
+
+    /**
+     * This class represents a single entry of the cache.
+     *
+     * @author Luka Čupić
+     */
+    private static class Entry {
+
+        /**
+         * The compiled script.
+         */
+        CompiledScript script;
+
+        /**
+         * The last-modified time of the script when it was parsed, in milliseconds.
+         */
+        long lastModified;
+
+        /**
+         * Creates a new entry.
+         *
+         * @param script       the compiled script
+         * @param lastModified the last-modified time of the script
+         */
+        Entry(CompiledScript script, long lastModified) {
+            this.script = script;
+            this.lastModified = lastModified;
+        }
+    }
+}
@@ -0,0 +1,351 @@
+package hr.fer.zemris.java.webserver;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * This class collects the metrics of the {@link SmartHttpServer}: the number
+ * of connections, the number of failed, rejected and timed out requests and
+ * the latency histograms of the requests, both per route and per status code.
+ * The metrics can be written in the Prometheus text format through
+ * {@link #write(StringBuilder)}.
+ * <p>
+ * Recording a request only increments a few {@link LongAdder}s, so the
+ * concurrent client workers never wait for each other. The histograms are
+ * created on the first request of their route (or status code) and are
+ * looked up without locking afterwards.
+ * <p>
+ * The routes are "static" (static files), "script" (smart scripts), "worker"
+ * (web workers, which are also labeled with their path) and "error" (the
+ * requests answered with an error before reaching any of the others).
+ *
+ * @author Luka Čupić
+ */
+public class ServerMetrics {
+
+    /**
+     * The prefix of the names of the metrics.
+     */
+    private static final String PREFIX = "smarthttp_";
+
+    /**
+     * The upper bounds of the buckets of the latency histograms, in seconds.
+     */
+    private static final double[] BUCKETS = {
+        0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10
+    };
+
+    /**
+     * The upper bounds of the buckets of the latency histograms, in nanoseconds.
+     */
+    private static final long[] BUCKETS_NANOS = new long[BUCKETS.length];
+
+    static {
+        for (int i = 0; i < BUCKETS.length; i++) {
+            BUCKETS_NANOS[i] = (long) (BUCKETS[i] * 1e9);
+        }
+    }
+
+    /**
+     * The total number of accepted connections.
+     */
+    private LongAdder connections = new LongAdder();
+
+    /**
+     * The number of currently open connections.
+     */
+    private LongAdder activeConnections = new LongAdder();
+
+    /**
+     * The number of requests which failed with an exception.
+     */
+    private LongAdder errors = new LongAdder();
+
+    /**
+     * The number of connections (or requests) rejected because the work
+     * queue was full.
+     */
+    private LongAdder rejected = new LongAdder();
+
+    /**
+     * The number of requests interrupted because they ran past their deadline.
+     */
+    private LongAdder timedOut = new LongAdder();
+
+    /**
+     * The latency histograms of the routes other than "worker", mapped from
+     * the names of the routes.
+     */
+    private Map<String, Histogram> routes = new ConcurrentHashMap<>();
+
+    /**
+     * The latency histograms of the "worker" route, mapped from the paths of
+     * the workers.
+     */
+    private Map<String, Histogram> workers = new ConcurrentHashMap<>();
+
+    /**
+     * The latency histograms, mapped from the status codes of the responses.
+     */
+    private Map<Integer, Histogram> statuses = new ConcurrentHashMap<>();
+
+    /**
+     * The metrics kept outside of this class, which are read when the metrics
+     * are written, mapped from their names.
+     */
+    private Map<String, Metric> registered = new ConcurrentHashMap<>();
+
+    /**
+     * Registers a metric kept outside of this class (such as the number of
+     * sessions), whose value is read each time the metrics are written.
+     *
+     * @param name  the name of the metric, without the common prefix
+     * @param help  the description of the metric
+     * @param type  the type of the metric; either "counter" or "gauge"
+     * @param value the supplier of the value of the metric
+     */
+    public void register(String name, String help, String type, LongSupplier value) {
+        registered.put(name, new Metric(help, type, value));
+    }
+
+    /**
+     * Records a newly accepted connection.
+     */
+    public void connectionOpened() {
+        connections.increment();
+        activeConnections.increment();
+    }
+
+    /**
+     * Records a closed connection.
+     */
+    public void connectionClosed() {
+        activeConnections.decrement();
+    }
+
+    /**
+     * Records a request which failed with an exception.
+     */
+    public void requestFailed() {
+        errors.increment();
+    }
+
+    /**
+     * Records a connection (or a request) rejected because the work queue
+     * was full.
+     */
+    public void connectionRejected() {
+        rejected.increment();
+    }
+
+    /**
+     * Records a request interrupted because it ran past its deadline.
+     */
+    public void requestTimedOut() {
+        timedOut.increment();
+    }
+
+    /**
+     * Records a served request.
+     *
+     * @param route    the route of the request; one of "static", "script",
+     *                 "worker" or "error"
+     * @param path     the path of the worker, or null for the other routes
+     * @param status   the status code of the response
+     * @param duration the time it took to serve the request, in nanoseconds
+     */
+    public void record(String route, String path, int status, long duration) {
+        Histogram histogram = path == null ? routes.get(route) : workers.get(path);
+        if (histogram == null && path == null) {
+            histogram = routes.computeIfAbsent(route, r -> new Histogram("route=\"" + r + "\""));
+        } else if (histogram == null) {
+            histogram = workers.computeIfAbsent(path, p ->
+                new Histogram("route=\"" + route + "\",path=\"" + escape(p) + "\""));
+        }
+        histogram.record(duration);
+
+        histogram = statuses.get(status);
+        if (histogram == null) {
+            histogram = statuses.computeIfAbsent(status, s -> new Histogram("status=\"" + s + "\""));
+        }
+        histogram.record(duration);
+    }
+
+    /**
+     * Writes all of the metrics in the Prometheus text format.
+     *
+     * @param sb the builder to write the metrics to
+     */
+    public void write(StringBuilder sb) {
+        writeHeader(sb, "connections_total", "The total number of accepted connections.", "counter");
+        sb.append(PREFIX).append("connections_total ").append(connections.sum()).append('\n');
+
+        writeHeader(sb, "active_connections", "The number of currently open connections.", "gauge");
+        sb.append(PREFIX).append("active_connections ").append(activeConnections.sum()).append('\n');
+
+        writeHeader(sb, "request_errors_total", "The number of requests which failed with an exception.", "counter");
+        sb.append(PREFIX).append("request_errors_total ").append(errors.sum()).append('\n');
+
+        writeHeader(sb, "rejected_total", "The number of connections rejected because the work queue was full.", "counter");
+        sb.append(PREFIX).append("rejected_total ").append(rejected.sum()).append('\n');
+
+        writeHeader(sb, "request_timeouts_total", "The number of requests interrupted at their deadline.", "counter");
+        sb.append(PREFIX).append("request_timeouts_total ").append(timedOut.sum()).append('\n');
+
+        for (Map.Entry<String, Metric> entry : new TreeMap<>(registered).entrySet()) {
+            Metric metric = entry.getValue();
+            writeHeader(sb, entry.getKey(), metric.help, metric.type);
+            sb.append(PREFIX).append(entry.getKey()).append(' ')
+                .append(metric.value.getAsLong()).append('\n');
+        }
+
+        String name = "request_duration_seconds";
+        writeHeader(sb, name, "The latency of the requests, per route.", "histogram");
+        for (Histogram histogram : new TreeMap<>(routes).values()) {
+            histogram.write(sb, name);
+        }
+        for (Histogram histogram : new TreeMap<>(workers).values()) {
+            histogram.write(sb, name);
+        }
+
+        name = "response_duration_seconds";
+        writeHeader(sb, name, "The latency of the requests, per status code of the response.", "histogram");
+        for (Histogram histogram : new TreeMap<>(statuses).values()) {
+            histogram.write(sb, name);
+        }
+    }
+
+    /**
+     * Writes the HELP and TYPE lines of a metric.
+     *
+     * @param sb   the builder to write the lines to
+     * @param name the name of the metric, without the common prefix
+     * @param help the description of the metric
+     * @param type the type of the metric
+     */
+    private static void writeHeader(StringBuilder sb, String name, String help, String type) {
+        sb.append("# HELP ").append(PREFIX).append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(PREFIX).append(name).append(' ').append(type).append('\n');
+    }
+
+    /**
+     * Escapes the given value of a label.
+     *
+     * @param value the value
+     * @return the escaped value
+     */
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    /**
+     * This class represents a latency histogram with fixed buckets.
+     *
+     * @author Luka Čupić
+     */
+    private static class Histogram {
+
+        /**
+         * The labels of the histogram.
+         */
+        private String labels;
+
+        /**
+         * The number of the recorded values in each of the buckets, where
+         * the last bucket holds the values above the largest bound.
+         */
+        private LongAdder[] counts = new LongAdder[BUCKETS.length + 1];
+
+        /**
+         * The sum of the recorded values, in nanoseconds.
+         */
+        private LongAdder sum = new LongAdder();
+
+        /**
+         * Creates a new, empty histogram.
+         *
+         * @param labels the labels of the histogram
+         */
+        Histogram(String labels) {
+            this.labels = labels;
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = new LongAdder();
+            }
+        }
+
+        /**
+         * Records the given value.
+         *
+         * @param nanos the value, in nanoseconds
+         */
+        void record(long nanos) {
+            int i = 0;
+            while (i < BUCKETS_NANOS.length && nanos > BUCKETS_NANOS[i]) {
+                i++;
+            }
+            counts[i].increment();
+            sum.add(nanos);
+        }
+
+        /**
+         * Writes the cumulative buckets, the sum and the count of this
+         * histogram.
+         *
+         * @param sb   the builder to write the histogram to
+         * @param name the name of the metric, without the common prefix
+         */
+        void write(StringBuilder sb, String name) {
+            long count = 0;
+            for (int i = 0; i < counts.length; i++) {
+                count += counts[i].sum();
+
+                String bound = i < BUCKETS.length ? Double.toString(BUCKETS[i]) : "+Inf";
+                sb.append(PREFIX).append(name).append("_bucket{").append(labels)
+                    .append(",le=\"").append(bound).append("\"} ").append(count).append('\n');
+            }
+            sb.append(PREFIX).append(name).append("_sum{").append(labels).append("} ")
+                .append(sum.sum() / 1e9).append('\n');
+            sb.append(PREFIX).append(name).append("_count{").append(labels).append("} ")
+                .append(count).append('\n');
+        }
+    }
+
+    /**
+     * This class represents a metric kept outside of this class.
+     *
+     * @author Luka Čupić
+     */
+    private static class Metric {
+
+        /**
+         * The description of the metric.
+         */
+        String help;
+
+        /**
+         * The type of the metric.
+         */
+        String type;
+
+        /**
+         * The supplier of the value of the metric.
+         */
+        LongSupplier value;
+
+        /**
+         * Creates a new metric.
+         *
+         * @param help  the description of the metric
+         * @param type  the type of the metric
+         * @param value the supplier of the value of the metric
+         */
+        Metric(String help, String type, LongSupplier value) {
+            this.help = help;
+            this.type = type;
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package hr.fer.zemris.java.webserver;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * This class represents the persistent parameters of a client session. The
+ * parameters may be used by several requests at the same time, so they are
+ * kept in a concurrent map which (just as any concurrent map) does not accept
+ * null keys or values.
+ * <p>
+ * Every modification of the parameters is counted, so the persistent session
+ * stores can tell whether the parameters have changed since they were last
+ * saved. The counter is incremented only after the modification is done, so
+ * whoever sees the new count also sees the modification. The views of the
+ * map ({@link #keySet()}, {@link #values()} and {@link #entrySet()}) are
+ * read-only, so that no modification can bypass the counter.
+ *
+ * @author Luka Čupić
+ */
+class SessionParameters implements Map<String, String> {
+
+    /**
+     * The parameters.
+     */
+    private final Map<String, String> map = new ConcurrentHashMap<>();
+
+    /**
+     * The read-only view of the parameters.
+     */
+    private final Map<String, String> view = Collections.unmodifiableMap(map);
+
+    /**
+     * The number of modifications of the parameters.
+     */
+    private final AtomicInteger version = new AtomicInteger();
+
+    /**
+     * Gets the number of modifications of the parameters so far.
+     *
+     * @return the version of the parameters
+     */
+    int getVersion() {
+        return version.get();
+    }
+
+    /**
+     * Counts a modification of the parameters.
+     *
+     * @param result the result of the modification
+     * @param <T>    the type of the result
+     * @return the given result
+     */
+    private <T> T modified(T result) {
+        version.incrementAndGet();
+        return result;
+    }
+
+    @Override
+    public int size() {
+        return map.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return map.isEmpty();
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return map.containsKey(key);
+    }
+
+    @Override
+    public boolean containsValue(Object value) {
+        return map.containsValue(value);
+    }
+
+    @Override
+    public String get(Object key) {
+        return map.get(key);
+    }
+
+    @Override
+    public String getOrDefault(Object key, String defaultValue) {
+        return map.getOrDefault(key, defaultValue);
+    }
+
+    @Override
+    public void forEach(BiConsumer<? super String, ? super String> action) {
+        map.forEach(action);
+    }
+
+    @Override
+    public String put(String key, String value) {
+        return modified(map.put(key, value));
+    }
+
+    @Override
+    public String remove(Object key) {
+        return modified(map.remove(key));
+    }
+
+    @Override
+    public void putAll(Map<? extends String, ? extends String> m) {
+        map.putAll(m);
+        modified(null);
+    }
+
+    @Override
+    public void clear() {
+        map.clear();
+        modified(null);
+    }
+
+    @Override
+    public String putIfAbsent(String key, String value) {
+        return modified(map.putIfAbsent(key, value));
+    }
+
+    @Override
+    public boolean remove(Object key, Object value) {
+        return modified(map.remove(key, value));
+    }
+
+    @Override
+    public boolean replace(String key, String oldValue, String newValue) {
+        return modified(map.replace(key, oldValue, newValue));
+    }
+
+    @Override
+    public String replace(String key, String value) {
+        return modified(map.replace(key, value));
+    }
+
+    @Override
+    public void replaceAll(BiFunction<? super String, ? super String, ? extends String> function) {
+        map.replaceAll(function);
+        modified(null);
+    }
+
+    @Override
+    public String computeIfAbsent(String key, Function<? super String, ? extends String> mappingFunction) {
+        return modified(map.computeIfAbsent(key, mappingFunction));
+    }
+
+    @Override
+    public String computeIfPresent(String key,
+                                   BiFunction<? super String, ? super String, ? extends String> remappingFunction) {
+        return modified(map.computeIfPresent(key, remappingFunction));
+    }
+
+    @Override
+    public String compute(String key,
+                          BiFunction<? super String, ? super String, ? extends String> remappingFunction) {
+        return modified(map.compute(key, remappingFunction));
+    }
+
+    @Override
+    public String merge(String key, String value,
+                        BiFunction<? super String, ? super String, ? extends String> remappingFunction) {
+        return modified(map.merge(key, value, remappingFunction));
+    }
+
+    @Override
+    public Set<String> keySet() {
+        return view.keySet();
+    }
+
+    @Override
+    public Collection<String> values() {
+        return view.values();
+    }
+
+    @Override
+    public Set<Entry<String, String>> entrySet() {
+        return view.entrySet();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return map.equals(o);
+    }
+
+    @Override
+    public int hashCode() {
+        return map.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return map.toString();
+    }
+}
@@ -0,0 +1,62 @@
+package hr.fer.zemris.java.webserver;
+
+import hr.fer.zemris.java.webserver.SmartHttpServer.SessionMapEntry;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * This interface represents a store of the client sessions of the
+ * {@link SmartHttpServer}. The store is used concurrently by all of the
+ * client workers, so the implementations must be thread-safe.
+ *
+ * @author Luka Čupić
+ */
+public interface SessionStore extends Closeable {
+
+    /**
+     * Gets the session specified by the given identifier and extends its
+     * validity. An expired session is removed from the store.
+     *
+     * @param sid the session identifier
+     * @return the session, or null if there is no valid session with the
+     * given identifier
+     */
+    SessionMapEntry get(String sid);
+
+    /**
+     * Creates a new session with a unique identifier and adds it to the store.
+     *
+     * @return the new session
+     */
+    SessionMapEntry create();
+
+    /**
+     * Notifies the store that a request which used the given session has been
+     * served, so that the changes of the session's parameters can be saved.
+     *
+     * @param session the session used by the request
+     */
+    void update(SessionMapEntry session);
+
+    /**
+     * Removes all of the expired sessions from the store.
+     */
+    void removeExpired();
+
+    /**
+     * Gets the number of sessions in the store, including the expired
+     * sessions which have not been removed yet.
+     *
+     * @return the number of sessions
+     */
+    int size();
+
+    /**
+     * Closes the store, saving all of its sessions if the store is persistent.
+     *
+     * @throws IOException if the sessions cannot be saved
+     */
+    @Override
+    void close() throws IOException;
+}
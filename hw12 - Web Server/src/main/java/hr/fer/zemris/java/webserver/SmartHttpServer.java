@@ -1,22 +1,46 @@
 package hr.fer.zemris.java.webserver;
 
+import hr.fer.zemris.java.custom.scripting.compiler.CompiledScript;
 import hr.fer.zemris.java.custom.scripting.exec.SmartScriptEngine;
-import hr.fer.zemris.java.custom.scripting.nodes.DocumentNode;
-import hr.fer.zemris.java.custom.scripting.parser.SmartScriptParser;
+import hr.fer.zemris.java.webserver.workers.MetricsWorker;
 
 import java.io.*;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * The Smart HTTP server is a multipurpose server which allows
@@ -37,7 +61,11 @@ import java.util.concurrent.Executors;
  * "/ext/HelloWorker" greets the client with a proper message.
  * <p>
  * The server properties can be modified in the "server.properties"
- * configuration file.
+ * configuration file. Among other things, the configuration selects
+ * the engine which handles the connections: the "blocking" engine
+ * dedicates a pooled thread to each connection, while the "nio"
+ * engine multiplexes all connections over a single selector thread
+ * and uses the pooled threads only for generating the responses.
  *
  * @author Luka Čupić
  */
@@ -70,21 +98,131 @@ public class SmartHttpServer {
 	 */
 	private Map<String, String> mimeTypes = new HashMap<>();
 
+	/**
+	 * Represents the cache for the contents of small static files.
+	 */
+	private StaticFileCache fileCache;
+
+	/**
+	 * Represents the cache for the parsed smart scripts.
+	 */
+	private ScriptCache scriptCache;
+
+	/**
+	 * A flag which tells whether the smart scripts are executed in their
+	 * compiled form, or interpreted by the {@link SmartScriptEngine}.
+	 */
+	private boolean compileScripts;
+
+	/**
+	 * The size of a dynamic response body (in bytes) after which the body is
+	 * sent in chunks instead of being buffered whole. Zero disables chunking.
+	 */
+	private int chunkingThreshold;
+
+	/**
+	 * A flag which tells whether the responses are compressed for the clients
+	 * which accept compression.
+	 */
+	private boolean compression;
+
+	/**
+	 * The size of the smallest dynamic response body (in bytes) which is compressed.
+	 */
+	private int compressionThreshold;
+
 	/**
 	 * Holds the maximum duration of client sessions, in seconds.
 	 */
 	private volatile int sessionTimeout;
 
+	/**
+	 * Holds the time (in seconds) for which an idle persistent
+	 * connection is kept open while waiting for the next request.
+	 */
+	private int keepAliveTimeout;
+
+	/**
+	 * Holds the maximum number of requests which can be served
+	 * over a single persistent connection.
+	 */
+	private int keepAliveMaxRequests;
+
+	/**
+	 * Represents the type of the executor which runs the client
+	 * workers: either "fixed" (a fixed pool of platform threads)
+	 * or "virtual" (a new virtual thread for each task).
+	 */
+	private String executor;
+
+	/**
+	 * Limits the number of file and script responses which can be
+	 * generated at the same time, or null if the number is unlimited.
+	 */
+	private Semaphore responseLimiter;
+
 	/**
 	 * Represents the thread pool which contains the client
 	 * worker threads.
 	 */
 	private ExecutorService threadPool;
 
+	/**
+	 * Holds the maximum allowed size of a request header, in bytes.
+	 */
+	private int maxHeaderSize;
+
+	/**
+	 * The maximum number of tasks waiting for a pooled thread; zero means
+	 * that the number of waiting tasks is not limited.
+	 */
+	private int queueCapacity;
+
+	/**
+	 * What happens to a connection (or a request) which does not fit into
+	 * the work queue; either "reject" (answered with 503) or "close".
+	 */
+	private String rejectionPolicy;
+
+	/**
+	 * The response sent to a client which has been rejected, or whose
+	 * request has run past its deadline.
+	 */
+	private byte[] serviceUnavailableResponse;
+
+	/**
+	 * The time within which a request header must be received once it has
+	 * started to arrive, in seconds; zero means unlimited.
+	 */
+	private int readTimeout;
+
+	/**
+	 * The time for which a single write to a client can be blocked, in
+	 * seconds; zero means unlimited.
+	 */
+	private int writeTimeout;
+
+	/**
+	 * The time for which a single request can run before it is interrupted,
+	 * in seconds; zero means unlimited.
+	 */
+	private int requestTimeout;
+
+	/**
+	 * The client workers whose timeouts are checked by the {@link Watchdog}.
+	 */
+	private Set<ClientWorker> watchedWorkers = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * Represents the name of the engine which handles the client
+	 * connections: either "blocking" or "nio".
+	 */
+	private String engine;
+
 	/**
 	 * Represents the main server thread.
 	 */
-	private ServerThread serverThread;
+	private Thread serverThread;
 
 	/**
 	 * A flag which tells whether the server is currently running.
@@ -92,22 +230,47 @@ public class SmartHttpServer {
 	private volatile boolean isRunning = false;
 
 	/**
-	 * A map which maps a path of a worker (the one specified
-	 * in the workers.properties file) to an actual worker of
-	 * that type.
+	 * The registry which maps the paths of the requests (the ones
+	 * specified in the workers.properties file, or the "ext/" paths)
+	 * to the actual workers.
+	 */
+	private WorkerRegistry workers;
+
+	/**
+	 * The interval at which the workers.properties file is checked
+	 * for changes, in seconds; zero disables the reloading.
+	 */
+	private int workersReloadInterval;
+
+	/**
+	 * Represents the response sent to a client whose request header
+	 * exceeds the maximum allowed size, after which the connection
+	 * is closed.
+	 */
+	private static final byte[] HEADER_TOO_LARGE_RESPONSE = (
+		"HTTP/1.1 431 Request Header Fields Too Large\r\n" +
+		"Content-Length: 0\r\n" +
+		"Connection: close\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+
+	/**
+	 * Represents a package for the server workers.
 	 */
-	private Map<String, IWebWorker> workersMap;
+	private static final String WORKERS_PACKAGE = "hr.fer.zemris.java.webserver.workers";
 
 	/**
-	 * Represents a map of the existing client sessions.
+	 * Represents the store of the existing client sessions.
 	 */
-	private Map<String, SessionMapEntry> sessions = new HashMap<>();
+	private SessionStore sessions;
 
 	/**
-	 * Represents the random number generator used for generating
-	 * unique client session ID's.
+	 * The metrics of the server.
 	 */
-	private static Random sessionRandom = new Random();
+	private ServerMetrics metrics = new ServerMetrics();
+
+	/**
+	 * The access log of the server.
+	 */
+	private AccessLog accessLog;
 
 	/**
 	 * Creates a new SmartHTTP WebServer.
@@ -125,7 +288,130 @@ public class SmartHttpServer {
 		this.documentRoot = Paths.get(properties.get("server.documentRoot"));
 		this.mimeTypes = getPropertyTypes(properties.get("server.mimeConfig"));
 		this.sessionTimeout = Integer.parseInt(properties.get("session.timeout"));
-		this.workersMap = getWorkersMap(properties.get("server.workers"));
+		this.sessions = createSessionStore(properties);
+		this.workers = new WorkerRegistry(Paths.get(properties.get("server.workers").trim()), WORKERS_PACKAGE);
+		this.workersReloadInterval = getIntProperty(properties, "server.workers.reloadInterval", 0);
+		preloadWorkers(properties.getOrDefault("server.workers.preload", ""));
+		this.keepAliveTimeout = getIntProperty(properties, "server.keepAlive.timeout", 5);
+		this.keepAliveMaxRequests = getIntProperty(properties, "server.keepAlive.maxRequests", 100);
+		this.maxHeaderSize = getIntProperty(properties, "server.maxHeaderSize", 8192);
+		this.fileCache = new StaticFileCache(
+			getIntProperty(properties, "server.fileCache.capacity", 16 * 1024 * 1024),
+			getIntProperty(properties, "server.fileCache.maxFileSize", 256 * 1024)
+		);
+		this.scriptCache = new ScriptCache(getIntProperty(properties, "server.scriptCache.capacity", 128));
+		this.compileScripts = !"interpreted".equals(properties.getOrDefault("server.scriptEngine", "compiled").trim());
+		this.chunkingThreshold = getIntProperty(properties, "server.response.chunkThreshold", 64 * 1024);
+		this.compression = Boolean.parseBoolean(properties.getOrDefault("server.response.compression", "true").trim());
+		this.compressionThreshold = getIntProperty(properties, "server.response.compression.minSize", 1024);
+		this.engine = properties.getOrDefault("server.engine", "blocking").trim();
+		this.executor = properties.getOrDefault("server.executor", "fixed").trim();
+
+		this.accessLog = new AccessLog(
+			properties.getOrDefault("server.accessLog", "stdout").trim(),
+			Double.parseDouble(properties.getOrDefault("server.accessLog.sampleRate", "0.01").trim())
+		);
+		registerMetrics();
+
+		this.queueCapacity = getIntProperty(properties, "server.executor.queueCapacity", 0);
+		this.rejectionPolicy = properties.getOrDefault("server.executor.rejectionPolicy", "reject").trim();
+		this.serviceUnavailableResponse = (
+			"HTTP/1.1 503 Service Unavailable\r\n" +
+			"Retry-After: " + getIntProperty(properties, "server.executor.retryAfter", 1) + "\r\n" +
+			"Content-Length: 0\r\n" +
+			"Connection: close\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+		this.readTimeout = getIntProperty(properties, "server.timeout.read", 0);
+		this.writeTimeout = getIntProperty(properties, "server.timeout.write", 0);
+		this.requestTimeout = getIntProperty(properties, "server.timeout.request", 0);
+
+		if (!rejectionPolicy.equals("reject") && !rejectionPolicy.equals("close")) {
+			throw new IOException("Unknown rejection policy: " + rejectionPolicy);
+		}
+
+		int responseLimit = getIntProperty(properties, "server.executor.responseLimit", 0);
+		this.responseLimiter = responseLimit > 0 ? new Semaphore(responseLimit) : null;
+
+		if (!executor.equals("fixed") && !executor.equals("virtual")) {
+			throw new IOException("Unknown server executor: " + executor);
+		}
+
+		if (!engine.equals("blocking") && !engine.equals("nio")) {
+			throw new IOException("Unknown server engine: " + engine);
+		}
+	}
+
+	/**
+	 * Registers the metrics kept outside of the {@link ServerMetrics} and maps
+	 * the built-in {@link MetricsWorker} to the "/metrics" path, unless the
+	 * path is already taken by a configured worker.
+	 */
+	private void registerMetrics() {
+		metrics.register("sessions", "The number of user sessions.", "gauge", () -> sessions.size());
+		metrics.register("queued_tasks", "The number of tasks waiting for a pooled thread.", "gauge", () ->
+			threadPool instanceof ThreadPoolExecutor ? ((ThreadPoolExecutor) threadPool).getQueue().size() : 0
+		);
+		metrics.register("access_log_dropped_total", "The number of dropped access log records.", "counter",
+			accessLog::getDropped
+		);
+		workers.addBuiltIn("metrics", new MetricsWorker(metrics));
+	}
+
+	/**
+	 * Loads the workers with the given names, which are otherwise loaded on
+	 * the first request of their "ext/" paths.
+	 *
+	 * @param names the comma-separated simple names of the worker classes
+	 * @throws IOException if one of the workers cannot be loaded
+	 */
+	private void preloadWorkers(String names) throws IOException {
+		for (String name : names.split(",")) {
+			if (name.trim().isEmpty()) continue;
+
+			try {
+				workers.preload(name.trim());
+			} catch (ReflectiveOperationException | ClassCastException ex) {
+				throw new IOException("Cannot preload the worker " + name.trim(), ex);
+			}
+		}
+	}
+
+	/**
+	 * Creates the session store specified by the given properties.
+	 *
+	 * @param properties the map of properties
+	 * @return the session store
+	 * @throws IOException if the sessions cannot be loaded
+	 */
+	private SessionStore createSessionStore(Map<String, String> properties) throws IOException {
+		int maxSessions = getIntProperty(properties, "session.maxSessions", 0);
+		String store = properties.getOrDefault("session.store", "memory").trim();
+
+		switch (store) {
+			case "memory":
+				return new InMemorySessionStore(sessionTimeout, maxSessions);
+			case "file":
+				return new FileSessionStore(
+					Paths.get(properties.getOrDefault("session.store.directory", "sessions").trim()),
+					sessionTimeout, maxSessions,
+					getIntProperty(properties, "session.store.capacity", 4 * 1024 * 1024)
+				);
+			default:
+				throw new IOException("Unknown session store: " + store);
+		}
+	}
+
+	/**
+	 * Gets the integer value of the property specified by the given
+	 * key, or the given default value if the property is not defined.
+	 *
+	 * @param properties   the map of properties
+	 * @param key          the key of the property
+	 * @param defaultValue the value to return if the property is not defined
+	 * @return the integer value of the property
+	 */
+	private static int getIntProperty(Map<String, String> properties, String key, int defaultValue) {
+		String value = properties.get(key);
+		return value == null ? defaultValue : Integer.parseInt(value.trim());
 	}
 
 	/**
@@ -149,34 +435,6 @@ public class SmartHttpServer {
 		return types;
 	}
 
-	/**
-	 * Reads the workers' properties file, specified by the given path
-	 * and returns a map which maps a URL path for specifying a worker
-	 * to a reference to an actual worker object.
-	 *
-	 * @param filepath the path to the workers' properties file
-	 * @return a map which maps a URL path for a worker to this worker
-	 * object
-	 * @throws IOException if the workers properties file cannot be read
-	 */
-	private Map<String, IWebWorker> getWorkersMap(String filepath) throws IOException {
-		Map<String, IWebWorker> workers = new HashMap<>();
-		for (Map.Entry<String, String> entry : getPropertyTypes(filepath).entrySet()) {
-			String path = entry.getKey();
-			String fqcn = entry.getValue();
-
-			try {
-				Class<?> referenceToClass = this.getClass().getClassLoader().loadClass(fqcn);
-				Object newObject = referenceToClass.newInstance();
-				IWebWorker iww = (IWebWorker) newObject;
-				workers.put(path, iww);
-			} catch (Exception ex) {
-				throw new IOException(ex);
-			}
-		}
-		return workers;
-	}
-
 	/**
 	 * Starts the main server thread. Invocation has no effect if
 	 * the server has already started.
@@ -185,10 +443,51 @@ public class SmartHttpServer {
 		if (isRunning) return;
 		isRunning = true;
 
-		threadPool = Executors.newFixedThreadPool(workerThreads);
+		threadPool = executor.equals("virtual") ?
+			newVirtualThreadExecutor() : newFixedThreadExecutor();
 
-		serverThread = new ServerThread();
+		serverThread = engine.equals("nio") ? new NioServerThread() : new ServerThread();
 		serverThread.start();
+
+		if (writeTimeout > 0 || requestTimeout > 0) {
+			new Watchdog(100).start();
+		}
+		if (workersReloadInterval > 0) {
+			new WorkersReloader(workersReloadInterval).start();
+		}
+	}
+
+	/**
+	 * Creates a pool of {@link #workerThreads} threads. If the capacity of the
+	 * work queue is limited, the tasks which do not fit into the queue are
+	 * rejected with a {@link RejectedExecutionException}.
+	 *
+	 * @return the pool of threads
+	 */
+	private ExecutorService newFixedThreadExecutor() {
+		BlockingQueue<Runnable> queue = queueCapacity > 0 ?
+			new ArrayBlockingQueue<>(queueCapacity) : new LinkedBlockingQueue<>();
+
+		return new ThreadPoolExecutor(workerThreads, workerThreads, 0L, TimeUnit.MILLISECONDS, queue);
+	}
+
+	/**
+	 * Creates an executor which runs each task on a new virtual thread.
+	 * Virtual threads are available from Java 21 onwards, so the executor
+	 * is looked up reflectively; on older runtimes, an unbounded pool of
+	 * platform threads (one per connection) is used instead.
+	 *
+	 * @return an executor which starts a new thread for each task
+	 */
+	private static ExecutorService newVirtualThreadExecutor() {
+		try {
+			return (ExecutorService) Executors.class
+				.getMethod("newVirtualThreadPerTaskExecutor")
+				.invoke(null);
+		} catch (ReflectiveOperationException ex) {
+			System.out.println("Virtual threads are not supported; using a thread per connection.");
+			return Executors.newCachedThreadPool();
+		}
 	}
 
 	/**
@@ -201,6 +500,35 @@ public class SmartHttpServer {
 		threadPool.shutdown();
 		serverThread.interrupt();
 		isRunning = false;
+
+		try {
+			sessions.close();
+		} catch (IOException ex) {
+			System.out.println("Cannot save the sessions: " + ex.getMessage());
+		}
+
+		try {
+			accessLog.close();
+		} catch (IOException ignorable) {
+		}
+	}
+
+	/**
+	 * Extracts the parameters contained in the given string
+	 * and stores them into the given map, by mapping the
+	 * parameter's name to it's value.
+	 *
+	 * @param paramString the string to extract the parameters from
+	 * @param params      the map to store the parameters into
+	 */
+	static void parseParameters(String paramString, Map<String, String> params) {
+		String[] pairs = paramString.split("[&]");
+
+		for (String pair : pairs) {
+			String[] parts = pair.split("[=]");
+			if (parts.length != 2) continue;
+			params.put(parts[0], parts[1]);
+		}
 	}
 
 	/**
@@ -217,28 +545,492 @@ public class SmartHttpServer {
 		@Override
 		public void run() {
 			try {
-				ServerSocket serverSocket = new ServerSocket();
-				serverSocket.bind(new InetSocketAddress((InetAddress) null, port));
+				// the sockets are obtained through a channel, so that the
+				// static files can be transferred to them without copying
+				ServerSocketChannel serverChannel = ServerSocketChannel.open();
+				serverChannel.bind(new InetSocketAddress((InetAddress) null, port));
 
 				GarbageCollector gc = new GarbageCollector(300);
 				gc.start();
 
 				while (isRunning) {
-					System.out.println("Waiting for a request...");
-					Socket client = serverSocket.accept();
+					Socket client = serverChannel.accept().socket();
+					metrics.connectionOpened();
 
 					ClientWorker cw = new ClientWorker(client);
-					threadPool.submit(cw);
+					try {
+						threadPool.execute(cw);
+					} catch (RejectedExecutionException ex) {
+						reject(client);
+					}
 				}
 			} catch (IOException ignorable) {
 			}
 		}
 	}
 
+	/**
+	 * Rejects the given connection, which does not fit into the work queue,
+	 * according to the {@link #rejectionPolicy}. The rejected client is
+	 * answered with 503 (Service Unavailable) and told when to retry,
+	 * unless the connection is simply closed.
+	 *
+	 * @param client the socket of the rejected client
+	 */
+	private void reject(Socket client) {
+		metrics.connectionRejected();
+		metrics.connectionClosed();
+
+		try (Socket socket = client) {
+			if (rejectionPolicy.equals("reject")) {
+				socket.getOutputStream().write(serviceUnavailableResponse);
+				socket.shutdownOutput();
+			}
+		} catch (IOException ignorable) {
+		}
+	}
+
+	/**
+	 * This class represents the main thread of the HTTP server when the
+	 * non-blocking engine is selected. A single selector is used for
+	 * accepting the connections, reading the request headers and writing
+	 * the responses; once a complete header has been received, the request
+	 * is handed over to the thread pool, which only generates the response.
+	 * A slow client therefore occupies a pooled thread only while its
+	 * response is being generated.
+	 *
+	 * @author Luka Čupić
+	 */
+	protected class NioServerThread extends Thread {
+
+		/**
+		 * The selector which multiplexes all of the connections.
+		 */
+		private Selector selector;
+
+		/**
+		 * Holds the connections whose responses have been generated by
+		 * the thread pool and are ready to be written.
+		 */
+		private Queue<NioConnection> completed = new ConcurrentLinkedQueue<>();
+
+		@Override
+		public void run() {
+			try (Selector selector = Selector.open();
+				 ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+				this.selector = selector;
+
+				serverChannel.bind(new InetSocketAddress((InetAddress) null, port));
+				serverChannel.configureBlocking(false);
+				serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+
+				GarbageCollector gc = new GarbageCollector(300);
+				gc.start();
+
+				while (isRunning) {
+					selector.select(1000);
+					processCompleted();
+
+					Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+					while (it.hasNext()) {
+						SelectionKey key = it.next();
+						it.remove();
+
+						try {
+							if (!key.isValid()) continue;
+
+							if (key.isAcceptable()) {
+								accept(serverChannel);
+							} else if (key.isReadable()) {
+								read(key);
+							} else if (key.isWritable()) {
+								write(key);
+							}
+						} catch (IOException ex) {
+							close(key);
+						}
+					}
+					closeIdleConnections();
+				}
+			} catch (IOException ignorable) {
+			}
+		}
+
+		/**
+		 * Accepts a new connection and registers it for reading.
+		 *
+		 * @param serverChannel the channel which accepts the connections
+		 * @throws IOException if the connection cannot be accepted
+		 */
+		private void accept(ServerSocketChannel serverChannel) throws IOException {
+			SocketChannel channel = serverChannel.accept();
+			if (channel == null) return;
+
+			channel.configureBlocking(false);
+			metrics.connectionOpened();
+			NioConnection connection = new NioConnection(channel);
+			connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+		}
+
+		/**
+		 * Reads the available bytes from the connection specified by the
+		 * given key and dispatches the request once its header is complete.
+		 *
+		 * @param key the key of the connection
+		 * @throws IOException if an error occurs while reading
+		 */
+		private void read(SelectionKey key) throws IOException {
+			NioConnection connection = (NioConnection) key.attachment();
+
+			if (connection.channel.read(connection.input) == -1) {
+				close(key);
+				return;
+			}
+			connection.lastActivity = System.currentTimeMillis();
+			if (connection.headerStarted == 0) {
+				connection.headerStarted = connection.lastActivity;
+			}
+			dispatchNext(connection);
+		}
+
+		/**
+		 * Writes the pending response to the connection specified by the
+		 * given key. Once the whole response is written, the connection is
+		 * either closed or the next (possibly pipelined) request is served.
+		 *
+		 * @param key the key of the connection
+		 * @throws IOException if an error occurs while writing
+		 */
+		private void write(SelectionKey key) throws IOException {
+			NioConnection connection = (NioConnection) key.attachment();
+
+			if (connection.channel.write(connection.pending) > 0) {
+				connection.lastActivity = System.currentTimeMillis();
+			}
+			if (connection.pending.hasRemaining()) return;
+
+			FileRegion file = connection.file;
+			if (file != null) {
+				long remaining = file.remaining;
+				file.transferTo(connection.channel);
+				if (file.remaining < remaining) {
+					connection.lastActivity = System.currentTimeMillis();
+				}
+				if (file.remaining > 0) return;
+
+				file.channel.close();
+				connection.file = null;
+			}
+
+			connection.pending = null;
+			connection.busy = false;
+			connection.lastActivity = System.currentTimeMillis();
+
+			if (connection.closeAfterWrite) {
+				close(key);
+				return;
+			}
+			key.interestOps(SelectionKey.OP_READ);
+			dispatchNext(connection);
+		}
+
+		/**
+		 * Checks whether the input buffer of the given connection contains
+		 * a complete request header and, if so, submits the request to the
+		 * thread pool. While the request is being served, the connection is
+		 * not read from, so pipelined requests are answered in order.
+		 *
+		 * @param connection the connection
+		 */
+		private void dispatchNext(NioConnection connection) {
+			RequestHeader request = extractRequest(connection.input);
+			if (request == null) {
+				if (!connection.input.hasRemaining()) {
+					// the header does not fit into the buffer
+					connection.pending = ByteBuffer.wrap(HEADER_TOO_LARGE_RESPONSE);
+					connection.closeAfterWrite = true;
+					connection.busy = true;
+					connection.key.interestOps(SelectionKey.OP_WRITE);
+				}
+				return;
+			}
+
+			connection.busy = true;
+			connection.headerStarted = connection.input.position() > 0 ? System.currentTimeMillis() : 0;
+			connection.key.interestOps(0);
+			try {
+				serve(connection, request);
+			} catch (RejectedExecutionException ex) {
+				metrics.connectionRejected();
+				if (!rejectionPolicy.equals("reject")) {
+					close(connection.key);
+					return;
+				}
+				connection.pending = ByteBuffer.wrap(serviceUnavailableResponse);
+				connection.closeAfterWrite = true;
+				connection.key.interestOps(SelectionKey.OP_WRITE);
+			}
+		}
+
+		/**
+		 * Submits the given request of the given connection to the thread
+		 * pool.
+		 *
+		 * @param connection the connection
+		 * @param request    the header of the request
+		 * @throws RejectedExecutionException if the work queue is full
+		 */
+		private void serve(NioConnection connection, RequestHeader request) {
+			threadPool.execute(() -> {
+				boolean keepAlive = false;
+				try {
+					keepAlive = connection.worker.serve(request);
+				} catch (Exception ex) {
+					connection.worker.logFailure(ex);
+				}
+				connection.file = connection.worker.takeFileRegion();
+				connection.closeAfterWrite = !keepAlive;
+
+				completed.add(connection);
+				selector.wakeup();
+			});
+		}
+
+		/**
+		 * Registers the connections whose responses have been generated
+		 * for writing.
+		 */
+		private void processCompleted() {
+			NioConnection connection;
+			while ((connection = completed.poll()) != null) {
+				connection.pending = ByteBuffer.wrap(connection.output.toByteArray());
+				connection.output.reset();
+
+				if (connection.key.isValid()) {
+					connection.key.interestOps(SelectionKey.OP_WRITE);
+				}
+			}
+		}
+
+		/**
+		 * Closes all of the connections which have been waiting for the
+		 * next request for longer than the keep-alive timeout, which have
+		 * not sent a complete request header within the read timeout, or
+		 * which have not accepted any part of their response within the
+		 * write timeout.
+		 */
+		private void closeIdleConnections() {
+			long now = System.currentTimeMillis();
+			for (SelectionKey key : selector.keys()) {
+				Object attachment = key.attachment();
+				if (!(attachment instanceof NioConnection)) continue;
+
+				NioConnection connection = (NioConnection) attachment;
+				if (!connection.busy && now - connection.lastActivity > keepAliveTimeout * 1000L) {
+					close(key);
+				} else if (!connection.busy && readTimeout > 0 && connection.headerStarted != 0
+					&& now - connection.headerStarted > readTimeout * 1000L) {
+					close(key);
+				} else if (connection.pending != null && writeTimeout > 0
+					&& now - connection.lastActivity > writeTimeout * 1000L) {
+					close(key);
+				}
+			}
+		}
+
+		/**
+		 * Closes the connection specified by the given key.
+		 *
+		 * @param key the key of the connection
+		 */
+		private void close(SelectionKey key) {
+			if (key.isValid() && key.attachment() instanceof NioConnection) {
+				metrics.connectionClosed();
+			}
+
+			key.cancel();
+			try {
+				key.channel().close();
+
+				Object attachment = key.attachment();
+				if (attachment instanceof NioConnection && ((NioConnection) attachment).file != null) {
+					((NioConnection) attachment).file.channel.close();
+				}
+			} catch (IOException ignorable) {
+			}
+		}
+
+		/**
+		 * Extracts a complete request header from the given buffer (which
+		 * is in the writing mode) and removes it from the buffer.
+		 *
+		 * @param input the buffer holding the received bytes
+		 * @return the request header, or null if the buffer does not
+		 * contain a complete header yet
+		 */
+		private RequestHeader extractRequest(ByteBuffer input) {
+			byte[] bytes = input.array();
+			int limit = input.position();
+
+			// skip the empty lines which may precede a pipelined request
+			int start = 0;
+			while (start < limit && (bytes[start] == '\r' || bytes[start] == '\n')) {
+				start++;
+			}
+
+			int end = RequestHeader.findEnd(bytes, start, limit);
+			RequestHeader header = end == -1 ? null : RequestHeader.parse(bytes, start, end);
+
+			int consumed = end == -1 ? start : end;
+			if (consumed > 0) {
+				input.flip();
+				input.position(consumed);
+				input.compact();
+			}
+			return header;
+		}
+	}
+
+	/**
+	 * This class represents a single connection handled by the
+	 * {@link NioServerThread}.
+	 *
+	 * @author Luka Čupić
+	 */
+	private class NioConnection {
+
+		/**
+		 * The channel used for communication with the client.
+		 */
+		SocketChannel channel;
+
+		/**
+		 * The key of the channel within the selector.
+		 */
+		SelectionKey key;
+
+		/**
+		 * The buffer which holds the received, but not yet processed bytes.
+		 */
+		ByteBuffer input = ByteBuffer.allocate(maxHeaderSize);
+
+		/**
+		 * The stream to which the response is generated.
+		 */
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+		/**
+		 * The response which is being written to the client.
+		 */
+		ByteBuffer pending;
+
+		/**
+		 * The part of a static file which is transferred to the client
+		 * after the pending response, or null if there is none.
+		 */
+		FileRegion file;
+
+		/**
+		 * The worker which generates the responses for this connection.
+		 */
+		ClientWorker worker;
+
+		/**
+		 * A flag which tells whether a request of this connection is
+		 * currently being served.
+		 */
+		volatile boolean busy;
+
+		/**
+		 * A flag which tells whether the connection should be closed
+		 * once the pending response has been written.
+		 */
+		volatile boolean closeAfterWrite;
+
+		/**
+		 * Holds the time (in milliseconds) of the last activity on
+		 * this connection.
+		 */
+		long lastActivity = System.currentTimeMillis();
+
+		/**
+		 * Holds the time (in milliseconds) at which the first byte of the
+		 * request header being received has arrived, or zero if no part of
+		 * a header has been received.
+		 */
+		long headerStarted;
+
+		/**
+		 * Creates a new connection.
+		 *
+		 * @param channel the channel used for communication with the client
+		 */
+		NioConnection(SocketChannel channel) {
+			this.channel = channel;
+			this.worker = new ClientWorker(output, channel.socket().getInetAddress());
+		}
+	}
+
+	/**
+	 * This class represents a part of a static file which is sent to the
+	 * client by transferring the bytes directly from the file channel to
+	 * the socket channel, without copying them into the heap.
+	 *
+	 * @author Luka Čupić
+	 */
+	private static class FileRegion {
+
+		/**
+		 * The channel of the file.
+		 */
+		FileChannel channel;
+
+		/**
+		 * The position of the next byte to transfer.
+		 */
+		long position;
+
+		/**
+		 * The number of bytes which are yet to be transferred.
+		 */
+		long remaining;
+
+		/**
+		 * Creates a new file region.
+		 *
+		 * @param channel  the channel of the file
+		 * @param position the position of the first byte to transfer
+		 * @param count    the number of bytes to transfer
+		 */
+		FileRegion(FileChannel channel, long position, long count) {
+			this.channel = channel;
+			this.position = position;
+			this.remaining = count;
+		}
+
+		/**
+		 * Transfers as many of the remaining bytes as the target channel
+		 * accepts without blocking (or all of them, if the target channel
+		 * is blocking).
+		 *
+		 * @param target the channel to transfer the bytes to
+		 * @throws IOException if an error occurs while transferring
+		 */
+		void transferTo(WritableByteChannel target) throws IOException {
+			while (remaining > 0) {
+				long transferred = channel.transferTo(position, remaining, target);
+				if (transferred <= 0) return;
+
+				position += transferred;
+				remaining -= transferred;
+			}
+		}
+	}
+
 	/**
 	 * This class represents a garbage collector thread for
 	 * the {@link SmartHttpServer}. It periodically goes through
-	 * the {@link #sessions} map and removes all expired records.
+	 * the {@link #sessions} store and removes all expired records.
 	 */
 	protected class GarbageCollector extends Thread {
 
@@ -262,17 +1054,53 @@ public class SmartHttpServer {
 		@Override
 		public void run() {
 			while (isRunning) {
-				for (Map.Entry<String, SessionMapEntry> e : sessions.entrySet()) {
-					String sid = e.getKey();
-					SessionMapEntry session = e.getValue();
+				sessions.removeExpired();
 
-					if (isExpired(session)) {
-						sessions.remove(sid);
-					}
+				try {
+					Thread.sleep(cycle * 1000);
+				} catch (InterruptedException ignorable) {
+				}
+			}
+		}
+	}
+
+	/**
+	 * This class represents a watchdog thread for the {@link SmartHttpServer}.
+	 * It periodically checks the timeouts of the {@link #watchedWorkers}: it
+	 * closes the connections whose writes are blocked for too long and
+	 * interrupts the requests which have run past their deadline.
+	 *
+	 * @author Luka Čupić
+	 */
+	protected class Watchdog extends Thread {
+
+		/**
+		 * Represents the length of the cycle in between two
+		 * consecutive checks (in milliseconds).
+		 */
+		private long cycle;
+
+		/**
+		 * Creates a new instance of this class.
+		 *
+		 * @param cycle the time duration before another check
+		 *              is performed
+		 */
+		public Watchdog(long cycle) {
+			this.setDaemon(true);
+			this.cycle = cycle;
+		}
+
+		@Override
+		public void run() {
+			while (isRunning) {
+				long now = System.nanoTime();
+				for (ClientWorker worker : watchedWorkers) {
+					worker.checkTimeouts(now);
 				}
 
 				try {
-					Thread.sleep(cycle * 1000);
+					Thread.sleep(cycle);
 				} catch (InterruptedException ignorable) {
 				}
 			}
@@ -280,24 +1108,57 @@ public class SmartHttpServer {
 	}
 
 	/**
-	 * Checks if the specified client session has expired.
+	 * This class represents a thread which periodically checks whether
+	 * the workers.properties file has changed and, if it has, reloads
+	 * the {@link #workers} without restarting the server.
 	 *
-	 * @param session the session to check
-	 * @return true if the session has expired; false otherwise
+	 * @author Luka Čupić
 	 */
-	private boolean isExpired(SessionMapEntry session) {
-		return System.currentTimeMillis() / 1000 >= session.validUntil;
+	protected class WorkersReloader extends Thread {
+
+		/**
+		 * Represents the length of the cycle in between two
+		 * consecutive checks (in seconds).
+		 */
+		private long cycle;
+
+		/**
+		 * Creates a new instance of this class.
+		 *
+		 * @param cycle the time duration before another check
+		 *              is performed
+		 */
+		public WorkersReloader(long cycle) {
+			this.setDaemon(true);
+			this.cycle = cycle;
+		}
+
+		@Override
+		public void run() {
+			while (isRunning) {
+				try {
+					workers.reloadIfModified();
+				} catch (IOException ex) {
+					System.out.println("Cannot reload the workers: " + ex.getMessage());
+				}
+
+				try {
+					Thread.sleep(cycle * 1000);
+				} catch (InterruptedException ignorable) {
+				}
+			}
+		}
 	}
 
 	/**
 	 * This class represents a session for a single client.
 	 * Each time a new client is encountered, a new instance
 	 * of this class is created and stored in the {@link #sessions}
-	 * map, where the server holds all active sessions.
+	 * store, where the server holds all active sessions.
 	 *
 	 * @author Luka Čupić
 	 */
-	private static class SessionMapEntry {
+	static class SessionMapEntry {
 
 		/**
 		 * The session identifier.
@@ -310,35 +1171,22 @@ public class SmartHttpServer {
 		long validUntil;
 
 		/**
-		 * A map for storing the client's data.
+		 * A map for storing the client's data. It counts its modifications,
+		 * which lets the persistent session stores save only the modified
+		 * sessions.
 		 */
-		Map<String, String> map;
+		SessionParameters map = new SessionParameters();
 
 		/**
 		 * Creates a new session entry.
 		 *
-		 * @param sessionTimeout the maximum duration of client sessions,
-		 *                       in seconds.
+		 * @param SID        the session identifier
+		 * @param validUntil the time (in seconds) until the session
+		 *                   will be valid
 		 */
-		public SessionMapEntry(int sessionTimeout) {
-			SID = generateRandomSID();
-			validUntil = System.currentTimeMillis() / 1000 + sessionTimeout;
-			map = new ConcurrentHashMap<>();
-		}
-
-		/**
-		 * Generates a unique session identifier consisting of 20
-		 * uppercase letters of the english alphabet.
-		 *
-		 * @return a unique session identifier consisting of 20
-		 * uppercase letters of the english alphabet
-		 */
-		private String generateRandomSID() {
-			String sid = "";
-			for (int i = 0; i < 20; i++) {
-				sid += (char) (Math.abs(sessionRandom.nextInt()) % 26 + 65);
-			}
-			return sid;
+		public SessionMapEntry(String SID, long validUntil) {
+			this.SID = SID;
+			this.validUntil = validUntil;
 		}
 	}
 
@@ -352,6 +1200,9 @@ public class SmartHttpServer {
 		try {
 			SmartHttpServer server = new SmartHttpServer("./config/server.properties");
 			server.start();
+
+			// the persistent session stores save their sessions on shutdown
+			Runtime.getRuntime().addShutdownHook(new Thread(server::stop));
 		} catch (Exception e) {
 			System.out.println("Fatal Server Error: Shutting down!");
 		}
@@ -362,6 +1213,13 @@ public class SmartHttpServer {
 	 * connected to the server. Each worker is added to a server's
 	 * thread pool which assigns new jobs (i.e. new clients) to each
 	 * of the workers.
+	 * <p>
+	 * The connection to the client is persistent: the worker serves
+	 * requests one after another (including pipelined requests, which
+	 * are answered in the order they were received) until the client
+	 * closes the connection, asks for it to be closed, stays idle for
+	 * longer than the keep-alive timeout or reaches the maximum number
+	 * of requests per connection.
 	 *
 	 * @author Luka Čupić
 	 */
@@ -372,123 +1230,561 @@ public class SmartHttpServer {
 		 * If the mime-type is not specified, a response to the client
 		 * will simply be a stream of bytes.
 		 */
-		private static final String DEFAULT_MIMETYPE = "application/octet-stream";
+		private static final String DEFAULT_MIMETYPE = "application/octet-stream";
+
+		/**
+		 * The client socket, used for communication with the client.
+		 */
+		private Socket csocket;
+
+		/**
+		 * The reader used for receiving the request headers from the client.
+		 */
+		private RequestHeaderReader reader;
+
+		/**
+		 * The output stream used to sending the data to the client.
+		 */
+		private OutputStream ostream;
+
+		/**
+		 * The HTML version used by this client worker.
+		 */
+		private String version;
+
+		/**
+		 * The method used by this client worker.
+		 */
+		private String method;
+
+		/**
+		 * A map holding the parameters.
+		 */
+		private Map<String, String> params = new HashMap<>();
+
+		/**
+		 * A map holding the permanent parameters.
+		 */
+		private Map<String, String> permParams = new HashMap<>();
+
+		/**
+		 * The session of the current request.
+		 */
+		private SessionMapEntry session;
+
+		/**
+		 * A map holding the temporary parameters.
+		 */
+		private Map<String, String> tempParams = new HashMap<>();
+
+		/**
+		 * Represents the cookies of this client worker's context.
+		 */
+		private List<RequestContext.RCCookie> outputCookies = new ArrayList<>();
+
+		/**
+		 * Represents the context used for client response.
+		 */
+		private RequestContext context = null;
+
+		/**
+		 * Represents the ID of the current client session.
+		 */
+		private String SID;
+
+		/**
+		 * A flag which tells whether the connection should be kept open
+		 * after the current request has been served.
+		 */
+		private boolean keepAlive;
+
+		/**
+		 * A flag which tells whether the response to the current request
+		 * has been sent through {@link #sendError(int, String)}.
+		 */
+		private boolean errorSent;
+
+		/**
+		 * Holds the number of requests served over this connection.
+		 */
+		private int servedRequests;
+
+		/**
+		 * Represents the header of the current request.
+		 */
+		private RequestHeader request;
+
+		/**
+		 * Represents the part of a static file which is to be transferred
+		 * to the client after the response header, or null if there is none.
+		 */
+		private FileRegion fileRegion;
+
+		/**
+		 * The address of the client.
+		 */
+		private InetAddress address;
+
+		/**
+		 * The route which served the current request; one of "static",
+		 * "script", "worker" or "error".
+		 */
+		private String route;
+
+		/**
+		 * The path of the worker which served the current request, or null
+		 * if the request was not served by a worker.
+		 */
+		private String workerPath;
+
+		/**
+		 * The status code of the error response sent by {@link #sendError}.
+		 */
+		private int errorStatus;
+
+		/**
+		 * The time (as given by {@link System#nanoTime()}) at which the
+		 * pending write to the socket has started, or zero if there is no
+		 * pending write.
+		 */
+		private volatile long writeStarted;
+
+		/**
+		 * The time (as given by {@link System#nanoTime()}) at which the
+		 * current request runs past its deadline.
+		 */
+		private long deadline;
+
+		/**
+		 * The thread which serves the current request, or null if there is
+		 * no request with a deadline being served.
+		 */
+		private Thread requestThread;
+
+		/**
+		 * A flag which tells whether the current request has been
+		 * interrupted because it ran past its deadline.
+		 */
+		private boolean timedOut;
+
+		/**
+		 * Creates a new client worker.
+		 *
+		 * @param csocket the socket used for communication with the client.
+		 */
+		public ClientWorker(Socket csocket) {
+			this.csocket = csocket;
+			this.address = csocket.getInetAddress();
+		}
 
 		/**
-		 * Represents a package for the server workers.
+		 * Creates a new client worker which is not bound to a socket,
+		 * but generates the responses to the given output stream. Such
+		 * a worker is used by the {@link NioServerThread}, which reads
+		 * the requests and writes the responses by itself.
+		 *
+		 * @param ostream the stream to which the responses are generated
+		 * @param address the address of the client
 		 */
-		private static final String WORKERS_FQCN = "hr.fer.zemris.java.webserver.workers.";
+		ClientWorker(OutputStream ostream, InetAddress address) {
+			this.ostream = ostream;
+			this.address = address;
+		}
 
 		/**
-		 * The client socket, used for communication with the client.
+		 * Returns the part of a static file which has to be transferred to
+		 * the client after the generated response, and clears it from this
+		 * worker. Used by the {@link NioServerThread}, which transfers the
+		 * file by itself.
+		 *
+		 * @return the file region, or null if there is none
 		 */
-		private Socket csocket;
+		FileRegion takeFileRegion() {
+			FileRegion region = fileRegion;
+			fileRegion = null;
+			return region;
+		}
 
 		/**
-		 * The input stream used to receiving the data from the client.
+		 * Serves a single request whose header has already been read.
+		 *
+		 * @param request the header received from the client
+		 * @return true if the connection should be kept open after the
+		 * response; false otherwise
+		 * @throws Exception if an error occurs while performing the request
 		 */
-		private PushbackInputStream istream;
+		boolean serve(RequestHeader request) throws Exception {
+			try {
+				performRequest(request);
+			} finally {
+				ostream.flush();
+			}
+			return keepAlive;
+		}
+
+		@Override
+		public void run() {
+			watchedWorkers.add(this);
+			try {
+				csocket.setSoTimeout(keepAliveTimeout * 1000);
+				reader = new RequestHeaderReader(csocket.getInputStream(), maxHeaderSize, readTimeout * 1000L);
+				ostream = new BufferedOutputStream(new TimedOutputStream(csocket.getOutputStream()));
+
+				do {
+					RequestHeader request = reader.readHeader();
+					if (request == null) break;
+
+					performRequest(request);
+					transferFileRegion();
+					ostream.flush();
+				} while (keepAlive);
+			} catch (SocketTimeoutException ignorable) {
+				// the connection has been idle for too long
+			} catch (HeaderTooLargeException ex) {
+				try {
+					ostream.write(HEADER_TOO_LARGE_RESPONSE);
+				} catch (IOException ignorable) {
+				}
+			} catch (Exception ex) {
+				logFailure(ex);
+			}
+
+			try {
+				if (fileRegion != null) {
+					fileRegion.channel.close();
+				}
+				ostream.flush();
+				ostream.close();
+				csocket.close();
+			} catch (Exception ignorable) {
+			}
+			watchedWorkers.remove(this);
+			metrics.connectionClosed();
+		}
 
 		/**
-		 * The output stream used to sending the data to the client.
+		 * Checks the timeouts of this worker. A socket whose pending write
+		 * has been blocked for longer than the write timeout is closed, which
+		 * fails the write. The thread serving a request which has run past
+		 * its deadline is interrupted.
+		 *
+		 * @param now the current time, as given by {@link System#nanoTime()}
 		 */
-		private OutputStream ostream;
+		void checkTimeouts(long now) {
+			long started = writeStarted;
+			if (started != 0 && writeTimeout > 0 && now - started > writeTimeout * 1_000_000_000L) {
+				try {
+					csocket.close();
+				} catch (IOException ignorable) {
+				}
+			}
+
+			synchronized (this) {
+				if (requestThread != null && now - deadline > 0) {
+					timedOut = true;
+					requestThread.interrupt();
+					requestThread = null;
+				}
+			}
+		}
 
 		/**
-		 * The HTML version used by this client worker.
+		 * Starts the deadline of the current request, after which the
+		 * thread serving the request is interrupted.
 		 */
-		private String version;
+		private void startDeadline() {
+			if (requestTimeout <= 0) return;
+
+			synchronized (this) {
+				timedOut = false;
+				deadline = System.nanoTime() + requestTimeout * 1_000_000_000L;
+				requestThread = Thread.currentThread();
+			}
+			if (csocket == null) {
+				watchedWorkers.add(this);
+			}
+		}
 
 		/**
-		 * The method used by this client worker.
+		 * Ends the deadline of the current request. Once this method returns,
+		 * the current thread will not be interrupted by the deadline, and its
+		 * interrupted status is cleared if the deadline has expired.
+		 *
+		 * @return true if the deadline has expired; false otherwise
 		 */
-		private String method;
+		private boolean endDeadline() {
+			if (requestTimeout <= 0) return false;
+
+			boolean expired;
+			synchronized (this) {
+				requestThread = null;
+				expired = timedOut;
+				timedOut = false;
+			}
+			if (csocket == null) {
+				watchedWorkers.remove(this);
+			}
+			if (expired) {
+				Thread.interrupted();
+			}
+			return expired;
+		}
 
 		/**
-		 * A map holding the parameters.
+		 * Answers the current request, which has run past its deadline, with
+		 * 503 (Service Unavailable) and closes the connection afterwards.
+		 *
+		 * @throws IOException if a part of the response has already been sent,
+		 *                     so the error cannot be sent anymore
 		 */
-		private Map<String, String> params = new HashMap<>();
+		private void sendTimeout() throws IOException {
+			metrics.requestTimedOut();
+			keepAlive = false;
+
+			if (context != null && context.isCommitted()) {
+				throw new IOException("The request has run past its deadline!");
+			}
+			ostream.write(serviceUnavailableResponse);
+			errorSent = true;
+			errorStatus = 503;
+		}
 
 		/**
-		 * A map holding the permanent parameters.
+		 * This class represents the output stream of the socket, which marks
+		 * the start of each write for the write timeout.
+		 *
+		 * @author Luka Čupić
 		 */
-		private Map<String, String> permParams = new HashMap<>();
+		private class TimedOutputStream extends FilterOutputStream {
+
+			/**
+			 * Creates a new stream.
+			 *
+			 * @param out the output stream of the socket
+			 */
+			TimedOutputStream(OutputStream out) {
+				super(out);
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				writeStarted = System.nanoTime();
+				try {
+					out.write(b, off, len);
+				} finally {
+					writeStarted = 0;
+				}
+			}
+		}
 
 		/**
-		 * A map holding the temporary parameters.
+		 * Records a request which failed with the given exception, both in
+		 * the metrics and in the access log.
+		 *
+		 * @param ex the exception
 		 */
-		private Map<String, String> tempParams = new HashMap<>();
+		void logFailure(Exception ex) {
+			// the request has already been answered with an error and recorded
+			if (errorSent) return;
+
+			metrics.requestFailed();
+			accessLog.error(address == null ? null : address.getHostAddress(),
+				request == null ? null : request.getMethod(),
+				request == null ? null : request.getPath(), ex
+			);
+		}
 
 		/**
-		 * Represents the cookies of this client worker's context.
+		 * Performs the request that was requested by the client.
+		 *
+		 * @param request the header received from the client
+		 * @throws Exception if an error occurs while performing
+		 *                   the request
 		 */
-		private List<RequestContext.RCCookie> outputCookies = new ArrayList<>();
+		private void performRequest(RequestHeader request) throws Exception {
+			resetRequestState();
+			this.request = request;
+
+			long start = System.nanoTime();
+			boolean completed = false;
+			try {
+				serveRequest(request);
+				completed = true;
+			} finally {
+				recordRequest(System.nanoTime() - start, completed);
+			}
+		}
 
 		/**
-		 * Represents the context used for client response.
+		 * Records the served request in the metrics and, if it is sampled,
+		 * in the access log.
+		 *
+		 * @param duration  the time it took to serve the request, in nanoseconds
+		 * @param completed true if the request has been served; false if it
+		 *                  failed with an exception
 		 */
-		private RequestContext context = null;
+		private void recordRequest(long duration, boolean completed) {
+			int status;
+			if (errorSent) {
+				status = errorStatus;
+			} else if (!completed) {
+				status = 500;
+			} else {
+				status = context != null ? context.getStatusCode() : 200;
+			}
+
+			metrics.record(route, workerPath, status, duration);
+			if (accessLog.isSampled()) {
+				accessLog.log(address == null ? null : address.getHostAddress(),
+					request.getMethod(), request.getPath(), status, route, duration
+				);
+			}
+		}
 
 		/**
-		 * Represents the ID of the current client session.
+		 * Sets the route which serves the current request. A request which
+		 * is dispatched further (e.g. from a worker to a script) is recorded
+		 * under the route which received it.
+		 *
+		 * @param route      the route
+		 * @param workerPath the path of the worker, or null if the route is
+		 *                   not "worker"
 		 */
-		private String SID;
+		private void setRoute(String route, String workerPath) {
+			if (!this.route.equals("error")) return;
+
+			this.route = route;
+			this.workerPath = workerPath;
+		}
 
 		/**
-		 * Creates a new client worker.
+		 * Serves the request whose state has already been reset.
 		 *
-		 * @param csocket the socket used for communication with the client.
+		 * @param request the header received from the client
+		 * @throws Exception if an error occurs while performing
+		 *                   the request
 		 */
-		public ClientWorker(Socket csocket) {
-			this.csocket = csocket;
-		}
+		private void serveRequest(RequestHeader request) throws Exception {
+			checkSession(request);
 
-		@Override
-		public void run() {
-			System.out.println("Processing request...");
+			String requestedPath = parseHeader(request);
+			keepAlive = ++servedRequests < keepAliveMaxRequests && isPersistent(request);
 
-			try {
-				istream = new PushbackInputStream(csocket.getInputStream());
-				ostream = csocket.getOutputStream();
+			int query = requestedPath.indexOf('?');
+			String urlPath = query == -1 ? requestedPath : requestedPath.substring(0, query);
 
-				performRequest();
-			} catch (Exception ex) {
-				throw new RuntimeException("Error while performing the request!");
+			if (query != -1) {
+				String paramString = requestedPath.substring(query + 1);
+				parseParameters(paramString, params);
 			}
 
+			startDeadline();
 			try {
-				istream.close();
-				ostream.flush();
-				ostream.close();
-				csocket.close();
-			} catch (Exception ignorable) {
+				internalDispatchRequest(urlPath, true);
+			} catch (Exception ex) {
+				if (!endDeadline()) throw ex;
+				sendTimeout();
+			} finally {
+				endDeadline();
+				sessions.update(session);
 			}
 
-			System.out.println("Completed!");
+			if (!errorSent) {
+				context.finish();
+			}
 		}
 
 		/**
-		 * Performs the request that was requested by the client.
+		 * Transfers the pending file region (if any) directly to the socket
+		 * channel of the client. If the socket has no channel, the file is
+		 * copied through the output stream instead.
 		 *
-		 * @throws Exception if an error occurs while performing
-		 *                   the request
+		 * @throws IOException if an error occurs while transferring the file
 		 */
-		private void performRequest() throws Exception {
-			List<String> request = readRequest();
+		private void transferFileRegion() throws IOException {
+			FileRegion region = takeFileRegion();
+			if (region == null) return;
 
-			checkSession(request);
+			try {
+				ostream.flush();
 
-			String requestedPath = parseHeader(request);
+				SocketChannel target = csocket.getChannel();
+				if (target == null) {
+					region.transferTo(Channels.newChannel(ostream));
+				} else if (writeTimeout <= 0) {
+					region.transferTo(target);
+				} else {
+					transferWithTimeout(region, target);
+				}
+			} finally {
+				region.channel.close();
+			}
+		}
+
+		/**
+		 * Transfers the given file region to the given socket channel, failing
+		 * if the client does not accept any part of it within the write timeout.
+		 * A blocked transfer cannot be woken up by closing the socket, so the
+		 * channel is switched to the non-blocking mode for the transfer.
+		 *
+		 * @param region the file region
+		 * @param target the socket channel of the client
+		 * @throws SocketTimeoutException if the write timeout expires
+		 * @throws IOException            if an error occurs while transferring the file
+		 */
+		private void transferWithTimeout(FileRegion region, SocketChannel target) throws IOException {
+			target.configureBlocking(false);
+			try (Selector selector = Selector.open()) {
+				target.register(selector, SelectionKey.OP_WRITE);
 
-			String[] pathParts = requestedPath.split("[?]");
-			Path path = Paths.get(pathParts[0]);
+				while (true) {
+					region.transferTo(target);
+					if (region.remaining == 0) return;
 
-			if (pathParts.length == 2) {
-				String paramString = pathParts[1];
-				parseParameters(paramString);
+					if (selector.select(writeTimeout * 1000L) == 0) {
+						throw new SocketTimeoutException("The client has not accepted the response in time!");
+					}
+					selector.selectedKeys().clear();
+				}
+			} finally {
+				// the selector has been closed, so the channel is no longer registered
+				target.configureBlocking(true);
 			}
+		}
+
+		/**
+		 * Resets the state of this worker which belongs to a single
+		 * request, so that the next request received over the same
+		 * connection starts with empty parameters, cookies and context.
+		 */
+		private void resetRequestState() {
+			params = new HashMap<>();
+			tempParams = new HashMap<>();
+			outputCookies = new ArrayList<>();
+			context = null;
+			keepAlive = false;
+			errorSent = false;
+			route = "error";
+			workerPath = null;
+		}
+
+		/**
+		 * Checks whether the client wishes to keep the connection open
+		 * after the current request. HTTP/1.1 connections are persistent
+		 * unless the client sends "Connection: close", while HTTP/1.0
+		 * connections are persistent only if "Connection: keep-alive" is
+		 * sent.
+		 *
+		 * @param request the header received from the client
+		 * @return true if the connection should be kept open; false otherwise
+		 */
+		private boolean isPersistent(RequestHeader request) {
+			String connection = request.getField("Connection");
 
-			internalDispatchRequest(path.toString(), true);
+			if ("HTTP/1.1".equals(version)) {
+				return !"close".equalsIgnoreCase(connection);
+			}
+			return "keep-alive".equalsIgnoreCase(connection);
 		}
 
 		/**
@@ -497,50 +1793,33 @@ public class SmartHttpServer {
 		 * as an existing SID or if the session has expired. In these
 		 * cases, a new session will be created for the client.
 		 *
-		 * @param request the header lines received from the client
+		 * @param request the header received from the client
 		 */
-		private synchronized void checkSession(List<String> request) {
+		private void checkSession(RequestHeader request) {
 			String sidCandidate = getSIDCandidate(request);
 
-			SessionMapEntry session = null;
-
-			boolean createNewSession = true;
-			if (sidCandidate != null) {
-				session = sessions.get(sidCandidate);
-
-				if (session != null) {
-					if (isExpired(session)) {
-						sessions.remove(sidCandidate);
-					} else {
-						createNewSession = false;
-					}
-				}
-			}
-
-			if (createNewSession) {
+			session = sidCandidate != null ? sessions.get(sidCandidate) : null;
+			if (session == null) {
 				session = createNewSession(request);
 			}
-
-			session.validUntil = System.currentTimeMillis() / 1000 + sessionTimeout;
 			permParams = session.map;
 		}
 
 		/**
 		 * Creates a new session for the current client.
 		 *
-		 * @param request the header lines received from the client
+		 * @param request the header received from the client
 		 * @return a new {@link SessionMapEntry} object, representing
 		 * the currently active session
 		 */
-		private SessionMapEntry createNewSession(List<String> request) {
-			SessionMapEntry session = new SessionMapEntry(sessionTimeout);
-			sessions.put(session.SID, session);
+		private SessionMapEntry createNewSession(RequestHeader request) {
+			SessionMapEntry session = sessions.create();
 
 			String domain = SmartHttpServer.this.address;
-			for (String p : request) {
-				if (p.startsWith("Host:")) {
-					domain = p.split(":")[1].trim();
-				}
+			String host = request.getField("Host");
+			if (host != null) {
+				int colon = host.indexOf(':');
+				domain = colon == -1 ? host : host.substring(0, colon);
 			}
 			outputCookies.add(new RequestContext.RCCookie(
 				"sid", session.SID, null,
@@ -553,22 +1832,24 @@ public class SmartHttpServer {
 		 * Gets the SID candidate, extracted from the header received
 		 * by the client.
 		 *
-		 * @param request the header lines received from the client
+		 * @param request the header received from the client
 		 * @return the SID candidate, extracted from the header received
 		 * by the client, or null if no SID candidate was found
 		 */
-		private String getSIDCandidate(List<String> request) {
+		private String getSIDCandidate(RequestHeader request) {
+			String cookies = request.getField("Cookie");
+			if (cookies == null) return null;
+
 			String sidCandidate = null;
-			for (String p : request) {
-				if (!p.startsWith("Cookie:")) continue;
-				String[] cookies = p.substring(7).trim().split(";");
-
-				for (String cookie : cookies) {
-					cookie = cookie.trim();
-					String[] parts = cookie.split("=");
-					if (!"sid".equals(parts[0])) continue;
-					sidCandidate = parts[1].replace("\"", "");
-				}
+			for (int start = 0, end; start < cookies.length(); start = end + 1) {
+				end = cookies.indexOf(';', start);
+				if (end == -1) end = cookies.length();
+
+				int equals = cookies.indexOf('=', start);
+				if (equals == -1 || equals > end) continue;
+				if (!"sid".equals(cookies.substring(start, equals).trim())) continue;
+
+				sidCandidate = cookies.substring(equals + 1, end).trim().replace("\"", "");
 			}
 			return sidCandidate;
 		}
@@ -577,13 +1858,11 @@ public class SmartHttpServer {
 		 * Sends the response for the determined request back to
 		 * the client.
 		 *
+		 * @param path the path to the requested file
 		 * @throws IOException if an error occurs while processing
 		 *                     the client's request
 		 */
-
 		private void sendResponse(Path path) throws IOException {
-			byte[] contents = Files.readAllBytes(path);
-
 			String extension = getExtension(path);
 
 			String mimeType = mimeTypes.get(extension);
@@ -591,64 +1870,237 @@ public class SmartHttpServer {
 			context.setStatusCode(200);
 
 			if ("smscr".equals(extension)) {
-				String script = new String(contents, StandardCharsets.UTF_8);
+				setRoute("script", null);
+				long lastModified = Files.getLastModifiedTime(path).toMillis();
 				context.setMimeType("text/plain");
-				executeScript(script, context);
+				executeScript(scriptCache.get(path, lastModified), context);
 			} else {
+				setRoute("static", null);
 				context.setMimeType(mimeType);
-				context.write(contents);
+				sendStaticFile(path);
+			}
+		}
+
+		/**
+		 * Sends the static file specified by the given path to the client.
+		 * Small files are served from the {@link #fileCache}, while larger
+		 * files are transferred directly from the file channel to the socket.
+		 * The response is conditional (through the ETag and Last-Modified
+		 * validators) and supports single byte ranges. Small textual files
+		 * are sent compressed to the clients which accept compression, unless
+		 * a range is requested; their compressed variants are cached as well.
+		 *
+		 * @param path the path to the file
+		 * @throws IOException if an error occurs while sending the file
+		 */
+		private void sendStaticFile(Path path) throws IOException {
+			BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+			long length = attributes.size();
+			long lastModified = attributes.lastModifiedTime().toMillis();
+			String etag = "\"" + Long.toHexString(length) + "-" + Long.toHexString(lastModified) + "\"";
+
+			byte[] compressed = null;
+			String encoding = null;
+			if (compression && Compression.isCompressible(mimeTypes.get(getExtension(path)))) {
+				context.addHeader("Vary", "Accept-Encoding");
+
+				encoding = acceptedEncoding();
+				if (encoding != null && request.getField("Range") == null && fileCache.accepts(length)) {
+					compressed = fileCache.getCompressed(path, lastModified, length, encoding);
+				}
+			}
+
+			if (compressed != null) {
+				// each representation of the file needs its own entity tag
+				etag = etag.substring(0, etag.length() - 1) + "-" + encoding + "\"";
+				context.addHeader("Content-Encoding", encoding);
+			}
+
+			context.addHeader("Accept-Ranges", "bytes");
+			context.addHeader("ETag", etag);
+			context.addHeader("Last-Modified", DateTimeFormatter.RFC_1123_DATE_TIME.format(
+				ZonedDateTime.ofInstant(Instant.ofEpochMilli(lastModified), ZoneOffset.UTC)
+			));
+
+			if (isNotModified(etag, lastModified)) {
+				context.setStatusCode(304);
+				context.setStatusText("Not Modified");
+				return;
+			}
+
+			if (compressed != null) {
+				context.setContentLength(compressed.length);
+				context.write(compressed);
+				return;
+			}
+
+			long start = 0;
+			long count = length;
+
+			long[] range = getRange(etag, length);
+			if (range != null) {
+				if (range[0] >= length) {
+					context.setStatusCode(416);
+					context.setStatusText("Range Not Satisfiable");
+					context.addHeader("Content-Range", "bytes */" + length);
+					return;
+				}
+				start = range[0];
+				count = range[1] - range[0] + 1;
+
+				context.setStatusCode(206);
+				context.setStatusText("Partial Content");
+				context.addHeader("Content-Range", "bytes " + range[0] + "-" + range[1] + "/" + length);
+			}
+			context.setContentLength(count);
+
+			if (fileCache.accepts(length)) {
+				byte[] contents = fileCache.get(path, lastModified, length);
+				if (contents.length != length) {
+					// the file has changed since its attributes were read, so
+					// the body would not match the headers which are not sent yet
+					sendError(503, "Service Unavailable.");
+					return;
+				}
+				context.write(contents, (int) start, (int) count);
+				return;
+			}
+
+			FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+			try {
+				context.finish();
+			} catch (IOException | RuntimeException ex) {
+				channel.close();
+				throw ex;
+			}
+			fileRegion = new FileRegion(channel, start, count);
+		}
+
+		/**
+		 * Chooses the content coding of the response from the Accept-Encoding
+		 * header of the current request.
+		 *
+		 * @return either "gzip", "deflate", or null if the client does not
+		 * accept compression
+		 */
+		private String acceptedEncoding() {
+			return Compression.negotiate(request.getField("Accept-Encoding"));
+		}
+
+
+		/**
+		 * Checks whether the client already has the current version of the
+		 * requested file, as specified by the If-None-Match header or (if the
+		 * former is not present) the If-Modified-Since header.
+		 *
+		 * @param etag         the entity tag of the file
+		 * @param lastModified the last-modified time of the file, in milliseconds
+		 * @return true if the file has not been modified; false otherwise
+		 */
+		private boolean isNotModified(String etag, long lastModified) {
+			String ifNoneMatch = request.getField("If-None-Match");
+			if (ifNoneMatch != null) {
+				return ifNoneMatch.trim().equals("*") || ifNoneMatch.contains(etag);
+			}
+
+			String ifModifiedSince = request.getField("If-Modified-Since");
+			if (ifModifiedSince == null) return false;
+
+			try {
+				ZonedDateTime since = ZonedDateTime.parse(ifModifiedSince, DateTimeFormatter.RFC_1123_DATE_TIME);
+				return lastModified / 1000 <= since.toEpochSecond();
+			} catch (DateTimeParseException ex) {
+				return false;
+			}
+		}
+
+		/**
+		 * Gets the byte range requested through the Range header. Only a single
+		 * range is supported; for multiple ranges, malformed ranges or a stale
+		 * If-Range validator, the whole file is sent.
+		 *
+		 * @param etag   the entity tag of the file
+		 * @param length the size of the file, in bytes
+		 * @return an array holding the first and the last (inclusive) byte
+		 * position of the range, or null if the whole file should be sent
+		 */
+		private long[] getRange(String etag, long length) {
+			String range = request.getField("Range");
+			if (range == null || !range.startsWith("bytes=") || range.indexOf(',') != -1) return null;
+
+			String ifRange = request.getField("If-Range");
+			if (ifRange != null && !ifRange.equals(etag)) return null;
+
+			int dash = range.indexOf('-');
+			if (dash == -1) return null;
+
+			try {
+				String first = range.substring(6, dash).trim();
+				String last = range.substring(dash + 1).trim();
+
+				if (first.isEmpty()) {
+					long suffix = Long.parseLong(last);
+					if (suffix == 0) return new long[]{length, length};
+					return new long[]{Math.max(0, length - suffix), length - 1};
+				}
+
+				long start = Long.parseLong(first);
+				if (start >= length) return new long[]{start, start};
+
+				long end = last.isEmpty() ? length - 1 : Long.parseLong(last);
+				if (end < start) return null;
+
+				return new long[]{start, Math.min(end, length - 1)};
+			} catch (NumberFormatException ex) {
+				return null;
 			}
 		}
 
 		/**
-		 * Parses the given list of strings, representing the the lines of
-		 * the header.
+		 * Validates the request line of the given header.
 		 *
-		 * @param request the header lines received from the client
+		 * @param request the header received from the client
 		 * @return a string, representing the path extracted from the URL
 		 * client request
 		 * @throws IOException if the received header is invalid
 		 */
-		private String parseHeader(List<String> request) throws IOException {
-			if (request == null || request.size() < 1) {
-				sendError(400, "Bad request.");
-				throw new IOException();
-			}
-
-			String[] firstLine = request.isEmpty() ? null : request.get(0).split(" ");
-			if (firstLine == null || firstLine.length != 3) {
+		private String parseHeader(RequestHeader request) throws IOException {
+			if (request.getMethod() == null || !request.getPath().startsWith("/")) {
 				sendError(400, "Bad request.");
 				throw new IOException();
 			}
 
-			String method = firstLine[0].toUpperCase();
+			String method = request.getMethod().toUpperCase();
 			if (!method.equals("GET")) {
 				sendError(400, "Method Not Allowed.");
 				throw new IOException();
 			}
 			this.method = method;
 
-			String version = firstLine[2].toUpperCase();
+			String version = request.getVersion().toUpperCase();
 			if (!version.equals("HTTP/1.0") && !version.equals("HTTP/1.1")) {
 				sendError(400, "HTTP Version Not Supported.");
 				throw new IOException();
 			}
 			this.version = version;
 
-			return firstLine[1].substring(1);
+			return request.getPath().substring(1);
 		}
 
 		/**
-		 * Executes the specified script using the {@link SmartScriptEngine}.
+		 * Executes the specified script, either in its compiled form or
+		 * using the {@link SmartScriptEngine}.
 		 *
 		 * @param script the script to execute
 		 * @param rc     the request context to use for response to the client
 		 */
-		private void executeScript(String script, RequestContext rc) {
-			SmartScriptParser parser = new SmartScriptParser(script);
-			DocumentNode node = parser.getDocumentNode();
+		private void executeScript(CompiledScript script, RequestContext rc) {
+			if (compileScripts) {
+				script.execute(rc);
+				return;
+			}
 
-			SmartScriptEngine engine = new SmartScriptEngine(node, rc);
+			SmartScriptEngine engine = new SmartScriptEngine(script.getDocumentNode(), rc);
 			engine.execute();
 		}
 
@@ -665,71 +2117,6 @@ public class SmartHttpServer {
 			return file.substring(file.lastIndexOf(".") + 1);
 		}
 
-		/**
-		 * Extracts the parameters contained in the given string
-		 * and stores them int the {@link #params} map, by mapping
-		 * the parameter's name to it's value.
-		 *
-		 * @param paramString the string to extract the parameters from
-		 */
-		private void parseParameters(String paramString) {
-			String[] pairs = paramString.split("[&]");
-
-			for (String pair : pairs) {
-				String[] parts = pair.split("[=]");
-				if (parts.length != 2) continue;
-				params.put(parts[0], parts[1]);
-			}
-		}
-
-		/**
-		 * Reads the request received from the client and returns
-		 * the request as a list of strings.
-		 *
-		 * @return a list, representing the client's request
-		 * @throws IOException if an error occurs while reading
-		 *                     the client request
-		 */
-		private List<String> readRequest() throws IOException {
-			ByteArrayOutputStream bos = new ByteArrayOutputStream();
-
-			int state = 0;
-			while (true) {
-				int b = istream.read();
-				if (b == -1) return null;
-				if (b != 13) bos.write(b);
-
-				if (state == 0) {
-					if (b == 13) state = 1;
-					else if (b == 10) state = 4;
-
-				} else if (state == 1) {
-					if (b == 10) state = 2;
-					else state = 0;
-
-				} else if (state == 2) {
-					if (b == 13) state = 3;
-					else state = 0;
-
-				} else if (state == 3) {
-					if (b == 10) break;
-					else state = 0;
-
-				} else if (state == 4) {
-					if (b == 10) break;
-					else state = 0;
-				}
-			}
-			bos.flush();
-
-			String charset = StandardCharsets.US_ASCII.name();
-			String header = bos.toString(charset);
-
-			bos.close();
-
-			return Arrays.asList(header.split("\\r?\\n"));
-		}
-
 		/**
 		 * Sends the error back to the client, signalizing that something
 		 * went wrong with the client-server communication.
@@ -744,9 +2131,13 @@ public class SmartHttpServer {
 			sb.append("HTTP/1.1 " + statusCode + " " + statusText + "\r\n");
 			sb.append("Server: simple java server\r\n");
 			sb.append("Content-Type: text/plain;charset=UTF-8\r\n");
-			sb.append("Connection: close\r\n");
+			sb.append("Content-Length: 0\r\n");
+			sb.append("Connection: " + (keepAlive ? "keep-alive" : "close") + "\r\n");
+			sb.append("\r\n");
 
 			ostream.write(sb.toString().getBytes(StandardCharsets.US_ASCII));
+			errorSent = true;
+			errorStatus = statusCode;
 		}
 
 		@Override
@@ -772,8 +2163,6 @@ public class SmartHttpServer {
 		 * @throws Exception if an error occurs while performing the request
 		 */
 		private void internalDispatchRequest(String urlPath, boolean directCall) throws Exception {
-			Path path = Paths.get(urlPath);
-
             /*
 			if (path.startsWith("private/") && directCall) {
                 sendError(404, "Forbidden.");
@@ -785,19 +2174,25 @@ public class SmartHttpServer {
 				context = new RequestContext(ostream, params, permParams,
 					outputCookies, tempParams, this
 				);
+				context.setBuffered(true);
+				context.setRequestHeader(request);
+				context.setChunkingThreshold("HTTP/1.1".equals(version) ? chunkingThreshold : 0);
+				if (compression) {
+					context.setCompression(acceptedEncoding(), compressionThreshold);
+				}
+				context.addHeader("Connection", keepAlive ? "keep-alive" : "close");
 			}
 
-			IWebWorker worker = workersMap.get(path.toString());
-			if (worker == null) {
-				if (path.startsWith("ext/")) {
-					String fqcn = WORKERS_FQCN + path.toString().substring(4);
-
-					Class<?> referenceToClass = this.getClass().getClassLoader().loadClass(fqcn);
-					Object newObject = referenceToClass.newInstance();
-					worker = (IWebWorker) newObject;
-				}
+			// the paths of the workers are already normalized, so the path
+			// is only normalized if it does not match a worker as it is
+			IWebWorker worker = workers.get(urlPath);
+			Path path = worker == null ? Paths.get(urlPath) : null;
+			if (worker == null && !path.toString().equals(urlPath)) {
+				urlPath = path.toString();
+				worker = workers.get(urlPath);
 			}
 			if (worker != null) {
+				setRoute("worker", urlPath);
 				worker.processRequest(context);
 				return;
 			}
@@ -814,7 +2209,17 @@ public class SmartHttpServer {
 				sendError(404, "Not found.");
 				return;
 			}
-			sendResponse(path);
+			if (responseLimiter == null) {
+				sendResponse(path);
+				return;
+			}
+
+			responseLimiter.acquire();
+			try {
+				sendResponse(path);
+			} finally {
+				responseLimiter.release();
+			}
 		}
 	}
 }
\ No newline at end of file
@@ -0,0 +1,214 @@
+package hr.fer.zemris.java.webserver;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * This class represents an in-memory cache for the contents of small,
+ * frequently requested static files. Each entry is keyed by the path of
+ * the file and is valid only as long as the file's last-modified time and
+ * size do not change. The total size of the cached contents is bounded by
+ * a byte budget; once the budget is exceeded, the least recently used
+ * entries are evicted.
+ * <p>
+ * Besides the original contents, an entry can also hold the compressed
+ * variants of the file (one for each content coding), which are created
+ * once, on the first request which accepts them, and count against the
+ * same byte budget.
+ *
+ * @author Luka Čupić
+ */
+public class StaticFileCache {
+
+    /**
+     * The maximum total size of the cached contents, in bytes.
+     */
+    private long capacity;
+
+    /**
+     * The maximum size of a single file which can be cached, in bytes.
+     */
+    private long maxFileSize;
+
+    /**
+     * The current total size of the cached contents, in bytes.
+     */
+    private long size;
+
+    /**
+     * The cached entries, ordered from the least to the most recently used.
+     */
+    private Map<Path, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * Marks a compressed variant which is not smaller than the original
+     * contents, and is therefore never sent.
+     */
+    private static final byte[] NOT_SMALLER = new byte[0];
+
+    /**
+     * Creates a new cache.
+     *
+     * @param capacity    the maximum total size of the cached contents, in bytes
+     * @param maxFileSize the maximum size of a single cached file, in bytes
+     */
+    public StaticFileCache(long capacity, long maxFileSize) {
+        this.capacity = capacity;
+        this.maxFileSize = Math.min(maxFileSize, capacity);
+    }
+
+    /**
+     * Checks whether a file of the given size can be stored in this cache.
+     *
+     * @param length the size of the file, in bytes
+     * @return true if the file can be cached; false otherwise
+     */
+    public boolean accepts(long length) {
+        return length <= maxFileSize;
+    }
+
+    /**
+     * Gets the contents of the file specified by the given path. If the cache
+     * holds an up-to-date copy of the file, the copy is returned; otherwise,
+     * the file is read and stored in the cache.
+     *
+     * @param path         the path to the file
+     * @param lastModified the last-modified time of the file, in milliseconds
+     * @param length       the size of the file, in bytes
+     * @return the contents of the file
+     * @throws IOException if the file cannot be read
+     */
+    public byte[] get(Path path, long lastModified, long length) throws IOException {
+        synchronized (this) {
+            Entry entry = entries.get(path);
+            if (entry != null && entry.lastModified == lastModified && entry.data.length == length) {
+                return entry.data;
+            }
+        }
+
+        byte[] data = Files.readAllBytes(path);
+        if (data.length != length || !accepts(data.length)) {
+            // the file has changed in the meantime, so it is not cached
+            return data;
+        }
+
+        synchronized (this) {
+            Entry previous = entries.put(path, new Entry(data, lastModified));
+            if (previous != null) {
+                size -= previous.size();
+            }
+            size += data.length;
+            evict();
+        }
+        return data;
+    }
+
+    /**
+     * Gets the contents of the file specified by the given path, compressed
+     * with the given content coding. The compressed variant is created from
+     * the cached contents and stored along with them.
+     *
+     * @param path         the path to the file
+     * @param lastModified the last-modified time of the file, in milliseconds
+     * @param length       the size of the file, in bytes
+     * @param encoding     the content coding; either "gzip" or "deflate"
+     * @return the compressed contents of the file, or null if they would not
+     * be smaller than the original contents
+     * @throws IOException if the file cannot be read
+     */
+    public byte[] getCompressed(Path path, long lastModified, long length, String encoding) throws IOException {
+        byte[] data = get(path, lastModified, length);
+
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(path);
+            if (entry != null && entry.data != data) {
+                entry = null;
+            }
+            byte[] variant = entry != null ? entry.variants.get(encoding) : null;
+            if (variant != null) {
+                return variant == NOT_SMALLER ? null : variant;
+            }
+        }
+
+        byte[] variant = Compression.compress(data, encoding);
+        if (variant.length >= data.length) {
+            variant = NOT_SMALLER;
+        }
+
+        synchronized (this) {
+            // the entry might have been evicted or replaced in the meantime
+            if (entry != null && entries.get(path) == entry && !entry.variants.containsKey(encoding)) {
+                entry.variants.put(encoding, variant);
+                size += variant.length;
+                evict();
+            }
+        }
+        return variant == NOT_SMALLER ? null : variant;
+    }
+
+    /**
+     * Evicts the least recently used entries until the total size of the
+     * cached contents fits into the capacity.
+     */
+    private void evict() {
+        Iterator<Entry> it = entries.values().iterator();
+        while (size > capacity && it.hasNext()) {
+            size -= it.next().size();
+            it.remove();
+        }
+    }
+
+    /**
+     * This class represents a single entry of the cache.
+     *
+     * @author Luka Čupić
+     */
+    private static class Entry {
+
+        /**
+         * The contents of the file.
+         */
+        byte[] data;
+
+        /**
+         * The last-modified time of the file when it was read, in milliseconds.
+         */
+        long lastModified;
+
+        /**
+         * The compressed variants of the contents, mapped from the content
+         * coding to the compressed contents.
+         */
+        Map<String, byte[]> variants = new HashMap<>(4);
+
+        /**
+         * Creates a new entry.
+         *
+         * @param data         the contents of the file
+         * @param lastModified the last-modified time of the file
+         */
+        Entry(byte[] data, long lastModified) {
+            this.data = data;
+            this.lastModified = lastModified;
+        }
+
+        /**
+         * Gets the total size of the contents and their compressed variants.
+         *
+         * @return the size of the entry, in bytes
+         */
+        long size() {
+            long size = data.length;
+            for (byte[] variant : variants.values()) {
+                size += variant.length;
+            }
+            return size;
+        }
+    }
+}
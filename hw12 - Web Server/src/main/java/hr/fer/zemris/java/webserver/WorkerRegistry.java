@@ -0,0 +1,208 @@
+package hr.fer.zemris.java.webserver;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class maps the paths of the requests to the web workers which serve
+ * them. A worker is served either from a path configured in the workers'
+ * properties file, or from the path "ext/&lt;Name&gt;", where the name is the
+ * simple name of a worker class from the workers package.
+ * <p>
+ * Each worker class is instantiated only once and its instance is shared by
+ * all of the requests, no matter through which path the worker is reached.
+ * The configured paths are compiled into an immutable table, which is looked
+ * up without locking; once the properties file changes, a new table is built
+ * (reusing the existing instances) and replaces the old one at once, so the
+ * requests never see a partially loaded table.
+ *
+ * @author Luka Čupić
+ */
+public class WorkerRegistry {
+
+    /**
+     * The prefix of the paths of the workers loaded by their names.
+     */
+    private static final String EXT_PREFIX = "ext/";
+
+    /**
+     * The package of the workers loaded by their names, followed by a dot.
+     */
+    private String workersPackage;
+
+    /**
+     * The workers' properties file.
+     */
+    private Path file;
+
+    /**
+     * The last-modified time of the properties file when it was last loaded,
+     * in milliseconds.
+     */
+    private volatile long lastModified;
+
+    /**
+     * The workers of the configured paths (and of the built-in paths which
+     * are not configured), mapped from their paths.
+     */
+    private volatile Map<String, IWebWorker> routes = Collections.emptyMap();
+
+    /**
+     * The built-in workers, mapped from their paths.
+     */
+    private Map<String, IWebWorker> builtIns = new HashMap<>();
+
+    /**
+     * The workers loaded by their names, mapped from their "ext/" paths.
+     */
+    private Map<String, IWebWorker> extWorkers = new ConcurrentHashMap<>();
+
+    /**
+     * The instances of the workers, mapped from the names of their classes.
+     */
+    private Map<String, IWebWorker> instances = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a new registry and loads the given properties file.
+     *
+     * @param file           the workers' properties file
+     * @param workersPackage the package of the workers loaded by their names
+     * @throws IOException if the file cannot be read or one of the configured
+     *                     workers cannot be instantiated
+     */
+    public WorkerRegistry(Path file, String workersPackage) throws IOException {
+        this.file = file;
+        this.workersPackage = workersPackage + ".";
+        load();
+    }
+
+    /**
+     * Gets the worker which serves the given path.
+     *
+     * @param path the path of the request, without the leading slash
+     * @return the worker, or null if the path is not served by a worker
+     * @throws ReflectiveOperationException if the path has the "ext/" prefix,
+     *                                      but the named worker cannot be loaded
+     */
+    public IWebWorker get(String path) throws ReflectiveOperationException {
+        IWebWorker worker = routes.get(path);
+        if (worker != null || !path.startsWith(EXT_PREFIX)) {
+            return worker;
+        }
+
+        worker = extWorkers.get(path);
+        if (worker == null) {
+            worker = getInstance(workersPackage + path.substring(EXT_PREFIX.length()));
+            extWorkers.put(path, worker);
+        }
+        return worker;
+    }
+
+    /**
+     * Maps the given built-in worker to the given path, unless the path is
+     * already taken by a configured worker.
+     *
+     * @param path   the path of the worker
+     * @param worker the worker
+     */
+    public synchronized void addBuiltIn(String path, IWebWorker worker) {
+        builtIns.put(path, worker);
+
+        Map<String, IWebWorker> routes = new HashMap<>(this.routes);
+        routes.putIfAbsent(path, worker);
+        this.routes = routes;
+    }
+
+    /**
+     * Loads the workers with the given names (as if they were requested
+     * through their "ext/" paths), so that their first requests do not
+     * have to wait for their classes to be loaded.
+     *
+     * @param names the simple names of the worker classes
+     * @throws ReflectiveOperationException if one of the workers cannot be loaded
+     */
+    public void preload(String... names) throws ReflectiveOperationException {
+        for (String name : names) {
+            get(EXT_PREFIX + name);
+        }
+    }
+
+    /**
+     * Loads the properties file again if it has been modified since it was
+     * last loaded. If the new file cannot be loaded, the current workers are
+     * kept.
+     *
+     * @return true if the file has been loaded again; false otherwise
+     * @throws IOException if the file cannot be read or one of the configured
+     *                     workers cannot be instantiated
+     */
+    public boolean reloadIfModified() throws IOException {
+        if (Files.getLastModifiedTime(file).toMillis() == lastModified) {
+            return false;
+        }
+
+        load();
+        return true;
+    }
+
+    /**
+     * Loads the properties file and replaces the table of the configured
+     * paths. The last-modified time is recorded before the file is read, so
+     * a failed (or concurrently modified) file is loaded again only once it
+     * changes again.
+     *
+     * @throws IOException if the file cannot be read or one of the configured
+     *                     workers cannot be instantiated
+     */
+    private synchronized void load() throws IOException {
+        lastModified = Files.getLastModifiedTime(file).toMillis();
+
+        Properties properties = new Properties();
+        try (InputStream is = Files.newInputStream(file)) {
+            properties.load(is);
+        }
+
+        Map<String, IWebWorker> routes = new HashMap<>();
+        for (String path : properties.stringPropertyNames()) {
+            String fqcn = properties.getProperty(path).trim();
+
+            try {
+                routes.put(path.trim(), getInstance(fqcn));
+            } catch (ReflectiveOperationException | ClassCastException ex) {
+                throw new IOException("Cannot instantiate the worker " + fqcn, ex);
+            }
+        }
+        for (Map.Entry<String, IWebWorker> entry : builtIns.entrySet()) {
+            routes.putIfAbsent(entry.getKey(), entry.getValue());
+        }
+
+        this.routes = routes;
+    }
+
+    /**
+     * Gets the instance of the given worker class, instantiating it if it has
+     * not been instantiated yet.
+     *
+     * @param fqcn the fully qualified name of the worker class
+     * @return the instance of the worker
+     * @throws ReflectiveOperationException if the class cannot be instantiated
+     * @throws ClassCastException           if the class is not a worker
+     */
+    private IWebWorker getInstance(String fqcn) throws ReflectiveOperationException {
+        IWebWorker worker = instances.get(fqcn);
+        if (worker != null) return worker;
+
+        Class<?> referenceToClass = getClass().getClassLoader().loadClass(fqcn);
+        worker = (IWebWorker) referenceToClass.getDeclaredConstructor().newInstance();
+
+        IWebWorker previous = instances.putIfAbsent(fqcn, worker);
+        return previous != null ? previous : worker;
+    }
+}
@@ -1,46 +1,47 @@
 package hr.fer.zemris.java.webserver.workers;
 
 import hr.fer.zemris.java.webserver.IWebWorker;
+import hr.fer.zemris.java.webserver.ImageResponder;
 import hr.fer.zemris.java.webserver.RequestContext;
 
-import javax.imageio.ImageIO;
 import java.awt.*;
 import java.awt.image.BufferedImage;
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
-import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
  * This class represents a server worker which is used
  * for drawing a simple circle on a PNG image of dimensions
- * 200x200 pixels.
+ * 200x200 pixels. The color of the circle is given by the
+ * "color" parameter (as six hexadecimal digits, e.g. ff8000);
+ * if the parameter is not given, a random color is used.
  *
  * @author Luka Čupić
  */
 public class CircleWorker implements IWebWorker {
 
+    /**
+     * The responder which draws and sends the images; the images
+     * of the given colors are cached.
+     */
+    private ImageResponder responder = new ImageResponder(200, 200, BufferedImage.TYPE_3BYTE_BGR, 64);
+
     @Override
     public void processRequest(RequestContext context) throws Exception {
-        BufferedImage bim = new BufferedImage(200, 200, BufferedImage.TYPE_3BYTE_BGR);
-        Graphics2D g2d = bim.createGraphics();
-
-        context.setMimeType("image/png");
+        String key = null;
+        Color color;
 
-        Random rand = new Random();
-        g2d.setColor(new Color(
-            Math.abs(rand.nextInt()) % 256,
-            Math.abs(rand.nextInt()) % 256,
-            Math.abs(rand.nextInt()) % 256)
-        );
-        g2d.fillOval(0, 0, 200, 200);
-
-        g2d.dispose();
-        ByteArrayOutputStream bos = new ByteArrayOutputStream();
-        try {
-            ImageIO.write(bim, "png", bos);
-            context.write(bos.toByteArray());
-        } catch (IOException e) {
-            throw new RuntimeException("Worker failed to do the job!");
+        String parameter = context.getParameter("color");
+        if (parameter != null && parameter.matches("[0-9a-fA-F]{6}")) {
+            key = parameter.toLowerCase();
+            color = new Color(Integer.parseInt(key, 16));
+        } else {
+            ThreadLocalRandom rand = ThreadLocalRandom.current();
+            color = new Color(rand.nextInt(256), rand.nextInt(256), rand.nextInt(256));
         }
+
+        responder.send(context, key, (g2d, width, height) -> {
+            g2d.setColor(color);
+            g2d.fillOval(0, 0, width, height);
+        });
     }
 }
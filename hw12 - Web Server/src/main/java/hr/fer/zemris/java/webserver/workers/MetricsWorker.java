@@ -0,0 +1,38 @@
+package hr.fer.zemris.java.webserver.workers;
+
+import hr.fer.zemris.java.webserver.IWebWorker;
+import hr.fer.zemris.java.webserver.RequestContext;
+import hr.fer.zemris.java.webserver.ServerMetrics;
+
+/**
+ * This class represents a server worker which writes out the metrics of
+ * the server in the Prometheus text format. The worker is built into the
+ * server, which maps it to the "/metrics" path.
+ *
+ * @author Luka Čupić
+ */
+public class MetricsWorker implements IWebWorker {
+
+    /**
+     * The metrics of the server.
+     */
+    private ServerMetrics metrics;
+
+    /**
+     * Creates a new worker.
+     *
+     * @param metrics the metrics of the server
+     */
+    public MetricsWorker(ServerMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void processRequest(RequestContext context) throws Exception {
+        StringBuilder sb = new StringBuilder(4096);
+        metrics.write(sb);
+
+        context.setMimeType("text/plain; version=0.0.4");
+        context.write(sb.toString());
+    }
+}
@@ -0,0 +1,245 @@
+package hr.fer.zemris.java.custom.scripting.compiler;
+
+import hr.fer.zemris.java.custom.scripting.exec.SmartScriptEngine;
+import hr.fer.zemris.java.custom.scripting.nodes.DocumentNode;
+import hr.fer.zemris.java.custom.scripting.parser.SmartScriptParser;
+import hr.fer.zemris.java.webserver.RequestContext;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that the {@link ScriptCompiler} conforms to the reference
+ * interpreter, i.e. that every script produces the same output and leaves
+ * the same parameters behind regardless of the backend which executes it.
+ *
+ * @author Luka Čupić
+ */
+public class ScriptCompilerTest {
+
+    /**
+     * The directories which contain the scripts served by the web server.
+     */
+    private static final String[] SCRIPT_DIRECTORIES = {"webroot/scripts", "webroot/private"};
+
+    /**
+     * Represents the result of a single execution of a script.
+     */
+    private static class Result {
+
+        /**
+         * The bytes written to the output stream.
+         */
+        byte[] output;
+
+        /**
+         * The parameters after the execution.
+         */
+        Map<String, String> parameters;
+
+        /**
+         * The persistent parameters after the execution.
+         */
+        Map<String, String> persistentParameters;
+
+        /**
+         * The temporary parameters after the execution.
+         */
+        Map<String, String> temporaryParameters;
+    }
+
+    /**
+     * Creates the initial parameter maps shared by both backends.
+     *
+     * @return an array of the parameters, the persistent parameters and
+     * the temporary parameters
+     */
+    @SuppressWarnings("unchecked")
+    private static Map<String, String>[] initialParameters() {
+        Map<String, String> parameters = new HashMap<>();
+        parameters.put("a", "4");
+        parameters.put("b", "2.5");
+
+        Map<String, String> persistent = new HashMap<>();
+        persistent.put("brojPoziva", "7");
+
+        Map<String, String> temporary = new HashMap<>();
+        temporary.put("a", "3");
+        temporary.put("b", "5");
+        temporary.put("zbroj", "8");
+
+        return new Map[]{parameters, persistent, temporary};
+    }
+
+    /**
+     * Executes the given document using either the reference interpreter
+     * or the given compiled script.
+     *
+     * @param document the document model of the script
+     * @param compiled the compiled script, or null to use the interpreter
+     * @return the result of the execution
+     * @throws IOException if the response cannot be finished
+     */
+    private static Result execute(DocumentNode document, CompiledScript compiled) throws IOException {
+        Map<String, String>[] maps = initialParameters();
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+
+        RequestContext rc = new RequestContext(os, maps[0], maps[1], new ArrayList<>(), maps[2], null);
+        if (compiled == null) {
+            new SmartScriptEngine(document, rc).execute();
+        } else {
+            compiled.execute(rc);
+        }
+        rc.finish();
+
+        Result result = new Result();
+        result.output = os.toByteArray();
+        result.parameters = maps[0];
+        result.persistentParameters = maps[1];
+        result.temporaryParameters = maps[2];
+        return result;
+    }
+
+    /**
+     * Checks that both backends produce the same result for the given script.
+     *
+     * @param script the text of the script
+     * @throws IOException if the response cannot be finished
+     */
+    private static void assertConforms(String script) throws IOException {
+        DocumentNode document = new SmartScriptParser(script).getDocumentNode();
+        CompiledScript compiled = ScriptCompiler.compile(document);
+
+        Result expected = execute(document, null);
+        Result actual = execute(document, compiled);
+
+        assertEquals(new String(expected.output, StandardCharsets.UTF_8),
+            new String(actual.output, StandardCharsets.UTF_8));
+        assertArrayEquals(expected.output, actual.output);
+        assertEquals(expected.parameters, actual.parameters);
+        assertEquals(expected.persistentParameters, actual.persistentParameters);
+        assertEquals(expected.temporaryParameters, actual.temporaryParameters);
+    }
+
+    /**
+     * Reads the given file.
+     *
+     * @param path the path to the file
+     * @return the contents of the file
+     */
+    private static String readFile(Path path) {
+        try {
+            return new String(Files.readAllBytes(path), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Test
+    public void testWebrootScripts() throws IOException {
+        List<Path> scripts = new ArrayList<>();
+        for (String directory : SCRIPT_DIRECTORIES) {
+            try (Stream<Path> files = Files.list(Paths.get(directory))) {
+                scripts.addAll(files.filter(p -> p.toString().endsWith(".smscr")).collect(Collectors.toList()));
+            }
+        }
+        assertFalse(scripts.isEmpty());
+
+        for (Path script : scripts) {
+            assertConforms(readFile(script));
+        }
+    }
+
+    @Test
+    public void testOperators() throws IOException {
+        assertConforms("{$= 3 4 + 2.5 * 10 - 7 / \"1.5\" \"2\" * $}");
+        assertConforms("{$= 1 0 / $}");
+        assertConforms("{$= 1.0 0 / -2 \"3\" - $}");
+    }
+
+    @Test
+    public void testFunctions() throws IOException {
+        assertConforms("{$= 1 2 @swap 3 @dup 0.5 @sin \"0.00\" @decfmt $}");
+        assertConforms("{$= \"x\" \"b\" @tparamSet \"b\" @tparamDel \"b\" \"none\" @tparamGet $}");
+        assertConforms("{$= \"y\" \"brojPoziva\" @pparamSet \"brojPoziva\" \"0\" @pparamGet $}");
+        assertConforms("{$= \"brojPoziva\" @pparamDel \"brojPoziva\" 1 @pparamGet $}");
+        assertConforms("{$= \"c\" \"missing\" @paramGet \"a\" 0 @paramGet $}");
+        assertConforms("{$= \"text/html\" @setMimeType 1 @unknown 2 $}");
+    }
+
+    @Test
+    public void testLoops() throws IOException {
+        assertConforms("{$FOR i 1 3 1 $}[{$FOR j 1 3 1 $}{$= i j * $} {$END$}]{$END$}");
+        assertConforms("{$FOR i \"2\" \"6\" \"2\" $}{$= i$}{$END$}{$FOR i 5 5 1 $}once{$END$}");
+        assertConforms("{$FOR i 1 2 1 $}{$= i 0.5 * \"0.0\" @decfmt $}, {$END$}");
+    }
+
+    @Test
+    public void testIllegalLoopBounds() throws IOException {
+        for (String script : new String[]{"{$FOR i 5 1 1 $}x{$END$}", "{$FOR i 1 3 1 $}{$FOR j i 3 1 $}x{$END$}{$END$}"}) {
+            DocumentNode document = new SmartScriptParser(script).getDocumentNode();
+            CompiledScript compiled = ScriptCompiler.compile(document);
+
+            for (CompiledScript backend : new CompiledScript[]{null, compiled}) {
+                try {
+                    execute(document, backend);
+                    fail("Expected an IllegalArgumentException.");
+                } catch (IllegalArgumentException e) {
+                    assertEquals("Illegal for-loop value!", e.getMessage());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testRepeatedExecution() throws IOException {
+        String script = readFile(Paths.get("webroot/scripts/fibonacci.smscr"));
+        DocumentNode document = new SmartScriptParser(script).getDocumentNode();
+        CompiledScript compiled = ScriptCompiler.compile(document);
+
+        Result expected = execute(document, null);
+        for (int i = 0; i < 2; i++) {
+            assertArrayEquals(expected.output, execute(document, compiled).output);
+        }
+    }
+
+    @Test
+    public void testConcurrentExecution() throws Exception {
+        String script = readFile(Paths.get("webroot/scripts/osnovni.smscr"));
+        DocumentNode document = new SmartScriptParser(script).getDocumentNode();
+        CompiledScript compiled = ScriptCompiler.compile(document);
+        byte[] expected = execute(document, null).output;
+
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<byte[]>> results = new ArrayList<>();
+            for (int i = 0; i < 64; i++) {
+                results.add(pool.submit(() -> execute(document, compiled).output));
+            }
+            for (Future<byte[]> result : results) {
+                assertArrayEquals(expected, result.get());
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package hr.fer.zemris.java.custom.scripting.compiler;
+
+import hr.fer.zemris.java.custom.scripting.exec.SmartScriptEngine;
+import hr.fer.zemris.java.custom.scripting.nodes.DocumentNode;
+import hr.fer.zemris.java.custom.scripting.parser.SmartScriptParser;
+import hr.fer.zemris.java.webserver.RequestContext;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the time and the memory allocated per execution of the
+ * {@code fibonacci.smscr} and {@code zbrajanje.smscr} scripts, using both
+ * the reference interpreter and the compiled backend. The allocation per
+ * execution is reported by the GC profiler as {@code gc.alloc.rate.norm}.
+ * <p>
+ * The benchmark is run from the root of the project, after compiling the
+ * test classes (e.g. {@code mvn test-compile}), by running the
+ * {@link #main(String[])} method with the test classpath.
+ *
+ * @author Luka Čupić
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ScriptExecutionBenchmark {
+
+    /**
+     * The path to the executed script.
+     */
+    @Param({"webroot/scripts/fibonacci.smscr", "webroot/scripts/zbrajanje.smscr"})
+    public String script;
+
+    /**
+     * The document model of the script.
+     */
+    private DocumentNode document;
+
+    /**
+     * The compiled script.
+     */
+    private CompiledScript compiled;
+
+    /**
+     * The stream to which the output is written.
+     */
+    private ByteArrayOutputStream os = new ByteArrayOutputStream();
+
+    /**
+     * The parameters of the request.
+     */
+    private Map<String, String> parameters = new HashMap<>();
+
+    /**
+     * The persistent parameters of the request.
+     */
+    private Map<String, String> persistentParameters = new HashMap<>();
+
+    /**
+     * The temporary parameters of the request.
+     */
+    private Map<String, String> temporaryParameters = new HashMap<>();
+
+    /**
+     * Parses and compiles the script.
+     *
+     * @throws IOException if the script cannot be read
+     */
+    @Setup
+    public void setup() throws IOException {
+        String text = new String(Files.readAllBytes(Paths.get(script)), StandardCharsets.UTF_8);
+        document = new SmartScriptParser(text).getDocumentNode();
+        compiled = ScriptCompiler.compile(document);
+
+        parameters.put("a", "12");
+        parameters.put("b", "30");
+    }
+
+    /**
+     * Creates a new request context, just like the server does for each
+     * request.
+     *
+     * @return the request context
+     */
+    private RequestContext newContext() {
+        os.reset();
+        temporaryParameters.put("a", "12");
+        temporaryParameters.put("b", "30");
+        temporaryParameters.put("zbroj", "42");
+
+        return new RequestContext(os, parameters, persistentParameters, new ArrayList<>(),
+            temporaryParameters, null);
+    }
+
+    @Benchmark
+    public int interpreted() {
+        new SmartScriptEngine(document, newContext()).execute();
+        return os.size();
+    }
+
+    @Benchmark
+    public int compiled() {
+        compiled.execute(newContext());
+        return os.size();
+    }
+
+    /**
+     * Runs the benchmark with the GC profiler.
+     *
+     * @param args not used
+     * @throws RunnerException if the benchmark fails
+     */
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+            .include(ScriptExecutionBenchmark.class.getSimpleName())
+            .addProfiler(GCProfiler.class)
+            .build();
+
+        new Runner(options).run();
+    }
+}
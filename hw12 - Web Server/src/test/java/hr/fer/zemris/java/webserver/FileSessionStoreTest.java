@@ -0,0 +1,275 @@
+package hr.fer.zemris.java.webserver;
+
+import hr.fer.zemris.java.webserver.SmartHttpServer.SessionMapEntry;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that the {@link FileSessionStore} saves the sessions into its log,
+ * keeps them through the compactions of the log and loads them again once
+ * the store is reopened.
+ *
+ * @author Luka Čupić
+ */
+public class FileSessionStoreTest {
+
+    /**
+     * The directory of the log files.
+     */
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void savedSessionsSurviveReopening() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        String sid;
+
+        try (FileSessionStore store = new FileSessionStore(directory, 600, 0, 4096)) {
+            SessionMapEntry session = store.create();
+            sid = session.SID;
+            session.map.put("user", "luka");
+            session.map.put("language", "hr");
+            store.update(session);
+        }
+
+        try (FileSessionStore store = new FileSessionStore(directory, 600, 0, 4096)) {
+            SessionMapEntry session = store.get(sid);
+            assertNotNull(session);
+            assertEquals(map("user", "luka", "language", "hr"), new HashMap<>(session.map));
+            assertEquals(1, store.size());
+        }
+    }
+
+    @Test
+    public void sessionsWithoutParametersAreNotSaved() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        String sid;
+
+        try (FileSessionStore store = new FileSessionStore(directory, 600, 0, 4096)) {
+            SessionMapEntry session = store.create();
+            sid = session.SID;
+            store.update(session);
+            assertEquals(0, store.size());
+        }
+
+        try (FileSessionStore store = new FileSessionStore(directory, 600, 0, 4096)) {
+            assertNull(store.get(sid));
+        }
+    }
+
+    @Test
+    public void touchedSessionOutlivesItsSavedValidity() throws Exception {
+        Path directory = folder.getRoot().toPath();
+        int timeout = 4;
+        String sid;
+        long saved;
+
+        try (FileSessionStore store = new FileSessionStore(directory, timeout, 0, 4096)) {
+            SessionMapEntry session = store.create();
+            sid = session.SID;
+            saved = session.validUntil - timeout;
+            session.map.put("user", "luka");
+            store.update(session);
+
+            // extending the validity by two seconds appends a TOUCH record
+            sleepUntil(saved + 2);
+            assertSame(session, store.get(sid));
+            store.update(session);
+        }
+
+        // the validity of the PUT record has expired by now
+        sleepUntil(saved + timeout);
+        try (FileSessionStore store = new FileSessionStore(directory, timeout, 0, 4096)) {
+            SessionMapEntry session = store.get(sid);
+            assertNotNull(session);
+            assertEquals("luka", session.map.get("user"));
+        }
+    }
+
+    @Test
+    public void compactionsKeepTheLatestParameters() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        List<String> sids = new ArrayList<>();
+
+        try (FileSessionStore store = new FileSessionStore(directory, 600, 0, 4096)) {
+            for (int i = 0; i < 40; i++) {
+                sids.add(store.create().SID);
+            }
+
+            // the updates overflow the small log many times
+            for (int round = 0; round < 50; round++) {
+                for (int i = 0; i < sids.size(); i++) {
+                    SessionMapEntry session = store.get(sids.get(i));
+                    session.map.put("value", round + "-" + i);
+                    store.update(session);
+                }
+            }
+            assertEquals(sids.size(), store.size());
+
+            for (int i = 0; i < sids.size(); i++) {
+                assertEquals("49-" + i, store.get(sids.get(i)).map.get("value"));
+            }
+        }
+
+        assertEquals(1, logFiles(directory).size());
+        try (FileSessionStore store = new FileSessionStore(directory, 600, 0, 4096)) {
+            for (int i = 0; i < sids.size(); i++) {
+                SessionMapEntry session = store.get(sids.get(i));
+                assertNotNull(session);
+                assertEquals("49-" + i, session.map.get("value"));
+            }
+        }
+    }
+
+    @Test
+    public void newestCompleteLogIsLoaded() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        String sid;
+
+        try (FileSessionStore store = new FileSessionStore(directory, 600, 0, 4096)) {
+            SessionMapEntry session = store.create();
+            sid = session.SID;
+            session.map.put("user", "luka");
+            store.update(session);
+        }
+        List<Path> complete = logFiles(directory);
+        assertEquals(1, complete.size());
+
+        // a newer log whose compaction has not been completed
+        Path incomplete = directory.resolve("sessions-999999.log");
+        try (DataOutputStream os = new DataOutputStream(Files.newOutputStream(incomplete))) {
+            os.writeInt(0x53455353);
+            os.writeInt(0);
+            os.write(new byte[4096]);
+        }
+
+        try (FileSessionStore store = new FileSessionStore(directory, 600, 0, 4096)) {
+            assertEquals("luka", store.get(sid).map.get("user"));
+        }
+        assertTrue(Files.notExists(incomplete));
+    }
+
+    @Test
+    public void evictedSessionInUseIsNotCopied() throws IOException {
+        try (FileSessionStore store = new FileSessionStore(folder.getRoot().toPath(), 600, 1, 4096)) {
+            SessionMapEntry session = store.create();
+            session.map.put("user", "luka");
+            store.update(session);
+
+            // the second session evicts the first one from the cache
+            SessionMapEntry other = store.create();
+            other.map.put("user", "ivana");
+            store.update(other);
+
+            SessionMapEntry again = store.get(session.SID);
+            assertSame(session, again);
+
+            again.map.put("user", "marko");
+            store.update(again);
+            assertEquals("marko", session.map.get("user"));
+        }
+    }
+
+    @Test
+    public void everyModificationIsSaved() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        String sid;
+
+        try (FileSessionStore store = new FileSessionStore(directory, 600, 0, 4096)) {
+            SessionMapEntry session = store.create();
+            sid = session.SID;
+
+            session.map.putIfAbsent("a", "1");
+            store.update(session);
+            session.map.merge("a", "2", String::concat);
+            store.update(session);
+            session.map.replace("a", "12", "123");
+            store.update(session);
+            session.map.compute("b", (key, value) -> "4");
+            store.update(session);
+        }
+
+        try (FileSessionStore store = new FileSessionStore(directory, 600, 0, 4096)) {
+            assertEquals(map("a", "123", "b", "4"), new HashMap<>(store.get(sid).map));
+        }
+    }
+
+    @Test
+    public void viewsOfTheParametersAreReadOnly() {
+        SessionParameters parameters = new SessionParameters();
+        parameters.put("a", "1");
+
+        try {
+            parameters.keySet().remove("a");
+            fail();
+        } catch (UnsupportedOperationException expected) {
+        }
+        try {
+            parameters.entrySet().iterator().next().setValue("2");
+            fail();
+        } catch (UnsupportedOperationException expected) {
+        }
+        assertEquals("1", parameters.get("a"));
+        assertEquals(1, parameters.getVersion());
+    }
+
+    /**
+     * Sleeps until the given second (and a bit more) of the current time.
+     *
+     * @param second the second, as returned by the stores' clock
+     * @throws InterruptedException if the thread is interrupted
+     */
+    private static void sleepUntil(long second) throws InterruptedException {
+        long millis = second * 1000 + 100 - System.currentTimeMillis();
+        if (millis > 0) {
+            Thread.sleep(millis);
+        }
+    }
+
+    /**
+     * Lists the log files in the given directory.
+     *
+     * @param directory the directory
+     * @return the log files
+     * @throws IOException if the directory cannot be listed
+     */
+    private static List<Path> logFiles(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> file.getFileName().toString().endsWith(".log"))
+                .collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Creates a map out of the given keys and values.
+     *
+     * @param keysAndValues the keys, each followed by its value
+     * @return the map
+     */
+    private static Map<String, String> map(String... keysAndValues) {
+        Map<String, String> map = new HashMap<>();
+        for (int i = 0; i < keysAndValues.length; i += 2) {
+            map.put(keysAndValues[i], keysAndValues[i + 1]);
+        }
+        return map;
+    }
+}
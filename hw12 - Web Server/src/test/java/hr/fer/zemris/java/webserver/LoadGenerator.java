@@ -0,0 +1,550 @@
+package hr.fer.zemris.java.webserver;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * This class is a load generator which starts a {@link SmartHttpServer} in
+ * the same process and measures the throughput and the latency of its static
+ * files, smart scripts and web workers. For each of the targets, the load is
+ * generated for a warmup period (whose results are discarded) and then for
+ * the measured period; the number of requests per second and the 50th, 99th
+ * and 99.9th percentiles of the latency are reported.
+ * <p>
+ * The load is generated over keep-alive connections, each of them driven by
+ * its own thread, in one of the two modes:
+ * <ul>
+ * <li>closed - each connection sends its next request as soon as it receives
+ * the response to the previous one, which measures the maximum throughput;</li>
+ * <li>open - the requests are sent at a fixed total rate, regardless of how
+ * fast the server responds. The latency of a request is measured from the
+ * time it should have been sent, so a server which falls behind is not
+ * rewarded by the requests it delayed.</li>
+ * </ul>
+ * The generator is run from the root of the project, after compiling the
+ * test classes (e.g. {@code mvn test-compile}), by running the
+ * {@link #main(String[])} method with the test classpath. The arguments are
+ * optional pairs of a name and a value:
+ * <pre>
+ * --config ./config/server.properties   the configuration of the server
+ * --mode closed                         either "closed" or "open"
+ * --connections 16                      the number of connections
+ * --warmup 3                            the warmup period, in seconds
+ * --duration 10                         the measured period, in seconds
+ * --rate 1000                           the requests per second (open mode)
+ * --target /hello                       a single target instead of all of them
+ * </pre>
+ *
+ * @author Luka Čupić
+ */
+public class LoadGenerator {
+
+    /**
+     * The default targets of the generator: static files, smart scripts and
+     * web workers.
+     */
+    private static final String[] TARGETS = {
+        "/index.html",
+        "/sample.txt",
+        "/scripts/osnovni.smscr",
+        "/scripts/fibonacci.smscr",
+        "/hello",
+        "/cw",
+        "/calc?a=12&b=30"
+    };
+
+    /**
+     * The address of the server.
+     */
+    private String host;
+
+    /**
+     * The port of the server.
+     */
+    private int port;
+
+    /**
+     * True if the load is generated at a fixed rate; false if each connection
+     * sends its requests back to back.
+     */
+    private boolean open;
+
+    /**
+     * The number of connections.
+     */
+    private int connections;
+
+    /**
+     * The total number of requests per second, in the open mode.
+     */
+    private double rate;
+
+    /**
+     * Creates a new load generator.
+     *
+     * @param host        the address of the server
+     * @param port        the port of the server
+     * @param open        true if the load is generated at a fixed rate
+     * @param connections the number of connections
+     * @param rate        the total number of requests per second, in the
+     *                    open mode
+     */
+    public LoadGenerator(String host, int port, boolean open, int connections, double rate) {
+        this.host = host;
+        this.port = port;
+        this.open = open;
+        this.connections = connections;
+        this.rate = rate;
+    }
+
+    /**
+     * Generates the load on the given target for the given period.
+     *
+     * @param target   the requested path
+     * @param duration the period, in seconds
+     * @return the results of the run
+     * @throws InterruptedException if the current thread is interrupted
+     */
+    public Result run(String target, double duration) throws InterruptedException {
+        long start = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(50);
+        long end = start + (long) (duration * 1e9);
+
+        Recorder[] recorders = new Recorder[connections];
+        Thread[] threads = new Thread[connections];
+        for (int i = 0; i < connections; i++) {
+            Recorder recorder = recorders[i] = new Recorder();
+            long first = open ? start + (long) (i * 1e9 / rate) : start;
+
+            threads[i] = new Thread(() -> generate(target, recorder, first, end), "load-" + i);
+            threads[i].start();
+        }
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        return new Result(target, recorders, start);
+    }
+
+    /**
+     * Sends the requests of a single connection until the given end time.
+     *
+     * @param target   the requested path
+     * @param recorder the recorder of the connection
+     * @param first    the time at which the first request is sent
+     * @param end      the time after which no more requests are sent
+     */
+    private void generate(String target, Recorder recorder, long first, long end) {
+        long interval = open ? (long) (connections * 1e9 / rate) : 0;
+        Client client = new Client(host, port);
+
+        try {
+            long intended = first;
+            while (intended < end) {
+                long now = System.nanoTime();
+                if (now < intended) {
+                    LockSupport.parkNanos(intended - now);
+                    now = intended;
+                }
+
+                // in the closed mode, the request is intended to be sent right now
+                long sent = open ? intended : now;
+                boolean ok = client.request(target);
+                long received = System.nanoTime();
+                recorder.record(received - sent, received, ok);
+
+                intended = open ? intended + interval : received;
+            }
+        } finally {
+            client.close();
+        }
+    }
+
+    /**
+     * Starts the server and generates the load on each of the targets.
+     *
+     * @param args the optional pairs of a name and a value, described in
+     *             the documentation of the class
+     * @throws Exception if the server cannot be started
+     */
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            options.put(args[i].replaceFirst("^--", ""), args[i + 1]);
+        }
+
+        String config = options.getOrDefault("config", "./config/server.properties");
+        Properties properties = new Properties();
+        try (Reader reader = new InputStreamReader(new FileInputStream(config), StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        }
+
+        LoadGenerator generator = new LoadGenerator(
+            properties.getProperty("server.address").trim(),
+            Integer.parseInt(properties.getProperty("server.port").trim()),
+            options.getOrDefault("mode", "closed").equals("open"),
+            Integer.parseInt(options.getOrDefault("connections", "16")),
+            Double.parseDouble(options.getOrDefault("rate", "1000"))
+        );
+        double warmup = Double.parseDouble(options.getOrDefault("warmup", "3"));
+        double duration = Double.parseDouble(options.getOrDefault("duration", "10"));
+        String[] targets = options.containsKey("target") ? new String[]{options.get("target")} : TARGETS;
+
+        SmartHttpServer server = new SmartHttpServer(config);
+        server.start();
+
+        try {
+            System.out.printf("%-26s %9s %7s %10s %9s %9s %9s %9s%n",
+                "target", "requests", "errors", "req/s", "p50 ms", "p99 ms", "p999 ms", "max ms");
+
+            for (String target : targets) {
+                generator.run(target, warmup);
+                System.out.println(generator.run(target, duration));
+            }
+        } finally {
+            server.stop();
+        }
+        System.exit(0);
+    }
+
+    /**
+     * This class represents the results of a single run of the generator.
+     *
+     * @author Luka Čupić
+     */
+    public static class Result {
+
+        /**
+         * The requested path.
+         */
+        private String target;
+
+        /**
+         * The sorted latencies of the successful requests, in nanoseconds.
+         */
+        private long[] latencies;
+
+        /**
+         * The number of failed requests.
+         */
+        private int errors;
+
+        /**
+         * The number of requests per second.
+         */
+        private double throughput;
+
+        /**
+         * Merges the given recorders into the results.
+         *
+         * @param target    the requested path
+         * @param recorders the recorders of the connections
+         * @param start     the time at which the run started
+         */
+        Result(String target, Recorder[] recorders, long start) {
+            this.target = target;
+
+            int count = 0;
+            long last = start;
+            for (Recorder recorder : recorders) {
+                count += recorder.count;
+                errors += recorder.errors;
+                last = Math.max(last, recorder.last);
+            }
+
+            latencies = new long[count];
+            int offset = 0;
+            for (Recorder recorder : recorders) {
+                System.arraycopy(recorder.latencies, 0, latencies, offset, recorder.count);
+                offset += recorder.count;
+            }
+            Arrays.sort(latencies);
+
+            throughput = last > start ? (count + errors) / ((last - start) / 1e9) : 0;
+        }
+
+        /**
+         * Gets the latency at the given percentile.
+         *
+         * @param percentile the percentile, between 0 and 1
+         * @return the latency, in nanoseconds, or zero if no request succeeded
+         */
+        public long getPercentile(double percentile) {
+            if (latencies.length == 0) return 0;
+
+            int index = (int) Math.ceil(percentile * latencies.length) - 1;
+            return latencies[Math.max(0, index)];
+        }
+
+        /**
+         * Gets the number of requests per second.
+         *
+         * @return the number of requests per second
+         */
+        public double getThroughput() {
+            return throughput;
+        }
+
+        /**
+         * Gets the number of failed requests.
+         *
+         * @return the number of failed requests
+         */
+        public int getErrors() {
+            return errors;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-26s %9d %7d %10.1f %9.3f %9.3f %9.3f %9.3f",
+                target, latencies.length + errors, errors, throughput,
+                getPercentile(0.5) / 1e6, getPercentile(0.99) / 1e6,
+                getPercentile(0.999) / 1e6, getPercentile(1) / 1e6
+            );
+        }
+    }
+
+    /**
+     * This class records the latencies of the requests of a single connection.
+     *
+     * @author Luka Čupić
+     */
+    private static class Recorder {
+
+        /**
+         * The latencies of the successful requests, in nanoseconds.
+         */
+        long[] latencies = new long[1024];
+
+        /**
+         * The number of successful requests.
+         */
+        int count;
+
+        /**
+         * The number of failed requests.
+         */
+        int errors;
+
+        /**
+         * The time at which the last response was received.
+         */
+        long last;
+
+        /**
+         * Records a request.
+         *
+         * @param latency  the latency of the request, in nanoseconds
+         * @param received the time at which the response was received
+         * @param ok       true if the request succeeded; false otherwise
+         */
+        void record(long latency, long received, boolean ok) {
+            last = received;
+            if (!ok) {
+                errors++;
+                return;
+            }
+
+            if (count == latencies.length) {
+                latencies = Arrays.copyOf(latencies, count * 2);
+            }
+            latencies[count++] = latency;
+        }
+    }
+
+    /**
+     * This class represents a minimal HTTP/1.1 client which sends the requests
+     * over a single keep-alive connection, reconnecting whenever the server
+     * closes it. The session cookie sent by the server is sent back with the
+     * following requests, so the client does not create a new session on
+     * each request.
+     *
+     * @author Luka Čupić
+     */
+    private static class Client {
+
+        /**
+         * The address of the server.
+         */
+        private String host;
+
+        /**
+         * The port of the server.
+         */
+        private int port;
+
+        /**
+         * The socket of the connection, or null if not connected.
+         */
+        private Socket socket;
+
+        /**
+         * The input stream of the connection.
+         */
+        private InputStream is;
+
+        /**
+         * The output stream of the connection.
+         */
+        private OutputStream os;
+
+        /**
+         * The session cookie, or null if none has been received.
+         */
+        private String cookie;
+
+        /**
+         * Creates a new client.
+         *
+         * @param host the address of the server
+         * @param port the port of the server
+         */
+        Client(String host, int port) {
+            this.host = host;
+            this.port = port;
+        }
+
+        /**
+         * Sends a request for the given path and reads the whole response.
+         *
+         * @param path the requested path
+         * @return true if the server responded with a successful status code;
+         * false if it responded with an error or the connection failed
+         */
+        boolean request(String path) {
+            try {
+                if (socket == null) {
+                    socket = new Socket(host, port);
+                    socket.setTcpNoDelay(true);
+                    is = new BufferedInputStream(socket.getInputStream(), 16384);
+                    os = socket.getOutputStream();
+                }
+
+                StringBuilder sb = new StringBuilder(128);
+                sb.append("GET ").append(path).append(" HTTP/1.1\r\n");
+                sb.append("Host: ").append(host).append(':').append(port).append("\r\n");
+                if (cookie != null) {
+                    sb.append("Cookie: ").append(cookie).append("\r\n");
+                }
+                sb.append("\r\n");
+                os.write(sb.toString().getBytes(StandardCharsets.US_ASCII));
+
+                return readResponse();
+            } catch (IOException ex) {
+                close();
+                return false;
+            }
+        }
+
+        /**
+         * Reads a response, discarding its body.
+         *
+         * @return true if the status code of the response is successful
+         * @throws IOException if an error occurs while reading the response
+         */
+        private boolean readResponse() throws IOException {
+            String statusLine = readLine();
+            int status = Integer.parseInt(statusLine.split(" ")[1]);
+
+            long length = -1;
+            boolean chunked = false;
+            boolean close = false;
+            for (String line = readLine(); !line.isEmpty(); line = readLine()) {
+                int colon = line.indexOf(':');
+                if (colon < 0) continue;
+
+                String name = line.substring(0, colon).trim().toLowerCase();
+                String value = line.substring(colon + 1).trim();
+                if (name.equals("content-length")) {
+                    length = Long.parseLong(value);
+                } else if (name.equals("transfer-encoding")) {
+                    chunked = value.equalsIgnoreCase("chunked");
+                } else if (name.equals("connection")) {
+                    close = value.equalsIgnoreCase("close");
+                } else if (name.equals("set-cookie") && value.startsWith("sid=")) {
+                    int end = value.indexOf(';');
+                    cookie = end < 0 ? value : value.substring(0, end);
+                }
+            }
+
+            if (chunked) {
+                for (long size; (size = Long.parseLong(readLine().split(";")[0].trim(), 16)) > 0; ) {
+                    skip(size);
+                    readLine();
+                }
+                // the trailer fields, if any
+                while (!readLine().isEmpty()) ;
+            } else if (length >= 0) {
+                skip(length);
+            } else {
+                close = true;
+                while (is.read() != -1) ;
+            }
+
+            if (close) {
+                close();
+            }
+            return status < 400;
+        }
+
+        /**
+         * Reads a line terminated by CRLF.
+         *
+         * @return the line, without the terminator
+         * @throws IOException if the connection has ended
+         */
+        private String readLine() throws IOException {
+            StringBuilder sb = new StringBuilder(64);
+            while (true) {
+                int b = is.read();
+                if (b == -1) throw new EOFException("The connection has been closed!");
+                if (b == '\n') break;
+                if (b != '\r') sb.append((char) b);
+            }
+            return sb.toString();
+        }
+
+        /**
+         * Skips the given number of bytes.
+         *
+         * @param n the number of bytes
+         * @throws IOException if the connection has ended
+         */
+        private void skip(long n) throws IOException {
+            while (n > 0) {
+                long skipped = is.skip(n);
+                if (skipped <= 0) {
+                    if (is.read() == -1) throw new EOFException("The connection has been closed!");
+                    skipped = 1;
+                }
+                n -= skipped;
+            }
+        }
+
+        /**
+         * Closes the connection, if it is open.
+         */
+        void close() {
+            if (socket == null) return;
+
+            try {
+                socket.close();
+            } catch (IOException ignorable) {
+            }
+            socket = null;
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package hr.fer.zemris.java.webserver;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the time and the memory allocated by the parts of the server
+ * which run on every request: reading the request header, parsing the
+ * parameters of the query string and writing the response through the
+ * {@link RequestContext}. The allocation per operation is reported by the
+ * GC profiler as {@code gc.alloc.rate.norm}.
+ * <p>
+ * The benchmark is run from the root of the project, after compiling the
+ * test classes (e.g. {@code mvn test-compile}), by running the
+ * {@link #main(String[])} method with the test classpath.
+ *
+ * @author Luka Čupić
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RequestBenchmark {
+
+    /**
+     * A request header, as sent by a browser.
+     */
+    private static final byte[] HEADER = (
+        "GET /scripts/osnovni.smscr?name=Luka&a=12&b=30 HTTP/1.1\r\n" +
+        "Host: 127.0.0.1:5721\r\n" +
+        "User-Agent: Mozilla/5.0 (X11; Linux x86_64; rv:120.0) Gecko/20100101 Firefox/120.0\r\n" +
+        "Accept: text/html,application/xhtml+xml,application/xml;q=0.9,*/*;q=0.8\r\n" +
+        "Accept-Language: en-US,en;q=0.5\r\n" +
+        "Accept-Encoding: gzip, deflate\r\n" +
+        "Connection: keep-alive\r\n" +
+        "Cookie: sid=\"MZQTRKBFVCNWLEAHXJUGPSODYI\"\r\n" +
+        "\r\n"
+    ).getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * The query string of the parsed parameters.
+     */
+    private static final String QUERY = "name=Luka&a=12&b=30&email=luka@example.com&broj=4";
+
+    /**
+     * The stream from which the request header is read.
+     */
+    private ByteArrayInputStream input = new ByteArrayInputStream(HEADER);
+
+    /**
+     * The reader of the request header, which is reused just like the
+     * server reuses it for all of the requests of a connection.
+     */
+    private RequestHeaderReader reader = new RequestHeaderReader(input, 8192);
+
+    /**
+     * The map into which the parameters are parsed.
+     */
+    private Map<String, String> params = new HashMap<>();
+
+    /**
+     * The stream to which the responses are written; it discards the data.
+     */
+    private OutputStream output = new OutputStream() {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    };
+
+    @Benchmark
+    public RequestHeader readRequest() throws IOException {
+        input.reset();
+        return reader.readHeader();
+    }
+
+    @Benchmark
+    public Map<String, String> parseParameters() {
+        params.clear();
+        SmartHttpServer.parseParameters(QUERY, params);
+        return params;
+    }
+
+    @Benchmark
+    public RequestContext write(Response response) throws IOException {
+        RequestContext context = new RequestContext(output, params, new HashMap<>(),
+            new ArrayList<>(), new HashMap<>(), null);
+        context.setBuffered(true);
+        context.setChunkingThreshold(65536);
+        context.addHeader("Connection", "keep-alive");
+
+        context.write(response.text);
+        context.finish();
+        return context;
+    }
+
+    /**
+     * Runs the benchmark with the GC profiler.
+     *
+     * @param args not used
+     * @throws RunnerException if the benchmark fails
+     */
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+            .include(RequestBenchmark.class.getSimpleName())
+            .addProfiler(GCProfiler.class)
+            .build();
+
+        new Runner(options).run();
+    }
+
+    /**
+     * This class holds the response written through the request context,
+     * whose size is a parameter of the {@link #write(Response)} benchmark only.
+     *
+     * @author Luka Čupić
+     */
+    @State(Scope.Thread)
+    public static class Response {
+
+        /**
+         * The size of the response.
+         */
+        @Param({"64", "4096", "131072"})
+        public int size;
+
+        /**
+         * The text written as the response.
+         */
+        String text;
+
+        /**
+         * Creates the text written as the response.
+         */
+        @Setup
+        public void setup() {
+            StringBuilder sb = new StringBuilder(size);
+            while (sb.length() < size) {
+                sb.append("<p>Hello, world!</p>\n");
+            }
+            text = sb.substring(0, size);
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package hr.fer.zemris.java.webserver;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the headers of the responses written by the {@link RequestContext}.
+ *
+ * @author Luka Čupić
+ */
+public class RequestContextTest {
+
+    @Test
+    public void notModifiedResponseHasNoLengthOrType() throws IOException {
+        String response = respond(304, "Not Modified");
+
+        assertTrue(response.startsWith("HTTP/1.1 304 Not Modified\r\n"));
+        assertFalse(response.contains("Content-Length"));
+        assertFalse(response.contains("Content-Type"));
+        assertTrue(response.contains("ETag: \"abc\"\r\n"));
+        assertTrue(response.endsWith("\r\n\r\n"));
+    }
+
+    @Test
+    public void noContentResponseHasNoLengthOrType() throws IOException {
+        String response = respond(204, "No Content");
+
+        assertFalse(response.contains("Content-Length"));
+        assertFalse(response.contains("Content-Type"));
+    }
+
+    @Test
+    public void emptyResponseHasZeroLength() throws IOException {
+        String response = respond(200, "OK");
+
+        assertTrue(response.contains("Content-Type: text/html; charset=UTF-8\r\n"));
+        assertTrue(response.contains("Content-Length: 0\r\n"));
+    }
+
+    /**
+     * Finishes a response without a body, with the given status.
+     *
+     * @param statusCode the status code
+     * @param statusText the status text
+     * @return the whole response
+     * @throws IOException if the response cannot be written
+     */
+    private static String respond(int statusCode, String statusText) throws IOException {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        RequestContext context = new RequestContext(os, null, null, null);
+        context.setStatusCode(statusCode);
+        context.setStatusText(statusText);
+        context.addHeader("ETag", "\"abc\"");
+        context.finish();
+        return new String(os.toByteArray(), StandardCharsets.ISO_8859_1);
+    }
+}
@@ -57,7 +57,16 @@ public class Document {
 	 * @return the similarity between this and the provided document
 	 */
 	public double similarTo(Document other) {
-		double sim = this.getVector().cos(other.getVector());
+		return round(this.getVector().cos(other.getVector()));
+	}
+
+	/**
+	 * Rounds the given similarity coefficient to four decimal digits.
+	 *
+	 * @param sim the similarity coefficient
+	 * @return the rounded similarity coefficient
+	 */
+	static double round(double sim) {
 		DecimalFormat f = new DecimalFormat("#0.0000");
 		return Double.parseDouble(f.format(sim).replace(",", "."));
 	}
@@ -0,0 +1,148 @@
+package hr.fer.zemris.java.hw16.trazilica;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * This class represents an inverted index of the documents: for each of the
+ * words from the vocabulary it holds the list of the documents containing
+ * the word (the postings), along with the TF-IDF weight of the word in each
+ * of the documents. The weights are divided by the norms of the documents'
+ * vectors, so the similarity coefficient of a query and a document is the
+ * sum of the products of the weights of the words they share, divided only
+ * by the norm of the query.
+ * <p>
+ * The query is scored one word at a time, so only the documents sharing at
+ * least one word with the query are ever visited. The scores are accumulated
+ * into an array which is reused between the queries, so a single index must
+ * not be searched by multiple threads at the same time.
+ *
+ * @author Luka Čupić
+ */
+public class InvertedIndex {
+
+	/**
+	 * The indexed documents, where the index of each of the documents is
+	 * its ID in the postings.
+	 */
+	private Document[] documents;
+
+	/**
+	 * The IDs of the documents containing each of the words, sorted in the
+	 * ascending order. Indexed by the indices of the words.
+	 */
+	private int[][] postings;
+
+	/**
+	 * The normalized weights of each of the words in the documents from the
+	 * {@link #postings}.
+	 */
+	private double[][] weights;
+
+	/**
+	 * The accumulated scores of the documents for the current query. The
+	 * documents which have not been visited have a score of zero.
+	 */
+	private double[] scores;
+
+	/**
+	 * The IDs of the documents visited by the current query.
+	 */
+	private int[] visited;
+
+	/**
+	 * Creates a new inverted index of the given documents.
+	 *
+	 * @param documents the documents, whose TF-IDF vectors have been created
+	 * @param words     the number of words in the vocabulary
+	 */
+	public InvertedIndex(Collection<Document> documents, int words) {
+		this.documents = documents.toArray(new Document[0]);
+		this.scores = new double[this.documents.length];
+		this.visited = new int[this.documents.length];
+
+		// count the postings of each of the words
+		int[] lengths = new int[words];
+		for (Document doc : this.documents) {
+			for (int index : doc.getVector().getIndices()) {
+				lengths[index]++;
+			}
+		}
+
+		postings = new int[words][];
+		weights = new double[words][];
+		for (int i = 0; i < words; i++) {
+			postings[i] = new int[lengths[i]];
+			weights[i] = new double[lengths[i]];
+			lengths[i] = 0;
+		}
+
+		for (int id = 0; id < this.documents.length; id++) {
+			Vector vector = this.documents[id].getVector();
+			int[] indices = vector.getIndices();
+			double[] values = vector.getValues();
+			double norm = vector.norm();
+
+			for (int i = 0; i < indices.length; i++) {
+				int n = lengths[indices[i]]++;
+				postings[indices[i]][n] = id;
+				weights[indices[i]][n] = values[i] / norm;
+			}
+		}
+	}
+
+	/**
+	 * Finds the documents most similar to the given query and returns them
+	 * as a list of results, sorted from the most similar one. Documents which
+	 * share no words with the query are never returned, so the list may hold
+	 * less than {@code k} results.
+	 *
+	 * @param query the TF-IDF vector of the query
+	 * @param k     the maximum number of results
+	 * @return a list of at most {@code k} best results
+	 */
+	public List<Result> search(Vector query, int k) {
+		int[] indices = query.getIndices();
+		double[] values = query.getValues();
+
+		int n = 0;
+		for (int i = 0; i < indices.length; i++) {
+			int[] docs = postings[indices[i]];
+			double[] docWeights = weights[indices[i]];
+			for (int j = 0; j < docs.length; j++) {
+				if (scores[docs[j]] == 0) visited[n++] = docs[j];
+				scores[docs[j]] += values[i] * docWeights[j];
+			}
+		}
+
+		// keeps the best k documents, with the worst one at the head; of the
+		// documents with the same score, the ones read first are better
+		PriorityQueue<Integer> best = new PriorityQueue<>(k, (a, b) -> {
+			int cmp = Double.compare(scores[a], scores[b]);
+			return cmp != 0 ? cmp : Integer.compare(b, a);
+		});
+		for (int i = 0; i < n; i++) {
+			int id = visited[i];
+			if (best.size() < k) {
+				best.add(id);
+			} else if (best.comparator().compare(id, best.peek()) > 0) {
+				best.poll();
+				best.add(id);
+			}
+		}
+
+		List<Result> results = new ArrayList<>(best.size());
+		double norm = query.norm();
+		while (!best.isEmpty()) {
+			int id = best.poll();
+			results.add(0, new Result(Document.round(scores[id] / norm), documents[id]));
+		}
+
+		for (int i = 0; i < n; i++) {
+			scores[visited[i]] = 0;
+		}
+		return results;
+	}
+}
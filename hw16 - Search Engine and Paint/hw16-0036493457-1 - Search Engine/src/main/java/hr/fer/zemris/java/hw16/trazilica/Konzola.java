@@ -10,14 +10,12 @@ import java.nio.file.SimpleFileVisitor;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Comparator;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
-import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Scanner;
 import java.util.Set;
-import java.util.TreeSet;
 
 /**
  * This class represent a CMD document search engine. It uses
@@ -37,21 +35,20 @@ public class Konzola {
 	private static final String STOP_WORDS_PATH = "src/main/resources/hrvatski_stoprijeci.txt";
 
 	/**
-	 * The current vocabulary containing all words from all documents.
+	 * The number of results shown for each query.
 	 */
-	private static Set<String> vocabulary = new TreeSet<>();
+	private static final int RESULTS = 10;
 
 	/**
-	 * A set of stop words. A "stop word" is defined as a word irrelevant to
-	 * the searching algorithm.
+	 * The current vocabulary containing all words from all documents.
 	 */
-	private static Set<String> stopWords = new TreeSet<>();
+	private static Vocabulary vocabulary = new Vocabulary();
 
 	/**
-	 * Holds the number of occurrences in the documents for each word from
-	 * the vocabulary.
+	 * A set of stop words. A "stop word" is defined as a word irrelevant to
+	 * the searching algorithm.
 	 */
-	private static Map<String, Integer> wordFrequency = new LinkedHashMap<>();
+	private static Set<String> stopWords = new HashSet<>();
 
 	/**
 	 * A map of all the documents, mapped to by it's appropriate file system
@@ -60,10 +57,16 @@ public class Konzola {
 	private static Map<Path, Document> documents = new LinkedHashMap<>();
 
 	/**
-	 * A helper IDF vector which holds the IDF components for each of the
-	 * words from the vocabulary.
+	 * Holds the IDF components for each of the words from the vocabulary,
+	 * indexed by the indices of the words.
+	 */
+	private static double[] idf;
+
+	/**
+	 * The inverted index of the documents, which is used for finding the
+	 * documents matching the user's input.
 	 */
-	private static Vector idf;
+	private static InvertedIndex index;
 
 	/**
 	 * Holds a list of results which were created by the last "query" command.
@@ -148,7 +151,6 @@ public class Konzola {
 	 */
 	private static void init(Path path) throws IOException {
 		readStopWords();
-		createVocabulary(path);
 		initDocuments(path);
 	}
 
@@ -168,32 +170,13 @@ public class Konzola {
 	}
 
 	/**
-	 * Creates the vocabulary by recursively reading all documents from the
-	 * given path. Words specified in the set {@code {@link #stopWords}} are
-	 * ignored, as they are not important for the further steps in the algorithm.
-	 * All character that are not words will simply be ignored. So for example, a
-	 * part of the document "hitch42iker" shall be interpreted as "hitch iker".
-	 *
-	 * @param path the path to the folder containing the documents
-	 * @throws IOException if an error occurs while creating the vocabulary
-	 */
-	private static void createVocabulary(Path path) throws IOException {
-		Files.walkFileTree(path, new SimpleFileVisitor<Path>() {
-			@Override
-			public FileVisitResult visitFile(Path path, BasicFileAttributes attrs) throws IOException {
-				for (String word : readDocument(path)) {
-					if (word.isEmpty() || stopWords.contains(word)) continue;
-					vocabulary.add(word);
-				}
-				return FileVisitResult.CONTINUE;
-			}
-		});
-	}
-
-	/**
-	 * Creates the TF vectors for all read documents (which are thenadded to
-	 * the {@link #documents } map) and fills {@link #wordFrequency} with
-	 * values obtained from the documents.
+	 * Recursively reads all documents from the given path, adding their words
+	 * to the vocabulary, and creates the TF vectors for all read documents
+	 * (which are then added to the {@link #documents} map). Words specified in
+	 * the set {@code {@link #stopWords}} are ignored, as they are not important
+	 * for the further steps in the algorithm. All character that are not words
+	 * will simply be ignored. So for example, a part of the document
+	 * "hitch42iker" shall be interpreted as "hitch iker".
 	 *
 	 * @param path the path to the folder containing the documents
 	 * @throws IOException if an error occurs while creating the documents
@@ -202,25 +185,17 @@ public class Konzola {
 		Files.walkFileTree(path, new SimpleFileVisitor<Path>() {
 			@Override
 			public FileVisitResult visitFile(Path path, BasicFileAttributes attrs) throws IOException {
-				List<String> vocabList = new ArrayList<>(vocabulary);
-
 				List<String> words = readDocument(path);
-				words.removeAll(stopWords);
 
-				// create the TF vector component
-				double[] values = new double[vocabulary.size()];
+				// create the TF vector component out of the indices of the words
+				int n = 0;
+				int[] indices = new int[words.size()];
 				for (String word : words) {
-					int wordIndex = vocabList.indexOf(word);
-					values[wordIndex]++;
-				}
-
-				// update the map, mapping each word to the number of documents
-				// containing it
-				for (String word : new LinkedHashSet<>(words)) {
-					wordFrequency.put(word, wordFrequency.containsKey(word) ? wordFrequency.get(word) + 1 : 1);
+					if (word.isEmpty() || stopWords.contains(word)) continue;
+					indices[n++] = vocabulary.add(word);
 				}
 
-				Document doc = new Document(path, new Vector(values), null);
+				Document doc = new Document(path, Vector.count(Arrays.copyOf(indices, n)), null);
 				documents.put(path, doc);
 
 				return FileVisitResult.CONTINUE;
@@ -234,18 +209,23 @@ public class Konzola {
 	 * the documents for each of the words from the vocabulary.
 	 */
 	private static void createIDFVector() {
-		double[] values = new double[vocabulary.size()];
+		// count the number of documents containing each of the words
+		int[] wordFrequency = new int[vocabulary.size()];
+		for (Document d : documents.values()) {
+			for (int index : d.getTFVector().getIndices()) {
+				wordFrequency[index]++;
+			}
+		}
 
-		List<String> vocabList = new ArrayList<>(vocabulary);
-		for (String word : vocabList) {
-			int wordCount = wordFrequency.get(word);
-			values[vocabList.indexOf(word)] = (double) vocabulary.size() / wordCount;
+		idf = new double[vocabulary.size()];
+		for (int i = 0; i < idf.length; i++) {
+			idf[i] = (double) vocabulary.size() / wordFrequency[i];
 		}
-		idf = new Vector(values);
 
 		for (Document d : documents.values()) {
 			d.setVector(Vector.multiply(d.getTFVector(), idf));
 		}
+		index = new InvertedIndex(documents.values(), vocabulary.size());
 	}
 
 	/**
@@ -269,43 +249,43 @@ public class Konzola {
 	 * displays the results (onto the standard output).
 	 */
 	private static void processQuery(String input) {
-		List<String> words = Arrays.asList(input.trim().split(" +"));
-		words.retainAll(vocabulary);
-
-		List<String> vocabList = new ArrayList<>(vocabulary);
+		String[] words = input.trim().split(" +");
 
-		double[] values = new double[vocabulary.size()];
+		// words which are not in the vocabulary are ignored
+		int n = 0;
+		int[] indices = new int[words.length];
 		for (String word : words) {
-			int wordIndex = vocabList.indexOf(word);
-			values[wordIndex]++;
+			int wordIndex = vocabulary.indexOf(word);
+			if (wordIndex >= 0) indices[n++] = wordIndex;
+		}
+		if (n == 0) {
+			System.out.println("None of the words are in the vocabulary.");
+			return;
 		}
 
-		Document inputDoc = new Document(null, null, Vector.multiply(new Vector(values), idf));
+		Document inputDoc = new Document(null, null,
+			Vector.multiply(Vector.count(Arrays.copyOf(indices, n)), idf));
 
 		results = getResults(inputDoc);
 
-		System.out.println("Here are the 10 best results:");
+		System.out.printf("Here are the %d best results:%n", RESULTS);
 		printResults();
 		hasResults = true;
 	}
 
 	/**
-	 * Compares the given document object to all other documents in the
-	 * collection, compares them, and returns the list of Result objects,
-	 * encapsulating the similarity coefficients representing the similarity
-	 * in respect to the provided document.
+	 * Finds the documents from the collection most similar to the given
+	 * document and returns the list of Result objects, encapsulating the
+	 * similarity coefficients representing the similarity in respect to
+	 * the provided document. Only the documents sharing at least one word
+	 * with the given document are compared to it, through the {@link #index}.
 	 *
 	 * @param doc the document
 	 * @return a list of top 10 search results (the top 10 result with the
 	 * highest similarity coefficients)
 	 */
 	private static List<Result> getResults(Document doc) {
-		List<Result> results = new ArrayList<>();
-		for (Document d : documents.values()) {
-			results.add(new Result(doc.similarTo(d), d));
-		}
-		results.sort(Comparator.reverseOrder());
-		return results.subList(0, 9);
+		return index.search(doc.getVector(), RESULTS);
 	}
 
 	private static void processType(String input) throws IOException {
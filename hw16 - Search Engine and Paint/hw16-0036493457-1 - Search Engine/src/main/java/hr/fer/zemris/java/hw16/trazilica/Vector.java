@@ -1,17 +1,34 @@
 package hr.fer.zemris.java.hw16.trazilica;
 
+import java.util.Arrays;
+
 /**
- * This class represents an immutable N-dimensional vector.
+ * This class represents an immutable N-dimensional sparse vector. Only the
+ * components which are not zero are stored, as two parallel arrays: the
+ * indices of the components (sorted in the ascending order) and their
+ * values. The dimension of the vector is therefore not fixed - all the
+ * components which are not stored are simply equal to zero.
  *
  * @author Luka Čupić
  */
 public class Vector {
 
 	/**
-	 * Represents the values of this vector.
+	 * Represents the indices of the components of this vector which are not
+	 * zero, sorted in the ascending order.
+	 */
+	private int[] indices;
+
+	/**
+	 * Represents the values of the components at the {@link #indices}.
 	 */
 	private double[] values;
 
+	/**
+	 * The norm of this vector, calculated once it is needed for the first time.
+	 */
+	private double norm = -1;
+
 	/**
 	 * Creates a new N-dimensional vector, where the dimension is
 	 * obtained from the number of provided elements.
@@ -19,32 +36,95 @@ public class Vector {
 	 * @param values the values to go in to the vector
 	 */
 	public Vector(double... values) {
+		int n = 0;
+		for (double value : values) {
+			if (value != 0) n++;
+		}
+
+		this.indices = new int[n];
+		this.values = new double[n];
+		for (int i = 0, j = 0; i < values.length; i++) {
+			if (values[i] == 0) continue;
+			this.indices[j] = i;
+			this.values[j++] = values[i];
+		}
+	}
+
+	/**
+	 * Creates a new sparse vector out of the given components. The arrays
+	 * are not copied, so they must not be modified afterwards.
+	 *
+	 * @param indices the indices of the components, sorted in the ascending
+	 *                order and without duplicates
+	 * @param values  the values of the components
+	 */
+	public Vector(int[] indices, double[] values) {
+		if (indices.length != values.length) {
+			throw new IllegalArgumentException("Each of the indices must have " +
+				"exactly one value!");
+		}
+		this.indices = indices;
 		this.values = values;
 	}
 
+	/**
+	 * Creates a vector whose components count the occurrences of their
+	 * indices in the given array. For example, for the given indices
+	 * {@code [3, 1, 3]} the vector {@code [0, 1, 0, 2]} is returned.
+	 *
+	 * @param indices the indices
+	 * @return the vector of the numbers of occurrences of the indices
+	 */
+	public static Vector count(int... indices) {
+		int[] sorted = indices.clone();
+		Arrays.sort(sorted);
+
+		int n = 0;
+		double[] counts = new double[sorted.length];
+		for (int i = 0; i < sorted.length; i++) {
+			if (n > 0 && sorted[n - 1] == sorted[i]) {
+				counts[n - 1]++;
+			} else {
+				sorted[n] = sorted[i];
+				counts[n++] = 1;
+			}
+		}
+		return new Vector(Arrays.copyOf(sorted, n), Arrays.copyOf(counts, n));
+	}
+
 	/**
 	 * Gets the norm of the vector.
 	 *
 	 * @return the norm of the vector
 	 */
 	public double norm() {
-		double sum = 0;
-		for (double value : values) {
-			sum += value * value;
+		if (norm < 0) {
+			double sum = 0;
+			for (double value : values) {
+				sum += value * value;
+			}
+			norm = Math.sqrt(sum);
 		}
-		return Math.sqrt(sum);
+		return norm;
 	}
 
 	/**
-	 * Returns the dot product of this vector and the specified vector.
+	 * Returns the dot product of this vector and the specified vector. Only
+	 * the components which are not zero in both of the vectors are multiplied.
 	 *
 	 * @param other the other vector
 	 * @return the value of the dot product
 	 */
 	public double dot(Vector other) {
 		double sum = 0;
-		for (int i = 0; i < values.length; i++) {
-			sum += values[i] * other.getValues()[i];
+		for (int i = 0, j = 0; i < indices.length && j < other.indices.length; ) {
+			if (indices[i] < other.indices[j]) {
+				i++;
+			} else if (indices[i] > other.indices[j]) {
+				j++;
+			} else {
+				sum += values[i++] * other.values[j++];
+			}
 		}
 		return sum;
 	}
@@ -82,25 +162,58 @@ public class Vector {
 	 * of the elements from the given vectors
 	 */
 	public static Vector multiply(Vector v1, Vector v2) {
-		if (v1.getValues().length != v2.getValues().length) {
-			throw new IllegalArgumentException("Vectors must have the same" +
-				"number of elements!");
+		int n = 0;
+		int[] indices = new int[Math.min(v1.indices.length, v2.indices.length)];
+		double[] values = new double[indices.length];
+		for (int i = 0, j = 0; i < v1.indices.length && j < v2.indices.length; ) {
+			if (v1.indices[i] < v2.indices[j]) {
+				i++;
+			} else if (v1.indices[i] > v2.indices[j]) {
+				j++;
+			} else {
+				indices[n] = v1.indices[i];
+				values[n++] = v1.values[i++] * v2.values[j++];
+			}
 		}
+		return new Vector(Arrays.copyOf(indices, n), Arrays.copyOf(values, n));
+	}
 
-		double[] values = new double[v1.getValues().length];
-		for (int i = 0; i < v1.getValues().length; i++) {
-			values[i] = v1.getValues()[i] * v2.getValues()[i];
+	/**
+	 * Multiplies each of the components of the given vector by the weight
+	 * at its index and returns the product vector as the result. Unlike
+	 * {@link #multiply(Vector, Vector)}, this takes time proportional only
+	 * to the number of the components of the vector which are not zero.
+	 *
+	 * @param v       the vector
+	 * @param weights the weights, one for each of the indices of the vector
+	 * @return a new vector, where each element represents the product of the
+	 * element of the given vector and its weight
+	 */
+	public static Vector multiply(Vector v, double[] weights) {
+		double[] values = new double[v.values.length];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = v.values[i] * weights[v.indices[i]];
 		}
-		return new Vector(values);
+		return new Vector(v.indices, values);
 	}
 
+	/**
+	 * Gets the indices of the components of this vector which are not zero,
+	 * sorted in the ascending order.
+	 *
+	 * @return the indices of the components which are not zero
+	 */
+	public int[] getIndices() {
+		return indices;
+	}
 
 	/**
-	 * Gets the values of this vector.
+	 * Gets the values of the components of this vector which are not zero,
+	 * in the order of {@link #getIndices()}.
 	 *
-	 * @return the values of this vector
+	 * @return the values of the components which are not zero
 	 */
 	public double[] getValues() {
 		return values;
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,58 @@
+package hr.fer.zemris.java.hw16.trazilica;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * This class represents the vocabulary of the search engine: a dictionary
+ * which maps each of the words from the documents to its index (its ID).
+ * The indices are given out in the order in which the words are added,
+ * starting from 0, so they can be used as the indices of the components
+ * of the document {@link Vector}s.
+ *
+ * @author Luka Čupić
+ */
+public class Vocabulary {
+
+	/**
+	 * Maps each of the words to its index.
+	 */
+	private Map<String, Integer> indices = new HashMap<>();
+
+	/**
+	 * Adds the given word to the vocabulary, unless it is already there, and
+	 * returns its index.
+	 *
+	 * @param word the word
+	 * @return the index of the word
+	 */
+	public int add(String word) {
+		Integer index = indices.get(word);
+		if (index == null) {
+			index = indices.size();
+			indices.put(word, index);
+		}
+		return index;
+	}
+
+	/**
+	 * Returns the index of the given word, or -1 if the word is not in the
+	 * vocabulary.
+	 *
+	 * @param word the word
+	 * @return the index of the word, or -1 if there is no such word
+	 */
+	public int indexOf(String word) {
+		Integer index = indices.get(word);
+		return index != null ? index : -1;
+	}
+
+	/**
+	 * Returns the number of words in the vocabulary.
+	 *
+	 * @return the number of words in the vocabulary
+	 */
+	public int size() {
+		return indices.size();
+	}
+}
@@ -0,0 +1,209 @@
+package hr.fer.zemris.java.hw16.trazilica;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares the results of the {@link InvertedIndex} to the ones found by
+ * calculating the similarity of the query and each of the documents.
+ *
+ * @author Luka Čupić
+ */
+public class InvertedIndexTest {
+
+	/**
+	 * The greatest allowed difference of the similarities, as they are
+	 * calculated differently and then rounded to four decimal digits.
+	 */
+	private static final double DELTA = 1E-4 + 1E-12;
+
+	@Test
+	public void randomDocumentsMatchBruteForce() {
+		Random random = new Random(42);
+		int words = 60;
+		List<Document> documents = randomDocuments(random, 400, words);
+		InvertedIndex index = new InvertedIndex(documents, words);
+
+		for (int q = 0; q < 300; q++) {
+			int[] query = new int[1 + random.nextInt(5)];
+			for (int i = 0; i < query.length; i++) {
+				query[i] = word(random, words);
+			}
+			Document doc = new Document(null, null, Vector.count(query));
+
+			for (int k : new int[]{1, 10, 1000}) {
+				List<Result> results = index.search(doc.getVector(), k);
+				List<Result> expected = bruteForce(documents, doc, k);
+
+				assertEquals(expected.size(), results.size());
+				for (int i = 0; i < results.size(); i++) {
+					Result result = results.get(i);
+					assertEquals(expected.get(i).getSim(), result.getSim(), DELTA);
+					assertEquals(doc.similarTo(result.getDocument()), result.getSim(), DELTA);
+					assertTrue(doc.getVector().dot(result.getDocument().getVector()) > 0);
+				}
+				assertEquals(results.size(), results.stream().map(Result::getDocument).distinct().count());
+			}
+		}
+	}
+
+	@Test
+	public void equalSimilaritiesAreBrokenByInsertionOrder() {
+		Document other = document(1, 2);
+		Document longer = document(0, 3, 3);
+		Document first = document(0, 1);
+		Document second = document(0, 1);
+		Document third = document(0, 1);
+
+		InvertedIndex index = new InvertedIndex(Arrays.asList(other, first, longer, second, third), 4);
+		assertEquals(Arrays.asList(first, second), documents(index.search(Vector.count(0), 2)));
+		assertEquals(Arrays.asList(first, second, third, longer), documents(index.search(Vector.count(0), 10)));
+
+		index = new InvertedIndex(Arrays.asList(third, other, second, longer, first), 4);
+		assertEquals(Arrays.asList(third, second), documents(index.search(Vector.count(0), 2)));
+	}
+
+	@Test
+	public void fewerMatchesThanRequestedResults() {
+		List<Document> documents = Arrays.asList(document(0, 1), document(2), document(0, 0, 3),
+			document(3), document(0));
+		InvertedIndex index = new InvertedIndex(documents, 4);
+
+		List<Result> results = index.search(Vector.count(0), 100);
+		assertEquals(Arrays.asList(documents.get(4), documents.get(2), documents.get(0)), documents(results));
+		assertEquals(1, results.get(0).getSim(), 0);
+		for (int i = 1; i < results.size(); i++) {
+			assertTrue(results.get(i - 1).getSim() >= results.get(i).getSim());
+		}
+	}
+
+	@Test
+	public void queryWithoutSharedWordsHasNoResults() {
+		// the fourth word of the vocabulary is in none of the documents
+		InvertedIndex index = new InvertedIndex(Arrays.asList(document(0, 1), document(1, 2)), 4);
+
+		assertTrue(index.search(Vector.count(3), 10).isEmpty());
+		assertTrue(index.search(Vector.count(3, 3), 10).isEmpty());
+		assertEquals(2, index.search(Vector.count(1), 10).size());
+	}
+
+	@Test
+	public void scoresAreResetBetweenQueries() {
+		Random random = new Random(7);
+		int words = 30;
+		List<Document> documents = randomDocuments(random, 100, words);
+		InvertedIndex index = new InvertedIndex(documents, words);
+
+		Vector first = Vector.count(0, 1, 2);
+		Vector second = Vector.count(2, 3);
+		List<Result> expected = new InvertedIndex(documents, words).search(second, 20);
+
+		for (int i = 0; i < 3; i++) {
+			index.search(first, 5);
+			List<Result> results = index.search(second, 20);
+
+			assertEquals(documents(expected), documents(results));
+			for (int j = 0; j < results.size(); j++) {
+				assertEquals(expected.get(j).getSim(), results.get(j).getSim(), 0);
+			}
+		}
+	}
+
+	/**
+	 * Finds the best {@code k} documents by calculating the similarity of
+	 * each of the documents sharing a word with the query.
+	 *
+	 * @param documents the documents
+	 * @param query     the query
+	 * @param k         the maximum number of results
+	 * @return the best results, from the most similar one
+	 */
+	private static List<Result> bruteForce(List<Document> documents, Document query, int k) {
+		List<Result> results = new ArrayList<>();
+		for (Document doc : documents) {
+			if (query.getVector().dot(doc.getVector()) > 0) {
+				results.add(new Result(query.similarTo(doc), doc));
+			}
+		}
+		results.sort(Comparator.reverseOrder());
+		return results.subList(0, Math.min(k, results.size()));
+	}
+
+	/**
+	 * Creates the given number of random documents, weighted the same way
+	 * the documents of the {@link Konzola} are.
+	 *
+	 * @param random the random number generator
+	 * @param n      the number of the documents
+	 * @param words  the number of words in the vocabulary
+	 * @return the documents
+	 */
+	private static List<Document> randomDocuments(Random random, int n, int words) {
+		List<Vector> tf = new ArrayList<>();
+		int[] wordFrequency = new int[words];
+		for (int i = 0; i < n; i++) {
+			int[] text = new int[1 + random.nextInt(20)];
+			for (int j = 0; j < text.length; j++) {
+				text[j] = word(random, words);
+			}
+			Vector vector = Vector.count(text);
+			for (int index : vector.getIndices()) {
+				wordFrequency[index]++;
+			}
+			tf.add(vector);
+		}
+
+		double[] idf = new double[words];
+		for (int i = 0; i < words; i++) {
+			idf[i] = wordFrequency[i] == 0 ? 0 : (double) words / wordFrequency[i];
+		}
+		return tf.stream()
+			.map(vector -> new Document(null, vector, Vector.multiply(vector, idf)))
+			.collect(Collectors.toList());
+	}
+
+	/**
+	 * Picks a random word, the first words of the vocabulary being much
+	 * more common than the last ones.
+	 *
+	 * @param random the random number generator
+	 * @param words  the number of words in the vocabulary
+	 * @return the index of the word
+	 */
+	private static int word(Random random, int words) {
+		return (int) (words * Math.pow(random.nextDouble(), 3));
+	}
+
+	/**
+	 * Creates a document whose TF-IDF vector counts the given words.
+	 *
+	 * @param words the indices of the words in the document
+	 * @return the document
+	 */
+	private static Document document(int... words) {
+		return new Document(null, null, Vector.count(words));
+	}
+
+	/**
+	 * Gets the documents of the given results.
+	 *
+	 * @param results the results
+	 * @return the documents, in the order of the results
+	 */
+	private static List<Document> documents(List<Result> results) {
+		List<Document> documents = new ArrayList<>();
+		for (Result result : results) {
+			documents.add(result.getDocument());
+		}
+		return documents;
+	}
+}